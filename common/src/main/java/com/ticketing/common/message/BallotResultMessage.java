@@ -0,0 +1,67 @@
+package com.ticketing.common.message;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * 抽签结果消息
+ * 同一票种的中签或未中签用户按批发送，中签用户的库存已锁定
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BallotResultMessage {
+
+    /**
+     * 批次ID，用于消费端幂等
+     */
+    private String batchId;
+
+    /**
+     * 场次ID
+     */
+    private Long eventId;
+
+    /**
+     * 票种ID
+     */
+    private Long ticketTypeId;
+
+    /**
+     * 是否中签
+     */
+    private boolean won;
+
+    /**
+     * 票种单价，未中签时为null
+     */
+    private BigDecimal unitPrice;
+
+    /**
+     * 本批次的用户
+     */
+    private List<Allocation> allocations;
+
+    /**
+     * 用户的申请结果
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Allocation {
+
+        /**
+         * 用户ID
+         */
+        private Long userId;
+
+        /**
+         * 申请数量
+         */
+        private int quantity;
+    }
+}
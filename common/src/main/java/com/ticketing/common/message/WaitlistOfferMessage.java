@@ -0,0 +1,40 @@
+package com.ticketing.common.message;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 候补分配消息
+ * 释放的库存已为候补用户锁定，用户需在过期前完成下单支付
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class WaitlistOfferMessage {
+
+    /**
+     * 场次ID
+     */
+    private Long eventId;
+
+    /**
+     * 票种ID
+     */
+    private Long ticketTypeId;
+
+    /**
+     * 用户ID
+     */
+    private Long userId;
+
+    /**
+     * 分配数量
+     */
+    private int quantity;
+
+    /**
+     * 锁定过期时间（毫秒时间戳）
+     */
+    private long expireAt;
+}
@@ -0,0 +1,24 @@
+package com.ticketing.common.service;
+
+import com.ticketing.common.response.Result;
+import org.springframework.cloud.openfeign.FeignClient;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+
+import java.util.Map;
+
+/**
+ * 订单服务Feign客户端
+ */
+@FeignClient(name = "order-service")
+public interface OrderFeignClient {
+
+    /**
+     * 查询场次各票种的已支付数量
+     *
+     * @param eventId 场次ID
+     * @return 票种ID到已支付数量的映射
+     */
+    @GetMapping("/order/statistics/paid")
+    Result<Map<Long, Integer>> getPaidQuantities(@RequestParam("eventId") Long eventId);
+}
@@ -0,0 +1,152 @@
+package com.ticketing.common.sharding;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 广播查询检测
+ * - 执行前检查访问库存分片表的SQL是否带齐分片键：场次ID等值条件确定物理库，分片ID等值条件确定物理表
+ * - 缺少分片键的语句会扇出到多个库或多张表，需要在SQL中用扇出标记注释显式声明，未声明的扇出语句记录告警
+ * - 启动参数-Dticketing.sharding.strict=true时未声明的扇出语句直接抛出异常，用于测试环境
+ * - 每个语句只告警一次，之后只计数
+ */
+@Slf4j
+@Component
+@Intercepts({
+        @Signature(type = Executor.class, method = "update", args = {MappedStatement.class, Object.class}),
+        @Signature(type = Executor.class, method = "query",
+                args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class}),
+        @Signature(type = Executor.class, method = "query",
+                args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class, CacheKey.class, BoundSql.class})
+})
+public class BroadcastQueryDetector implements Interceptor {
+
+    /**
+     * 路由范围
+     */
+    public enum Scope {
+        // 不访问分片表
+        UNSHARDED,
+        // 一张物理表
+        SINGLE_TABLE,
+        // 一个物理库的全部分表
+        SINGLE_DATABASE,
+        // 多个物理库
+        ALL_DATABASES
+    }
+
+    // 显式声明扇出的SQL注释
+    public static final String FANOUT_MARKER = "/* fanout */";
+
+    private static final String STRICT_PROPERTY = "ticketing.sharding.strict";
+
+    // 库存分片逻辑表
+    private static final Pattern SHARDED_TABLE = Pattern.compile("\\bt_inventory\\b");
+
+    private static final Pattern INSERT_COLUMNS = Pattern.compile("^\\s*insert\\s+into\\s+t_inventory\\s*\\(([^)]*)\\)");
+
+    private static final Pattern EVENT_EQUALS = Pattern.compile("\\bevent_id\\s*=\\s*(\\?|\\d+)");
+
+    private static final Pattern SHARDING_EQUALS = Pattern.compile("\\bsharding_id\\s*=\\s*(\\?|\\d+)");
+
+    private static final Pattern OR = Pattern.compile("\\bor\\b");
+
+    // 缓存的语句数上限，动态SQL的IN列表长度不同会产生不同的语句
+    private static final int MAX_CACHED_STATEMENTS = 1000;
+
+    private final Map<String, Scope> scopes = new ConcurrentHashMap<>();
+
+    // 已告警的语句ID
+    private final Map<String, Boolean> reported = new ConcurrentHashMap<>();
+
+    private final AtomicLong fanoutCount = new AtomicLong();
+
+    @Override
+    public Object intercept(Invocation invocation) throws Throwable {
+        Object[] args = invocation.getArgs();
+        MappedStatement statement = (MappedStatement) args[0];
+        BoundSql boundSql = args.length == 6 ? (BoundSql) args[5] : statement.getBoundSql(args[1]);
+        check(statement.getId(), boundSql.getSql());
+        return invocation.proceed();
+    }
+
+    /**
+     * 检查语句，未声明的扇出语句告警或在严格模式下抛出异常
+     */
+    public void check(String statementId, String sql) {
+        Scope scope = scopes.get(sql);
+        if (scope == null) {
+            scope = analyze(sql);
+            if (scopes.size() < MAX_CACHED_STATEMENTS) {
+                scopes.put(sql, scope);
+            }
+        }
+        if (scope != Scope.SINGLE_DATABASE && scope != Scope.ALL_DATABASES) {
+            return;
+        }
+        if (sql.contains(FANOUT_MARKER)) {
+            return;
+        }
+
+        fanoutCount.incrementAndGet();
+        if (Boolean.getBoolean(STRICT_PROPERTY)) {
+            throw new IllegalStateException("Undeclared fan-out query " + statementId + " (" + scope + "): " + sql);
+        }
+        if (reported.putIfAbsent(statementId, Boolean.TRUE) == null) {
+            log.warn("Undeclared fan-out query {} ({}), add full sharding keys or mark it {}: {}",
+                    statementId, scope, FANOUT_MARKER, sql);
+        }
+    }
+
+    /**
+     * 分析SQL的路由范围
+     * 条件中出现OR时不认为分片键是确定的
+     */
+    public static Scope analyze(String sql) {
+        String normalized = sql.toLowerCase(Locale.ROOT).replaceAll("\\s+", " ");
+        if (!SHARDED_TABLE.matcher(normalized).find()) {
+            return Scope.UNSHARDED;
+        }
+
+        Matcher insert = INSERT_COLUMNS.matcher(normalized);
+        if (insert.find()) {
+            String columns = insert.group(1);
+            return columns.matches(".*\\bevent_id\\b.*") && columns.matches(".*\\bsharding_id\\b.*")
+                    ? Scope.SINGLE_TABLE : Scope.ALL_DATABASES;
+        }
+
+        int where = normalized.indexOf(" where ");
+        if (where < 0) {
+            return Scope.ALL_DATABASES;
+        }
+        String condition = normalized.substring(where);
+        if (OR.matcher(condition).find() || !EVENT_EQUALS.matcher(condition).find()) {
+            return Scope.ALL_DATABASES;
+        }
+        return SHARDING_EQUALS.matcher(condition).find() ? Scope.SINGLE_TABLE : Scope.SINGLE_DATABASE;
+    }
+
+    /**
+     * 未声明的扇出语句执行次数
+     */
+    public long getFanoutCount() {
+        return fanoutCount.get();
+    }
+}
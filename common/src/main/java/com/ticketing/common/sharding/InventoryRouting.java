@@ -0,0 +1,64 @@
+package com.ticketing.common.sharding;
+
+/**
+ * 库存统一路由
+ * - 分片工具、分片算法和迁移服务都通过这里计算路由，保证应用层计算的分片和SQL实际落到的物理表一致
+ * - 物理库只由场次ID决定，物理表只由分片ID决定：带场次ID和分片ID的查询只访问一张表，只带场次ID的查询只访问一个库
+ * - 迁移期间按当前路由纪元选择读写的物理库
+ */
+public final class InventoryRouting {
+
+    // 初始物理库数量
+    public static final int DATABASE_COUNT = 16;
+
+    // 每个物理库的分表数量，即分片ID的取值个数
+    public static final int TABLE_COUNT = 20;
+
+    // 一致性哈希环上每个物理库的虚拟节点数
+    public static final int VIRTUAL_NODES = 160;
+
+    // 初始路由表
+    public static final ShardRouter ROUTER = new ShardRouter(DATABASE_COUNT, TABLE_COUNT, VIRTUAL_NODES);
+
+    // 当前路由纪元，迁移期间由迁移服务替换
+    private static volatile RoutingEpoch epoch = RoutingEpoch.stable(0, ROUTER);
+
+    private InventoryRouting() {
+    }
+
+    /**
+     * 计算分片ID
+     */
+    public static int shardingId(long userId, long eventId) {
+        return epoch.getTarget().tableIndex(userId, eventId);
+    }
+
+    /**
+     * 计算场次所在的物理库索引
+     */
+    public static int databaseIndex(long eventId) {
+        return epoch.primaryDatabase(eventId);
+    }
+
+    /**
+     * 获取场次所在物理库的数据源名称
+     */
+    public static String dataSourceName(long eventId) {
+        return epoch.dataSourceName(eventId);
+    }
+
+    /**
+     * 获取分片ID对应的物理表名称
+     */
+    public static String tableName(int shardingId) {
+        return epoch.getTarget().tableName(shardingId);
+    }
+
+    public static RoutingEpoch getEpoch() {
+        return epoch;
+    }
+
+    public static void setEpoch(RoutingEpoch epoch) {
+        InventoryRouting.epoch = epoch;
+    }
+}
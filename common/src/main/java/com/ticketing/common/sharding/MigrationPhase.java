@@ -0,0 +1,33 @@
+package com.ticketing.common.sharding;
+
+/**
+ * 迁移区间的阶段
+ * 区间按声明顺序推进，校验失败或双写失败时退回双写阶段重新回填
+ */
+public enum MigrationPhase {
+
+    /**
+     * 读写仍在原库，写入同时复制到新库
+     */
+    DOUBLE_WRITE,
+
+    /**
+     * 存量数据已复制到新库
+     */
+    BACKFILLED,
+
+    /**
+     * 新旧两库的数据校验一致
+     */
+    VERIFIED,
+
+    /**
+     * 读写切换到新库，写入同时复制回原库，便于回退
+     */
+    CUTOVER,
+
+    /**
+     * 原库数据已清理
+     */
+    CLEANED
+}
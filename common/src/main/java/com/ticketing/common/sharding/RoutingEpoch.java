@@ -0,0 +1,136 @@
+package com.ticketing.common.sharding;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * 路由纪元
+ * - 扩容时原路由表和新路由表同时生效，新库在哈希环上的每个虚拟节点对应一个迁移区间
+ * - 原有虚拟节点位置不变，只有落在新节点上的场次需要迁移，其余场次在两张路由表中的物理库相同
+ * - 各区间独立推进阶段：切换前读写原库，切换后读写新库，清理前写入同时复制到另一个库
+ * - 创建后只读，阶段变化时构造新的纪元整体替换
+ */
+public class RoutingEpoch {
+
+    private final long id;
+    private final ShardRouter source;
+    private final ShardRouter target;
+
+    // 各虚拟节点的阶段，下标为新路由表的节点，不需要迁移的节点为null
+    private final MigrationPhase[] phases;
+
+    private RoutingEpoch(long id, ShardRouter source, ShardRouter target, MigrationPhase[] phases) {
+        this.id = id;
+        this.source = source;
+        this.target = target;
+        this.phases = phases;
+    }
+
+    /**
+     * 没有迁移的纪元，读写都按同一张路由表
+     */
+    public static RoutingEpoch stable(long id, ShardRouter router) {
+        return new RoutingEpoch(id, router, router, new MigrationPhase[router.nodeCount()]);
+    }
+
+    /**
+     * 迁移中的纪元
+     * @param phases 迁移区间的阶段，未出现的迁移区间视为双写阶段
+     */
+    public static RoutingEpoch migrating(long id, ShardRouter source, ShardRouter target, Map<Integer, MigrationPhase> phases) {
+        if (target.getDatabaseCount() <= source.getDatabaseCount()
+                || target.getTableCount() != source.getTableCount()
+                || target.getSeedDatabaseCount() != source.getSeedDatabaseCount()) {
+            throw new IllegalArgumentException("Target router must only add databases");
+        }
+        MigrationPhase[] values = new MigrationPhase[target.nodeCount()];
+        for (int node = 0; node < values.length; node++) {
+            if (target.nodeDatabase(node) >= source.getDatabaseCount()) {
+                values[node] = phases.getOrDefault(node, MigrationPhase.DOUBLE_WRITE);
+            }
+        }
+        return new RoutingEpoch(id, source, target, values);
+    }
+
+    /**
+     * 是否处于迁移中
+     */
+    public boolean isMigrating() {
+        return source != target;
+    }
+
+    /**
+     * 场次所属的迁移区间
+     * @return 新路由表的虚拟节点下标，场次不需要迁移时返回-1
+     */
+    public int range(long eventId) {
+        if (!isMigrating()) {
+            return -1;
+        }
+        int node = target.nodeIndex(eventId);
+        return phases[node] == null ? -1 : node;
+    }
+
+    /**
+     * 迁移区间的阶段，不是迁移区间时返回null
+     */
+    public MigrationPhase phase(int range) {
+        return phases[range];
+    }
+
+    /**
+     * 承担读写的物理库
+     */
+    public int primaryDatabase(long eventId) {
+        int range = range(eventId);
+        if (range >= 0 && phases[range].compareTo(MigrationPhase.CUTOVER) >= 0) {
+            return target.nodeDatabase(range);
+        }
+        return source.databaseIndex(eventId);
+    }
+
+    /**
+     * 需要同步复制写入的物理库
+     * @return 物理库索引，不需要复制时返回-1
+     */
+    public int mirrorDatabase(long eventId) {
+        int range = range(eventId);
+        if (range < 0 || phases[range] == MigrationPhase.CLEANED) {
+            return -1;
+        }
+        return phases[range] == MigrationPhase.CUTOVER
+                ? source.databaseIndex(eventId) : target.nodeDatabase(range);
+    }
+
+    /**
+     * 获取读写的数据源名称
+     */
+    public String dataSourceName(long eventId) {
+        return target.dataSourceName(primaryDatabase(eventId));
+    }
+
+    /**
+     * 统计各阶段的区间数量
+     */
+    public Map<MigrationPhase, Integer> countPhases() {
+        Map<MigrationPhase, Integer> counts = new EnumMap<>(MigrationPhase.class);
+        for (MigrationPhase phase : phases) {
+            if (phase != null) {
+                counts.merge(phase, 1, Integer::sum);
+            }
+        }
+        return counts;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public ShardRouter getSource() {
+        return source;
+    }
+
+    public ShardRouter getTarget() {
+        return target;
+    }
+}
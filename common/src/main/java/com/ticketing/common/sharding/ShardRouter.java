@@ -0,0 +1,189 @@
+package com.ticketing.common.sharding;
+
+import java.util.Arrays;
+
+/**
+ * 库存分片路由表
+ * - 物理库按场次ID选择，同一场次的全部分片在同一个库
+ * - 初始物理库沿用场次ID取模的存量布局；新增物理库在带虚拟节点的一致性哈希环上接管场次，
+ *   落在新库节点上的场次迁移到新库，其余场次保持取模结果不变，新增物理库只迁移约1/N的场次
+ * - 物理表按分片ID选择，分片ID由用户ID和场次ID计算，同一用户在同一场次的操作落在同一张表
+ * - 数据源和物理表名称在构造时生成并驻留，路由查询只做哈希和查表，不分配对象
+ * - 哈希值的高位预先映射到环上的起始位置，查询只在一个桶内二分，桶内通常只有一两个节点
+ * - 创建后只读，可被多个线程并发查询；扩容时构造新的路由表整体替换
+ */
+public class ShardRouter {
+
+    private static final String DATA_SOURCE_PREFIX = "ds";
+    private static final String TABLE_PREFIX = "t_inventory_";
+
+    // 按哈希值高位分桶的位数
+    private static final int BUCKET_BITS = 12;
+
+    private final int databaseCount;
+    private final int tableCount;
+    private final int virtualNodes;
+
+    // 初始物理库数量，这些库上的场次按场次ID取模放置
+    private final int seedDatabaseCount;
+
+    // 哈希环：虚拟节点的哈希值升序排列，ringDatabases为对应的物理库
+    private final long[] ringHashes;
+    private final int[] ringDatabases;
+
+    // 每个桶在环上的起始下标，即第一个高位不小于桶号的节点，末尾多一项为节点总数
+    private final int[] bucketStart;
+
+    private final String[] dataSourceNames;
+    private final String[] tableNames;
+
+    /**
+     * 构造初始路由表，全部物理库都按场次ID取模放置
+     */
+    public ShardRouter(int databaseCount, int tableCount, int virtualNodes) {
+        this(databaseCount, tableCount, virtualNodes, databaseCount);
+    }
+
+    private ShardRouter(int databaseCount, int tableCount, int virtualNodes, int seedDatabaseCount) {
+        if (databaseCount <= 0 || tableCount <= 0 || virtualNodes <= 0) {
+            throw new IllegalArgumentException("Database count, table count and virtual nodes must be positive");
+        }
+        if (seedDatabaseCount > databaseCount) {
+            throw new IllegalArgumentException("Database count must not be less than the seed database count");
+        }
+        this.databaseCount = databaseCount;
+        this.tableCount = tableCount;
+        this.virtualNodes = virtualNodes;
+        this.seedDatabaseCount = seedDatabaseCount;
+
+        int points = databaseCount * virtualNodes;
+        long[] hashes = new long[points];
+        Integer[] order = new Integer[points];
+        for (int i = 0; i < points; i++) {
+            // 虚拟节点的位置只取决于物理库和节点序号，新增物理库不改变已有节点的位置
+            hashes[i] = mix(((long) (i / virtualNodes) << 32) | (i % virtualNodes));
+            order[i] = i;
+        }
+        // 按无符号哈希值排序，哈希相同时按节点序号排序，保证各实例构造出相同的环
+        Arrays.sort(order, (a, b) -> {
+            int cmp = Long.compareUnsigned(hashes[a], hashes[b]);
+            return cmp != 0 ? cmp : Integer.compare(a, b);
+        });
+        this.ringHashes = new long[points];
+        this.ringDatabases = new int[points];
+        for (int i = 0; i < points; i++) {
+            ringHashes[i] = hashes[order[i]];
+            ringDatabases[i] = order[i] / virtualNodes;
+        }
+        this.bucketStart = new int[(1 << BUCKET_BITS) + 1];
+        int node = 0;
+        for (int bucket = 0; bucket <= 1 << BUCKET_BITS; bucket++) {
+            while (node < points && (ringHashes[node] >>> (64 - BUCKET_BITS)) < bucket) {
+                node++;
+            }
+            bucketStart[bucket] = node;
+        }
+
+        this.dataSourceNames = new String[databaseCount];
+        for (int db = 0; db < databaseCount; db++) {
+            dataSourceNames[db] = (DATA_SOURCE_PREFIX + db).intern();
+        }
+        this.tableNames = new String[tableCount];
+        for (int table = 0; table < tableCount; table++) {
+            tableNames[table] = (TABLE_PREFIX + table).intern();
+        }
+    }
+
+    /**
+     * 按新的物理库数量构造路由表，分表数量、虚拟节点数和初始物理库不变
+     */
+    public ShardRouter withDatabaseCount(int newDatabaseCount) {
+        return new ShardRouter(newDatabaseCount, tableCount, virtualNodes, seedDatabaseCount);
+    }
+
+    /**
+     * 计算物理库索引：场次ID的哈希在环上顺时针找到的第一个虚拟节点
+     * 节点属于初始物理库时按场次ID取模，与扩容前的存量布局一致
+     */
+    public int databaseIndex(long eventId) {
+        int db = ringDatabases[nodeIndex(eventId)];
+        return db < seedDatabaseCount ? (int) Math.abs(eventId % seedDatabaseCount) : db;
+    }
+
+    /**
+     * 计算场次在环上所属的虚拟节点下标，同一节点覆盖的场次构成一个迁移区间
+     */
+    public int nodeIndex(long eventId) {
+        long hash = mix(eventId);
+        // 在hash所在桶内无符号二分查找第一个不小于hash的节点，桶内没有时取下一个桶的首个节点，越过末尾时回到环首
+        int bucket = (int) (hash >>> (64 - BUCKET_BITS));
+        int low = bucketStart[bucket];
+        int high = bucketStart[bucket + 1];
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (Long.compareUnsigned(ringHashes[mid], hash) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low == ringHashes.length ? 0 : low;
+    }
+
+    /**
+     * 获取虚拟节点所属的物理库，用于新增物理库的迁移区间
+     */
+    public int nodeDatabase(int node) {
+        return ringDatabases[node];
+    }
+
+    /**
+     * 虚拟节点总数
+     */
+    public int nodeCount() {
+        return ringHashes.length;
+    }
+
+    /**
+     * 计算分片ID，即物理表索引
+     */
+    public int tableIndex(long userId, long eventId) {
+        return (int) Math.abs((userId * 31 + eventId) % tableCount);
+    }
+
+    /**
+     * 获取物理库的数据源名称，返回驻留的字符串
+     */
+    public String dataSourceName(int databaseIndex) {
+        return dataSourceNames[databaseIndex];
+    }
+
+    /**
+     * 获取物理表名称，返回驻留的字符串
+     */
+    public String tableName(int tableIndex) {
+        return tableNames[tableIndex];
+    }
+
+    public int getDatabaseCount() {
+        return databaseCount;
+    }
+
+    public int getTableCount() {
+        return tableCount;
+    }
+
+    public int getSeedDatabaseCount() {
+        return seedDatabaseCount;
+    }
+
+    // murmur3的64位终结函数，把相邻的键打散到整个哈希空间
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb3fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+}
@@ -4,9 +4,12 @@ import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.RedisOperations;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
 import org.springframework.stereotype.Component;
 
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 
@@ -86,6 +89,31 @@ public class CacheUtil {
         }
     }
 
+    /**
+     * 批量更新缓存，Redis写入通过管道一次提交
+     * @param values key到新值的映射，值不能为null
+     * @param redisExpireTime Redis缓存过期时间（秒）
+     */
+    public void updateCacheBatch(Map<String, ?> values, long redisExpireTime) {
+        if (values.isEmpty()) {
+            return;
+        }
+        // 更新Redis缓存
+        redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) {
+                RedisOperations<String, Object> stringOperations = (RedisOperations<String, Object>) operations;
+                for (Map.Entry<String, ?> entry : values.entrySet()) {
+                    stringOperations.opsForValue().set(entry.getKey(), entry.getValue(), redisExpireTime, TimeUnit.SECONDS);
+                }
+                return null;
+            }
+        });
+        // 更新本地缓存
+        localCache.putAll(values);
+    }
+
     /**
      * 获取库存缓存key
      * @param eventId 场次ID
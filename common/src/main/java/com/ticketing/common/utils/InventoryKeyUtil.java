@@ -0,0 +1,43 @@
+package com.ticketing.common.utils;
+
+/**
+ * 库存key工具类
+ * 将(eventId, ticketTypeId)打包为一个long，避免字符串拼接和split解析
+ */
+public final class InventoryKeyUtil {
+
+    // 单个ID可用的位数
+    private static final int ID_BITS = 32;
+
+    private static final long ID_MASK = 0xFFFFFFFFL;
+
+    private InventoryKeyUtil() {
+    }
+
+    /**
+     * 打包场次ID和票种ID
+     * @param eventId 场次ID
+     * @param ticketTypeId 票种ID
+     * @return 打包后的key
+     */
+    public static long pack(Long eventId, Long ticketTypeId) {
+        if (eventId < 0 || eventId > ID_MASK || ticketTypeId < 0 || ticketTypeId > ID_MASK) {
+            throw new IllegalArgumentException("ID超出打包范围: eventId=" + eventId + ", ticketTypeId=" + ticketTypeId);
+        }
+        return (eventId << ID_BITS) | ticketTypeId;
+    }
+
+    /**
+     * 从打包key中取出场次ID
+     */
+    public static long eventId(long key) {
+        return key >>> ID_BITS;
+    }
+
+    /**
+     * 从打包key中取出票种ID
+     */
+    public static long ticketTypeId(long key) {
+        return key & ID_MASK;
+    }
+}
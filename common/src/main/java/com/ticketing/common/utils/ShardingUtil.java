@@ -1,18 +1,15 @@
 package com.ticketing.common.utils;
 
+import com.ticketing.common.sharding.InventoryRouting;
 import org.springframework.stereotype.Component;
 
 /**
  * 分片工具类
+ * 分片计算委托给库存统一路由，与分片算法保持一致
  */
 @Component
 public class ShardingUtil {
 
-    /**
-     * 默认分片数量
-     */
-    private static final int DEFAULT_SHARDING_COUNT = 20;
-
     /**
      * 计算分片ID
      * @param userId 用户ID
@@ -20,9 +17,7 @@ public class ShardingUtil {
      * @return 分片ID
      */
     public int getShardingId(Long userId, Long eventId) {
-        // 使用用户ID和场次ID的组合作为分片依据
-        long shardingKey = (userId * 31 + eventId) % DEFAULT_SHARDING_COUNT;
-        return (int) (Math.abs(shardingKey) % DEFAULT_SHARDING_COUNT);
+        return InventoryRouting.shardingId(userId, eventId);
     }
 
     /**
@@ -30,7 +25,7 @@ public class ShardingUtil {
      * @return 分片数量
      */
     public int getShardingCount() {
-        return DEFAULT_SHARDING_COUNT;
+        return InventoryRouting.TABLE_COUNT;
     }
 
     /**
@@ -40,7 +35,7 @@ public class ShardingUtil {
      */
     public int getShardingStock(int totalStock) {
         // 向上取整，确保总库存足够
-        return (totalStock + DEFAULT_SHARDING_COUNT - 1) / DEFAULT_SHARDING_COUNT;
+        return (totalStock + InventoryRouting.TABLE_COUNT - 1) / InventoryRouting.TABLE_COUNT;
     }
 
     /**
@@ -49,7 +44,6 @@ public class ShardingUtil {
      * @return 数据库分片索引
      */
     public int getDatabaseShardingIndex(Long eventId) {
-        // 使用场次ID作为分片依据，假设有16个物理库
-        return (int) (Math.abs(eventId) % 16);
+        return InventoryRouting.databaseIndex(eventId);
     }
 } 
\ No newline at end of file
@@ -1,15 +1,20 @@
 package com.ticketing.inventory;
 
+import com.ticketing.common.service.OrderFeignClient;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.cloud.client.discovery.EnableDiscoveryClient;
+import org.springframework.cloud.openfeign.EnableFeignClients;
 import org.springframework.context.annotation.ComponentScan;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 /**
  * 库存服务启动类
  */
 @SpringBootApplication
 @EnableDiscoveryClient
+@EnableScheduling
+@EnableFeignClients(clients = OrderFeignClient.class)
 @ComponentScan(basePackages = {"com.ticketing"})
 public class InventoryServiceApplication {
 
@@ -0,0 +1,39 @@
+package com.ticketing.inventory.admission;
+
+/**
+ * 准入通道
+ * 权重决定通道间的出队比例，容量决定通道内最多排队的请求数
+ */
+public enum AdmissionLane {
+
+    /**
+     * 预售码持有者
+     */
+    PRESALE(6, 2000),
+
+    /**
+     * 会员
+     */
+    MEMBER(3, 3000),
+
+    /**
+     * 普通用户
+     */
+    GENERAL(1, 5000);
+
+    private final int weight;
+    private final int capacity;
+
+    AdmissionLane(int weight, int capacity) {
+        this.weight = weight;
+        this.capacity = capacity;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,258 @@
+package com.ticketing.inventory.admission;
+
+import com.ticketing.common.exception.BusinessException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.seata.core.context.RootContext;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * 优先级准入服务
+ * 锁定请求按通道进入各自的有界队列，由固定数量的工作线程按权重公平出队执行
+ * - 平滑加权轮询：只在非空通道间分配，空闲通道的份额让给其他通道
+ * - 普通通道饱和时只拒绝普通请求，预售和会员请求仍按权重及时出队
+ * - 每个通道单独统计排队耗时、总耗时、队列深度和拒绝次数
+ * - 调用方的全局事务XID随请求传到工作线程，锁定加入调用方的全局事务，随订单一起回滚
+ */
+@Slf4j
+@Service
+public class PriorityAdmissionService {
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // 执行准入请求的工作线程数
+    private static final int WORKER_THREADS = 64;
+
+    // 调用方等待结果的最长时间（毫秒）
+    private static final long ADMISSION_TIMEOUT = 3000;
+
+    private final Map<AdmissionLane, Lane> lanes = new EnumMap<>(AdmissionLane.class);
+
+    // 所有通道中排队的请求数，工作线程据此阻塞等待
+    private final Semaphore queued = new Semaphore(0);
+
+    private ExecutorService workers;
+
+    @PostConstruct
+    public void init() {
+        for (AdmissionLane lane : AdmissionLane.values()) {
+            Lane state = new Lane(lane);
+            state.waitTimer = Timer.builder("inventory_admission_wait")
+                    .description("Time a request waits in its admission lane")
+                    .tag("lane", lane.name())
+                    .register(meterRegistry);
+            state.latencyTimer = Timer.builder("inventory_admission_latency")
+                    .description("Time from admission to completion")
+                    .tag("lane", lane.name())
+                    .register(meterRegistry);
+            state.rejectedCounter = Counter.builder("inventory_admission_rejected")
+                    .description("Requests rejected because the lane was full")
+                    .tag("lane", lane.name())
+                    .register(meterRegistry);
+            Gauge.builder("inventory_admission_queue_depth", state.depth, AtomicInteger::get)
+                    .description("Requests waiting in the admission lane")
+                    .tag("lane", lane.name())
+                    .register(meterRegistry);
+            lanes.put(lane, state);
+        }
+
+        AtomicInteger threadIndex = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(WORKER_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "inventory-admission-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < WORKER_THREADS; i++) {
+            workers.execute(this::runWorker);
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        workers.shutdownNow();
+    }
+
+    /**
+     * 通过指定通道执行操作并等待结果
+     * 通道已满或排队超时时抛出业务异常，已开始执行的请求等待其完成，不会丢弃已提交的锁定
+     */
+    public <T> T execute(AdmissionLane lane, Supplier<T> action) {
+        AdmissionTask<T> task = enqueue(lane, action);
+        try {
+            try {
+                return task.future.get(ADMISSION_TIMEOUT, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // 尚未出队的请求不再执行，已被工作线程取走的请求等待其结果
+                if (task.started.compareAndSet(false, true)) {
+                    task.future.cancel(false);
+                    throw new BusinessException("系统繁忙，请稍后重试");
+                }
+                return task.future.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof BusinessException) {
+                throw (BusinessException) e.getCause();
+            }
+            throw new BusinessException("请求处理失败: " + e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BusinessException("请求被中断");
+        }
+    }
+
+    /**
+     * 把操作放入指定通道，记录调用方的全局事务XID
+     */
+    private <T> AdmissionTask<T> enqueue(AdmissionLane lane, Supplier<T> action) {
+        Lane state = lanes.get(lane);
+        if (state.depth.incrementAndGet() > lane.getCapacity()) {
+            state.depth.decrementAndGet();
+            state.rejectedCounter.increment();
+            throw new BusinessException("排队人数过多，请稍后重试");
+        }
+
+        AdmissionTask<T> task = new AdmissionTask<>(lane, action, RootContext.getXID(), System.nanoTime());
+        state.queue.offer(task);
+        queued.release();
+        return task;
+    }
+
+    /**
+     * 查询各通道的排队数量
+     */
+    public Map<AdmissionLane, Integer> getQueueDepths() {
+        Map<AdmissionLane, Integer> depths = new EnumMap<>(AdmissionLane.class);
+        lanes.forEach((lane, state) -> depths.put(lane, state.depth.get()));
+        return depths;
+    }
+
+    /**
+     * 工作线程：等待任意通道有请求，按权重选出通道后执行
+     */
+    private void runWorker() {
+        while (!Thread.currentThread().isInterrupted()) {
+            AdmissionTask<?> task;
+            try {
+                queued.acquire();
+                task = next();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (task != null) {
+                run(task);
+            }
+        }
+    }
+
+    /**
+     * 平滑加权轮询选出下一个请求
+     * 每轮所有非空通道的当前值加上各自权重，取当前值最大的通道出队，并减去参与本轮的权重之和
+     */
+    private synchronized AdmissionTask<?> next() {
+        Lane selected = null;
+        int totalWeight = 0;
+        for (Lane state : lanes.values()) {
+            if (state.queue.isEmpty()) {
+                continue;
+            }
+            state.current += state.lane.getWeight();
+            totalWeight += state.lane.getWeight();
+            if (selected == null || state.current > selected.current) {
+                selected = state;
+            }
+        }
+        if (selected == null) {
+            return null;
+        }
+        selected.current -= totalWeight;
+        AdmissionTask<?> task = selected.queue.poll();
+        if (task != null) {
+            selected.depth.decrementAndGet();
+        }
+        return task;
+    }
+
+    private <T> void run(AdmissionTask<T> task) {
+        // 调用方已超时放弃的请求直接跳过
+        if (!task.started.compareAndSet(false, true)) {
+            return;
+        }
+        Lane state = lanes.get(task.lane);
+        state.waitTimer.record(System.nanoTime() - task.enqueuedAt, TimeUnit.NANOSECONDS);
+        if (task.xid != null) {
+            RootContext.bind(task.xid);
+        }
+        try {
+            task.future.complete(task.action.get());
+        } catch (Throwable e) {
+            task.future.completeExceptionally(e);
+        } finally {
+            if (task.xid != null) {
+                RootContext.unbind();
+            }
+            state.latencyTimer.record(System.nanoTime() - task.enqueuedAt, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * 通道状态
+     */
+    private static class Lane {
+        private final AdmissionLane lane;
+        private final Queue<AdmissionTask<?>> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger depth = new AtomicInteger();
+        // 平滑加权轮询的当前值，只在出队时加锁访问
+        private int current;
+        private Timer waitTimer;
+        private Timer latencyTimer;
+        private Counter rejectedCounter;
+
+        private Lane(AdmissionLane lane) {
+            this.lane = lane;
+        }
+    }
+
+    /**
+     * 排队中的请求
+     */
+    private static class AdmissionTask<T> {
+        private final AdmissionLane lane;
+        private final Supplier<T> action;
+        // 调用方的全局事务XID，不在全局事务中时为null
+        private final String xid;
+        private final long enqueuedAt;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        // 工作线程开始执行或调用方放弃时置位，两者只有一方成功
+        private final AtomicBoolean started = new AtomicBoolean();
+
+        private AdmissionTask(AdmissionLane lane, Supplier<T> action, String xid, long enqueuedAt) {
+            this.lane = lane;
+            this.action = action;
+            this.xid = xid;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+}
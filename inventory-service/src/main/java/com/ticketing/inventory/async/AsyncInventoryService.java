@@ -1,51 +1,139 @@
 package com.ticketing.inventory.async;
 
+import com.ticketing.common.exception.BusinessException;
+import com.ticketing.common.utils.InventoryKeyUtil;
 import com.ticketing.inventory.service.InventoryShardingService;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.rocketmq.client.producer.SendCallback;
+import org.apache.rocketmq.client.producer.SendResult;
 import org.apache.rocketmq.spring.annotation.RocketMQMessageListener;
 import org.apache.rocketmq.spring.core.RocketMQListener;
 import org.apache.rocketmq.spring.core.RocketMQTemplate;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 异步库存扣减服务
  * 基于RocketMQ实现最终一致性的库存扣减
+ * - 每个(eventId, ticketTypeId)一个无锁MPSC队列，消费线程并发写入，批处理线程单独消费
+ * - 达到批量大小或等待超时即刷新，低流量票种也能及时落地
+ * - 缓冲区总量有上限，满时阻塞并最终拒绝消息，由RocketMQ重投实现背压
+ * - 每条消息携带唯一操作ID，重投的消息由幂等过滤器剔除
+ * - 消息确认后扣减失败的请求延迟重投到扣减主题，超过次数或发送始终失败的消息转入死信主题，不丢弃
  */
 @Slf4j
 @Service
 public class AsyncInventoryService {
 
+    private static final String DEDUCT_TOPIC = "inventory-deduct-topic";
+
+    // 重试耗尽的扣减消息，由人工或补偿任务处理
+    private static final String DEDUCT_DLQ_TOPIC = "inventory-deduct-dlq-topic";
+
     @Autowired
     private InventoryShardingService inventoryShardingService;
 
     @Autowired
     private RocketMQTemplate rocketMQTemplate;
 
-    // 批量处理缓冲区
-    private Map<String, List<DeductRequest>> batchBuffer = new ConcurrentHashMap<>();
-    
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private DeductIdempotencyFilter idempotencyFilter;
+
+    // 批量处理缓冲区，key为打包后的(eventId, ticketTypeId)
+    private final Map<Long, DeductBuffer> batchBuffer = new ConcurrentHashMap<>();
+
+    // 待发送的扣减消息
+    private final Queue<PendingMessage> outboundQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger outboundDepth = new AtomicInteger();
+    private final AtomicBoolean sending = new AtomicBoolean();
+
     // 批处理大小
     private static final int BATCH_SIZE = 100;
-    
-    // 批处理间隔（毫秒）
-    private static final long BATCH_INTERVAL = 100;
+
+    // 批处理扫描间隔（毫秒）
+    private static final long BATCH_INTERVAL = 20;
+
+    // 请求在缓冲区内的最长等待时间（毫秒）
+    private static final long MAX_BATCH_WAIT = 100;
+
+    // 缓冲区最多容纳的请求数
+    private static final int MAX_BUFFERED_REQUESTS = 50000;
+
+    // 缓冲区满时消费线程的最长等待时间（毫秒）
+    private static final long BACKPRESSURE_WAIT = 500;
+
+    // 单次批量发送的消息数
+    private static final int SEND_BATCH_SIZE = 64;
+
+    // 待发送队列上限
+    private static final int MAX_OUTBOUND_MESSAGES = 50000;
+
+    // 消息发送超时时间（毫秒）
+    private static final long SEND_TIMEOUT = 3000;
+
+    // 批量发送失败后的最大重试次数
+    private static final int MAX_SEND_RETRIES = 3;
+
+    // 扣减失败后的最大重投次数
+    private static final int MAX_DEDUCT_RETRIES = 3;
+
+    // 扣减失败重投的延迟级别，3对应10秒
+    private static final int RETRY_DELAY_LEVEL = 3;
+
+    // 缓冲区容量许可
+    private final Semaphore bufferPermits = new Semaphore(MAX_BUFFERED_REQUESTS);
 
     // 批处理线程池
     private ScheduledExecutorService executorService;
 
-    public AsyncInventoryService() {
+    // 从请求入队到扣减完成的耗时
+    private Timer flushLatencyTimer;
+
+    // 停机后不再向批处理线程池提交任务
+    private volatile boolean stopped;
+
+    @PostConstruct
+    public void init() {
+        flushLatencyTimer = Timer.builder("inventory_async_flush_latency")
+                .description("Time from buffering a deduct request to flushing it")
+                .register(meterRegistry);
+
+        Gauge.builder("inventory_async_buffer_depth", this, AsyncInventoryService::getBufferDepth)
+                .description("Deduct requests waiting in the batch buffer")
+                .register(meterRegistry);
+
+        Gauge.builder("inventory_async_outbound_depth", outboundDepth, AtomicInteger::get)
+                .description("Deduct messages waiting to be sent")
+                .register(meterRegistry);
+
         executorService = new ScheduledThreadPoolExecutor(1);
         // 启动定时批处理任务
-        executorService.scheduleAtFixedRate(
+        executorService.scheduleWithFixedDelay(
                 this::processBatch,
                 BATCH_INTERVAL,
                 BATCH_INTERVAL,
@@ -53,13 +141,39 @@ public class AsyncInventoryService {
         );
     }
 
+    @PreDestroy
+    public void destroy() throws InterruptedException {
+        stopped = true;
+        executorService.shutdown();
+        executorService.awaitTermination(SEND_TIMEOUT, TimeUnit.MILLISECONDS);
+
+        // 停机前把剩余请求全部刷新
+        for (DeductBuffer buffer : batchBuffer.values()) {
+            flush(buffer);
+        }
+        sendPending();
+    }
+
     /**
      * 发送库存扣减消息
+     * 消息先进入本地队列，由批处理线程批量异步发送
      */
     public void sendDeductMessage(Long eventId, Long ticketTypeId, Long userId, int quantity) {
-        DeductMessage message = new DeductMessage(eventId, ticketTypeId, userId, quantity);
-        rocketMQTemplate.syncSend("inventory-deduct-topic", message);
-        log.info("Sent deduct message: {}", message);
+        if (outboundDepth.incrementAndGet() > MAX_OUTBOUND_MESSAGES) {
+            outboundDepth.decrementAndGet();
+            throw new BusinessException("库存扣减消息积压，请稍后重试");
+        }
+
+        DeductMessage message = new DeductMessage(
+                DeductIdempotencyFilter.newOperationId(), eventId, ticketTypeId, userId, quantity, 0);
+        outboundQueue.offer(new PendingMessage(message, 0));
+
+        // 停机后没有批处理线程，由调用线程直接发送
+        if (stopped) {
+            sendPending();
+        } else if (outboundDepth.get() >= SEND_BATCH_SIZE) {
+            submit(this::sendPending);
+        }
     }
 
     /**
@@ -67,118 +181,414 @@ public class AsyncInventoryService {
      */
     @Service
     @RocketMQMessageListener(
-            topic = "inventory-deduct-topic",
+            topic = DEDUCT_TOPIC,
             consumerGroup = "inventory-deduct-group"
     )
     public class DeductMessageListener implements RocketMQListener<DeductMessage> {
-        
+
         @Override
         public void onMessage(DeductMessage message) {
-            try {
-                // 添加到批处理缓冲区
-                String key = getBufferKey(message.getEventId(), message.getTicketTypeId());
-                batchBuffer.computeIfAbsent(key, k -> new ArrayList<>())
-                        .add(new DeductRequest(
-                                message.getEventId(),
-                                message.getTicketTypeId(),
-                                message.getUserId(),
-                                message.getQuantity()
-                        ));
-
-                log.info("Added to batch buffer: {}", message);
-            } catch (Exception e) {
-                log.error("Failed to process deduct message", e);
+            // 最近处理过的重投消息直接确认
+            if (idempotencyFilter.isRecentlyProcessed(message.getOperationId())) {
+                log.info("Skipped duplicate deduct message: {}", message.getOperationId());
+                return;
+            }
+
+            // 缓冲区已满时阻塞消费线程，超时则抛出异常让RocketMQ稍后重投
+            acquireBufferPermit();
+
+            long key = InventoryKeyUtil.pack(message.getEventId(), message.getTicketTypeId());
+            DeductBuffer buffer = batchBuffer.computeIfAbsent(key, DeductBuffer::new);
+            buffer.add(new DeductRequest(
+                    message.getOperationId(),
+                    message.getEventId(),
+                    message.getTicketTypeId(),
+                    message.getUserId(),
+                    message.getQuantity(),
+                    message.getRetries(),
+                    System.nanoTime()
+            ));
+
+            // 达到批量大小立即触发刷新，无需等待下一次扫描
+            if (buffer.getDepth() >= BATCH_SIZE) {
+                submit(() -> flush(buffer));
             }
         }
     }
 
+    /**
+     * 当前缓冲区中的请求数
+     */
+    public int getBufferDepth() {
+        return MAX_BUFFERED_REQUESTS - bufferPermits.availablePermits();
+    }
+
+    /**
+     * 当前待发送的消息数
+     */
+    public int getOutboundDepth() {
+        return outboundDepth.get();
+    }
+
     /**
      * 执行批量处理
+     * 缓冲区达到批量大小或最早的请求等待超时即刷新
      */
     private void processBatch() {
-        for (Map.Entry<String, List<DeductRequest>> entry : batchBuffer.entrySet()) {
-            List<DeductRequest> requests = entry.getValue();
-            
-            if (requests.size() >= BATCH_SIZE) {
-                try {
-                    // 批量扣减库存
-                    processBatchDeduct(requests);
-                    
-                    // 清空已处理的请求
+        try {
+            long now = System.nanoTime();
+            long maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(MAX_BATCH_WAIT);
+
+            for (DeductBuffer buffer : batchBuffer.values()) {
+                DeductRequest oldest = buffer.peek();
+                if (oldest == null) {
+                    continue;
+                }
+                if (buffer.getDepth() >= BATCH_SIZE || now - oldest.getEnqueueTime() >= maxWaitNanos) {
+                    flush(buffer);
+                }
+            }
+
+            sendPending();
+        } catch (Exception e) {
+            // 吞掉异常，避免定时任务被取消
+            log.error("Failed to process batch", e);
+        }
+    }
+
+    /**
+     * 刷新单个缓冲区
+     * 同一缓冲区同时只允许一个线程消费
+     */
+    private void flush(DeductBuffer buffer) {
+        if (!buffer.tryStartFlush()) {
+            return;
+        }
+
+        try {
+            List<DeductRequest> requests = new ArrayList<>(BATCH_SIZE);
+            DeductRequest request;
+            while ((request = buffer.poll()) != null) {
+                requests.add(request);
+                if (requests.size() >= BATCH_SIZE) {
+                    processAndRelease(buffer.getKey(), requests);
                     requests.clear();
-                } catch (Exception e) {
-                    log.error("Failed to process batch deduct", e);
                 }
             }
+            if (!requests.isEmpty()) {
+                processAndRelease(buffer.getKey(), requests);
+            }
+        } finally {
+            buffer.finishFlush();
+        }
+    }
+
+    /**
+     * 处理一批请求并归还缓冲区许可
+     * 先剔除已处理过的操作，扣减成功后再标记，保证至少一次且不重复扣减
+     * 扣减失败的请求重新投递，消息已被确认，不能只记录日志；扣减成功的请求不再重投，标记失败只记录日志
+     */
+    private void processAndRelease(long key, List<DeductRequest> requests) {
+        try {
+            List<DeductRequest> freshRequests;
+            try {
+                freshRequests = filterUnprocessed(requests);
+            } catch (Exception e) {
+                log.error("Failed to filter processed deduct requests", e);
+                redeliver(requests);
+                return;
+            }
+
+            List<DeductRequest> failedRequests = new ArrayList<>();
+            List<String> processedIds = processBatchDeduct(key, freshRequests, failedRequests);
+            try {
+                idempotencyFilter.markProcessed(processedIds);
+            } catch (Exception e) {
+                log.error("Failed to mark deduct operations processed: {}", processedIds, e);
+            }
+            redeliver(failedRequests);
+        } finally {
+            bufferPermits.release(requests.size());
+
+            long now = System.nanoTime();
+            for (DeductRequest request : requests) {
+                flushLatencyTimer.record(now - request.getEnqueueTime(), TimeUnit.NANOSECONDS);
+            }
         }
     }
 
+    /**
+     * 剔除已处理过的请求，同一批内重复的操作只保留一次
+     */
+    private List<DeductRequest> filterUnprocessed(List<DeductRequest> requests) {
+        List<String> operationIds = new ArrayList<>(requests.size());
+        for (DeductRequest request : requests) {
+            if (request.getOperationId() != null) {
+                operationIds.add(request.getOperationId());
+            }
+        }
+        Set<String> unprocessed = idempotencyFilter.filterUnprocessed(operationIds);
+
+        List<DeductRequest> freshRequests = new ArrayList<>(requests.size());
+        for (DeductRequest request : requests) {
+            // 升级前入队的消息没有操作ID，按未处理过扣减
+            if (request.getOperationId() == null || unprocessed.remove(request.getOperationId())) {
+                freshRequests.add(request);
+            }
+        }
+        return freshRequests;
+    }
+
     /**
      * 处理批量扣减请求
+     * 同一批请求属于同一个(eventId, ticketTypeId)，每个请求按各自用户的锁定记录扣减
+     * @param failedRequests 收集扣减失败的请求
+     * @return 扣减成功的操作ID
      */
-    private void processBatchDeduct(List<DeductRequest> requests) {
+    private List<String> processBatchDeduct(long key, List<DeductRequest> requests, List<DeductRequest> failedRequests) {
+        List<String> processedIds = new ArrayList<>(requests.size());
         if (requests.isEmpty()) {
-            return;
+            return processedIds;
         }
 
-        // 按事件和票种分组
-        Map<String, Integer> totalDeducts = new ConcurrentHashMap<>();
-        
+        Long eventId = InventoryKeyUtil.eventId(key);
+        Long ticketTypeId = InventoryKeyUtil.ticketTypeId(key);
+        int deducted = 0;
         for (DeductRequest request : requests) {
-            String key = getBufferKey(request.getEventId(), request.getTicketTypeId());
-            totalDeducts.merge(key, request.getQuantity(), Integer::sum);
+            boolean success;
+            try {
+                success = inventoryShardingService.deductStock(
+                        eventId, ticketTypeId, request.getUserId(), request.getQuantity());
+            } catch (Exception e) {
+                log.error("Failed to deduct stock: eventId={}, ticketTypeId={}, userId={}",
+                        eventId, ticketTypeId, request.getUserId(), e);
+                success = false;
+            }
+            if (success) {
+                processedIds.add(request.getOperationId());
+                deducted += request.getQuantity();
+            } else {
+                failedRequests.add(request);
+            }
         }
 
-        // 批量扣减
-        for (Map.Entry<String, Integer> entry : totalDeducts.entrySet()) {
-            String[] keys = entry.getKey().split(":");
-            Long eventId = Long.parseLong(keys[0]);
-            Long ticketTypeId = Long.parseLong(keys[1]);
-            
+        if (failedRequests.isEmpty()) {
+            log.info("Batch deduct success: eventId={}, ticketTypeId={}, quantity={}, requests={}",
+                    eventId, ticketTypeId, deducted, requests.size());
+        } else {
+            log.error("Batch deduct partially failed: eventId={}, ticketTypeId={}, quantity={}, requests={}, failed={}",
+                    eventId, ticketTypeId, deducted, requests.size(), failedRequests.size());
+        }
+        return processedIds;
+    }
+
+    /**
+     * 重新投递扣减失败的请求
+     * 未超过重投次数的延迟发回扣减主题，超过的转入死信主题
+     */
+    private void redeliver(List<DeductRequest> requests) {
+        for (DeductRequest request : requests) {
+            DeductMessage message = new DeductMessage(request.getOperationId(), request.getEventId(),
+                    request.getTicketTypeId(), request.getUserId(), request.getQuantity(), request.getRetries() + 1);
             try {
-                // 执行实际的库存扣减
-                boolean success = inventoryShardingService.deductStock(
-                        eventId,
-                        ticketTypeId,
-                        null, // 批量处理时不需要用户ID
-                        entry.getValue()
-                );
-
-                if (success) {
-                    log.info("Batch deduct success: eventId={}, ticketTypeId={}, quantity={}",
-                            eventId, ticketTypeId, entry.getValue());
+                if (message.getRetries() > MAX_DEDUCT_RETRIES) {
+                    sendToDeadLetter(message);
                 } else {
-                    log.error("Batch deduct failed: eventId={}, ticketTypeId={}, quantity={}",
-                            eventId, ticketTypeId, entry.getValue());
+                    rocketMQTemplate.syncSend(DEDUCT_TOPIC, MessageBuilder.withPayload(message).build(),
+                            SEND_TIMEOUT, RETRY_DELAY_LEVEL);
                 }
             } catch (Exception e) {
-                log.error("Failed to deduct stock", e);
+                // 重投失败时放回待发送队列，由发送线程继续重试
+                log.error("Failed to redeliver deduct message: {}", message, e);
+                outboundDepth.incrementAndGet();
+                outboundQueue.offer(new PendingMessage(message, 0));
             }
         }
     }
 
     /**
-     * 生成缓冲区key
+     * 发送到死信主题
      */
-    private String getBufferKey(Long eventId, Long ticketTypeId) {
-        return eventId + ":" + ticketTypeId;
+    private void sendToDeadLetter(DeductMessage message) {
+        rocketMQTemplate.syncSend(DEDUCT_DLQ_TOPIC, MessageBuilder.withPayload(message).build(), SEND_TIMEOUT);
+        log.error("Moved deduct message to dead letter topic: {}", message);
+    }
+
+    /**
+     * 提交到批处理线程池，停机后在调用线程执行
+     */
+    private void submit(Runnable task) {
+        try {
+            executorService.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.run();
+        }
+    }
+
+    /**
+     * 批量异步发送待发送的消息
+     */
+    private void sendPending() {
+        if (!sending.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            PendingMessage pending;
+            List<PendingMessage> batch = new ArrayList<>(SEND_BATCH_SIZE);
+            while ((pending = outboundQueue.poll()) != null) {
+                batch.add(pending);
+                if (batch.size() >= SEND_BATCH_SIZE) {
+                    sendBatch(batch);
+                    batch = new ArrayList<>(SEND_BATCH_SIZE);
+                }
+            }
+            if (!batch.isEmpty()) {
+                sendBatch(batch);
+            }
+        } finally {
+            sending.set(false);
+        }
+    }
+
+    /**
+     * 异步发送一批消息，失败的消息重新入队
+     */
+    private void sendBatch(List<PendingMessage> batch) {
+        List<Message<DeductMessage>> messages = new ArrayList<>(batch.size());
+        for (PendingMessage pending : batch) {
+            messages.add(MessageBuilder.withPayload(pending.getMessage()).build());
+        }
+
+        try {
+            rocketMQTemplate.asyncSend(DEDUCT_TOPIC, messages, new SendCallback() {
+                @Override
+                public void onSuccess(SendResult sendResult) {
+                    outboundDepth.addAndGet(-batch.size());
+                }
+
+                @Override
+                public void onException(Throwable e) {
+                    log.error("Failed to send deduct messages, size={}", batch.size(), e);
+                    requeue(batch);
+                }
+            }, SEND_TIMEOUT);
+        } catch (Exception e) {
+            log.error("Failed to send deduct messages, size={}", batch.size(), e);
+            requeue(batch);
+        }
+    }
+
+    /**
+     * 重新入队发送失败的消息
+     * 超过重试次数的转入死信主题，死信也发送失败时重新计数继续排队，消息不丢弃
+     */
+    private void requeue(List<PendingMessage> batch) {
+        for (PendingMessage pending : batch) {
+            if (pending.getAttempts() + 1 >= MAX_SEND_RETRIES) {
+                try {
+                    sendToDeadLetter(pending.getMessage());
+                    outboundDepth.decrementAndGet();
+                } catch (Exception e) {
+                    log.error("Failed to move deduct message to dead letter topic: {}", pending.getMessage(), e);
+                    outboundQueue.offer(new PendingMessage(pending.getMessage(), 0));
+                }
+                continue;
+            }
+            outboundQueue.offer(new PendingMessage(pending.getMessage(), pending.getAttempts() + 1));
+        }
+    }
+
+    /**
+     * 获取缓冲区许可
+     */
+    private void acquireBufferPermit() {
+        try {
+            if (!bufferPermits.tryAcquire(BACKPRESSURE_WAIT, TimeUnit.MILLISECONDS)) {
+                throw new BusinessException("库存扣减缓冲区已满");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BusinessException("库存扣减缓冲区等待被中断", e);
+        }
+    }
+
+    /**
+     * 单个(eventId, ticketTypeId)的扣减缓冲区
+     * 多个消费线程写入，批处理线程单独读取
+     */
+    private static class DeductBuffer {
+        private final long key;
+        private final Queue<DeductRequest> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger depth = new AtomicInteger();
+        private final AtomicBoolean flushing = new AtomicBoolean();
+
+        DeductBuffer(long key) {
+            this.key = key;
+        }
+
+        long getKey() {
+            return key;
+        }
+
+        int getDepth() {
+            return depth.get();
+        }
+
+        void add(DeductRequest request) {
+            queue.offer(request);
+            depth.incrementAndGet();
+        }
+
+        DeductRequest peek() {
+            return queue.peek();
+        }
+
+        DeductRequest poll() {
+            DeductRequest request = queue.poll();
+            if (request != null) {
+                depth.decrementAndGet();
+            }
+            return request;
+        }
+
+        boolean tryStartFlush() {
+            return flushing.compareAndSet(false, true);
+        }
+
+        void finishFlush() {
+            flushing.set(false);
+        }
     }
 
     @lombok.Data
+    @lombok.NoArgsConstructor
     @lombok.AllArgsConstructor
-    private static class DeductMessage {
+    public static class DeductMessage {
+        private String operationId;
         private Long eventId;
         private Long ticketTypeId;
         private Long userId;
         private int quantity;
+        // 扣减失败后的重投次数
+        private int retries;
     }
 
     @lombok.Data
     @lombok.AllArgsConstructor
     private static class DeductRequest {
+        private String operationId;
         private Long eventId;
         private Long ticketTypeId;
         private Long userId;
         private int quantity;
+        private int retries;
+        private long enqueueTime;
+    }
+
+    @lombok.Value
+    private static class PendingMessage {
+        DeductMessage message;
+        int attempts;
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,206 @@
+package com.ticketing.inventory.async;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 扣减消息幂等过滤器
+ * - 内存中保留两代最近处理过的操作ID，滚动淘汰，重平衡后的重投基本只命中内存
+ * - 更早的操作ID按小时分桶存入Redis Set，操作ID自带时间戳，每个ID只需查一个桶
+ * - 升级前入队的消息没有操作ID，一律视为未处理，不参与判重和标记
+ */
+@Slf4j
+@Component
+public class DeductIdempotencyFilter {
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // 每代内存窗口的最大ID数
+    private static final int MAX_WINDOW_SIZE = 100000;
+
+    // 每代内存窗口的最长时间（毫秒）
+    private static final long WINDOW_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    // Redis分桶大小（毫秒）
+    private static final long BUCKET_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    // Redis中操作ID的保留时间（小时）
+    private static final long RETENTION_HOURS = 24;
+
+    // 当前代和上一代窗口
+    private volatile Set<String> currentWindow = ConcurrentHashMap.newKeySet();
+    private volatile Set<String> previousWindow = ConcurrentHashMap.newKeySet();
+    private volatile long windowStartTime = System.currentTimeMillis();
+
+    private Counter duplicateCounter;
+
+    @PostConstruct
+    public void init() {
+        duplicateCounter = Counter.builder("inventory_deduct_duplicate_total")
+                .description("Total number of redelivered deduct messages filtered out")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 生成操作ID
+     * 格式：毫秒时间戳(16进制)-64位随机数(16进制)
+     */
+    public static String newOperationId() {
+        return Long.toHexString(System.currentTimeMillis()) + "-"
+                + Long.toHexString(ThreadLocalRandom.current().nextLong());
+    }
+
+    /**
+     * 仅查询内存窗口，用于消费入口的快速判重
+     */
+    public boolean isRecentlyProcessed(String operationId) {
+        if (operationId == null) {
+            return false;
+        }
+        if (currentWindow.contains(operationId) || previousWindow.contains(operationId)) {
+            duplicateCounter.increment();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 过滤一批操作ID，返回未处理过的ID
+     * 内存未命中的ID按桶合并，每个桶一次Redis调用
+     * 为null的ID不在结果中，调用方应直接按未处理对待
+     */
+    public Set<String> filterUnprocessed(Collection<String> operationIds) {
+        Set<String> unprocessed = new HashSet<>();
+        Map<String, List<String>> misses = new HashMap<>();
+
+        for (String operationId : operationIds) {
+            if (operationId == null) {
+                continue;
+            }
+            if (currentWindow.contains(operationId) || previousWindow.contains(operationId)
+                    || !unprocessed.add(operationId)) {
+                duplicateCounter.increment();
+                continue;
+            }
+            String bucketKey = getBucketKey(operationId);
+            if (bucketKey != null) {
+                misses.computeIfAbsent(bucketKey, k -> new ArrayList<>()).add(operationId);
+            }
+        }
+
+        for (Map.Entry<String, List<String>> entry : misses.entrySet()) {
+            try {
+                Map<Object, Boolean> members = redisTemplate.opsForSet()
+                        .isMember(entry.getKey(), entry.getValue().toArray());
+                if (members == null) {
+                    continue;
+                }
+                for (Map.Entry<Object, Boolean> member : members.entrySet()) {
+                    if (Boolean.TRUE.equals(member.getValue())) {
+                        unprocessed.remove((String) member.getKey());
+                        duplicateCounter.increment();
+                    }
+                }
+            } catch (Exception e) {
+                // Redis不可用时按未处理放行，保证至少一次
+                log.error("Failed to check processed operation ids, bucket: {}", entry.getKey(), e);
+            }
+        }
+
+        return unprocessed;
+    }
+
+    /**
+     * 标记一批操作ID为已处理
+     */
+    public void markProcessed(Collection<String> operationIds) {
+        List<String> ids = new ArrayList<>(operationIds.size());
+        for (String operationId : operationIds) {
+            if (operationId != null) {
+                ids.add(operationId);
+            }
+        }
+        if (ids.isEmpty()) {
+            return;
+        }
+
+        rotateIfNeeded(ids.size());
+        currentWindow.addAll(ids);
+
+        Map<String, List<String>> buckets = new HashMap<>();
+        for (String operationId : ids) {
+            String bucketKey = getBucketKey(operationId);
+            if (bucketKey != null) {
+                buckets.computeIfAbsent(bucketKey, k -> new ArrayList<>()).add(operationId);
+            }
+        }
+
+        for (Map.Entry<String, List<String>> entry : buckets.entrySet()) {
+            try {
+                redisTemplate.opsForSet().add(entry.getKey(), entry.getValue().toArray(new String[0]));
+                redisTemplate.expire(entry.getKey(), RETENTION_HOURS + 1, TimeUnit.HOURS);
+            } catch (Exception e) {
+                log.error("Failed to persist processed operation ids, bucket: {}", entry.getKey(), e);
+            }
+        }
+    }
+
+    /**
+     * 窗口过大或过期时滚动
+     */
+    private synchronized void rotateIfNeeded(int incoming) {
+        long now = System.currentTimeMillis();
+        if (currentWindow.size() + incoming <= MAX_WINDOW_SIZE && now - windowStartTime < WINDOW_MILLIS) {
+            return;
+        }
+        previousWindow = currentWindow;
+        currentWindow = ConcurrentHashMap.newKeySet();
+        windowStartTime = now;
+    }
+
+    /**
+     * 根据操作ID中的时间戳计算Redis分桶key
+     * 超出保留期或格式不合法时返回null
+     */
+    private String getBucketKey(String operationId) {
+        if (operationId == null) {
+            return null;
+        }
+        int separator = operationId.indexOf('-');
+        if (separator <= 0) {
+            return null;
+        }
+        try {
+            long timestamp = Long.parseLong(operationId.substring(0, separator), 16);
+            long bucket = timestamp / BUCKET_MILLIS;
+            long oldestBucket = (System.currentTimeMillis() - TimeUnit.HOURS.toMillis(RETENTION_HOURS)) / BUCKET_MILLIS;
+            if (bucket < oldestBucket) {
+                log.warn("Operation id older than idempotency retention: {}", operationId);
+                return null;
+            }
+            return "inventory:deduct:ops:" + bucket;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
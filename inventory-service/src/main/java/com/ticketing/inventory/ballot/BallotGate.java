@@ -0,0 +1,82 @@
+package com.ticketing.inventory.ballot;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.ticketing.common.exception.BusinessException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 抽签报名期检查
+ * 报名期内只接受报名，所有先到先得的锁定路径（数据库、分片、租约、渠道配额）都需在入口检查
+ * 只依赖Redis，库存服务的各个锁定实现都可以注入，不会与抽签服务形成循环依赖
+ */
+@Slf4j
+@Component
+public class BallotGate {
+
+    static final String STATUS_OPEN = "OPEN";
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    // 场次的报名截止时间，不是抽签场次时为0，短时间缓存避免每次锁定都读取Redis
+    private final Cache<Long, Long> closeTimes = CacheBuilder.newBuilder()
+            .maximumSize(10000)
+            .expireAfterWrite(5, TimeUnit.SECONDS)
+            .build();
+
+    /**
+     * 判断场次是否处于抽签报名期
+     */
+    public boolean isBallotOpen(Long eventId) {
+        long closeAt = getCloseAt(eventId);
+        return closeAt != 0 && System.currentTimeMillis() < closeAt;
+    }
+
+    /**
+     * 报名期内拒绝先到先得的锁定
+     */
+    public void checkNotInBallot(Long eventId) {
+        if (isBallotOpen(eventId)) {
+            throw new BusinessException("该场次正在抽签报名中");
+        }
+    }
+
+    /**
+     * 读取场次的报名截止时间，不是抽签场次或已开始抽签时返回0
+     */
+    long getCloseAt(Long eventId) {
+        try {
+            return closeTimes.get(eventId, () -> {
+                List<Object> ballot = redisTemplate.opsForHash().multiGet(getBallotKey(eventId),
+                        Arrays.asList("status", "closeAt"));
+                if (!STATUS_OPEN.equals(ballot.get(0)) || ballot.get(1) == null) {
+                    return 0L;
+                }
+                return Long.parseLong((String) ballot.get(1));
+            });
+        } catch (Exception e) {
+            log.error("Failed to load ballot for event: {}", eventId, e);
+            return 0;
+        }
+    }
+
+    /**
+     * 抽签状态变化后清除缓存
+     */
+    void invalidate(Long eventId) {
+        closeTimes.invalidate(eventId);
+    }
+
+    // 工具方法：生成抽签记录key
+    static String getBallotKey(Long eventId) {
+        return "inventory:ballot:" + eventId;
+    }
+}
@@ -0,0 +1,365 @@
+package com.ticketing.inventory.ballot;
+
+import com.ticketing.common.entity.TicketType;
+import com.ticketing.common.exception.BusinessException;
+import com.ticketing.common.message.BallotResultMessage;
+import com.ticketing.inventory.mapper.TicketTypeMapper;
+import com.ticketing.inventory.service.InventoryShardingService;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.rocketmq.spring.core.RocketMQTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 抽签售票服务
+ * 最热门的场次不走先到先得，改为报名期内收集申请、截止后一次性批量分配
+ * - 报名只是向按用户分区的Redis列表追加一条记录，不触碰库存
+ * - 截止后由一个实例加锁执行抽签：每个用户只保留首次申请，按种子洗牌后依次分配
+ * - 中签用户的库存一次性从分片取出，锁定记录通过管道批量写入，已有锁定记录的用户转为未中签
+ * - 中签锁定与普通锁定一样由订单服务的支付和关单核销或释放，过期未核销的由分片服务回收
+ * - 中签和未中签结果按批发送到消息队列，由订单服务批量创建订单，通知服务批量通知
+ */
+@Slf4j
+@Service
+public class BallotService {
+
+    private static final String BALLOT_RESULT_TOPIC = "ballot-result-topic";
+
+    @Autowired
+    private InventoryShardingService inventoryShardingService;
+
+    @Autowired
+    private TicketTypeMapper ticketTypeMapper;
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    @Autowired
+    private RocketMQTemplate rocketMQTemplate;
+
+    @Autowired
+    private ThreadPoolTaskExecutor inventoryThreadPool;
+
+    @Autowired
+    private BallotGate ballotGate;
+
+    // 报名记录的分区数
+    private static final int ENTRY_PARTITIONS = 16;
+
+    // 每个用户单次申请的最大数量
+    private static final int MAX_QUANTITY_PER_USER = 4;
+
+    // 抽签时每次读取的报名记录数
+    private static final int READ_BATCH_SIZE = 10000;
+
+    // 每条结果消息包含的用户数
+    private static final int RESULT_BATCH_SIZE = 500;
+
+    // 消息发送超时时间（毫秒）
+    private static final long SEND_TIMEOUT = 3000;
+
+    // 中签锁定的保留时间（分钟），需覆盖订单的支付时限，过期未核销的由分片服务回收
+    private static final int BALLOT_HOLD_EXPIRE_MINUTES = 60;
+
+    // 抽签锁的过期时间（秒）
+    private static final int DRAW_LOCK_SECONDS = 600;
+
+    // 抽签完成后记录的保留时间（天）
+    private static final int BALLOT_EXPIRE_DAYS = 7;
+
+    private static final String BALLOT_INDEX_KEY = "inventory:ballot:index";
+
+    private static final String STATUS_OPEN = BallotGate.STATUS_OPEN;
+    private static final String STATUS_DRAWING = "DRAWING";
+    private static final String STATUS_DRAWN = "DRAWN";
+
+    private final String instanceId = UUID.randomUUID().toString();
+
+    /**
+     * 开启场次的抽签报名
+     * @param closeTime 报名截止时间
+     * @param seed 抽签随机种子，为空时随机生成，保存后可复现抽签结果
+     */
+    public void openBallot(Long eventId, LocalDateTime closeTime, Long seed) {
+        long closeAt = closeTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        if (closeAt <= System.currentTimeMillis()) {
+            throw new BusinessException("报名截止时间必须晚于当前时间");
+        }
+
+        String ballotKey = getBallotKey(eventId);
+        if (!redisTemplate.opsForHash().putIfAbsent(ballotKey, "status", STATUS_OPEN)) {
+            throw new BusinessException("该场次已开启抽签");
+        }
+        Map<String, String> ballot = new HashMap<>();
+        ballot.put("closeAt", String.valueOf(closeAt));
+        ballot.put("seed", String.valueOf(seed != null ? seed : ThreadLocalRandom.current().nextLong()));
+        redisTemplate.opsForHash().putAll(ballotKey, ballot);
+        redisTemplate.opsForSet().add(BALLOT_INDEX_KEY, String.valueOf(eventId));
+        ballotGate.invalidate(eventId);
+
+        log.info("Opened ballot for event: {}, closeTime: {}", eventId, closeTime);
+    }
+
+    /**
+     * 提交抽签申请，只追加一条报名记录
+     * 同一用户多次申请时，抽签只采用第一次申请
+     */
+    public void submitEntry(Long eventId, Long ticketTypeId, Long userId, int quantity) {
+        if (quantity <= 0 || quantity > MAX_QUANTITY_PER_USER) {
+            throw new BusinessException("申请数量需在1到" + MAX_QUANTITY_PER_USER + "之间");
+        }
+        long closeAt = ballotGate.getCloseAt(eventId);
+        if (closeAt == 0 || System.currentTimeMillis() >= closeAt) {
+            throw new BusinessException("抽签报名未开放");
+        }
+
+        redisTemplate.opsForList().rightPush(getEntryKey(eventId, (int) Math.floorMod(userId, (long) ENTRY_PARTITIONS)),
+                userId + ":" + ticketTypeId + ":" + quantity);
+    }
+
+    /**
+     * 查询抽签状态和结果统计
+     */
+    public Map<Object, Object> getBallot(Long eventId) {
+        return redisTemplate.opsForHash().entries(getBallotKey(eventId));
+    }
+
+    /**
+     * 对报名已截止的场次执行抽签
+     * 每5秒执行一次，抽签锁保证只有一个实例执行
+     */
+    @Scheduled(fixedDelay = 5000)
+    public void drawClosedBallots() {
+        Set<String> eventIds = redisTemplate.opsForSet().members(BALLOT_INDEX_KEY);
+        if (eventIds == null || eventIds.isEmpty()) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        for (String member : eventIds) {
+            Long eventId = Long.parseLong(member);
+            try {
+                List<Object> ballot = redisTemplate.opsForHash().multiGet(getBallotKey(eventId),
+                        Arrays.asList("status", "closeAt"));
+                if (ballot.get(0) == null) {
+                    redisTemplate.opsForSet().remove(BALLOT_INDEX_KEY, member);
+                    continue;
+                }
+                if (!STATUS_OPEN.equals(ballot.get(0)) || now < Long.parseLong((String) ballot.get(1))) {
+                    continue;
+                }
+                Boolean locked = redisTemplate.opsForValue().setIfAbsent(getDrawLockKey(eventId), instanceId,
+                        DRAW_LOCK_SECONDS, TimeUnit.SECONDS);
+                if (Boolean.TRUE.equals(locked)) {
+                    inventoryThreadPool.execute(() -> draw(eventId));
+                }
+            } catch (Exception e) {
+                log.error("Failed to schedule ballot draw for event: {}", eventId, e);
+            }
+        }
+    }
+
+    /**
+     * 执行抽签
+     * 抽签中途失败的场次保持DRAWING状态，不会自动重抽，避免重复取出库存
+     */
+    public void draw(Long eventId) {
+        String ballotKey = getBallotKey(eventId);
+        if (!STATUS_OPEN.equals(redisTemplate.opsForHash().get(ballotKey, "status"))) {
+            return;
+        }
+        redisTemplate.opsForHash().put(ballotKey, "status", STATUS_DRAWING);
+        long start = System.currentTimeMillis();
+
+        try {
+            long seed = Long.parseLong((String) redisTemplate.opsForHash().get(ballotKey, "seed"));
+
+            // 1. 读取报名记录，每个用户只保留首次申请
+            Map<Long, Entry> entries = new HashMap<>();
+            int totalEntries = 0;
+            for (int partition = 0; partition < ENTRY_PARTITIONS; partition++) {
+                String entryKey = getEntryKey(eventId, partition);
+                for (long offset = 0; ; offset += READ_BATCH_SIZE) {
+                    List<String> values = redisTemplate.opsForList().range(entryKey, offset, offset + READ_BATCH_SIZE - 1);
+                    if (values == null || values.isEmpty()) {
+                        break;
+                    }
+                    for (String value : values) {
+                        Entry entry = parseEntry(value);
+                        entries.putIfAbsent(entry.getUserId(), entry);
+                    }
+                    totalEntries += values.size();
+                    if (values.size() < READ_BATCH_SIZE) {
+                        break;
+                    }
+                }
+            }
+
+            // 2. 按票种分组，先按用户ID排序再用种子洗牌，相同种子得到相同结果
+            Map<Long, List<Entry>> groups = new TreeMap<>();
+            for (Entry entry : entries.values()) {
+                groups.computeIfAbsent(entry.getTicketTypeId(), k -> new ArrayList<>()).add(entry);
+            }
+            int winners = 0;
+            for (Map.Entry<Long, List<Entry>> group : groups.entrySet()) {
+                List<Entry> applicants = group.getValue();
+                applicants.sort(Comparator.comparing(Entry::getUserId));
+                Collections.shuffle(applicants, new Random(seed ^ group.getKey()));
+                winners += allocate(eventId, group.getKey(), applicants);
+            }
+
+            // 3. 记录结果并清理报名记录
+            Map<String, String> result = new HashMap<>();
+            result.put("status", STATUS_DRAWN);
+            result.put("entries", String.valueOf(totalEntries));
+            result.put("applicants", String.valueOf(entries.size()));
+            result.put("winners", String.valueOf(winners));
+            result.put("drawMillis", String.valueOf(System.currentTimeMillis() - start));
+            redisTemplate.opsForHash().putAll(ballotKey, result);
+            redisTemplate.expire(ballotKey, BALLOT_EXPIRE_DAYS, TimeUnit.DAYS);
+            for (int partition = 0; partition < ENTRY_PARTITIONS; partition++) {
+                redisTemplate.delete(getEntryKey(eventId, partition));
+            }
+            redisTemplate.opsForSet().remove(BALLOT_INDEX_KEY, String.valueOf(eventId));
+
+            log.info("Ballot drawn for event: {}, entries: {}, applicants: {}, winners: {}, took: {}ms",
+                    eventId, totalEntries, entries.size(), winners, System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            log.error("Ballot draw failed for event: {}, manual recovery required", eventId, e);
+            redisTemplate.opsForHash().put(ballotKey, "error", String.valueOf(e.getMessage()));
+        } finally {
+            redisTemplate.delete(getDrawLockKey(eventId));
+        }
+    }
+
+    /**
+     * 为单个票种分配库存
+     * 按洗牌后的顺序分配，放不下的申请跳过，继续尝试后面数量更小的申请
+     * @return 中签人数
+     */
+    private int allocate(Long eventId, Long ticketTypeId, List<Entry> applicants) {
+        int available = inventoryShardingService.getAvailability(eventId, ticketTypeId).getLiveStock();
+        List<BallotResultMessage.Allocation> won = new ArrayList<>();
+        List<BallotResultMessage.Allocation> lost = new ArrayList<>();
+        int demand = 0;
+        for (Entry entry : applicants) {
+            BallotResultMessage.Allocation allocation = new BallotResultMessage.Allocation(entry.getUserId(), entry.getQuantity());
+            if (demand + entry.getQuantity() <= available) {
+                won.add(allocation);
+                demand += entry.getQuantity();
+            } else {
+                lost.add(allocation);
+            }
+        }
+
+        // 一次性取出全部中签库存，报名期内有其他售卖导致不足时，从末尾依次转为未中签
+        int acquired = inventoryShardingService.acquireBlock(eventId, ticketTypeId, demand);
+        while (demand > acquired) {
+            BallotResultMessage.Allocation last = won.remove(won.size() - 1);
+            demand -= last.getQuantity();
+            lost.add(last);
+        }
+        if (acquired > demand) {
+            inventoryShardingService.returnBlock(eventId, ticketTypeId, acquired - demand);
+        }
+
+        Map<Long, Integer> holds = new LinkedHashMap<>(won.size() * 2);
+        for (BallotResultMessage.Allocation allocation : won) {
+            holds.put(allocation.getUserId(), allocation.getQuantity());
+        }
+        Set<Long> rejected = inventoryShardingService.recordBulkLocks(eventId, ticketTypeId, holds,
+                TimeUnit.MINUTES.toSeconds(BALLOT_HOLD_EXPIRE_MINUTES));
+
+        // 已有锁定记录的用户不覆盖原锁定，转为未中签并归还库存
+        if (!rejected.isEmpty()) {
+            int returned = 0;
+            for (Iterator<BallotResultMessage.Allocation> it = won.iterator(); it.hasNext(); ) {
+                BallotResultMessage.Allocation allocation = it.next();
+                if (rejected.contains(allocation.getUserId())) {
+                    it.remove();
+                    lost.add(allocation);
+                    returned += allocation.getQuantity();
+                }
+            }
+            demand -= returned;
+            inventoryShardingService.returnBlock(eventId, ticketTypeId, returned);
+        }
+
+        TicketType ticketType = ticketTypeMapper.selectById(ticketTypeId);
+        publishResults(eventId, ticketTypeId, true, ticketType != null ? ticketType.getPrice() : null, won);
+        publishResults(eventId, ticketTypeId, false, null, lost);
+
+        log.info("Ballot allocated for event: {}, ticketType: {}, available: {}, winners: {}, losers: {}, stock: {}",
+                eventId, ticketTypeId, available, won.size(), lost.size(), demand);
+        return won.size();
+    }
+
+    /**
+     * 按批发送抽签结果，批次ID由场次、票种、结果和序号组成，重投时消费端可据此去重
+     */
+    private void publishResults(Long eventId, Long ticketTypeId, boolean won, BigDecimal unitPrice,
+                                List<BallotResultMessage.Allocation> allocations) {
+        for (int from = 0, batch = 0; from < allocations.size(); from += RESULT_BATCH_SIZE, batch++) {
+            List<BallotResultMessage.Allocation> slice =
+                    new ArrayList<>(allocations.subList(from, Math.min(from + RESULT_BATCH_SIZE, allocations.size())));
+            String batchId = eventId + ":" + ticketTypeId + ":" + (won ? "W" : "L") + ":" + batch;
+            BallotResultMessage message = new BallotResultMessage(batchId, eventId, ticketTypeId, won, unitPrice, slice);
+            rocketMQTemplate.syncSend(BALLOT_RESULT_TOPIC, MessageBuilder.withPayload(message).build(), SEND_TIMEOUT);
+        }
+    }
+
+    // 工具方法：解析报名记录，格式为"用户ID:票种ID:数量"
+    private Entry parseEntry(String value) {
+        String[] parts = value.split(":");
+        return new Entry(Long.parseLong(parts[0]), Long.parseLong(parts[1]), Integer.parseInt(parts[2]));
+    }
+
+    // 工具方法：生成抽签记录key
+    private String getBallotKey(Long eventId) {
+        return BallotGate.getBallotKey(eventId);
+    }
+
+    // 工具方法：生成报名记录分区key
+    private String getEntryKey(Long eventId, int partition) {
+        return "inventory:ballot:entries:" + eventId + ":" + partition;
+    }
+
+    // 工具方法：生成抽签锁key
+    private String getDrawLockKey(Long eventId) {
+        return "inventory:ballot:draw:" + eventId;
+    }
+
+    /**
+     * 抽签报名记录
+     */
+    @lombok.Data
+    @lombok.AllArgsConstructor
+    private static class Entry {
+        private Long userId;
+        private Long ticketTypeId;
+        private int quantity;
+    }
+}
@@ -1,74 +1,98 @@
 package com.ticketing.inventory.config;
 
-import com.google.common.collect.Range;
-import org.apache.shardingsphere.api.sharding.complex.ComplexKeysShardingAlgorithm;
-import org.apache.shardingsphere.api.sharding.complex.ComplexKeysShardingValue;
+import com.ticketing.common.sharding.InventoryRouting;
+import com.ticketing.common.sharding.ShardRouter;
+import lombok.Getter;
+import lombok.Setter;
+import org.apache.shardingsphere.sharding.api.sharding.standard.PreciseShardingValue;
+import org.apache.shardingsphere.sharding.api.sharding.standard.RangeShardingValue;
+import org.apache.shardingsphere.sharding.api.sharding.standard.StandardShardingAlgorithm;
 import org.springframework.context.annotation.Configuration;
 
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.List;
-import java.util.Map;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * 库存分片路由配置
- * 基于用户ID和场次ID的两级分片策略
+ * 物理库按场次ID、物理表按分片ID路由，两级分片都委托给库存统一路由
  */
 @Configuration
 public class ShardingConfig {
 
-    // 物理库数量
-    private static final int PHYSICAL_DB_COUNT = 16;
-    
-    // 每个物理库的分片数量
-    private static final int SHARDS_PER_DB = 20;
-
     /**
-     * 库存分片算法
-     * 基于用户ID和场次ID的复合分片
+     * 库存分库算法
+     * 初始物理库沿用场次ID取模的布局，新增物理库按一致性哈希环接管场次，迁移期间按当前路由纪元选择读写的物理库
      */
-    public static class InventoryShardingAlgorithm implements ComplexKeysShardingAlgorithm<Long> {
-        
+    @Getter
+    @Setter
+    public static class InventoryDatabaseShardingAlgorithm implements StandardShardingAlgorithm<Long> {
+
+        private Properties props = new Properties();
+
         @Override
-        public Collection<String> doSharding(Collection<String> availableTargetNames, 
-                                           ComplexKeysShardingValue<Long> shardingValue) {
-            
-            Map<String, Collection<Long>> columnNameAndShardingValuesMap = shardingValue.getColumnNameAndShardingValuesMap();
-            Collection<Long> userIds = columnNameAndShardingValuesMap.get("user_id");
-            Collection<Long> eventIds = columnNameAndShardingValuesMap.get("event_id");
-
-            List<String> result = new ArrayList<>();
-            
-            for (Long userId : userIds) {
-                for (Long eventId : eventIds) {
-                    // 计算物理库索引
-                    int dbIndex = calculateDatabaseIndex(userId, eventId);
-                    // 计算分片索引
-                    int shardIndex = calculateShardIndex(userId, eventId);
-                    
-                    String target = String.format("inventory_db_%d.inventory_shard_%d", dbIndex, shardIndex);
-                    result.add(target);
-                }
+        public void init() {
+        }
+
+        /**
+         * 路由到的物理库未在分片规则中注册时直接失败，不会落到其他库
+         */
+        @Override
+        public String doSharding(Collection<String> availableTargetNames, PreciseShardingValue<Long> shardingValue) {
+            String dataSourceName = InventoryRouting.dataSourceName(shardingValue.getValue());
+            if (!availableTargetNames.contains(dataSourceName)) {
+                throw new IllegalStateException("Data source " + dataSourceName + " is not registered in the sharding rule");
             }
-            
-            return result;
+            return dataSourceName;
         }
 
         /**
-         * 计算物理库索引
-         * 使用用户ID和场次ID的组合hash
+         * 场次ID的范围条件无法确定物理库，访问全部库
          */
-        private int calculateDatabaseIndex(Long userId, Long eventId) {
-            long combinedHash = (userId * 31 + eventId) % PHYSICAL_DB_COUNT;
-            return Math.abs((int)combinedHash);
+        @Override
+        public Collection<String> doSharding(Collection<String> availableTargetNames, RangeShardingValue<Long> shardingValue) {
+            return availableTargetNames;
+        }
+
+        @Override
+        public String getType() {
+            return "INVENTORY_DATABASE";
+        }
+    }
+
+    /**
+     * 库存分表算法
+     * 分片ID即物理表索引
+     */
+    @Getter
+    @Setter
+    public static class InventoryTableShardingAlgorithm implements StandardShardingAlgorithm<Integer> {
+
+        private Properties props = new Properties();
+
+        @Override
+        public void init() {
+        }
+
+        @Override
+        public String doSharding(Collection<String> availableTargetNames, PreciseShardingValue<Integer> shardingValue) {
+            return InventoryRouting.tableName(shardingValue.getValue());
         }
 
         /**
-         * 计算分片索引
-         * 使用场次ID作为主要分片依据
+         * 分片ID的范围条件访问库内全部分表
          */
-        private int calculateShardIndex(Long userId, Long eventId) {
-            return Math.abs((int)(eventId % SHARDS_PER_DB));
+        @Override
+        public Collection<String> doSharding(Collection<String> availableTargetNames, RangeShardingValue<Integer> shardingValue) {
+            return availableTargetNames;
+        }
+
+        @Override
+        public String getType() {
+            return "INVENTORY_TABLE";
         }
     }
 
@@ -77,14 +101,12 @@ public class ShardingConfig {
      */
     public static class ShardingTableRuleConfig {
         public static final String LOGIC_TABLE = "t_inventory";
-        public static final String ACTUAL_DATA_NODES = "inventory_db_${0..15}.inventory_shard_${0..19}";
-        
+        public static final String ACTUAL_DATA_NODES = "ds${0.." + (InventoryRouting.DATABASE_COUNT - 1)
+                + "}.t_inventory_${0.." + (InventoryRouting.TABLE_COUNT - 1) + "}";
+
         // 分片键
-        public static final String DATABASE_SHARDING_COLUMN = "user_id";
-        public static final String TABLE_SHARDING_COLUMN = "event_id";
-        
-        // 分片算法
-        public static final ComplexKeysShardingAlgorithm<Long> SHARDING_ALGORITHM = new InventoryShardingAlgorithm();
+        public static final String DATABASE_SHARDING_COLUMN = "event_id";
+        public static final String TABLE_SHARDING_COLUMN = "sharding_id";
     }
 
     /**
@@ -92,23 +114,63 @@ public class ShardingConfig {
      * 支持在线添加新的物理库
      */
     public static class DynamicExpansionConfig {
-        
+
+        // 实际数据节点中的物理库范围，如ds${0..15}
+        private static final Pattern NODE_RANGE = Pattern.compile("ds\\$\\{(\\d+)\\.\\.(\\d+)}");
+
+        // 实际数据节点中的单个物理库，如ds16.t_inventory_0
+        private static final Pattern SINGLE_NODE = Pattern.compile("ds(\\d+)\\.");
+
+        /**
+         * 生成扩容后的路由表
+         * 已有物理库的虚拟节点位置不变，新库只接管环上落在其虚拟节点之前的区间，约1/N的数据需要迁移
+         */
+        public static ShardRouter createExpandedRouter(int newDbCount) {
+            ShardRouter current = InventoryRouting.getEpoch().getTarget();
+            if (newDbCount <= current.getDatabaseCount()) {
+                throw new IllegalArgumentException("New database count must exceed " + current.getDatabaseCount());
+            }
+            return current.withDatabaseCount(newDbCount);
+        }
+
         /**
-         * 计算新库的路由规则
+         * 生成扩容后的实际数据节点，覆盖全部物理库而不只是新库
          */
-        public static Range<Long> calculateNewDatabaseRange(int newDbIndex, int totalDbs) {
-            long rangeSize = Long.MAX_VALUE / totalDbs;
-            long rangeStart = rangeSize * newDbIndex;
-            long rangeEnd = rangeStart + rangeSize;
-            return Range.closed(rangeStart, rangeEnd);
+        public static String generateExpandedRule(int newDbCount) {
+            return String.format("ds${0..%d}.t_inventory_${0..%d}", newDbCount - 1, InventoryRouting.TABLE_COUNT - 1);
         }
-        
+
         /**
-         * 生成扩容后的分片规则
+         * 计算分片规则中可用的物理库数量
+         * 从ds0开始连续计数，数据源已声明且实际数据节点已覆盖的物理库才算可用
+         * @param dataSourceNames 数据源名称，逗号分隔
+         * @param actualDataNodes 库存表的实际数据节点
          */
-        public static String generateExpandedRule(int currentDbCount, int newDbCount) {
-            return String.format("inventory_db_${%d..%d}.inventory_shard_${0..%d}",
-                    currentDbCount, newDbCount - 1, SHARDS_PER_DB - 1);
+        public static int registeredDatabaseCount(String dataSourceNames, String actualDataNodes) {
+            if (dataSourceNames == null || actualDataNodes == null) {
+                return 0;
+            }
+            Set<String> names = new HashSet<>();
+            for (String name : dataSourceNames.split(",")) {
+                names.add(name.trim());
+            }
+            Set<Integer> nodes = new HashSet<>();
+            Matcher range = NODE_RANGE.matcher(actualDataNodes);
+            while (range.find()) {
+                for (int db = Integer.parseInt(range.group(1)); db <= Integer.parseInt(range.group(2)); db++) {
+                    nodes.add(db);
+                }
+            }
+            Matcher single = SINGLE_NODE.matcher(actualDataNodes);
+            while (single.find()) {
+                nodes.add(Integer.parseInt(single.group(1)));
+            }
+
+            int count = 0;
+            while (names.contains("ds" + count) && nodes.contains(count)) {
+                count++;
+            }
+            return count;
         }
     }
-} 
\ No newline at end of file
+}
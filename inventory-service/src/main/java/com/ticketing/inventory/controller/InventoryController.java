@@ -2,11 +2,37 @@ package com.ticketing.inventory.controller;
 
 import com.ticketing.common.entity.Inventory;
 import com.ticketing.common.response.Result;
+import com.ticketing.inventory.admission.AdmissionLane;
+import com.ticketing.inventory.admission.PriorityAdmissionService;
+import com.ticketing.inventory.ballot.BallotService;
+import com.ticketing.inventory.model.InventoryDiscrepancy;
+import com.ticketing.inventory.model.ReleaseWave;
+import com.ticketing.inventory.model.SalesChannel;
+import com.ticketing.inventory.model.SeatMapUpdate;
+import com.ticketing.inventory.model.StockAvailability;
+import com.ticketing.inventory.presale.PresaleCodeService;
+import com.ticketing.inventory.reconcile.InventoryReconcileService;
+import com.ticketing.inventory.seat.SeatMapFeedService;
 import com.ticketing.inventory.service.InventoryService;
+import com.ticketing.inventory.service.InventoryShardingService;
+import com.ticketing.inventory.service.SeatInventoryService;
+import com.ticketing.inventory.service.impl.ChannelQuotaService;
+import com.ticketing.inventory.service.impl.InventoryLeaseService;
+import com.ticketing.inventory.service.impl.InventoryPreloadService;
+import com.ticketing.inventory.service.impl.ReleaseWaveService;
+import com.ticketing.inventory.service.impl.SaleStartOrchestrator;
+import com.ticketing.inventory.sharding.ScatterGatherExecutor;
+import com.ticketing.inventory.sharding.ShardMigrationService;
+import com.ticketing.inventory.waitlist.WaitlistService;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
 
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
 /**
  * 库存控制器
  */
@@ -18,6 +44,51 @@ public class InventoryController {
     @Autowired
     private InventoryService inventoryService;
 
+    @Autowired
+    private InventoryShardingService inventoryShardingService;
+
+    @Autowired
+    private InventoryLeaseService inventoryLeaseService;
+
+    @Autowired
+    private InventoryPreloadService inventoryPreloadService;
+
+    @Autowired
+    private SaleStartOrchestrator saleStartOrchestrator;
+
+    @Autowired
+    private ReleaseWaveService releaseWaveService;
+
+    @Autowired
+    private ChannelQuotaService channelQuotaService;
+
+    @Autowired
+    private BallotService ballotService;
+
+    @Autowired
+    private WaitlistService waitlistService;
+
+    @Autowired
+    private PriorityAdmissionService priorityAdmissionService;
+
+    @Autowired
+    private PresaleCodeService presaleCodeService;
+
+    @Autowired
+    private SeatInventoryService seatInventoryService;
+
+    @Autowired
+    private SeatMapFeedService seatMapFeedService;
+
+    @Autowired
+    private ShardMigrationService shardMigrationService;
+
+    @Autowired
+    private ScatterGatherExecutor scatterGatherExecutor;
+
+    @Autowired
+    private InventoryReconcileService inventoryReconcileService;
+
     /**
      * 初始化库存
      */
@@ -32,6 +103,7 @@ public class InventoryController {
 
     /**
      * 锁定库存
+     * 准入通道只由服务端确定，不接受调用方指定：持预售码的锁定经/presale/lock校验后走预售通道，这里统一走普通通道
      */
     @PostMapping("/lock")
     public Result<Boolean> lockStock(@RequestParam("eventId") Long eventId,
@@ -39,7 +111,8 @@ public class InventoryController {
                                    @RequestParam("userId") Long userId,
                                    @RequestParam("quantity") Integer quantity) {
         log.info("Lock stock: eventId={}, ticketTypeId={}, userId={}, quantity={}", eventId, ticketTypeId, userId, quantity);
-        boolean success = inventoryService.lockStock(eventId, ticketTypeId, userId, quantity);
+        boolean success = priorityAdmissionService.execute(AdmissionLane.GENERAL,
+                () -> inventoryService.lockStock(eventId, ticketTypeId, userId, quantity));
         return Result.success(success);
     }
 
@@ -91,4 +164,436 @@ public class InventoryController {
         Inventory inventory = inventoryService.getInventoryBySharding(eventId, ticketTypeId, shardingId);
         return Result.success(inventory);
     }
-} 
\ No newline at end of file
+
+    /**
+     * 拆分库存分片
+     */
+    @PostMapping("/shards/split")
+    public Result<Integer> splitShards(@RequestParam("eventId") Long eventId,
+                                       @RequestParam("ticketTypeId") Long ticketTypeId,
+                                       @RequestParam("shardCount") Integer shardCount) {
+        log.info("Split shards: eventId={}, ticketTypeId={}, shardCount={}", eventId, ticketTypeId, shardCount);
+        int count = inventoryShardingService.splitShards(eventId, ticketTypeId, shardCount);
+        return Result.success(count);
+    }
+
+    /**
+     * 合并库存分片
+     */
+    @PostMapping("/shards/merge")
+    public Result<Integer> mergeShards(@RequestParam("eventId") Long eventId,
+                                       @RequestParam("ticketTypeId") Long ticketTypeId) {
+        log.info("Merge shards: eventId={}, ticketTypeId={}", eventId, ticketTypeId);
+        int count = inventoryShardingService.mergeShards(eventId, ticketTypeId);
+        return Result.success(count);
+    }
+
+    /**
+     * 开始物理库扩容迁移
+     */
+    @PostMapping("/migration/start")
+    public Result<Long> startMigration(@RequestParam("databaseCount") Integer databaseCount) {
+        log.info("Start shard migration: databaseCount={}", databaseCount);
+        return Result.success(shardMigrationService.start(databaseCount));
+    }
+
+    /**
+     * 回填迁移区间的存量数据
+     */
+    @PostMapping("/migration/backfill")
+    public Result<Long> backfillMigration() {
+        return Result.success(shardMigrationService.backfill());
+    }
+
+    /**
+     * 校验迁移区间，返回不一致的区间
+     */
+    @PostMapping("/migration/verify")
+    public Result<List<Integer>> verifyMigration() {
+        return Result.success(shardMigrationService.verify());
+    }
+
+    /**
+     * 把已校验的区间切换到新库
+     */
+    @PostMapping("/migration/cutover")
+    public Result<Integer> cutoverMigration(@RequestParam(value = "ranges", required = false) List<Integer> ranges) {
+        log.info("Cut over shard migration: ranges={}", ranges);
+        return Result.success(shardMigrationService.cutover(ranges));
+    }
+
+    /**
+     * 清理已切换区间在原库中的数据
+     */
+    @PostMapping("/migration/cleanup")
+    public Result<Long> cleanupMigration() {
+        return Result.success(shardMigrationService.cleanup());
+    }
+
+    /**
+     * 查询迁移状态
+     */
+    @GetMapping("/migration/status")
+    public Result<Map<String, Object>> getMigrationStatus() {
+        return Result.success(shardMigrationService.getStatus());
+    }
+
+    /**
+     * 查询分散查询中各物理库的延迟统计
+     */
+    @GetMapping("/scatter/latency")
+    public Result<Map<Integer, Map<String, Long>>> getScatterLatency() {
+        return Result.success(scatterGatherExecutor.getLatencyStats());
+    }
+
+    /**
+     * 查询库存对账状态
+     */
+    @GetMapping("/reconcile/status")
+    public Result<Map<String, Object>> getReconcileStatus() {
+        return Result.success(inventoryReconcileService.getStatus());
+    }
+
+    /**
+     * 查询最近发现的库存差异
+     */
+    @GetMapping("/reconcile/discrepancies")
+    public Result<List<InventoryDiscrepancy>> getDiscrepancies() {
+        return Result.success(inventoryReconcileService.getDiscrepancies());
+    }
+
+    /**
+     * 立即执行一次库存对账
+     */
+    @PostMapping("/reconcile/run")
+    public Result<Integer> runReconcile(@RequestParam(value = "full", defaultValue = "false") boolean full) {
+        int checked = inventoryReconcileService.reconcile(full);
+        if (checked < 0) {
+            return Result.businessError("其他实例正在对账");
+        }
+        return Result.success(checked);
+    }
+
+    /**
+     * 锁定库存（启用租约的票种走本地租约）
+     */
+    @PostMapping("/lease/lock")
+    public Result<Boolean> lockLeasedStock(@RequestParam("eventId") Long eventId,
+                                           @RequestParam("ticketTypeId") Long ticketTypeId,
+                                           @RequestParam("userId") Long userId,
+                                           @RequestParam("quantity") Integer quantity) {
+        boolean success = inventoryLeaseService.lockStock(eventId, ticketTypeId, userId, quantity);
+        return Result.success(success);
+    }
+
+    /**
+     * 启用本地租约
+     */
+    @PostMapping("/lease/enable")
+    public Result<Void> enableLeasing(@RequestParam("eventId") Long eventId,
+                                      @RequestParam("ticketTypeId") Long ticketTypeId) {
+        log.info("Enable leasing: eventId={}, ticketTypeId={}", eventId, ticketTypeId);
+        inventoryLeaseService.enableLeasing(eventId, ticketTypeId);
+        return Result.success();
+    }
+
+    /**
+     * 停用本地租约
+     */
+    @PostMapping("/lease/disable")
+    public Result<Void> disableLeasing(@RequestParam("eventId") Long eventId,
+                                       @RequestParam("ticketTypeId") Long ticketTypeId) {
+        log.info("Disable leasing: eventId={}, ticketTypeId={}", eventId, ticketTypeId);
+        inventoryLeaseService.disableLeasing(eventId, ticketTypeId);
+        return Result.success();
+    }
+
+    /**
+     * 查询预热进度
+     */
+    @GetMapping("/preload/status")
+    public Result<InventoryPreloadService.PreloadProgress> getPreloadStatus() {
+        return Result.success(inventoryPreloadService.getProgress());
+    }
+
+    /**
+     * 立即预热场次
+     */
+    @PostMapping("/prewarm")
+    public Result<SaleStartOrchestrator.PrewarmReport> prewarm(@RequestParam("eventId") Long eventId) {
+        log.info("Prewarm sale: eventId={}", eventId);
+        return Result.success(saleStartOrchestrator.prewarm(eventId));
+    }
+
+    /**
+     * 查询场次在各实例上的开售就绪报告
+     */
+    @GetMapping("/prewarm/report")
+    public Result<Map<Object, Object>> getPrewarmReports(@RequestParam("eventId") Long eventId) {
+        return Result.success(saleStartOrchestrator.getReports(eventId));
+    }
+
+    /**
+     * 配置分批放量计划
+     */
+    @PostMapping("/waves")
+    public Result<Integer> configureReleaseWaves(@RequestParam("eventId") Long eventId,
+                                                 @RequestParam("ticketTypeId") Long ticketTypeId,
+                                                 @RequestBody List<ReleaseWave> waves) {
+        log.info("Configure release waves: eventId={}, ticketTypeId={}, waves={}", eventId, ticketTypeId, waves);
+        return Result.success(releaseWaveService.configure(eventId, ticketTypeId, waves));
+    }
+
+    /**
+     * 查询可售库存和当前放量批次
+     */
+    @GetMapping("/availability")
+    public Result<StockAvailability> getAvailability(@RequestParam("eventId") Long eventId,
+                                                     @RequestParam("ticketTypeId") Long ticketTypeId) {
+        return Result.success(releaseWaveService.getAvailability(eventId, ticketTypeId));
+    }
+
+    /**
+     * 按渠道划分配额
+     */
+    @PostMapping("/channel/quotas")
+    public Result<Map<SalesChannel, Integer>> configureChannelQuotas(@RequestParam("eventId") Long eventId,
+                                                                     @RequestParam("ticketTypeId") Long ticketTypeId,
+                                                                     @RequestBody Map<SalesChannel, Integer> percents) {
+        log.info("Configure channel quotas: eventId={}, ticketTypeId={}, percents={}", eventId, ticketTypeId, percents);
+        return Result.success(channelQuotaService.configureQuotas(eventId, ticketTypeId, percents));
+    }
+
+    /**
+     * 查询渠道配额使用情况
+     */
+    @GetMapping("/channel/quotas")
+    public Result<Map<SalesChannel, ChannelQuotaService.ChannelQuota>> getChannelQuotas(@RequestParam("eventId") Long eventId,
+                                                                                        @RequestParam("ticketTypeId") Long ticketTypeId) {
+        return Result.success(channelQuotaService.getQuotas(eventId, ticketTypeId));
+    }
+
+    /**
+     * 解除渠道配额
+     */
+    @PostMapping("/channel/quotas/dissolve")
+    public Result<Integer> dissolveChannelQuotas(@RequestParam("eventId") Long eventId,
+                                                 @RequestParam("ticketTypeId") Long ticketTypeId) {
+        log.info("Dissolve channel quotas: eventId={}, ticketTypeId={}", eventId, ticketTypeId);
+        return Result.success(channelQuotaService.dissolveQuotas(eventId, ticketTypeId));
+    }
+
+    /**
+     * 按渠道锁定库存
+     */
+    @PostMapping("/channel/lock")
+    public Result<Boolean> lockChannelStock(@RequestParam("eventId") Long eventId,
+                                            @RequestParam("ticketTypeId") Long ticketTypeId,
+                                            @RequestParam("userId") Long userId,
+                                            @RequestParam("quantity") Integer quantity,
+                                            @RequestParam("channel") SalesChannel channel) {
+        boolean success = channelQuotaService.lockStock(eventId, ticketTypeId, userId, quantity, channel);
+        return Result.success(success);
+    }
+
+    /**
+     * 开启场次的抽签报名
+     */
+    @PostMapping("/ballot/open")
+    public Result<Void> openBallot(@RequestParam("eventId") Long eventId,
+                                   @RequestParam("closeTime") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime closeTime,
+                                   @RequestParam(value = "seed", required = false) Long seed) {
+        log.info("Open ballot: eventId={}, closeTime={}", eventId, closeTime);
+        ballotService.openBallot(eventId, closeTime, seed);
+        return Result.success();
+    }
+
+    /**
+     * 提交抽签申请
+     */
+    @PostMapping("/ballot/entry")
+    public Result<Void> submitBallotEntry(@RequestParam("eventId") Long eventId,
+                                          @RequestParam("ticketTypeId") Long ticketTypeId,
+                                          @RequestParam("userId") Long userId,
+                                          @RequestParam("quantity") Integer quantity) {
+        ballotService.submitEntry(eventId, ticketTypeId, userId, quantity);
+        return Result.success();
+    }
+
+    /**
+     * 查询抽签状态
+     */
+    @GetMapping("/ballot")
+    public Result<Map<Object, Object>> getBallot(@RequestParam("eventId") Long eventId) {
+        return Result.success(ballotService.getBallot(eventId));
+    }
+
+    /**
+     * 加入候补队列
+     */
+    @PostMapping("/waitlist/join")
+    public Result<Long> joinWaitlist(@RequestParam("eventId") Long eventId,
+                                     @RequestParam("ticketTypeId") Long ticketTypeId,
+                                     @RequestParam("userId") Long userId,
+                                     @RequestParam("quantity") Integer quantity) {
+        return Result.success(waitlistService.join(eventId, ticketTypeId, userId, quantity));
+    }
+
+    /**
+     * 退出候补队列
+     */
+    @PostMapping("/waitlist/leave")
+    public Result<Boolean> leaveWaitlist(@RequestParam("eventId") Long eventId,
+                                         @RequestParam("ticketTypeId") Long ticketTypeId,
+                                         @RequestParam("userId") Long userId) {
+        return Result.success(waitlistService.leave(eventId, ticketTypeId, userId));
+    }
+
+    /**
+     * 查询候补队列长度
+     */
+    @GetMapping("/waitlist/size")
+    public Result<Long> getWaitlistSize(@RequestParam("eventId") Long eventId,
+                                        @RequestParam("ticketTypeId") Long ticketTypeId) {
+        return Result.success(waitlistService.getSize(eventId, ticketTypeId));
+    }
+
+    /**
+     * 查询各准入通道的排队数量
+     */
+    @GetMapping("/admission/lanes")
+    public Result<Map<AdmissionLane, Integer>> getAdmissionLanes() {
+        return Result.success(priorityAdmissionService.getQueueDepths());
+    }
+
+    /**
+     * 注册场次的预售码文件
+     */
+    @PostMapping("/presale/codes")
+    public Result<Integer> registerPresaleCodes(@RequestParam("eventId") Long eventId,
+                                                @RequestParam("path") String path) {
+        log.info("Register presale codes: eventId={}, path={}", eventId, path);
+        return Result.success(presaleCodeService.register(eventId, path));
+    }
+
+    /**
+     * 使用预售码锁定库存
+     */
+    @PostMapping("/presale/lock")
+    public Result<Boolean> lockPresaleStock(@RequestParam("eventId") Long eventId,
+                                            @RequestParam("ticketTypeId") Long ticketTypeId,
+                                            @RequestParam("userId") Long userId,
+                                            @RequestParam("quantity") Integer quantity,
+                                            @RequestParam("code") String code) {
+        boolean success = presaleCodeService.lockStock(eventId, ticketTypeId, userId, quantity, code);
+        return Result.success(success);
+    }
+
+    /**
+     * 查询预售码使用情况
+     */
+    @GetMapping("/presale/stats")
+    public Result<Map<String, Long>> getPresaleStats(@RequestParam("eventId") Long eventId) {
+        return Result.success(presaleCodeService.getStats(eventId));
+    }
+
+    /**
+     * 初始化场次座位库存，区域按名称绑定场次的同名票种
+     */
+    @PostMapping("/seats/initialize")
+    public Result<Boolean> initializeSeats(@RequestParam("eventId") Long eventId,
+                                           @RequestBody Map<String, List<String>> seatMap) {
+        log.info("Initialize seat inventory: eventId={}, sections={}", eventId, seatMap.size());
+        return Result.success(seatInventoryService.initializeSeatInventory(eventId, seatMap, null));
+    }
+
+    /**
+     * 锁定座位
+     */
+    @PostMapping("/seats/lock")
+    public Result<Boolean> lockSeats(@RequestParam("eventId") Long eventId,
+                                     @RequestParam("seatIds") List<String> seatIds,
+                                     @RequestParam("userId") Long userId,
+                                     @RequestParam(value = "lockDuration", defaultValue = "600") Integer lockDuration) {
+        return Result.success(seatInventoryService.lockSeats(eventId, seatIds, userId, lockDuration));
+    }
+
+    /**
+     * 释放座位
+     */
+    @PostMapping("/seats/release")
+    public Result<Boolean> releaseSeats(@RequestParam("eventId") Long eventId,
+                                        @RequestParam("seatIds") List<String> seatIds,
+                                        @RequestParam("userId") Long userId) {
+        return Result.success(seatInventoryService.releaseSeats(eventId, seatIds, userId));
+    }
+
+    /**
+     * 确认座位预订
+     */
+    @PostMapping("/seats/confirm")
+    public Result<Boolean> confirmSeats(@RequestParam("eventId") Long eventId,
+                                        @RequestParam("seatIds") List<String> seatIds,
+                                        @RequestParam("userId") Long userId,
+                                        @RequestParam("orderId") Long orderId) {
+        return Result.success(seatInventoryService.confirmSeats(eventId, seatIds, userId, orderId));
+    }
+
+    /**
+     * 查询座位状态
+     */
+    @GetMapping("/seats/status")
+    public Result<Map<String, String>> querySeatStatus(@RequestParam("eventId") Long eventId,
+                                                       @RequestParam("seatIds") List<String> seatIds) {
+        return Result.success(seatInventoryService.querySeatStatus(eventId, seatIds));
+    }
+
+    /**
+     * 获取可用座位
+     */
+    @GetMapping("/seats/available")
+    public Result<List<String>> getAvailableSeats(@RequestParam("eventId") Long eventId,
+                                                  @RequestParam("quantity") Integer quantity,
+                                                  @RequestParam(value = "ticketTypeId", required = false) Long ticketTypeId) {
+        return Result.success(seatInventoryService.getAvailableSeats(eventId, quantity, ticketTypeId));
+    }
+
+    /**
+     * 自动选座并锁定
+     */
+    @PostMapping("/seats/allocate")
+    public Result<List<String>> allocateSeats(@RequestParam("eventId") Long eventId,
+                                              @RequestParam("quantity") Integer quantity,
+                                              @RequestParam(value = "ticketTypeId", required = false) Long ticketTypeId,
+                                              @RequestParam("userId") Long userId,
+                                              @RequestParam(value = "lockDuration", defaultValue = "600") Integer lockDuration) {
+        return Result.success(seatInventoryService.allocateSeats(eventId, quantity, ticketTypeId, userId, lockDuration));
+    }
+
+    /**
+     * 设置区域质量分
+     */
+    @PostMapping("/seats/scores")
+    public Result<Void> updateSectionScores(@RequestParam("eventId") Long eventId,
+                                            @RequestBody Map<String, Integer> scores) {
+        seatInventoryService.updateSectionScores(eventId, scores);
+        return Result.success();
+    }
+
+    /**
+     * 获取座位分布图，客户端据此解析座位图更新中的座位序号
+     */
+    @GetMapping("/seats/map")
+    public Result<Map<String, List<String>>> getSeatMap(@RequestParam("eventId") Long eventId) {
+        return Result.success(seatInventoryService.getSeatMap(eventId));
+    }
+
+    /**
+     * 获取指定版本之后的座位图更新，版本过旧时返回全量快照
+     */
+    @GetMapping("/seats/updates")
+    public Result<SeatMapUpdate> getSeatMapUpdates(@RequestParam("eventId") Long eventId,
+                                                   @RequestParam(value = "since", defaultValue = "-1") Long since) {
+        return Result.success(seatMapFeedService.getUpdates(eventId, since));
+    }
+}
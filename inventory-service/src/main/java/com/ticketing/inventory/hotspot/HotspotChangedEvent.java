@@ -0,0 +1,33 @@
+package com.ticketing.inventory.hotspot;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * 热点变化事件
+ * 票种成为热点或退出热点时发布
+ */
+@Data
+@AllArgsConstructor
+public class HotspotChangedEvent {
+
+    /**
+     * 场次ID
+     */
+    private Long eventId;
+
+    /**
+     * 票种ID
+     */
+    private Long ticketTypeId;
+
+    /**
+     * 是否为热点
+     */
+    private boolean hot;
+
+    /**
+     * 窗口内的估算访问次数
+     */
+    private long accessCount;
+}
@@ -2,25 +2,35 @@ package com.ticketing.inventory.hotspot;
 
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.ticketing.common.utils.InventoryKeyUtil;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.flink.streaming.api.datastream.DataStream;
-import org.apache.flink.streaming.api.environment.StreamExecutionEnvironment;
-import org.apache.flink.streaming.api.functions.windowing.ProcessWindowFunction;
-import org.apache.flink.streaming.api.windowing.time.Time;
-import org.apache.flink.streaming.api.windowing.windows.TimeWindow;
-import org.apache.flink.util.Collector;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 热点数据探测服务
- * 基于Flink实时分析Redis访问日志，识别热点票务
+ * 进程内统计库存读写路径的访问，识别热点票务
+ * - 滑动窗口Count-Min Sketch估算每个票种最近一分钟的访问次数
+ * - Space-Saving Top-K维护候选热点集合
+ * - 记录访问只做原子自增和无锁入队，统计由单独的分析线程完成
  */
 @Slf4j
 @Service
@@ -29,16 +39,51 @@ public class HotspotDetectionService {
     @Autowired
     private StringRedisTemplate redisTemplate;
 
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
     // 本地缓存
     private Cache<String, InventoryInfo> localCache;
 
-    // 热点商品访问计数器
-    private Map<String, HotspotCounter> hotspotCounters = new ConcurrentHashMap<>();
-
     // 热点阈值
     private static final int HOTSPOT_THRESHOLD = 1000; // 每分钟访问次数超过1000次判定为热点
+    private static final int HOTSPOT_EXIT_THRESHOLD = HOTSPOT_THRESHOLD / 2; // 低于该值退出热点，避免抖动
     private static final int CACHE_EXPIRE_MINUTES = 30; // 本地缓存过期时间
 
+    // 统计窗口：6个10秒时间片，共1分钟
+    private static final int WINDOW_SLOTS = 6;
+    private static final long SLOT_MILLIS = 10000;
+
+    // Sketch尺寸
+    private static final int SKETCH_DEPTH = 4;
+    private static final int SKETCH_WIDTH = 4096;
+
+    // Top-K候选数量
+    private static final int TOP_K = 100;
+
+    // 分析间隔（毫秒）
+    private static final long ANALYZE_INTERVAL = 50;
+
+    // 待分析访问记录上限，超过后只计入Sketch
+    private static final int MAX_PENDING_ACCESSES = 100000;
+
+    private final SlidingWindowCountMinSketch sketch =
+            new SlidingWindowCountMinSketch(SKETCH_DEPTH, SKETCH_WIDTH, WINDOW_SLOTS);
+
+    // 只由分析线程访问
+    private final SpaceSavingTopK topK = new SpaceSavingTopK(TOP_K);
+
+    // 待分析的访问记录
+    private final Queue<Long> pendingAccesses = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+
+    // 当前热点
+    private volatile Set<Long> hotKeys = Collections.emptySet();
+    private volatile List<HotItem> hotItems = Collections.emptyList();
+
+    private ScheduledExecutorService analyzer;
+    private long lastSlotTime;
+
     @PostConstruct
     public void init() {
         // 初始化本地缓存
@@ -47,37 +92,62 @@ public class HotspotDetectionService {
                 .maximumSize(10000)
                 .build();
 
-        // 启动Flink任务
-        initializeFlinkJob();
+        // 启动分析线程，不阻塞启动
+        lastSlotTime = System.currentTimeMillis();
+        analyzer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "hotspot-analyzer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        analyzer.scheduleWithFixedDelay(this::analyze, ANALYZE_INTERVAL, ANALYZE_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        analyzer.shutdownNow();
     }
 
     /**
-     * 初始化Flink实时分析任务
+     * 记录一次库存访问
      */
-    private void initializeFlinkJob() {
-        try {
-            StreamExecutionEnvironment env = StreamExecutionEnvironment.getExecutionEnvironment();
+    public void recordAccess(Long eventId, Long ticketTypeId) {
+        long key = InventoryKeyUtil.pack(eventId, ticketTypeId);
+        sketch.add(key);
 
-            // 读取Redis访问日志流
-            DataStream<AccessLog> accessLogStream = env.addSource(new RedisAccessLogSource());
+        if (pendingCount.incrementAndGet() <= MAX_PENDING_ACCESSES) {
+            pendingAccesses.offer(key);
+        } else {
+            pendingCount.decrementAndGet();
+        }
+    }
 
-            // 按商品ID分组，统计访问次数
-            accessLogStream
-                    .keyBy(AccessLog::getInventoryKey)
-                    .timeWindow(Time.minutes(1))
-                    .process(new HotspotDetectionFunction())
-                    .addSink(new HotspotNotificationSink());
+    /**
+     * 判断是否为热点票种
+     */
+    public boolean isHotspot(Long eventId, Long ticketTypeId) {
+        return hotKeys.contains(InventoryKeyUtil.pack(eventId, ticketTypeId));
+    }
 
-            env.execute("Hotspot Detection Job");
-        } catch (Exception e) {
-            log.error("Failed to initialize Flink job", e);
-        }
+    /**
+     * 估算票种最近一分钟的访问次数
+     */
+    public long estimateAccessCount(Long eventId, Long ticketTypeId) {
+        return sketch.estimate(InventoryKeyUtil.pack(eventId, ticketTypeId));
+    }
+
+    /**
+     * 获取当前热点票种，按访问次数从高到低排列
+     */
+    public List<HotItem> getHotItems() {
+        return hotItems;
     }
 
     /**
      * 获取库存信息，优先从本地缓存获取
      */
-    public InventoryInfo getInventoryInfo(String inventoryKey) {
+    public InventoryInfo getInventoryInfo(Long eventId, Long ticketTypeId, String inventoryKey) {
+        recordAccess(eventId, ticketTypeId);
+
         // 先查本地缓存
         InventoryInfo info = localCache.getIfPresent(inventoryKey);
         if (info != null) {
@@ -88,13 +158,13 @@ public class HotspotDetectionService {
         String quantity = redisTemplate.opsForValue().get(inventoryKey);
         if (quantity != null) {
             info = new InventoryInfo(Integer.parseInt(quantity));
-            
+
             // 如果是热点商品，放入本地缓存
-            if (isHotspot(inventoryKey)) {
+            if (isHotspot(eventId, ticketTypeId)) {
                 localCache.put(inventoryKey, info);
                 log.info("Added to local cache: {}", inventoryKey);
             }
-            
+
             return info;
         }
 
@@ -104,75 +174,109 @@ public class HotspotDetectionService {
     /**
      * 更新库存信息
      */
-    public void updateInventoryInfo(String inventoryKey, int quantity) {
+    public void updateInventoryInfo(Long eventId, Long ticketTypeId, String inventoryKey, int quantity) {
+        recordAccess(eventId, ticketTypeId);
+
         // 更新Redis
         redisTemplate.opsForValue().set(inventoryKey, String.valueOf(quantity));
-        
+
         // 如果是热点商品，同时更新本地缓存
-        if (isHotspot(inventoryKey)) {
+        if (isHotspot(eventId, ticketTypeId)) {
             localCache.put(inventoryKey, new InventoryInfo(quantity));
         }
     }
 
     /**
-     * 判断是否为热点商品
+     * 分析访问记录，更新热点集合并发布变化事件
      */
-    private boolean isHotspot(String inventoryKey) {
-        HotspotCounter counter = hotspotCounters.get(inventoryKey);
-        return counter != null && counter.getAccessCount() >= HOTSPOT_THRESHOLD;
+    private void analyze() {
+        try {
+            advanceWindowIfNeeded();
+
+            // 合并本轮访问记录后再更新Top-K
+            Map<Long, Long> counts = new HashMap<>();
+            Long key;
+            while ((key = pendingAccesses.poll()) != null) {
+                pendingCount.decrementAndGet();
+                counts.merge(key, 1L, Long::sum);
+            }
+            for (Map.Entry<Long, Long> entry : counts.entrySet()) {
+                topK.offer(entry.getKey(), entry.getValue());
+            }
+
+            refreshHotKeys();
+        } catch (Exception e) {
+            // 吞掉异常，避免定时任务被取消
+            log.error("Failed to analyze hotspot", e);
+        }
     }
 
     /**
-     * 热点检测处理函数
+     * 推进滑动窗口，同时衰减Top-K计数
      */
-    private class HotspotDetectionFunction 
-            extends ProcessWindowFunction<AccessLog, HotspotEvent, String, TimeWindow> {
-        
-        @Override
-        public void process(String key, Context context, Iterable<AccessLog> elements,
-                          Collector<HotspotEvent> out) {
-            
-            long count = 0;
-            for (AccessLog log : elements) {
-                count++;
+    private void advanceWindowIfNeeded() {
+        long now = System.currentTimeMillis();
+        while (now - lastSlotTime >= SLOT_MILLIS) {
+            sketch.advance();
+            topK.decay(1);
+            lastSlotTime += SLOT_MILLIS;
+        }
+    }
+
+    /**
+     * 以Sketch估算值重新判定候选key的热点状态
+     */
+    private void refreshHotKeys() {
+        Set<Long> previous = hotKeys;
+        Set<Long> current = new HashSet<>();
+        List<HotItem> items = new ArrayList<>();
+
+        for (SpaceSavingTopK.Entry entry : topK.top()) {
+            long key = entry.getKey();
+            long estimate = sketch.estimate(key);
+            int threshold = previous.contains(key) ? HOTSPOT_EXIT_THRESHOLD : HOTSPOT_THRESHOLD;
+            if (estimate >= threshold) {
+                current.add(key);
+                items.add(new HotItem(InventoryKeyUtil.eventId(key), InventoryKeyUtil.ticketTypeId(key), estimate));
             }
+        }
+        items.sort((a, b) -> Long.compare(b.getAccessCount(), a.getAccessCount()));
 
-            if (count >= HOTSPOT_THRESHOLD) {
-                // 发现热点商品
-                HotspotEvent event = new HotspotEvent(key, count);
-                out.collect(event);
-                
-                // 更新计数器
-                hotspotCounters.put(key, new HotspotCounter(count));
-                
-                log.info("Detected hotspot: {}, access count: {}", key, count);
+        hotKeys = Collections.unmodifiableSet(current);
+        hotItems = Collections.unmodifiableList(items);
+
+        for (Long key : current) {
+            if (!previous.contains(key)) {
+                publishChange(key, true);
+            }
+        }
+        for (Long key : previous) {
+            if (!current.contains(key)) {
+                publishChange(key, false);
             }
         }
     }
 
-    @lombok.Data
-    @lombok.AllArgsConstructor
-    private static class AccessLog {
-        private String inventoryKey;
-        private long timestamp;
+    private void publishChange(long key, boolean hot) {
+        long estimate = sketch.estimate(key);
+        Long eventId = InventoryKeyUtil.eventId(key);
+        Long ticketTypeId = InventoryKeyUtil.ticketTypeId(key);
+        log.info("Hotspot changed: eventId={}, ticketTypeId={}, hot={}, access count={}",
+                eventId, ticketTypeId, hot, estimate);
+        eventPublisher.publishEvent(new HotspotChangedEvent(eventId, ticketTypeId, hot, estimate));
     }
 
     @lombok.Data
     @lombok.AllArgsConstructor
-    private static class HotspotEvent {
-        private String inventoryKey;
+    public static class HotItem {
+        private Long eventId;
+        private Long ticketTypeId;
         private long accessCount;
     }
 
     @lombok.Data
     @lombok.AllArgsConstructor
-    private static class InventoryInfo {
+    public static class InventoryInfo {
         private int quantity;
     }
-
-    @lombok.Data
-    @lombok.AllArgsConstructor
-    private static class HotspotCounter {
-        private long accessCount;
-    }
-} 
\ No newline at end of file
+}
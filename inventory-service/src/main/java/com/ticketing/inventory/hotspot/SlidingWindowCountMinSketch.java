@@ -0,0 +1,90 @@
+package com.ticketing.inventory.hotspot;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 滑动窗口Count-Min Sketch
+ * - 窗口切分为若干时间片，每个时间片一张计数表，写入只做原子自增，无锁
+ * - 估算值为窗口内所有时间片的计数之和，只会高估不会低估
+ * - 推进时间片时清空最旧的一张表
+ */
+public class SlidingWindowCountMinSketch {
+
+    // 各行的哈希种子
+    private static final long[] SEEDS = {
+            0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L,
+            0xFF51AFD7ED558CCDL, 0xC4CEB9FE1A85EC53L, 0x27D4EB2F165667C5L, 0x94D049BB133111EBL
+    };
+
+    private final int depth;
+    private final int width;
+    private final int widthMask;
+    private final AtomicLongArray[] slots;
+
+    private volatile int currentSlot;
+
+    /**
+     * @param depth 哈希行数
+     * @param width 每行宽度，向上取整为2的幂
+     * @param slotCount 窗口内的时间片数
+     */
+    public SlidingWindowCountMinSketch(int depth, int width, int slotCount) {
+        if (depth <= 0 || depth > SEEDS.length || width < 2 || slotCount <= 0) {
+            throw new IllegalArgumentException("Invalid sketch dimensions");
+        }
+        this.depth = depth;
+        this.width = Integer.highestOneBit(width - 1) << 1;
+        this.widthMask = this.width - 1;
+        this.slots = new AtomicLongArray[slotCount];
+        for (int i = 0; i < slotCount; i++) {
+            slots[i] = new AtomicLongArray(depth * this.width);
+        }
+    }
+
+    /**
+     * 记录一次访问
+     */
+    public void add(long key) {
+        AtomicLongArray table = slots[currentSlot];
+        for (int row = 0; row < depth; row++) {
+            table.incrementAndGet(row * width + index(key, row));
+        }
+    }
+
+    /**
+     * 估算窗口内的访问次数
+     */
+    public long estimate(long key) {
+        long min = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            int cell = row * width + index(key, row);
+            long sum = 0;
+            for (AtomicLongArray table : slots) {
+                sum += table.get(cell);
+            }
+            min = Math.min(min, sum);
+        }
+        return min;
+    }
+
+    /**
+     * 推进到下一个时间片，清空其中的旧计数
+     * 只允许单线程调用
+     */
+    public void advance() {
+        int next = (currentSlot + 1) % slots.length;
+        AtomicLongArray table = slots[next];
+        for (int i = 0; i < table.length(); i++) {
+            table.set(i, 0);
+        }
+        currentSlot = next;
+    }
+
+    private int index(long key, int row) {
+        long h = key ^ SEEDS[row];
+        h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+        h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        h = h ^ (h >>> 33);
+        return (int) h & widthMask;
+    }
+}
@@ -0,0 +1,104 @@
+package com.ticketing.inventory.hotspot;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Space-Saving Top-K统计
+ * - 最多跟踪capacity个key，满了之后新key替换计数最小的key并继承其计数
+ * - 非线程安全，只由热点分析线程访问
+ * - 支持整体衰减，让过气的key逐步让出位置
+ */
+public class SpaceSavingTopK {
+
+    private final int capacity;
+    private final Map<Long, Entry> entries;
+
+    public SpaceSavingTopK(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.entries = new HashMap<>(capacity * 2);
+    }
+
+    /**
+     * 累加key的计数
+     */
+    public void offer(long key, long increment) {
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            entry.count += increment;
+            return;
+        }
+
+        if (entries.size() < capacity) {
+            entries.put(key, new Entry(key, increment, 0));
+            return;
+        }
+
+        // 替换计数最小的key，新key继承其计数作为误差上界
+        Entry min = null;
+        for (Entry candidate : entries.values()) {
+            if (min == null || candidate.count < min.count) {
+                min = candidate;
+            }
+        }
+        entries.remove(min.key);
+        entries.put(key, new Entry(key, min.count + increment, min.count));
+    }
+
+    /**
+     * 所有计数按比例衰减，计数归零的key被移除
+     */
+    public void decay(int shift) {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            entry.count >>= shift;
+            entry.error >>= shift;
+            if (entry.count == 0) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * 按计数从大到小返回当前跟踪的key
+     */
+    public List<Entry> top() {
+        List<Entry> result = new ArrayList<>(entries.values());
+        result.sort((a, b) -> Long.compare(b.count, a.count));
+        return result;
+    }
+
+    /**
+     * 跟踪项
+     */
+    public static class Entry {
+        private final long key;
+        private long count;
+        private long error;
+
+        Entry(long key, long count, long error) {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+        }
+
+        public long getKey() {
+            return key;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getError() {
+            return error;
+        }
+    }
+}
@@ -0,0 +1,461 @@
+package com.ticketing.inventory.journal;
+
+import com.ticketing.common.utils.InventoryKeyUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * 库存操作日志
+ * - 定长二进制记录追加写入内存映射的段文件，写满后滚动到新段
+ * - 后台线程定时force，多次追加共享一次刷盘（组提交）
+ * - 定时生成状态快照，快照之前的段文件被删除
+ * - 启动时从最新快照开始重放后续记录，重建各票种的库存状态
+ * - 重建的状态只覆盖本实例写入的记录，由快照恢复用来收紧Redis余量
+ * - 没有INIT记录的票种不跟踪，避免从未知基线推算出错误的余量
+ *
+ * 记录格式（64字节）：
+ * 序号(8) 时间戳(8) 场次ID(8) 票种ID(8) 锁定ID(8) 分片(4) 数量(4) 操作(1) 保留(11) CRC32(4)
+ */
+@Slf4j
+@Component
+public class InventoryJournal {
+
+    // 日志目录
+    private static final String JOURNAL_DIR = "data/journal";
+
+    // 单条记录大小
+    private static final int RECORD_SIZE = 64;
+
+    // CRC覆盖的字节数
+    private static final int CHECKED_SIZE = RECORD_SIZE - 4;
+
+    // 段文件大小：64MB，约100万条记录
+    private static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    // 刷盘间隔（毫秒）
+    private static final long FLUSH_INTERVAL = 10;
+
+    // 快照间隔（毫秒）
+    private static final long SNAPSHOT_INTERVAL = 60000;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".snap";
+
+    private static final int SNAPSHOT_MAGIC = 0x494E564A;
+    private static final int SNAPSHOT_VERSION = 1;
+
+    // 追加锁，同时保护库存状态和当前段
+    private final ReentrantLock appendLock = new ReentrantLock();
+
+    // 各票种的库存状态：[可用, 锁定, 已售]，key为打包后的(eventId, ticketTypeId)
+    private final Map<Long, long[]> state = new HashMap<>();
+
+    private final CRC32 crc = new CRC32();
+
+    private final Path directory;
+    private FileChannel segmentChannel;
+    private MappedByteBuffer segmentBuffer;
+    private long nextSequence = 1;
+    private volatile long durableSequence;
+
+    private ScheduledExecutorService flusher;
+
+    public InventoryJournal() {
+        this(Paths.get(JOURNAL_DIR));
+    }
+
+    InventoryJournal(Path directory) {
+        this.directory = directory;
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        Files.createDirectories(directory);
+
+        long start = System.currentTimeMillis();
+        recover();
+        log.info("Recovered inventory journal in {}ms, last sequence: {}, ticket types: {}",
+                System.currentTimeMillis() - start, nextSequence - 1, state.size());
+
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "inventory-journal-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL, FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+        flusher.scheduleWithFixedDelay(this::snapshot, SNAPSHOT_INTERVAL, SNAPSHOT_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void destroy() throws IOException {
+        flusher.shutdown();
+        flush();
+        snapshot();
+        segmentChannel.close();
+    }
+
+    /**
+     * 追加一条记录，不等待刷盘
+     * @return 记录序号
+     */
+    public long append(JournalOp op, Long eventId, Long ticketTypeId, int shard, int quantity, Long holdId) {
+        long sequence;
+        long available;
+        appendLock.lock();
+        try {
+            if (segmentBuffer.remaining() < RECORD_SIZE) {
+                rotate();
+            }
+
+            sequence = nextSequence++;
+            int position = segmentBuffer.position();
+            segmentBuffer.putLong(position, sequence);
+            segmentBuffer.putLong(position + 8, System.currentTimeMillis());
+            segmentBuffer.putLong(position + 16, eventId);
+            segmentBuffer.putLong(position + 24, ticketTypeId);
+            segmentBuffer.putLong(position + 32, holdId == null ? 0 : holdId);
+            segmentBuffer.putInt(position + 40, shard);
+            segmentBuffer.putInt(position + 44, quantity);
+            segmentBuffer.put(position + 48, op.getCode());
+            segmentBuffer.putInt(position + CHECKED_SIZE, checksum(segmentBuffer, position));
+            segmentBuffer.position(position + RECORD_SIZE);
+
+            available = apply(op, InventoryKeyUtil.pack(eventId, ticketTypeId), quantity);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to rotate journal segment", e);
+        } finally {
+            appendLock.unlock();
+        }
+
+        // 告警在锁外输出，不拖慢其他追加
+        if (available < 0) {
+            log.warn("Oversell detected at journal sequence {}: eventId={}, ticketTypeId={}, available={}",
+                    sequence, eventId, ticketTypeId, available);
+        }
+        return sequence;
+    }
+
+    /**
+     * 复制所有票种的库存状态
+     * @return key为打包后的(eventId, ticketTypeId)，值为[可用, 锁定, 已售]
+     */
+    public Map<Long, long[]> copyState() {
+        appendLock.lock();
+        try {
+            return copyStateLocked();
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * 刷盘：一次force覆盖此前所有追加
+     */
+    private void flush() {
+        MappedByteBuffer buffer;
+        long sequence;
+        appendLock.lock();
+        try {
+            buffer = segmentBuffer;
+            sequence = nextSequence - 1;
+        } finally {
+            appendLock.unlock();
+        }
+
+        if (sequence <= durableSequence) {
+            return;
+        }
+        try {
+            // 滚动时旧段已刷盘，这里只需刷当前段
+            buffer.force();
+            durableSequence = sequence;
+        } catch (Exception e) {
+            log.error("Failed to flush inventory journal", e);
+        }
+    }
+
+    /**
+     * 生成快照并清理已被覆盖的段文件
+     */
+    private void snapshot() {
+        Map<Long, long[]> snapshotState;
+        long sequence;
+        appendLock.lock();
+        try {
+            snapshotState = copyStateLocked();
+            sequence = nextSequence - 1;
+        } finally {
+            appendLock.unlock();
+        }
+
+        try {
+            Path target = directory.resolve(String.format("%s%020d%s", SNAPSHOT_PREFIX, sequence, SNAPSHOT_SUFFIX));
+            if (Files.exists(target)) {
+                return;
+            }
+            Path temp = directory.resolve(target.getFileName() + ".tmp");
+            writeSnapshot(temp, sequence, snapshotState);
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+
+            for (Path old : listFiles(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX)) {
+                if (fileSequence(old, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX) < sequence) {
+                    Files.deleteIfExists(old);
+                }
+            }
+            deleteCoveredSegments(sequence);
+            log.info("Wrote inventory journal snapshot at sequence {}", sequence);
+        } catch (Exception e) {
+            log.error("Failed to write inventory journal snapshot", e);
+        }
+    }
+
+    /**
+     * 从快照和段文件恢复状态，并定位到追加位置
+     */
+    private void recover() throws IOException {
+        long snapshotSequence = loadLatestSnapshot();
+        long lastSequence = snapshotSequence;
+        int oversold = 0;
+
+        List<Path> segments = listFiles(SEGMENT_PREFIX, SEGMENT_SUFFIX);
+        Path lastSegment = null;
+        int lastPosition = 0;
+
+        for (int i = 0; i < segments.size(); i++) {
+            Path segment = segments.get(i);
+            // 下一个段的起始序号不大于快照序号时，该段已被快照覆盖
+            if (i + 1 < segments.size()
+                    && fileSequence(segments.get(i + 1), SEGMENT_PREFIX, SEGMENT_SUFFIX) <= snapshotSequence + 1) {
+                continue;
+            }
+
+            try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                int position = 0;
+                while (position + RECORD_SIZE <= buffer.limit()) {
+                    long sequence = buffer.getLong(position);
+                    // 未写入或写了一半的记录，段在此结束
+                    if (sequence == 0 || buffer.getInt(position + CHECKED_SIZE) != checksum(buffer, position)) {
+                        break;
+                    }
+                    if (sequence > snapshotSequence) {
+                        JournalOp op = JournalOp.of(buffer.get(position + 48));
+                        long key = InventoryKeyUtil.pack(buffer.getLong(position + 16), buffer.getLong(position + 24));
+                        if (op != null && apply(op, key, buffer.getInt(position + 44)) < 0) {
+                            oversold++;
+                        }
+                    }
+                    lastSequence = Math.max(lastSequence, sequence);
+                    position += RECORD_SIZE;
+                }
+                lastSegment = segment;
+                lastPosition = position;
+            }
+        }
+
+        nextSequence = lastSequence + 1;
+        durableSequence = lastSequence;
+        if (oversold > 0) {
+            log.warn("Inventory journal replay found {} records leaving negative available stock", oversold);
+        }
+
+        if (lastSegment != null && lastPosition + RECORD_SIZE <= SEGMENT_SIZE) {
+            openSegment(lastSegment, lastPosition);
+        } else {
+            openSegment(segmentPath(nextSequence), 0);
+        }
+    }
+
+    /**
+     * 加载最新的有效快照
+     * @return 快照对应的序号，没有快照时返回0
+     */
+    private long loadLatestSnapshot() throws IOException {
+        List<Path> snapshots = listFiles(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+        for (int i = snapshots.size() - 1; i >= 0; i--) {
+            Path snapshot = snapshots.get(i);
+            try {
+                Map<Long, long[]> loaded = new HashMap<>();
+                long sequence = readSnapshot(snapshot, loaded);
+                state.clear();
+                state.putAll(loaded);
+                return sequence;
+            } catch (IOException e) {
+                log.warn("Skipped corrupt inventory journal snapshot: {}", snapshot, e);
+            }
+        }
+        return 0;
+    }
+
+    private void writeSnapshot(Path path, long sequence, Map<Long, long[]> snapshotState) throws IOException {
+        CRC32 checksum = new CRC32();
+        try (OutputStream file = Files.newOutputStream(path);
+             CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(file), checksum);
+             DataOutputStream out = new DataOutputStream(checked)) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeLong(sequence);
+            out.writeInt(snapshotState.size());
+            for (Map.Entry<Long, long[]> entry : snapshotState.entrySet()) {
+                out.writeLong(entry.getKey());
+                for (long value : entry.getValue()) {
+                    out.writeLong(value);
+                }
+            }
+            out.flush();
+            // 校验和本身不参与校验
+            new DataOutputStream(file).writeLong(checksum.getValue());
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    private long readSnapshot(Path path, Map<Long, long[]> target) throws IOException {
+        CRC32 checksum = new CRC32();
+        try (InputStream file = new BufferedInputStream(Files.newInputStream(path));
+             DataInputStream in = new DataInputStream(new CheckedInputStream(file, checksum))) {
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                throw new IOException("Unknown snapshot format");
+            }
+            long sequence = in.readLong();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                long key = in.readLong();
+                target.put(key, new long[]{in.readLong(), in.readLong(), in.readLong()});
+            }
+            long expected = checksum.getValue();
+            if (new DataInputStream(file).readLong() != expected) {
+                throw new IOException("Snapshot checksum mismatch");
+            }
+            return sequence;
+        }
+    }
+
+    /**
+     * 应用一条记录到库存状态
+     * @return 应用后的可用库存，票种未初始化时返回0
+     */
+    private long apply(JournalOp op, long key, int quantity) {
+        if (op == JournalOp.INIT) {
+            state.put(key, new long[]{quantity, 0, 0});
+            return quantity;
+        }
+        long[] values = state.get(key);
+        if (values == null) {
+            return 0;
+        }
+        switch (op) {
+            case LOCK:
+                values[0] -= quantity;
+                values[1] += quantity;
+                break;
+            case RELEASE:
+                values[1] -= quantity;
+                values[0] += quantity;
+                break;
+            case DEDUCT:
+                values[1] -= quantity;
+                values[2] += quantity;
+                break;
+            default:
+                break;
+        }
+        return values[0];
+    }
+
+    /**
+     * 滚动到新的段文件，旧段先刷盘
+     */
+    private void rotate() throws IOException {
+        segmentBuffer.force();
+        segmentChannel.close();
+        openSegment(segmentPath(nextSequence), 0);
+    }
+
+    private void openSegment(Path path, int position) throws IOException {
+        segmentChannel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segmentBuffer = segmentChannel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+        segmentBuffer.position(position);
+    }
+
+    /**
+     * 删除所有记录都不晚于快照序号的段文件
+     */
+    private void deleteCoveredSegments(long snapshotSequence) throws IOException {
+        List<Path> segments = listFiles(SEGMENT_PREFIX, SEGMENT_SUFFIX);
+        for (int i = 0; i + 1 < segments.size(); i++) {
+            if (fileSequence(segments.get(i + 1), SEGMENT_PREFIX, SEGMENT_SUFFIX) <= snapshotSequence + 1) {
+                Files.deleteIfExists(segments.get(i));
+            }
+        }
+    }
+
+    private Map<Long, long[]> copyStateLocked() {
+        Map<Long, long[]> copy = new HashMap<>(state.size() * 2);
+        for (Map.Entry<Long, long[]> entry : state.entrySet()) {
+            copy.put(entry.getKey(), entry.getValue().clone());
+        }
+        return copy;
+    }
+
+    private int checksum(ByteBuffer buffer, int position) {
+        ByteBuffer record = buffer.duplicate();
+        record.limit(position + CHECKED_SIZE).position(position);
+        crc.reset();
+        crc.update(record);
+        return (int) crc.getValue();
+    }
+
+    private Path segmentPath(long firstSequence) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, firstSequence, SEGMENT_SUFFIX));
+    }
+
+    private List<Path> listFiles(String prefix, String suffix) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(p -> {
+                String name = p.getFileName().toString();
+                return name.startsWith(prefix) && name.endsWith(suffix);
+            }).sorted().collect(Collectors.toCollection(ArrayList::new));
+        }
+    }
+
+    private long fileSequence(Path path, String prefix, String suffix) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length()));
+    }
+}
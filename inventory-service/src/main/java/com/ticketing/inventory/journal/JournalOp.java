@@ -0,0 +1,46 @@
+package com.ticketing.inventory.journal;
+
+/**
+ * 库存日志操作类型
+ */
+public enum JournalOp {
+
+    /**
+     * 初始化库存，数量为总库存
+     */
+    INIT((byte) 1),
+
+    /**
+     * 锁定库存：可用 -> 锁定
+     */
+    LOCK((byte) 2),
+
+    /**
+     * 释放库存：锁定 -> 可用
+     */
+    RELEASE((byte) 3),
+
+    /**
+     * 扣减库存：锁定 -> 已售
+     */
+    DEDUCT((byte) 4);
+
+    private final byte code;
+
+    JournalOp(byte code) {
+        this.code = code;
+    }
+
+    public byte getCode() {
+        return code;
+    }
+
+    public static JournalOp of(byte code) {
+        for (JournalOp op : values()) {
+            if (op.code == code) {
+                return op;
+            }
+        }
+        return null;
+    }
+}
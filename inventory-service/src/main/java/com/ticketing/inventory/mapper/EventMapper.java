@@ -0,0 +1,35 @@
+package com.ticketing.inventory.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.ticketing.common.entity.Event;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * 场次Mapper接口
+ */
+@Mapper
+public interface EventMapper extends BaseMapper<Event> {
+
+    /**
+     * 按主键游标分页查询未结束的场次ID
+     * @param lastId 上一页最后一个场次ID，第一页传0
+     * @param limit 每页数量
+     * @return 场次ID列表，按ID升序
+     */
+    @Select("SELECT id FROM t_event WHERE status IN (0, 1) AND id > #{lastId} ORDER BY id LIMIT #{limit}")
+    List<Long> selectActiveEventIds(@Param("lastId") Long lastId, @Param("limit") int limit);
+
+    /**
+     * 查询售票开始时间落在指定区间内的场次
+     * @param from 起始时间（含）
+     * @param to 结束时间（不含）
+     * @return 场次列表
+     */
+    @Select("SELECT * FROM t_event WHERE status IN (0, 1) AND sale_start_time >= #{from} AND sale_start_time < #{to}")
+    List<Event> selectSalesStartingBetween(@Param("from") LocalDateTime from, @Param("to") LocalDateTime to);
+}
@@ -5,6 +5,7 @@ import com.ticketing.common.entity.Inventory;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
 
+import java.time.LocalDateTime;
 import java.util.List;
 
 /**
@@ -36,4 +37,18 @@ public interface InventoryMapper extends BaseMapper<Inventory> {
      * @return 库存信息
      */
     Inventory selectBySharding(@Param("eventId") Long eventId, @Param("ticketTypeId") Long ticketTypeId, @Param("shardingId") Integer shardingId);
-} 
\ No newline at end of file
+
+    /**
+     * 查询指定时间之后有库存变更的场次和票种
+     * @param since 起始时间（含）
+     * @return 只包含场次ID和票种ID的库存列表
+     */
+    List<Inventory> selectChangedTicketTypes(@Param("since") LocalDateTime since);
+
+    /**
+     * 查询多个场次的所有分片库存
+     * @param eventIds 场次ID列表，应路由到同一个库
+     * @return 库存列表
+     */
+    List<Inventory> selectByEventIds(@Param("eventIds") List<Long> eventIds);
+}
@@ -0,0 +1,24 @@
+package com.ticketing.inventory.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.ticketing.common.entity.TicketType;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+
+import java.util.List;
+
+/**
+ * 票种Mapper接口
+ */
+@Mapper
+public interface TicketTypeMapper extends BaseMapper<TicketType> {
+
+    /**
+     * 查询场次的全部票种
+     * @param eventId 场次ID
+     * @return 票种列表
+     */
+    @Select("SELECT * FROM t_ticket_type WHERE event_id = #{eventId}")
+    List<TicketType> selectByEventId(@Param("eventId") Long eventId);
+}
@@ -0,0 +1,46 @@
+package com.ticketing.inventory.model;
+
+import com.ticketing.inventory.reconcile.DiscrepancyType;
+import lombok.Data;
+
+/**
+ * 库存对账差异
+ */
+@Data
+public class InventoryDiscrepancy {
+
+    /**
+     * 场次ID
+     */
+    private Long eventId;
+
+    /**
+     * 票种ID
+     */
+    private Long ticketTypeId;
+
+    /**
+     * 差异类型
+     */
+    private DiscrepancyType type;
+
+    /**
+     * 按其他来源推算的数量
+     */
+    private long expected;
+
+    /**
+     * 实际数量
+     */
+    private long actual;
+
+    /**
+     * 已自动修正的数量，正数为从Redis取出，负数为归还之前取出的库存，未修正时为0
+     */
+    private long corrected;
+
+    /**
+     * 发现时间（毫秒时间戳）
+     */
+    private long detectedAt;
+}
@@ -0,0 +1,24 @@
+package com.ticketing.inventory.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 放量批次
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReleaseWave {
+
+    /**
+     * 相对售票开始时间的偏移（分钟）
+     */
+    private int offsetMinutes;
+
+    /**
+     * 本批次放出的库存占总库存的百分比
+     */
+    private int percent;
+}
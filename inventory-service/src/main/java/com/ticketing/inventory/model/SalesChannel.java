@@ -0,0 +1,22 @@
+package com.ticketing.inventory.model;
+
+/**
+ * 售票渠道
+ */
+public enum SalesChannel {
+
+    /**
+     * 移动端
+     */
+    APP,
+
+    /**
+     * 网页端
+     */
+    WEB,
+
+    /**
+     * 合作分销商
+     */
+    PARTNER
+}
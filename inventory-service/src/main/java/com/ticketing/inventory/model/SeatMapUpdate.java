@@ -0,0 +1,38 @@
+package com.ticketing.inventory.model;
+
+import lombok.Data;
+
+import java.util.Map;
+
+/**
+ * 座位图更新
+ * 增量更新只包含变更的座位；全量快照为zlib压缩后的状态位图，座位顺序与座位分布图一致，每个座位占2位
+ */
+@Data
+public class SeatMapUpdate {
+
+    /**
+     * 场次ID
+     */
+    private Long eventId;
+
+    /**
+     * 本次更新对应的版本，下次请求时带上
+     */
+    private long version;
+
+    /**
+     * 是否为全量快照
+     */
+    private boolean snapshot;
+
+    /**
+     * 全量快照，Base64编码，增量更新时为null
+     */
+    private String bitmap;
+
+    /**
+     * 变更的座位，座位序号->状态码，全量快照时为null
+     */
+    private Map<Integer, Integer> changes;
+}
@@ -0,0 +1,45 @@
+package com.ticketing.inventory.model;
+
+import lombok.Data;
+
+/**
+ * 票种可售库存
+ */
+@Data
+public class StockAvailability {
+
+    /**
+     * 场次ID
+     */
+    private Long eventId;
+
+    /**
+     * 票种ID
+     */
+    private Long ticketTypeId;
+
+    /**
+     * 分片中的可售库存
+     */
+    private int liveStock;
+
+    /**
+     * 预留池中尚未放出的库存
+     */
+    private int reservedStock;
+
+    /**
+     * 当前已放出的批次序号，从0开始，未配置分批放量或首批尚未放出时为-1
+     */
+    private int currentWave = -1;
+
+    /**
+     * 批次总数，未配置分批放量时为0
+     */
+    private int totalWaves;
+
+    /**
+     * 下一批次的放出时间（毫秒时间戳），没有后续批次时为null
+     */
+    private Long nextWaveTime;
+}
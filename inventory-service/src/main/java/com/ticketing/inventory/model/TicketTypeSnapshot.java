@@ -0,0 +1,105 @@
+package com.ticketing.inventory.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 票种库存快照
+ * 某一时刻Redis中一个票种的分片库存状态，以及预留池、放量计划和渠道配额等附属状态
+ */
+@Data
+public class TicketTypeSnapshot {
+
+    /**
+     * 场次ID
+     */
+    private Long eventId;
+
+    /**
+     * 票种ID
+     */
+    private Long ticketTypeId;
+
+    /**
+     * 分片映射纪元
+     */
+    private long epoch;
+
+    /**
+     * 初始化时的分片数量
+     */
+    private int baseCount;
+
+    /**
+     * 是否处于残局模式
+     */
+    private boolean endgame;
+
+    /**
+     * 各分片的剩余库存，下标为分片序号
+     */
+    private int[] shardStocks;
+
+    /**
+     * 未过期的用户锁定
+     */
+    private List<Hold> holds = new ArrayList<>();
+
+    /**
+     * 持有库存的计数器，key为Redis key：预留池和渠道分片
+     */
+    private Map<String, Integer> counters = new LinkedHashMap<>();
+
+    /**
+     * 不持有库存的字符串状态，key为Redis key：渠道配额配置标记
+     */
+    private Map<String, String> values = new LinkedHashMap<>();
+
+    /**
+     * 哈希状态，key为Redis key：放量计划和渠道配额
+     */
+    private Map<String, Map<String, String>> hashes = new LinkedHashMap<>();
+
+    /**
+     * 计数器中的库存总量
+     */
+    public long counterStock() {
+        long total = 0;
+        for (int stock : counters.values()) {
+            total += stock;
+        }
+        return total;
+    }
+
+    /**
+     * 用户锁定
+     */
+    @Data
+    @AllArgsConstructor
+    public static class Hold {
+        /**
+         * 用户ID
+         */
+        private Long userId;
+
+        /**
+         * 锁定记录，格式与Redis中一致
+         */
+        private String value;
+
+        /**
+         * 剩余有效期（毫秒）
+         */
+        private long ttlMillis;
+
+        /**
+         * 批量锁定在回收索引中的到期时间，不在索引中时为0
+         */
+        private long indexExpireAt;
+    }
+}
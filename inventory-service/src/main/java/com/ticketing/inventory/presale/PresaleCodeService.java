@@ -0,0 +1,353 @@
+package com.ticketing.inventory.presale;
+
+import com.ticketing.common.exception.BusinessException;
+import com.ticketing.inventory.admission.AdmissionLane;
+import com.ticketing.inventory.admission.PriorityAdmissionService;
+import com.ticketing.inventory.service.InventoryService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 预售码服务
+ * - 预售码文件加载为内存中的紧凑集合，校验不访问数据库
+ * - 消费状态保存在每个场次一个的Redis位图中，SETBIT返回旧值，多实例下原子地保证一码一用
+ * - 本地保存已消费位图的副本，重复提交的已用码不再访问Redis
+ * - 位图定时快照到本地文件，同步时把本地和快照中的已消费位补回Redis，
+ *   Redis数据丢失后已用的码不会重新变为可用，恢复结果只会多拒绝不会重复放行
+ * - 归还的预售码登记在Redis的撤销集合中，合并时本地和快照中被撤销的位不再补回，码重新被消费时移出集合
+ * - 预售码序号与位图一一对应，场次注册后不能重新注册
+ */
+@Slf4j
+@Service
+public class PresaleCodeService {
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    @Autowired
+    private InventoryService inventoryService;
+
+    @Autowired
+    private PriorityAdmissionService priorityAdmissionService;
+
+    private static final String PRESALE_INDEX_KEY = "inventory:presale:index";
+
+    // 消费位图快照目录
+    private Path snapshotDir = Paths.get("data", "presale");
+
+    // 预售码锁定的执行状态：未执行、执行中、执行失败
+    private static final int LOCK_PENDING = 0;
+    private static final int LOCK_RUNNING = 1;
+    private static final int LOCK_FAILED = 2;
+
+    // 已加载的预售码集合
+    private final Map<Long, PresaleCodeSet> codeSets = new ConcurrentHashMap<>();
+
+    // 本地已知的已消费位图
+    private final Map<Long, BitSet> consumed = new ConcurrentHashMap<>();
+
+    /**
+     * 为场次注册预售码文件
+     * 文件需放在所有实例都能访问的路径上，其他实例在下次同步时加载
+     * 重新注册会改变预售码的序号，与已有的消费位图错位，因此每个场次只能注册一次
+     * @return 去重后的预售码数量
+     */
+    public int register(Long eventId, String path) {
+        String metaKey = getMetaKey(eventId);
+        if (!Boolean.TRUE.equals(redisTemplate.opsForHash().putIfAbsent(metaKey, "path", path))) {
+            throw new BusinessException("该场次已注册预售码");
+        }
+
+        PresaleCodeSet codeSet;
+        try {
+            codeSet = loadCodeSet(eventId, path);
+        } catch (RuntimeException e) {
+            redisTemplate.delete(metaKey);
+            throw e;
+        }
+        redisTemplate.opsForHash().put(metaKey, "count", String.valueOf(codeSet.size()));
+        redisTemplate.opsForSet().add(PRESALE_INDEX_KEY, String.valueOf(eventId));
+
+        log.info("Registered presale codes for event: {}, codes: {}", eventId, codeSet.size());
+        return codeSet.size();
+    }
+
+    /**
+     * 使用预售码锁定库存
+     * 先消费预售码再走预售通道锁定，确定没有锁定时才归还预售码：
+     * 锁定返回失败、锁定抛出异常已回滚、或请求未被执行；执行中被打断的锁定结果未知，预售码保持已消费
+     */
+    public boolean lockStock(Long eventId, Long ticketTypeId, Long userId, int quantity, String code) {
+        int index = consume(eventId, code);
+        AtomicInteger state = new AtomicInteger(LOCK_PENDING);
+        boolean locked;
+        try {
+            locked = priorityAdmissionService.execute(AdmissionLane.PRESALE, () -> {
+                state.set(LOCK_RUNNING);
+                try {
+                    return inventoryService.lockStock(eventId, ticketTypeId, userId, quantity);
+                } catch (RuntimeException e) {
+                    state.set(LOCK_FAILED);
+                    throw e;
+                }
+            });
+        } catch (BusinessException e) {
+            if (state.get() != LOCK_RUNNING) {
+                revoke(eventId, index);
+            }
+            throw e;
+        }
+        if (!locked) {
+            revoke(eventId, index);
+        }
+        return locked;
+    }
+
+    /**
+     * 消费预售码
+     * @return 预售码序号
+     */
+    public int consume(Long eventId, String code) {
+        PresaleCodeSet codeSet = codeSets.get(eventId);
+        if (codeSet == null) {
+            throw new BusinessException("该场次未开放预售");
+        }
+        int index = codeSet.indexOf(code);
+        if (index < 0) {
+            throw new BusinessException("预售码无效");
+        }
+
+        BitSet local = consumed.computeIfAbsent(eventId, k -> new BitSet(codeSet.size()));
+        synchronized (local) {
+            if (local.get(index)) {
+                throw new BusinessException("预售码已使用");
+            }
+        }
+
+        Boolean previous = redisTemplate.opsForValue().setBit(getBitmapKey(eventId), index, true);
+        synchronized (local) {
+            local.set(index);
+        }
+        if (Boolean.TRUE.equals(previous)) {
+            throw new BusinessException("预售码已使用");
+        }
+        try {
+            redisTemplate.opsForSet().remove(getRevokedKey(eventId), String.valueOf(index));
+        } catch (Exception e) {
+            // 残留的撤销记录不影响Redis中已置位的码，下次消费或归还时覆盖
+            log.warn("Failed to clear presale revocation for event: {}, index: {}", eventId, index, e);
+        }
+        return index;
+    }
+
+    /**
+     * 归还预售码，用于锁定失败的回滚
+     * 先登记撤销再清位，任一实例合并位图时都不会把本地和快照中的旧位补回Redis
+     */
+    public void revoke(Long eventId, int index) {
+        redisTemplate.opsForSet().add(getRevokedKey(eventId), String.valueOf(index));
+        redisTemplate.opsForValue().setBit(getBitmapKey(eventId), index, false);
+        BitSet local = consumed.get(eventId);
+        if (local != null) {
+            synchronized (local) {
+                local.clear(index);
+            }
+        }
+    }
+
+    /**
+     * 查询场次的预售码数量和已消费数量
+     */
+    public Map<String, Long> getStats(Long eventId) {
+        PresaleCodeSet codeSet = codeSets.get(eventId);
+        Long used = redisTemplate.execute((RedisCallback<Long>) connection ->
+                connection.bitCount(getBitmapKey(eventId).getBytes(StandardCharsets.UTF_8)));
+        Map<String, Long> stats = new HashMap<>();
+        stats.put("codes", codeSet == null ? 0L : codeSet.size());
+        stats.put("consumed", used == null ? 0L : used);
+        return stats;
+    }
+
+    /**
+     * 加载其他实例注册的预售码，并快照消费位图
+     * 每10秒执行一次，快照同时刷新本地已消费位图
+     */
+    @Scheduled(fixedDelay = 10000)
+    public void syncAndSnapshot() {
+        Set<String> eventIds = redisTemplate.opsForSet().members(PRESALE_INDEX_KEY);
+        if (eventIds == null) {
+            return;
+        }
+
+        for (String member : eventIds) {
+            Long eventId = Long.parseLong(member);
+            try {
+                if (!codeSets.containsKey(eventId)) {
+                    Object path = redisTemplate.opsForHash().get(getMetaKey(eventId), "path");
+                    if (path == null) {
+                        continue;
+                    }
+                    loadCodeSet(eventId, (String) path);
+                }
+                snapshot(eventId);
+            } catch (Exception e) {
+                log.error("Failed to sync presale codes for event: {}", eventId, e);
+            }
+        }
+    }
+
+    /**
+     * 加载预售码文件，Redis中没有消费位图时从本地快照恢复
+     */
+    private PresaleCodeSet loadCodeSet(Long eventId, String path) {
+        PresaleCodeSet codeSet;
+        try {
+            codeSet = PresaleCodeSet.load(Paths.get(path));
+        } catch (IOException e) {
+            log.error("Failed to load presale code file: {}", path, e);
+            throw new BusinessException("预售码文件读取失败");
+        }
+
+        byte[] key = getBitmapKey(eventId).getBytes(StandardCharsets.UTF_8);
+        Path snapshot = getSnapshotPath(eventId);
+        if (Files.exists(snapshot)) {
+            try {
+                byte[] bitmap = Files.readAllBytes(snapshot);
+                Boolean restored = redisTemplate.execute((RedisCallback<Boolean>) connection ->
+                        connection.set(key, bitmap, Expiration.persistent(), RedisStringCommands.SetOption.SET_IF_ABSENT));
+                if (Boolean.TRUE.equals(restored)) {
+                    log.warn("Restored presale bitmap from snapshot for event: {}", eventId);
+                }
+            } catch (IOException e) {
+                log.error("Failed to read presale bitmap snapshot: {}", snapshot, e);
+            }
+        }
+
+        byte[] bitmap = redisTemplate.execute((RedisCallback<byte[]>) connection -> connection.get(key));
+        consumed.put(eventId, toBitSet(bitmap));
+        codeSets.put(eventId, codeSet);
+        return codeSet;
+    }
+
+    /**
+     * 合并Redis、本地和快照中的消费位图，补写Redis后写入本地快照，先写临时文件再原子替换
+     * Redis中的位原样保留，本地和快照中的位去掉撤销集合中的码后补入，Redis数据丢失时不会清空本地位图和快照
+     */
+    private void snapshot(Long eventId) throws IOException {
+        BitSet revoked = new BitSet();
+        Set<String> revokedIndexes = redisTemplate.opsForSet().members(getRevokedKey(eventId));
+        if (revokedIndexes != null) {
+            for (String revokedIndex : revokedIndexes) {
+                revoked.set(Integer.parseInt(revokedIndex));
+            }
+        }
+
+        byte[] key = getBitmapKey(eventId).getBytes(StandardCharsets.UTF_8);
+        BitSet remote = toBitSet(redisTemplate.execute((RedisCallback<byte[]>) connection -> connection.get(key)));
+
+        BitSet retained = new BitSet();
+        BitSet local = consumed.computeIfAbsent(eventId, k -> new BitSet());
+        synchronized (local) {
+            retained.or(local);
+        }
+        Path target = getSnapshotPath(eventId);
+        if (Files.exists(target)) {
+            retained.or(toBitSet(Files.readAllBytes(target)));
+        }
+        retained.andNot(revoked);
+        BitSet merged = (BitSet) remote.clone();
+        merged.or(retained);
+
+        // Redis中缺少的已消费位补写回去，这些码不会重新变为可用
+        BitSet missing = (BitSet) merged.clone();
+        missing.andNot(remote);
+        if (!missing.isEmpty()) {
+            redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (int i = missing.nextSetBit(0); i >= 0; i = missing.nextSetBit(i + 1)) {
+                    connection.setBit(key, i, true);
+                }
+                return null;
+            });
+            log.warn("Restored {} consumed presale codes to Redis for event: {}", missing.cardinality(), eventId);
+        }
+
+        // 刷新本地位图，包含其他实例的消费，去掉其他实例归还的码
+        synchronized (local) {
+            local.andNot(revoked);
+            local.or(merged);
+        }
+
+        Files.createDirectories(snapshotDir);
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        Files.write(temp, toBitmap(merged));
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Redis位图的第0位是首字节的最高位，转换为BitSet
+     */
+    static BitSet toBitSet(byte[] bitmap) {
+        BitSet bits = new BitSet();
+        if (bitmap == null) {
+            return bits;
+        }
+        for (int i = 0; i < bitmap.length; i++) {
+            int value = bitmap[i] & 0xFF;
+            for (int bit = 0; value != 0 && bit < 8; bit++) {
+                if ((value & (0x80 >>> bit)) != 0) {
+                    bits.set(i * 8 + bit);
+                }
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * BitSet转换为Redis位图，第0位写入首字节的最高位
+     */
+    static byte[] toBitmap(BitSet bits) {
+        byte[] bitmap = new byte[(bits.length() + 7) / 8];
+        for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+            bitmap[i / 8] |= (byte) (0x80 >>> (i % 8));
+        }
+        return bitmap;
+    }
+
+    // 工具方法：生成预售码元数据key
+    private String getMetaKey(Long eventId) {
+        return "inventory:presale:" + eventId;
+    }
+
+    // 工具方法：生成消费位图key
+    private String getBitmapKey(Long eventId) {
+        return "inventory:presale:used:" + eventId;
+    }
+
+    // 工具方法：生成撤销集合key
+    private String getRevokedKey(Long eventId) {
+        return "inventory:presale:revoked:" + eventId;
+    }
+
+    private Path getSnapshotPath(Long eventId) {
+        return snapshotDir.resolve(eventId + ".bitmap");
+    }
+}
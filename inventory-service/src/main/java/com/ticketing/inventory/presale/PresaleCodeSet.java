@@ -0,0 +1,109 @@
+package com.ticketing.inventory.presale;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * 预售码集合
+ * - 每个预售码压缩为64位指纹，排序去重后存放在紧凑的long数组中，千万级预售码约占80MB
+ * - 指纹在数组中的下标即预售码的序号，用作消费位图的位下标
+ * - 前置布隆过滤器拦截绝大多数无效码，只有可能有效的码才做二分查找
+ * - 创建后只读，可被多个线程并发查询
+ */
+public class PresaleCodeSet {
+
+    private static final HashFunction FINGERPRINT = Hashing.murmur3_128();
+
+    // 布隆过滤器的误判率
+    private static final double BLOOM_FPP = 0.01;
+
+    private final long[] fingerprints;
+    private final BloomFilter<Long> bloomFilter;
+
+    private PresaleCodeSet(long[] fingerprints) {
+        this.fingerprints = fingerprints;
+        this.bloomFilter = BloomFilter.create(Funnels.longFunnel(), Math.max(fingerprints.length, 1), BLOOM_FPP);
+        for (long fingerprint : fingerprints) {
+            bloomFilter.put(fingerprint);
+        }
+    }
+
+    /**
+     * 从文件加载预售码，每行一个，忽略空行
+     */
+    public static PresaleCodeSet load(Path file) throws IOException {
+        long[] buffer = new long[1 << 16];
+        int size = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                if (size == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                buffer[size++] = fingerprint(line);
+            }
+        }
+        return of(Arrays.copyOf(buffer, size));
+    }
+
+    /**
+     * 由预售码构建集合
+     */
+    public static PresaleCodeSet of(String... codes) {
+        long[] values = new long[codes.length];
+        for (int i = 0; i < codes.length; i++) {
+            values[i] = fingerprint(codes[i]);
+        }
+        return of(values);
+    }
+
+    private static PresaleCodeSet of(long[] values) {
+        Arrays.parallelSort(values);
+        // 原地去重，重复的预售码只占一个序号
+        int unique = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (i == 0 || values[i] != values[unique - 1]) {
+                values[unique++] = values[i];
+            }
+        }
+        return new PresaleCodeSet(unique == values.length ? values : Arrays.copyOf(values, unique));
+    }
+
+    /**
+     * 查询预售码的序号
+     * @return 序号，不存在时返回-1
+     */
+    public int indexOf(String code) {
+        long fingerprint = fingerprint(code);
+        if (!bloomFilter.mightContain(fingerprint)) {
+            return -1;
+        }
+        int index = Arrays.binarySearch(fingerprints, fingerprint);
+        return index >= 0 ? index : -1;
+    }
+
+    /**
+     * 预售码数量
+     */
+    public int size() {
+        return fingerprints.length;
+    }
+
+    // 预售码忽略首尾空白和大小写
+    private static long fingerprint(String code) {
+        return FINGERPRINT.hashString(code.trim().toUpperCase(Locale.ROOT), StandardCharsets.UTF_8).asLong();
+    }
+}
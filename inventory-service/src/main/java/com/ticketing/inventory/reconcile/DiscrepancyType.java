@@ -0,0 +1,17 @@
+package com.ticketing.inventory.reconcile;
+
+/**
+ * 库存差异类型
+ */
+public enum DiscrepancyType {
+
+    /**
+     * 数据库库存行不平衡：总库存 != 可用 + 锁定 + 已售
+     */
+    DATABASE_IMBALANCE,
+
+    /**
+     * Redis分片、预留池和渠道配额余量与总库存扣除已支付、锁定和租约余量后的数量不一致，正数有超卖风险，负数为短缺库存
+     */
+    REDIS_DRIFT
+}
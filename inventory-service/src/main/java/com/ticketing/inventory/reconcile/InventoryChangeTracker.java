@@ -0,0 +1,119 @@
+package com.ticketing.inventory.reconcile;
+
+import com.ticketing.common.utils.InventoryKeyUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Redis库存变更记录
+ * - 分片余量、锁定或租约发生变化的票种先记入本地集合，每秒批量写入Redis变更集合，锁定路径上没有额外的Redis往返
+ * - 对账开始时把变更集合原子并入处理中集合，对账完成后删除；对账中途失败时处理中的票种留到下次
+ * - 本地集合未写入时实例宕机会丢失最后一秒的变更，由全量对账覆盖
+ */
+@Slf4j
+@Component
+public class InventoryChangeTracker {
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    // 各实例写入的变更集合，成员为打包后的(eventId, ticketTypeId)
+    private static final String CHANGED_KEY = "inventory:reconcile:changed";
+
+    // 对账中的变更集合
+    private static final String PROCESSING_KEY = "inventory:reconcile:changed:processing";
+
+    // 单次SADD写入的成员数
+    private static final int FLUSH_BATCH_SIZE = 1000;
+
+    /**
+     * 把变更集合并入处理中集合
+     * KEYS[1]=变更集合，KEYS[2]=处理中集合
+     * 返回处理中集合的全部成员
+     */
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> DRAIN_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('EXISTS', KEYS[1]) == 1 then "
+                    + "  redis.call('SUNIONSTORE', KEYS[2], KEYS[2], KEYS[1]) "
+                    + "  redis.call('DEL', KEYS[1]) "
+                    + "end "
+                    + "return redis.call('SMEMBERS', KEYS[2])",
+            List.class);
+
+    // 尚未写入Redis的变更
+    private final Set<Long> pending = ConcurrentHashMap.newKeySet();
+
+    @PreDestroy
+    public void destroy() {
+        flush();
+    }
+
+    /**
+     * 记录票种的Redis库存发生了变化
+     */
+    public void markChanged(Long eventId, Long ticketTypeId) {
+        pending.add(InventoryKeyUtil.pack(eventId, ticketTypeId));
+    }
+
+    /**
+     * 定时把本地变更写入Redis
+     * 写入失败的变更放回本地集合，下次重试
+     */
+    @Scheduled(fixedDelay = 1000)
+    public void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<String> batch = new ArrayList<>(Math.min(pending.size(), FLUSH_BATCH_SIZE));
+        Iterator<Long> iterator = pending.iterator();
+        while (iterator.hasNext()) {
+            batch.add(String.valueOf(iterator.next()));
+            iterator.remove();
+            if (batch.size() >= FLUSH_BATCH_SIZE || !iterator.hasNext()) {
+                try {
+                    redisTemplate.opsForSet().add(CHANGED_KEY, batch.toArray(new String[0]));
+                } catch (Exception e) {
+                    log.error("Failed to flush inventory changes, size: {}", batch.size(), e);
+                    batch.forEach(key -> pending.add(Long.parseLong(key)));
+                    return;
+                }
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * 取出待对账的票种，包括上次对账未完成的票种
+     * @return 打包后的(eventId, ticketTypeId)
+     */
+    @SuppressWarnings("unchecked")
+    public Set<Long> drain() {
+        List<String> members = redisTemplate.execute(DRAIN_SCRIPT, Arrays.asList(CHANGED_KEY, PROCESSING_KEY));
+        Set<Long> keys = new HashSet<>();
+        if (members != null) {
+            members.forEach(member -> keys.add(Long.parseLong(member)));
+        }
+        return keys;
+    }
+
+    /**
+     * 对账完成，删除处理中集合
+     */
+    public void complete() {
+        redisTemplate.delete(PROCESSING_KEY);
+    }
+}
@@ -0,0 +1,396 @@
+package com.ticketing.inventory.reconcile;
+
+import com.google.common.util.concurrent.RateLimiter;
+import com.ticketing.common.entity.Inventory;
+import com.ticketing.common.response.Result;
+import com.ticketing.common.service.OrderFeignClient;
+import com.ticketing.common.utils.InventoryKeyUtil;
+import com.ticketing.inventory.model.InventoryDiscrepancy;
+import com.ticketing.inventory.model.StockAvailability;
+import com.ticketing.inventory.service.InventoryShardingService;
+import com.ticketing.inventory.service.impl.ChannelQuotaService;
+import com.ticketing.inventory.service.impl.InventoryLeaseService;
+import com.ticketing.inventory.sharding.ScatterResult;
+import com.ticketing.inventory.sharding.ShardReadService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 库存对账服务
+ * - 按(场次, 票种)核对四个来源：Redis分片余量、预留池和渠道配额分片、数据库库存行、用户锁定（含抽签和候补的批量锁定）和租约、已支付订单
+ * - 增量对账只核对Redis变更集合中的票种和上次发现偏差的票种，不扫描数据库；全量对账低频执行，从数据库读取全部票种
+ * - 票种分批并行核对，批内数据库读取走分散查询，整体按票种数限速，售卖期间对各来源只增加很小的负载
+ * - 数据库不平衡只报告；分片路径不更新数据库已售数量，不与已支付数量比较
+ * - Redis多出的库存在连续两次观察完全相同且不超过修正上限时自动取出，取出的数量记录在Redis中；
+ *   多出的库存可能属于尚未落地的异步扣减，落地后Redis表现为短缺，此时按记录归还，修正可以撤销
+ * - 没有修正记录的短缺无法确定去向，归还可能超卖，只报告；订单服务不可用时不核对Redis
+ * - 多个实例通过Redis锁保证同一时间只有一个实例对账，变更集合、待确认的偏差和修正记录保存在Redis中，换实例后继续
+ */
+@Slf4j
+@Service
+public class InventoryReconcileService {
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    @Autowired
+    private ShardReadService shardReadService;
+
+    @Autowired
+    private InventoryShardingService inventoryShardingService;
+
+    @Autowired
+    private InventoryLeaseService inventoryLeaseService;
+
+    @Autowired
+    private ChannelQuotaService channelQuotaService;
+
+    @Autowired
+    private OrderFeignClient orderFeignClient;
+
+    @Autowired
+    private InventoryChangeTracker inventoryChangeTracker;
+
+    private static final String SUSPECT_KEY = "inventory:reconcile:suspects";
+
+    // 自动取出且尚未归还的数量，field为打包后的(eventId, ticketTypeId)
+    private static final String CORRECTION_KEY = "inventory:reconcile:corrections";
+    private static final String RUN_LOCK_KEY = "inventory:reconcile:lock";
+
+    // 对账锁的持有时间，实例宕机后其他实例在此之后接手
+    private static final long RUN_LOCK_SECONDS = 600;
+
+    // 增量对账间隔
+    private static final long INCREMENTAL_INTERVAL = 60000;
+
+    // 全量对账间隔
+    private static final long FULL_INTERVAL = 3600000;
+
+    // 每批核对的票种数
+    private static final int CHUNK_SIZE = 200;
+
+    // 并行核对的批次数
+    private static final int CHUNK_THREADS = 2;
+
+    // 每秒最多核对的票种数
+    private static final double TICKET_TYPES_PER_SECOND = 500;
+
+    // 单个票种单次自动修正的绝对上限
+    private static final int MAX_CORRECTION = 20;
+
+    // 单个票种单次自动修正占总库存的比例上限
+    private static final double MAX_CORRECTION_RATIO = 0.01;
+
+    // 保留的差异记录数
+    private static final int MAX_DISCREPANCIES = 1000;
+
+    private final String instanceId = UUID.randomUUID().toString();
+
+    private ExecutorService executor;
+
+    private RateLimiter rateLimiter;
+
+    // 最近发现的差异，新的在前
+    private final Deque<InventoryDiscrepancy> discrepancies = new ArrayDeque<>();
+
+    private final AtomicLong runs = new AtomicLong();
+    private final AtomicLong checked = new AtomicLong();
+    private final AtomicLong found = new AtomicLong();
+    private final AtomicLong corrected = new AtomicLong();
+    private volatile long lastRunTime;
+    private volatile long lastRunMillis;
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger threadIndex = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(CHUNK_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "inventory-reconcile-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        rateLimiter = RateLimiter.create(TICKET_TYPES_PER_SECOND);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 定时增量对账
+     */
+    @Scheduled(fixedDelay = INCREMENTAL_INTERVAL, initialDelay = INCREMENTAL_INTERVAL)
+    public void reconcileChanged() {
+        reconcile(false);
+    }
+
+    /**
+     * 定时全量对账
+     */
+    @Scheduled(fixedDelay = FULL_INTERVAL, initialDelay = FULL_INTERVAL)
+    public void reconcileAll() {
+        reconcile(true);
+    }
+
+    /**
+     * 执行一次对账
+     * @param full 是否核对全部票种
+     * @return 核对的票种数量，其他实例正在对账时返回-1
+     */
+    public int reconcile(boolean full) {
+        Boolean acquired = redisTemplate.opsForValue().setIfAbsent(RUN_LOCK_KEY, instanceId, RUN_LOCK_SECONDS, TimeUnit.SECONDS);
+        if (!Boolean.TRUE.equals(acquired)) {
+            return -1;
+        }
+        try {
+            return run(full);
+        } catch (Exception e) {
+            log.error("Inventory reconciliation failed, full: {}", full, e);
+            return 0;
+        } finally {
+            if (instanceId.equals(redisTemplate.opsForValue().get(RUN_LOCK_KEY))) {
+                redisTemplate.delete(RUN_LOCK_KEY);
+            }
+        }
+    }
+
+    /**
+     * 查询最近发现的差异
+     */
+    public List<InventoryDiscrepancy> getDiscrepancies() {
+        synchronized (discrepancies) {
+            return new ArrayList<>(discrepancies);
+        }
+    }
+
+    /**
+     * 查询对账状态
+     */
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("runs", runs.get());
+        status.put("lastRunTime", lastRunTime);
+        status.put("lastRunMillis", lastRunMillis);
+        status.put("suspects", redisTemplate.opsForHash().size(SUSPECT_KEY));
+        status.put("outstandingCorrections", redisTemplate.opsForHash().size(CORRECTION_KEY));
+        status.put("checked", checked.get());
+        status.put("found", found.get());
+        status.put("corrected", corrected.get());
+        return status;
+    }
+
+    private int run(boolean full) {
+        long start = System.currentTimeMillis();
+
+        // 1. 确定待核对的票种：全量对账读取数据库中的全部票种，增量对账取出Redis变更集合，再加上待确认偏差的票种
+        Set<Long> keys = new HashSet<>();
+        boolean scanComplete = true;
+        if (full) {
+            ScatterResult<Set<Long>> all = shardReadService.selectChangedTicketTypes(
+                    LocalDateTime.ofInstant(Instant.EPOCH, ZoneId.systemDefault()));
+            keys.addAll(all.getValue());
+            scanComplete = all.isComplete();
+        } else {
+            keys.addAll(inventoryChangeTracker.drain());
+        }
+        Map<Long, ReconcileLedger.Observation> suspects = new HashMap<>();
+        redisTemplate.opsForHash().entries(SUSPECT_KEY).forEach((field, value) ->
+                suspects.put(Long.parseLong((String) field), ReconcileLedger.Observation.parse((String) value)));
+        keys.addAll(suspects.keySet());
+
+        // 2. 一次读出全部待核对票种的用户锁定和租约余量
+        Map<Long, Integer> holds = inventoryShardingService.sumHolds(keys);
+        Map<Long, Integer> leases = inventoryLeaseService.getOutstandingLeases();
+
+        // 3. 分批并行核对
+        List<Long> ordered = new ArrayList<>(keys);
+        List<CompletableFuture<Boolean>> chunks = new ArrayList<>();
+        for (int i = 0; i < ordered.size(); i += CHUNK_SIZE) {
+            List<Long> chunk = ordered.subList(i, Math.min(i + CHUNK_SIZE, ordered.size()));
+            chunks.add(CompletableFuture.supplyAsync(() -> checkChunk(chunk, holds, leases, suspects), executor));
+        }
+        boolean chunksComplete = true;
+        for (CompletableFuture<Boolean> chunk : chunks) {
+            chunksComplete &= chunk.join();
+        }
+
+        // 4. 全部批次核对完成才删除处理中的变更，失败的票种下次重新核对
+        if (!full && chunksComplete) {
+            inventoryChangeTracker.complete();
+        }
+
+        runs.incrementAndGet();
+        lastRunTime = start;
+        lastRunMillis = System.currentTimeMillis() - start;
+        log.info("Inventory reconciliation finished in {}ms, full: {}, ticket types: {}, suspects: {}, complete: {}",
+                lastRunMillis, full, keys.size(), suspects.size(), scanComplete && chunksComplete);
+        return keys.size();
+    }
+
+    /**
+     * 核对一批票种
+     * @return 所在物理库都已返回且核对未出错时返回true
+     */
+    private boolean checkChunk(List<Long> chunk, Map<Long, Integer> holds, Map<Long, Integer> leases,
+                               Map<Long, ReconcileLedger.Observation> suspects) {
+        try {
+            rateLimiter.acquire(chunk.size());
+            ScatterResult<Map<Long, Inventory>> totals = shardReadService.sumByTicketTypes(chunk);
+            Map<Long, Map<Long, Integer>> paidByEvent = loadPaid(chunk);
+
+            for (Long key : chunk) {
+                Inventory total = totals.getValue().get(key);
+                // 所在物理库未返回或没有库存行的票种本次跳过
+                if (total == null) {
+                    continue;
+                }
+                Map<Long, Integer> eventPaid = paidByEvent.get(InventoryKeyUtil.eventId(key));
+                Integer paid = eventPaid == null ? null : eventPaid.getOrDefault(InventoryKeyUtil.ticketTypeId(key), 0);
+                check(key, total, paid, holds.getOrDefault(key, 0), leases.getOrDefault(key, 0), suspects.get(key));
+                checked.incrementAndGet();
+            }
+            return totals.isComplete();
+        } catch (Exception e) {
+            log.error("Failed to reconcile inventory chunk, size: {}", chunk.size(), e);
+            return false;
+        }
+    }
+
+    /**
+     * 核对单个票种
+     * @param paid 已支付数量，订单服务不可用时为null，此时不核对Redis
+     */
+    private void check(long key, Inventory total, Integer paid, int holdCount, int leased,
+                       ReconcileLedger.Observation previous) {
+        Long eventId = InventoryKeyUtil.eventId(key);
+        Long ticketTypeId = InventoryKeyUtil.ticketTypeId(key);
+        ReconcileLedger ledger = new ReconcileLedger(total.getTotalStock(), total.getAvailableStock(),
+                total.getLockedStock(), total.getSoldStock());
+
+        int imbalance = ledger.databaseImbalance();
+        if (imbalance != 0) {
+            report(eventId, ticketTypeId, DiscrepancyType.DATABASE_IMBALANCE,
+                    ledger.getTotal(), ledger.getTotal() - imbalance, 0);
+        }
+
+        // Redis中没有分片的票种尚未加载，不核对；分片路径不更新数据库已售数量，没有已支付数量时无法核对
+        if (paid == null || inventoryShardingService.getShardCount(eventId, ticketTypeId) == 0) {
+            return;
+        }
+        StockAvailability availability = inventoryShardingService.getAvailability(eventId, ticketTypeId);
+        int channelStock = 0;
+        for (ChannelQuotaService.ChannelQuota quota : channelQuotaService.getQuotas(eventId, ticketTypeId).values()) {
+            channelStock += quota.getRemaining();
+        }
+        int redisStock = availability.getLiveStock() + availability.getReservedStock() + channelStock;
+        int expected = ledger.expectedRedisStock(paid, holdCount, leased);
+        int drift = redisStock - expected;
+        if (drift == 0) {
+            if (previous != null) {
+                redisTemplate.opsForHash().delete(SUSPECT_KEY, String.valueOf(key));
+            }
+            return;
+        }
+
+        ReconcileLedger.Observation current = new ReconcileLedger.Observation(drift, redisStock, holdCount);
+        String field = String.valueOf(key);
+        int correction = ReconcileLedger.correction(previous, current,
+                ledger.correctionLimit(MAX_CORRECTION, MAX_CORRECTION_RATIO));
+        int applied = 0;
+        if (correction > 0) {
+            // Redis多出的库存从分片中取出，取不满时以实际取出的为准，记录取出的数量以便撤销
+            applied = inventoryShardingService.acquireBlock(eventId, ticketTypeId, correction);
+            if (applied > 0) {
+                redisTemplate.opsForHash().increment(CORRECTION_KEY, field, applied);
+            }
+        } else if (drift < 0) {
+            Object outstanding = redisTemplate.opsForHash().get(CORRECTION_KEY, field);
+            int restoration = ReconcileLedger.restoration(previous, current,
+                    outstanding == null ? 0 : Integer.parseInt((String) outstanding));
+            if (restoration > 0) {
+                // 之前取出的库存属于后来落地的扣减，按短缺归还
+                inventoryShardingService.returnBlock(eventId, ticketTypeId, restoration);
+                if (redisTemplate.opsForHash().increment(CORRECTION_KEY, field, -restoration) <= 0) {
+                    redisTemplate.opsForHash().delete(CORRECTION_KEY, field);
+                }
+                applied = -restoration;
+            }
+        }
+
+        if (applied != 0) {
+            corrected.incrementAndGet();
+            redisTemplate.opsForHash().delete(SUSPECT_KEY, field);
+            log.warn("Corrected inventory drift for event: {}, ticketType: {}, drift: {}, applied: {}",
+                    eventId, ticketTypeId, drift, applied);
+        } else {
+            redisTemplate.opsForHash().put(SUSPECT_KEY, field, current.format());
+        }
+        report(eventId, ticketTypeId, DiscrepancyType.REDIS_DRIFT, expected, redisStock, applied);
+    }
+
+    /**
+     * 按场次查询已支付数量，查询失败的场次不在结果中
+     */
+    private Map<Long, Map<Long, Integer>> loadPaid(List<Long> chunk) {
+        Map<Long, Map<Long, Integer>> paidByEvent = new HashMap<>();
+        Set<Long> eventIds = new HashSet<>();
+        chunk.forEach(key -> eventIds.add(InventoryKeyUtil.eventId(key)));
+        for (Long eventId : eventIds) {
+            try {
+                Result<Map<Long, Integer>> result = orderFeignClient.getPaidQuantities(eventId);
+                if (result != null && result.getCode() == 200 && result.getData() != null) {
+                    paidByEvent.put(eventId, result.getData());
+                }
+            } catch (Exception e) {
+                log.warn("Failed to load paid quantities for event: {}, skip Redis check", eventId, e);
+            }
+        }
+        return paidByEvent;
+    }
+
+    private void report(Long eventId, Long ticketTypeId, DiscrepancyType type, long expected, long actual, long applied) {
+        found.incrementAndGet();
+        log.warn("Inventory discrepancy {} for event: {}, ticketType: {}, expected: {}, actual: {}, corrected: {}",
+                type, eventId, ticketTypeId, expected, actual, applied);
+
+        InventoryDiscrepancy discrepancy = new InventoryDiscrepancy();
+        discrepancy.setEventId(eventId);
+        discrepancy.setTicketTypeId(ticketTypeId);
+        discrepancy.setType(type);
+        discrepancy.setExpected(expected);
+        discrepancy.setActual(actual);
+        discrepancy.setCorrected(applied);
+        discrepancy.setDetectedAt(System.currentTimeMillis());
+        synchronized (discrepancies) {
+            discrepancies.addFirst(discrepancy);
+            while (discrepancies.size() > MAX_DISCREPANCIES) {
+                discrepancies.removeLast();
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.ticketing.inventory.reconcile;
+
+/**
+ * 单个票种的库存账
+ * - 数据库库存行应满足：总库存 = 可用 + 锁定 + 已售
+ * - Redis中分片余量、预留池和渠道配额分片之和应等于：总库存 - 已支付 - 用户锁定 - 租约余量
+ * - 各来源不是同一时刻读取的，售卖中的票种会有在途请求造成的瞬时差异，只有连续两次观察完全相同时才认为差异真实存在
+ */
+public class ReconcileLedger {
+
+    private final int total;
+    private final int available;
+    private final int locked;
+    private final int sold;
+
+    public ReconcileLedger(int total, int available, int locked, int sold) {
+        this.total = total;
+        this.available = available;
+        this.locked = locked;
+        this.sold = sold;
+    }
+
+    /**
+     * 数据库库存行的不平衡数量
+     */
+    public int databaseImbalance() {
+        return total - available - locked - sold;
+    }
+
+    /**
+     * Redis中应有的可售库存
+     * @param paid 已支付数量
+     * @param holds 未过期的用户锁定数量
+     * @param leased 租约中尚未售出的数量
+     */
+    public int expectedRedisStock(int paid, int holds, int leased) {
+        return total - paid - holds - leased;
+    }
+
+    /**
+     * 单次自动修正的上限：不超过总库存的给定比例和绝对上限，至少为1
+     */
+    public int correctionLimit(int maxCorrection, double maxRatio) {
+        return Math.min(maxCorrection, Math.max(1, (int) (total * maxRatio)));
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    /**
+     * 计算可以自动修正的数量
+     * 两次观察的偏差、Redis余量和锁定数量都相同，说明期间票种没有变化，偏差不是在途请求造成的
+     * 只修正Redis多出的库存，取出不会超卖；Redis短缺时无法确定库存去向，只报告
+     * @param previous 上一次的观察，没有时为null
+     * @param current 本次观察
+     * @param limit 修正上限
+     * @return 应从Redis取出的库存，0表示不修正
+     */
+    public static int correction(Observation previous, Observation current, int limit) {
+        if (previous == null || !previous.equals(current) || current.getDrift() <= 0 || current.getDrift() > limit) {
+            return 0;
+        }
+        return current.getDrift();
+    }
+
+    /**
+     * 计算应归还的自动修正
+     * 取出时多出的库存可能属于尚未落地的在途扣减，落地后Redis表现为短缺；两次观察相同时按短缺归还，最多归还之前取出的数量
+     * @param previous 上一次的观察，没有时为null
+     * @param current 本次观察
+     * @param outstanding 之前自动取出且尚未归还的数量
+     * @return 应归还到Redis的库存，0表示不归还
+     */
+    public static int restoration(Observation previous, Observation current, int outstanding) {
+        if (outstanding <= 0 || previous == null || !previous.equals(current) || current.getDrift() >= 0) {
+            return 0;
+        }
+        return Math.min(-current.getDrift(), outstanding);
+    }
+
+    /**
+     * 一次Redis偏差观察
+     */
+    public static class Observation {
+
+        private final int drift;
+        private final int redisStock;
+        private final int holds;
+
+        public Observation(int drift, int redisStock, int holds) {
+            this.drift = drift;
+            this.redisStock = redisStock;
+            this.holds = holds;
+        }
+
+        /**
+         * 解析"偏差:余量:锁定数"格式的观察记录，格式错误时返回null
+         */
+        public static Observation parse(String value) {
+            String[] fields = value == null ? new String[0] : value.split(":");
+            if (fields.length != 3) {
+                return null;
+            }
+            try {
+                return new Observation(Integer.parseInt(fields[0]), Integer.parseInt(fields[1]), Integer.parseInt(fields[2]));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        public String format() {
+            return drift + ":" + redisStock + ":" + holds;
+        }
+
+        public int getDrift() {
+            return drift;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Observation)) {
+                return false;
+            }
+            Observation other = (Observation) o;
+            return drift == other.drift && redisStock == other.redisStock && holds == other.holds;
+        }
+
+        @Override
+        public int hashCode() {
+            return (drift * 31 + redisStock) * 31 + holds;
+        }
+    }
+}
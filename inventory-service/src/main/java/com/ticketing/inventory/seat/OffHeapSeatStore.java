@@ -0,0 +1,175 @@
+package com.ticketing.inventory.seat;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 堆外座位状态存储
+ * - 每个场次一块直接内存或内存映射文件，按座位序号定长存放状态，不产生Java对象，不增加GC压力
+ * - 每个座位一个控制字，更新通过CAS完成，不加锁，不会读到写入中途的记录
+ * - 只是Redis状态位图的本地镜像，锁定人和过期时间以Redis为准；文件模式下进程重启后保留上次的状态，打开后由调用方按Redis同步
+ *
+ * 文件格式：
+ * 头部(64)：魔数(4) 格式版本(4) 座位数(4) 保留(52)
+ * 记录(8)：控制字
+ * 控制字：低2位为状态码，其余为版本号
+ */
+public class OffHeapSeatStore implements Closeable {
+
+    private static final int MAGIC = 0x53454154;
+    private static final int FORMAT_VERSION = 2;
+
+    private static final int HEADER_SIZE = 64;
+    private static final int RECORD_SIZE = 8;
+
+    private static final long STATUS_MASK = 0x3L;
+    private static final long VERSION_UNIT = 0x4L;
+
+    private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final ByteBuffer buffer;
+    private final FileChannel channel;
+    private final int seats;
+
+    private OffHeapSeatStore(ByteBuffer buffer, FileChannel channel, int seats) {
+        this.buffer = buffer.order(ByteOrder.nativeOrder());
+        this.channel = channel;
+        this.seats = seats;
+    }
+
+    /**
+     * 在直接内存中创建存储，全部座位可售
+     */
+    public static OffHeapSeatStore allocate(int seats) {
+        OffHeapSeatStore store = new OffHeapSeatStore(ByteBuffer.allocateDirect(capacity(seats)), null, seats);
+        store.writeHeader();
+        return store;
+    }
+
+    /**
+     * 打开文件模式的存储，文件头与座位数一致时沿用已有记录，否则清空重建
+     */
+    public static OffHeapSeatStore open(Path file, int seats) throws IOException {
+        FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            boolean reuse = channel.size() == capacity(seats);
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity(seats));
+            OffHeapSeatStore store = new OffHeapSeatStore(mapped, channel, seats);
+            if (!reuse || !store.headerMatches()) {
+                store.clear();
+                store.writeHeader();
+                mapped.force();
+            }
+            return store;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 座位数
+     */
+    public int size() {
+        return seats;
+    }
+
+    /**
+     * 读取座位状态码
+     */
+    public int status(int seat) {
+        return (int) ((long) LONG.getAcquire(buffer, offset(seat)) & STATUS_MASK);
+    }
+
+    /**
+     * 座位处于预期状态时更新状态
+     * @return 是否更新成功
+     */
+    public boolean compareAndSet(int seat, int expectedStatus, int newStatus) {
+        int offset = offset(seat);
+        while (true) {
+            long control = (long) LONG.getVolatile(buffer, offset);
+            if ((control & STATUS_MASK) != expectedStatus) {
+                return false;
+            }
+            if (LONG.compareAndSet(buffer, offset, control, next(control, newStatus))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 无条件更新状态
+     */
+    public void set(int seat, int status) {
+        int offset = offset(seat);
+        while (true) {
+            long control = (long) LONG.getVolatile(buffer, offset);
+            if (LONG.compareAndSet(buffer, offset, control, next(control, status))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 文件模式下把修改刷到磁盘
+     */
+    public void force() {
+        if (buffer instanceof MappedByteBuffer) {
+            ((MappedByteBuffer) buffer).force();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            force();
+            channel.close();
+        }
+    }
+
+    // 版本号加一并替换状态码
+    private static long next(long control, int status) {
+        return ((control & ~STATUS_MASK) + VERSION_UNIT) | (status & STATUS_MASK);
+    }
+
+    private boolean headerMatches() {
+        return buffer.getInt(0) == MAGIC && buffer.getInt(4) == FORMAT_VERSION && buffer.getInt(8) == seats;
+    }
+
+    private void writeHeader() {
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, FORMAT_VERSION);
+        buffer.putInt(8, seats);
+    }
+
+    private void clear() {
+        for (int position = 0; position < buffer.capacity(); position += 8) {
+            buffer.putLong(position, 0L);
+        }
+    }
+
+    private int offset(int seat) {
+        if (seat < 0 || seat >= seats) {
+            throw new IndexOutOfBoundsException("seat: " + seat + ", size: " + seats);
+        }
+        return HEADER_SIZE + seat * RECORD_SIZE;
+    }
+
+    private static int capacity(int seats) {
+        long capacity = HEADER_SIZE + (long) seats * RECORD_SIZE;
+        if (seats <= 0 || capacity > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Unsupported seat count: " + seats);
+        }
+        return (int) capacity;
+    }
+}
@@ -0,0 +1,106 @@
+package com.ticketing.inventory.seat;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 场次座位布局
+ * - 座位按区域顺序映射为连续的整数序号，序号即状态位图中的位置
+ * - 每个区域占一段连续序号，区域可绑定票种
+ * - 座位编号形如"排号-座号"，同一区域内相邻且排号相同的座位划为一排，排内序号连续即物理相邻
+ * - 初始化后不再变化，可被多个线程并发读取
+ */
+public class SeatLayout {
+
+    private final String[] seatIds;
+    private final Map<String, Integer> indexes;
+    private final List<Section> sections;
+    private final List<Row> rows;
+
+    public SeatLayout(List<String> seatIds, List<Section> sections) {
+        this.seatIds = seatIds.toArray(new String[0]);
+        this.indexes = new HashMap<>(seatIds.size() * 2);
+        for (int i = 0; i < this.seatIds.length; i++) {
+            indexes.put(this.seatIds[i], i);
+        }
+        this.sections = Collections.unmodifiableList(sections);
+
+        List<Row> rows = new ArrayList<>();
+        for (int s = 0; s < sections.size(); s++) {
+            Section section = sections.get(s);
+            int start = section.getStart();
+            for (int i = section.getStart() + 1; i <= section.getEnd(); i++) {
+                if (i == section.getEnd() || !rowKey(this.seatIds[i]).equals(rowKey(this.seatIds[start]))) {
+                    rows.add(new Row(s, start, i));
+                    start = i;
+                }
+            }
+        }
+        this.rows = Collections.unmodifiableList(rows);
+    }
+
+    /**
+     * 查询座位序号
+     * @return 序号，座位不存在时返回-1
+     */
+    public int indexOf(String seatId) {
+        Integer index = indexes.get(seatId);
+        return index == null ? -1 : index;
+    }
+
+    public String seatId(int index) {
+        return seatIds[index];
+    }
+
+    public int size() {
+        return seatIds.length;
+    }
+
+    public List<Section> getSections() {
+        return sections;
+    }
+
+    /**
+     * 全部座位排，按序号升序
+     */
+    public List<Row> getRows() {
+        return rows;
+    }
+
+    // 排号为座位编号最后一个"-"之前的部分，没有"-"时整个区域为一排
+    private static String rowKey(String seatId) {
+        int separator = seatId.lastIndexOf('-');
+        return separator < 0 ? "" : seatId.substring(0, separator);
+    }
+
+    /**
+     * 区域，座位序号范围为[start, end)
+     */
+    @Data
+    @AllArgsConstructor
+    public static class Section {
+        private String name;
+        private int start;
+        private int end;
+        // 绑定的票种，未绑定时为0
+        private long ticketTypeId;
+    }
+
+    /**
+     * 排，座位序号范围为[start, end)
+     */
+    @Data
+    @AllArgsConstructor
+    public static class Row {
+        // 所属区域在区域列表中的下标
+        private int section;
+        private int start;
+        private int end;
+    }
+}
@@ -0,0 +1,149 @@
+package com.ticketing.inventory.seat;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 场次座位图的变更环
+ * - 每次座位脚本调用产生一个版本号，版本号连续递增，一个版本包含该次调用改变的全部座位
+ * - 只保留最近的若干个版本，版本号对容量取模即在环中的位置，按版本查找不需要遍历
+ * - 客户端带上已知版本拉取之后的变更，同一座位的多次变更只返回最终状态；版本太旧时返回null，由调用方改发全量快照
+ */
+public class SeatMapFeed {
+
+    private final Change[] ring;
+
+    // 环中保留的变更范围为(baseVersion, version]
+    private long baseVersion;
+    private long version;
+
+    // 最近一次被客户端访问的时间
+    private volatile long lastAccess = System.currentTimeMillis();
+
+    // 最近一次生成的全量快照
+    private volatile Snapshot snapshot;
+
+    // 生成快照时加锁，避免大量客户端同时重建
+    final Object snapshotLock = new Object();
+
+    public SeatMapFeed(int capacity, long version) {
+        this.ring = new Change[capacity];
+        this.baseVersion = version;
+        this.version = version;
+    }
+
+    /**
+     * 追加一条变更记录，记录格式为"版本号|座位序号:状态码,..."
+     * @return 版本号不连续时返回false，调用方需要重置
+     */
+    public synchronized boolean append(String record) {
+        int separator = record.indexOf('|');
+        long recordVersion = Long.parseLong(record.substring(0, separator));
+        if (recordVersion != version + 1) {
+            return false;
+        }
+
+        String[] entries = record.substring(separator + 1).split(",");
+        int[] seats = new int[entries.length];
+        byte[] states = new byte[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            int colon = entries[i].indexOf(':');
+            seats[i] = Integer.parseInt(entries[i].substring(0, colon));
+            states[i] = Byte.parseByte(entries[i].substring(colon + 1));
+        }
+        ring[(int) (recordVersion % ring.length)] = new Change(seats, states);
+        version = recordVersion;
+        if (version - baseVersion > ring.length) {
+            baseVersion = version - ring.length;
+        }
+        return true;
+    }
+
+    /**
+     * 丢弃全部变更，从指定版本重新开始
+     */
+    public synchronized void reset(long version) {
+        this.baseVersion = version;
+        this.version = version;
+    }
+
+    /**
+     * 查询指定版本之后的变更
+     * 客户端版本比本地更新时（其他实例已同步到更新的版本）返回空变更，客户端保持原版本
+     * @return 合并后的变更，版本太旧时返回null
+     */
+    public synchronized Delta changesSince(long since) {
+        if (since < baseVersion) {
+            return null;
+        }
+        Map<Integer, Integer> changes = new LinkedHashMap<>();
+        for (long v = since + 1; v <= version; v++) {
+            Change change = ring[(int) (v % ring.length)];
+            for (int i = 0; i < change.seats.length; i++) {
+                changes.put(change.seats[i], (int) change.states[i]);
+            }
+        }
+        return new Delta(Math.max(version, since), changes);
+    }
+
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    public synchronized long getBaseVersion() {
+        return baseVersion;
+    }
+
+    public long getLastAccess() {
+        return lastAccess;
+    }
+
+    public void touch() {
+        lastAccess = System.currentTimeMillis();
+    }
+
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    public void setSnapshot(Snapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * 一个版本的座位变更
+     */
+    private static final class Change {
+        private final int[] seats;
+        private final byte[] states;
+
+        private Change(int[] seats, byte[] states) {
+            this.seats = seats;
+            this.states = states;
+        }
+    }
+
+    /**
+     * 合并后的变更，座位序号->状态码
+     */
+    @Data
+    @AllArgsConstructor
+    public static class Delta {
+        private long version;
+        private Map<Integer, Integer> changes;
+    }
+
+    /**
+     * 压缩后的全量状态位图
+     */
+    @Data
+    @AllArgsConstructor
+    public static class Snapshot {
+        private long version;
+        private byte[] data;
+        private long createTime;
+    }
+}
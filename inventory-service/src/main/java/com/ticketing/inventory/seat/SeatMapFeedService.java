@@ -0,0 +1,219 @@
+package com.ticketing.inventory.seat;
+
+import com.ticketing.inventory.model.SeatMapUpdate;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Deflater;
+
+/**
+ * 座位图增量同步服务
+ * - 座位脚本每次修改状态时递增场次版本号，并把变更写入Redis中有界的变更列表
+ * - 每个实例为有客户端关注的场次维护本地变更环，定时从Redis追加新版本，客户端请求全部由本地内存响应
+ * - 客户端版本仍在变更环内时返回合并后的增量，否则返回压缩后的全量快照，快照按版本缓存并由所有客户端共享
+ */
+@Slf4j
+@Service
+public class SeatMapFeedService {
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    // 本地变更环保留的版本数
+    private static final int FEED_CAPACITY = 4096;
+
+    // 每次同步最多追加的版本数，落后更多时直接重置
+    private static final int MAX_SYNC_VERSIONS = 1024;
+
+    // 全量快照的最长复用时间（毫秒）
+    private static final long SNAPSHOT_MAX_AGE = 1000;
+
+    // 无人访问的场次在本地保留的时间（毫秒）
+    private static final long FEED_IDLE_TIMEOUT = 60000;
+
+    /**
+     * 读取指定版本之后的变更记录
+     * KEYS[1]=版本号key，KEYS[2]=变更记录列表key，ARGV[1]=本地版本，ARGV[2]=最多读取的版本数
+     * 返回列表首项为当前版本，之后为新增的变更记录；落后过多或版本回退时只返回当前版本
+     */
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> CHANGES_SCRIPT = new DefaultRedisScript<>(
+            "local version = tonumber(redis.call('GET', KEYS[1]) or '0') "
+                    + "local behind = version - tonumber(ARGV[1]) "
+                    + "if behind <= 0 or behind > tonumber(ARGV[2]) then return {tostring(version)} end "
+                    + "local records = redis.call('LRANGE', KEYS[2], -behind, -1) "
+                    + "table.insert(records, 1, tostring(version)) "
+                    + "return records",
+            List.class);
+
+    /**
+     * 原子读取版本号和状态位图
+     * KEYS[1]=版本号key，KEYS[2]=状态位图key
+     */
+    private static final byte[] SNAPSHOT_SCRIPT = ("return {redis.call('GET', KEYS[1]) or '0', "
+            + "redis.call('GET', KEYS[2]) or ''}").getBytes(StandardCharsets.UTF_8);
+
+    private final Map<Long, SeatMapFeed> feeds = new ConcurrentHashMap<>();
+
+    /**
+     * 获取指定版本之后的座位图更新
+     * @param since 客户端已知的版本，首次请求传-1
+     */
+    public SeatMapUpdate getUpdates(Long eventId, long since) {
+        SeatMapFeed feed = getFeed(eventId);
+        feed.touch();
+
+        SeatMapUpdate update = new SeatMapUpdate();
+        update.setEventId(eventId);
+        SeatMapFeed.Delta delta = since < 0 ? null : feed.changesSince(since);
+        if (delta != null) {
+            update.setVersion(delta.getVersion());
+            update.setChanges(delta.getChanges());
+            return update;
+        }
+
+        SeatMapFeed.Snapshot snapshot = getSnapshot(eventId, feed);
+        update.setVersion(snapshot.getVersion());
+        update.setSnapshot(true);
+        update.setBitmap(Base64.getEncoder().encodeToString(snapshot.getData()));
+        return update;
+    }
+
+    /**
+     * 从Redis追加各场次的新版本，并清理无人访问的场次
+     * 每200毫秒执行一次，客户端看到的延迟不超过一个同步周期
+     */
+    @Scheduled(fixedDelay = 200)
+    @SuppressWarnings("unchecked")
+    public void syncFeeds() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<Long, SeatMapFeed> entry : feeds.entrySet()) {
+            Long eventId = entry.getKey();
+            SeatMapFeed feed = entry.getValue();
+            if (now - feed.getLastAccess() > FEED_IDLE_TIMEOUT) {
+                feeds.remove(eventId, feed);
+                continue;
+            }
+
+            try {
+                List<String> result = redisTemplate.execute(CHANGES_SCRIPT,
+                        Arrays.asList(getVersionKey(eventId), getChangeKey(eventId)),
+                        String.valueOf(feed.getVersion()), String.valueOf(MAX_SYNC_VERSIONS));
+                if (result == null || result.isEmpty()) {
+                    continue;
+                }
+                long version = Long.parseLong(result.get(0));
+                if (version == feed.getVersion()) {
+                    continue;
+                }
+                if (result.size() == 1) {
+                    log.warn("Seat map feed reset for event: {}, local version: {}, remote version: {}",
+                            eventId, feed.getVersion(), version);
+                    feed.reset(version);
+                    continue;
+                }
+                for (String record : result.subList(1, result.size())) {
+                    if (!feed.append(record)) {
+                        log.warn("Seat map feed gap for event: {}, resetting to version: {}", eventId, version);
+                        feed.reset(version);
+                        break;
+                    }
+                }
+            } catch (Exception e) {
+                log.error("Failed to sync seat map feed for event: {}", eventId, e);
+            }
+        }
+    }
+
+    private SeatMapFeed getFeed(Long eventId) {
+        SeatMapFeed feed = feeds.get(eventId);
+        if (feed != null) {
+            return feed;
+        }
+
+        String version = redisTemplate.opsForValue().get(getVersionKey(eventId));
+        feed = new SeatMapFeed(FEED_CAPACITY, version == null ? 0 : Long.parseLong(version));
+        SeatMapFeed existing = feeds.putIfAbsent(eventId, feed);
+        return existing != null ? existing : feed;
+    }
+
+    /**
+     * 获取全量快照，缓存的快照足够新且仍在变更环覆盖范围内时直接复用
+     * 快照版本落后于变更环时，客户端拿到快照后即可继续拉取增量
+     */
+    private SeatMapFeed.Snapshot getSnapshot(Long eventId, SeatMapFeed feed) {
+        SeatMapFeed.Snapshot snapshot = feed.getSnapshot();
+        if (isUsable(snapshot, feed)) {
+            return snapshot;
+        }
+
+        synchronized (feed.snapshotLock) {
+            snapshot = feed.getSnapshot();
+            if (isUsable(snapshot, feed)) {
+                return snapshot;
+            }
+
+            byte[][] keys = {
+                    getVersionKey(eventId).getBytes(StandardCharsets.UTF_8),
+                    getStatusKey(eventId).getBytes(StandardCharsets.UTF_8)
+            };
+            List<byte[]> result = redisTemplate.execute((RedisCallback<List<byte[]>>) connection ->
+                    connection.eval(SNAPSHOT_SCRIPT, ReturnType.MULTI, 2, keys));
+            long version = Long.parseLong(new String(result.get(0), StandardCharsets.UTF_8));
+            snapshot = new SeatMapFeed.Snapshot(version, compress(result.get(1)), System.currentTimeMillis());
+            feed.setSnapshot(snapshot);
+            return snapshot;
+        }
+    }
+
+    private boolean isUsable(SeatMapFeed.Snapshot snapshot, SeatMapFeed feed) {
+        return snapshot != null
+                && snapshot.getVersion() >= feed.getBaseVersion()
+                && System.currentTimeMillis() - snapshot.getCreateTime() < SNAPSHOT_MAX_AGE;
+    }
+
+    private byte[] compress(byte[] bitmap) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(bitmap);
+            deflater.finish();
+            ByteArrayOutputStream output = new ByteArrayOutputStream(Math.max(bitmap.length / 4, 64));
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                output.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return output.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    // 工具方法：生成座位图版本号key
+    public static String getVersionKey(Long eventId) {
+        return "inventory:seat:version:" + eventId;
+    }
+
+    // 工具方法：生成座位变更记录列表key
+    public static String getChangeKey(Long eventId) {
+        return "inventory:seat:changes:" + eventId;
+    }
+
+    // 工具方法：生成座位状态位图key，与座位库存服务一致
+    private static String getStatusKey(Long eventId) {
+        return "inventory:seat:status:" + eventId;
+    }
+}
@@ -0,0 +1,260 @@
+package com.ticketing.inventory.seat;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 座位搜索索引
+ * - 每排一棵线段树，节点记录前缀、后缀和最长连续空座数，更新一个座位O(log n)，根节点即该排最长连续空座
+ * - 搜索时区域按质量分从高到低、排按从前到后遍历，最长连续空座不足的排直接跳过，不逐座扫描
+ * - 选中的排内取最靠近中间的位置
+ * - 以Redis状态位图为准定期同步，同步时只重算发生变化的字节
+ * - 所有方法加锁，同一场次的搜索和预占串行执行，并发请求不会选中同一批座位
+ */
+public class SeatSearchIndex {
+
+    private final SeatLayout layout;
+
+    // 空座标记，下标为座位序号
+    private final BitSet free = new BitSet();
+
+    // 座位所在排的下标
+    private final int[] rowOf;
+
+    private final RowTree[] trees;
+
+    // 区域包含的排下标范围[sectionRowStart, sectionRowEnd)
+    private final int[] sectionRowStart;
+    private final int[] sectionRowEnd;
+
+    // 区域的搜索顺序，按质量分从高到低
+    private int[] sectionOrder;
+
+    // 上次同步的状态位图
+    private byte[] lastBitmap = new byte[0];
+
+    public SeatSearchIndex(SeatLayout layout, byte[] bitmap) {
+        this.layout = layout;
+        this.rowOf = new int[layout.size()];
+        List<SeatLayout.Row> rows = layout.getRows();
+        this.trees = new RowTree[rows.size()];
+        for (int r = 0; r < rows.size(); r++) {
+            SeatLayout.Row row = rows.get(r);
+            Arrays.fill(rowOf, row.getStart(), row.getEnd(), r);
+            trees[r] = new RowTree(row.getEnd() - row.getStart());
+        }
+        this.sectionRowStart = new int[layout.getSections().size()];
+        this.sectionRowEnd = new int[layout.getSections().size()];
+        for (int r = rows.size() - 1; r >= 0; r--) {
+            int s = rows.get(r).getSection();
+            if (sectionRowEnd[s] == 0) {
+                sectionRowEnd[s] = r + 1;
+            }
+            sectionRowStart[s] = r;
+        }
+        setSectionScores(null);
+
+        for (int seat = 0; seat < layout.size(); seat++) {
+            if (SeatStatus.decode(bitmap, seat) == SeatStatus.AVAILABLE.getCode()) {
+                free.set(seat);
+                trees[rowOf[seat]].init(seat - rows.get(rowOf[seat]).getStart());
+            }
+        }
+        for (RowTree tree : trees) {
+            tree.build();
+        }
+        if (bitmap != null) {
+            lastBitmap = bitmap.clone();
+        }
+    }
+
+    /**
+     * 设置区域质量分，分数高的区域优先，未配置的区域为0分，同分按区域顺序
+     */
+    public synchronized void setSectionScores(Map<String, Integer> scores) {
+        List<SeatLayout.Section> sections = layout.getSections();
+        Integer[] order = new Integer[sections.size()];
+        int[] values = new int[sections.size()];
+        for (int s = 0; s < sections.size(); s++) {
+            order[s] = s;
+            Integer score = scores == null ? null : scores.get(sections.get(s).getName());
+            values[s] = score == null ? 0 : score;
+        }
+        Arrays.sort(order, (a, b) -> values[a] != values[b] ? Integer.compare(values[b], values[a]) : Integer.compare(a, b));
+        sectionOrder = Arrays.stream(order).mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * 查找同排相邻的空座，不做预占
+     * @param ticketTypeId 票种，为空时不限票种
+     * @return 座位序号，找不到时返回null
+     */
+    public synchronized int[] find(int quantity, Long ticketTypeId) {
+        if (quantity <= 0) {
+            return null;
+        }
+        List<SeatLayout.Section> sections = layout.getSections();
+        List<SeatLayout.Row> rows = layout.getRows();
+        for (int s : sectionOrder) {
+            if (ticketTypeId != null && sections.get(s).getTicketTypeId() != ticketTypeId) {
+                continue;
+            }
+            for (int r = sectionRowStart[s]; r < sectionRowEnd[s]; r++) {
+                if (trees[r].maxRun() < quantity) {
+                    continue;
+                }
+                int start = placeInRow(rows.get(r), quantity);
+                int[] seats = new int[quantity];
+                for (int i = 0; i < quantity; i++) {
+                    seats[i] = start + i;
+                }
+                return seats;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 查找同排相邻的空座并在本地预占，预占的座位不会再被其他请求选中
+     * 锁定失败或异常时调用方需要按实际状态归还
+     * @return 座位序号，找不到时返回null
+     */
+    public synchronized int[] reserve(int quantity, Long ticketTypeId) {
+        int[] seats = find(quantity, ticketTypeId);
+        if (seats != null) {
+            for (int seat : seats) {
+                setFree(seat, false);
+            }
+        }
+        return seats;
+    }
+
+    /**
+     * 更新座位的空闲状态
+     */
+    public synchronized void update(int[] seats, boolean available) {
+        for (int seat : seats) {
+            setFree(seat, available);
+        }
+    }
+
+    /**
+     * 按Redis状态位图同步，只重算与上次同步相比发生变化的字节
+     */
+    public synchronized void sync(byte[] bitmap) {
+        byte[] current = bitmap == null ? new byte[0] : bitmap;
+        int length = Math.max(current.length, lastBitmap.length);
+        for (int i = 0; i < length; i++) {
+            byte previous = i < lastBitmap.length ? lastBitmap[i] : 0;
+            byte value = i < current.length ? current[i] : 0;
+            if (previous == value) {
+                continue;
+            }
+            // 每个字节包含4个座位
+            for (int seat = i << 2; seat < (i << 2) + 4 && seat < layout.size(); seat++) {
+                setFree(seat, SeatStatus.decode(current, seat) == SeatStatus.AVAILABLE.getCode());
+            }
+        }
+        lastBitmap = current.clone();
+    }
+
+    /**
+     * 查询座位是否空闲
+     */
+    public synchronized boolean isFree(int seat) {
+        return free.get(seat);
+    }
+
+    private void setFree(int seat, boolean available) {
+        if (free.get(seat) == available) {
+            return;
+        }
+        free.set(seat, available);
+        int r = rowOf[seat];
+        trees[r].set(seat - layout.getRows().get(r).getStart(), available);
+    }
+
+    /**
+     * 在排内选取最靠近中间的位置
+     * 逐段遍历排内的连续空座，每段内尽量居中放置，取离排中心最近的一段
+     */
+    private int placeInRow(SeatLayout.Row row, int quantity) {
+        double center = (row.getStart() + row.getEnd()) / 2.0;
+        int best = -1;
+        double bestDistance = Double.MAX_VALUE;
+        int pos = free.nextSetBit(row.getStart());
+        while (pos >= 0 && pos < row.getEnd()) {
+            int runEnd = Math.min(free.nextClearBit(pos), row.getEnd());
+            if (runEnd - pos >= quantity) {
+                int start = (int) Math.round(center - quantity / 2.0);
+                start = Math.max(pos, Math.min(start, runEnd - quantity));
+                double distance = Math.abs(start + quantity / 2.0 - center);
+                if (distance < bestDistance) {
+                    best = start;
+                    bestDistance = distance;
+                }
+            }
+            pos = free.nextSetBit(runEnd);
+        }
+        return best;
+    }
+
+    /**
+     * 排的线段树，叶子为1表示空座，补齐到2的幂的叶子视为占用
+     */
+    private static final class RowTree {
+        private final int size;
+        private final int[] prefix;
+        private final int[] suffix;
+        private final int[] max;
+
+        private RowTree(int length) {
+            int size = 1;
+            while (size < length) {
+                size <<= 1;
+            }
+            this.size = size;
+            this.prefix = new int[size << 1];
+            this.suffix = new int[size << 1];
+            this.max = new int[size << 1];
+        }
+
+        // 初始化叶子，全部叶子设置完后调用build
+        private void init(int offset) {
+            int node = size + offset;
+            prefix[node] = suffix[node] = max[node] = 1;
+        }
+
+        private void build() {
+            for (int node = size - 1; node >= 1; node--) {
+                // 节点长度为size右移节点所在层数
+                int half = (size >> (31 - Integer.numberOfLeadingZeros(node))) >> 1;
+                merge(node, half);
+            }
+        }
+
+        private void set(int offset, boolean available) {
+            int node = size + offset;
+            int value = available ? 1 : 0;
+            prefix[node] = suffix[node] = max[node] = value;
+            int half = 1;
+            for (node >>= 1; node >= 1; node >>= 1, half <<= 1) {
+                merge(node, half);
+            }
+        }
+
+        private void merge(int node, int half) {
+            int left = node << 1;
+            int right = left | 1;
+            prefix[node] = prefix[left] == half ? half + prefix[right] : prefix[left];
+            suffix[node] = suffix[right] == half ? half + suffix[left] : suffix[right];
+            max[node] = Math.max(Math.max(max[left], max[right]), suffix[left] + prefix[right]);
+        }
+
+        private int maxRun() {
+            return max[1];
+        }
+    }
+}
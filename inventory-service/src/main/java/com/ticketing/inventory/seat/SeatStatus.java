@@ -0,0 +1,43 @@
+package com.ticketing.inventory.seat;
+
+/**
+ * 座位状态
+ * Redis中每个座位占2位，按座位序号排列，编码即状态码
+ */
+public enum SeatStatus {
+
+    AVAILABLE(0),
+    LOCKED(1),
+    SOLD(2);
+
+    private final int code;
+
+    SeatStatus(int code) {
+        this.code = code;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    public static SeatStatus of(long code) {
+        for (SeatStatus status : values()) {
+            if (status.code == code) {
+                return status;
+            }
+        }
+        throw new IllegalArgumentException("Unknown seat status code: " + code);
+    }
+
+    /**
+     * 从Redis状态位图中读取座位状态码
+     * 第i个座位占第2i和2i+1位，Redis的第0位是首字节的最高位
+     */
+    public static int decode(byte[] bitmap, int index) {
+        int offset = index >>> 2;
+        if (bitmap == null || offset >= bitmap.length) {
+            return AVAILABLE.code;
+        }
+        return (bitmap[offset] >>> (6 - ((index & 3) << 1))) & 0x3;
+    }
+}
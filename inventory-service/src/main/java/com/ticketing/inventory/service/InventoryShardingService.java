@@ -1,5 +1,13 @@
 package com.ticketing.inventory.service;
 
+import com.ticketing.inventory.model.ReleaseWave;
+import com.ticketing.inventory.model.StockAvailability;
+import com.ticketing.inventory.model.TicketTypeSnapshot;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 /**
  * 库存分片服务接口
  * 通过分片方式管理库存，提供高性能的库存操作
@@ -43,4 +51,149 @@ public interface InventoryShardingService {
      * @return 是否释放成功
      */
     boolean releaseStock(Long eventId, Long ticketTypeId, Long userId, int quantity);
-} 
\ No newline at end of file
+
+    /**
+     * 拆分库存分片
+     * 把剩余库存原子地均分到更多分片中，不暂停售卖
+     * @param eventId 场次ID
+     * @param ticketTypeId 票种ID
+     * @param targetShardCount 目标分片数量
+     * @return 拆分后的分片数量
+     */
+    int splitShards(Long eventId, Long ticketTypeId, int targetShardCount);
+
+    /**
+     * 合并库存分片
+     * 把剩余库存原子地收拢回初始化时的分片数量
+     * @param eventId 场次ID
+     * @param ticketTypeId 票种ID
+     * @return 合并后的分片数量
+     */
+    int mergeShards(Long eventId, Long ticketTypeId);
+
+    /**
+     * 获取当前分片数量
+     * @param eventId 场次ID
+     * @param ticketTypeId 票种ID
+     * @return 分片数量，未初始化时返回0
+     */
+    int getShardCount(Long eventId, Long ticketTypeId);
+
+    /**
+     * 从分片中批量取出库存，用于实例本地租约
+     * @param eventId 场次ID
+     * @param ticketTypeId 票种ID
+     * @param maxQuantity 最多取出的数量
+     * @return 实际取出的数量，库存不足时可能小于请求数量
+     */
+    int acquireBlock(Long eventId, Long ticketTypeId, int maxQuantity);
+
+    /**
+     * 批量归还库存到分片
+     * @param eventId 场次ID
+     * @param ticketTypeId 票种ID
+     * @param quantity 归还数量
+     */
+    void returnBlock(Long eventId, Long ticketTypeId, int quantity);
+
+    /**
+     * 记录由本地租约售出的用户锁定，并累加租约的已售数量
+     * 租约记录已被回收或已过期时不写入，租约中的库存已由回收方归还
+     * @param eventId 场次ID
+     * @param ticketTypeId 票种ID
+     * @param userId 用户ID
+     * @param quantity 锁定数量
+     * @param leaseKey 租约key
+     * @return 是否已记录，租约或配额已失效时返回false
+     * @throws com.ticketing.common.exception.BusinessException 用户已有锁定记录，调用方应退回取出的库存
+     */
+    boolean recordLeasedLock(Long eventId, Long ticketTypeId, Long userId, int quantity, String leaseKey);
+
+    /**
+     * 批量记录已从分片取出库存的用户锁定，所有记录通过管道一次写入
+     * 已有锁定记录的用户不覆盖，写入的锁定按有效期登记，过期未核销或释放时自动回收
+     * @param eventId 场次ID
+     * @param ticketTypeId 票种ID
+     * @param quantities 用户ID到锁定数量的映射
+     * @param holdSeconds 锁定的有效期（秒）
+     * @return 已有锁定记录而未写入的用户，其库存由调用方归还
+     */
+    Set<Long> recordBulkLocks(Long eventId, Long ticketTypeId, Map<Long, Integer> quantities, long holdSeconds);
+
+    /**
+     * 下单时认领用户已有的批量锁定
+     * 认领后锁定不再被定时回收，改由订单的支付或关单核销、释放
+     * @param eventId 场次ID
+     * @param ticketTypeId 票种ID
+     * @param userId 用户ID
+     * @param quantity 锁定数量
+     * @return 是否认领成功，没有数量一致且未过期的锁定时返回false
+     */
+    boolean claimHold(Long eventId, Long ticketTypeId, Long userId, int quantity);
+
+    /**
+     * 导出所有票种的分片库存状态，包括分片余量和未过期的用户锁定
+     * @return 各票种的库存快照
+     */
+    List<TicketTypeSnapshot> exportSnapshots();
+
+    /**
+     * 从快照恢复票种的分片库存状态，Redis中已有该票种时不覆盖
+     * @param snapshot 票种库存快照
+     * @param elapsedMillis 快照生成至今经过的时间，用于扣除用户锁定的有效期
+     * @return 是否写入了Redis
+     */
+    boolean restoreSnapshot(TicketTypeSnapshot snapshot, long elapsedMillis);
+
+    /**
+     * 批量加载票种库存分片，Redis中已有分片映射的票种不覆盖
+     * @param availableStocks 各票种的可用库存，key为打包后的(eventId, ticketTypeId)
+     * @return 实际写入Redis的票种数量
+     */
+    int loadShardsIfAbsent(Map<Long, Integer> availableStocks);
+
+    /**
+     * 预热锁定路径，在独立的预热分片上执行锁定和归还，不改变真实库存
+     * - 锁定和归还脚本提前缓存，开售时的脚本调用不会因脚本未缓存多一次往返
+     * @param eventId 场次ID
+     * @param ticketTypeId 票种ID
+     * @param iterations 调用次数
+     * @return 实际调用次数，票种未初始化时返回0
+     */
+    int warmupLockPath(Long eventId, Long ticketTypeId, int iterations);
+
+    /**
+     * 配置分批放量计划
+     * 分片库存原子地移入预留池，包括首批在内的每个批次都到期后才放回分片
+     * @param eventId 场次ID
+     * @param ticketTypeId 票种ID
+     * @param saleStartMillis 售票开始时间（毫秒时间戳）
+     * @param waves 放量批次，首批偏移必须为0，百分比之和为100
+     * @return 移入预留池的库存数量
+     */
+    int configureReleaseWaves(Long eventId, Long ticketTypeId, long saleStartMillis, List<ReleaseWave> waves);
+
+    /**
+     * 放出已到期的批次，多个实例同时调用时每个批次只放出一次
+     * @param eventId 场次ID
+     * @param ticketTypeId 票种ID
+     * @param nowMillis 当前时间（毫秒时间戳）
+     * @return 本次放出的库存数量
+     */
+    int releaseDueWaves(Long eventId, Long ticketTypeId, long nowMillis);
+
+    /**
+     * 查询可售库存和当前放量批次
+     * @param eventId 场次ID
+     * @param ticketTypeId 票种ID
+     * @return 可售库存
+     */
+    StockAvailability getAvailability(Long eventId, Long ticketTypeId);
+
+    /**
+     * 统计多个票种未过期的用户锁定数量
+     * @param keys 打包后的(eventId, ticketTypeId)
+     * @return 各票种的锁定数量，没有锁定的票种不在结果中
+     */
+    Map<Long, Integer> sumHolds(Set<Long> keys);
+}
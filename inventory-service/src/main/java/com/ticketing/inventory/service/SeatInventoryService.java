@@ -70,6 +70,34 @@ public interface SeatInventoryService {
      */
     List<String> getAvailableSeats(Long eventId, int quantity, Long ticketTypeId);
 
+    /**
+     * 分配并锁定同排相邻的座位
+     *
+     * @param eventId 场次ID
+     * @param quantity 需要的座位数量
+     * @param ticketTypeId 票价类型ID
+     * @param userId 用户ID
+     * @param lockDuration 锁定时长（秒）
+     * @return 锁定的座位ID列表，没有满足条件的座位时为空
+     */
+    List<String> allocateSeats(Long eventId, int quantity, Long ticketTypeId, Long userId, int lockDuration);
+
+    /**
+     * 设置区域质量分
+     *
+     * @param eventId 场次ID
+     * @param scores 区域质量分（区域->分数），分数高的区域优先分配
+     */
+    void updateSectionScores(Long eventId, Map<String, Integer> scores);
+
+    /**
+     * 获取座位分布图
+     *
+     * @param eventId 场次ID
+     * @return 座位分布图（区域->座位列表），座位按序号排列
+     */
+    Map<String, List<String>> getSeatMap(Long eventId);
+
     /**
      * 批量更新座位状态
      *
@@ -0,0 +1,434 @@
+package com.ticketing.inventory.service.impl;
+
+import com.ticketing.common.exception.BusinessException;
+import com.ticketing.inventory.ballot.BallotGate;
+import com.ticketing.inventory.model.SalesChannel;
+import com.ticketing.inventory.service.InventoryShardingService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 渠道配额服务
+ * 票种库存按渠道划分配额，每个渠道使用独立的分片计数器，渠道之间互不争抢
+ * - 未划入渠道的库存和用户释放的库存留在公共分片中，渠道配额耗尽后回退到公共分片
+ * - 渠道配额不足时按批次从余量最多的渠道借入，出借方保留最低配额
+ * - 锁定记录与公共分片一致，扣减和释放沿用原有流程
+ * - 回滚只在配额仍存在时写回渠道分片，配额解除后归还公共分片，不会重建已删除的渠道分片
+ */
+@Slf4j
+@Service
+public class ChannelQuotaService {
+
+    @Autowired
+    private InventoryShardingService inventoryShardingService;
+
+    @Autowired
+    private BallotGate ballotGate;
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    // 每个渠道分片的库存容量
+    private static final int CHANNEL_SHARD_SIZE = 500;
+
+    // 每个渠道的最大分片数
+    private static final int MAX_CHANNEL_SHARDS = 8;
+
+    // 出借方保留的最低配额比例（百分比）
+    private static final int MIN_RETAIN_PERCENT = 20;
+
+    // 每次借入的最小数量
+    private static final int MIN_BORROW_BLOCK = 20;
+
+    // 每次借入占借入方配额的比例（百分比）
+    private static final int BORROW_BLOCK_PERCENT = 10;
+
+    /**
+     * 原子扣减分片库存，返回实际扣减数量
+     * KEYS[1]=分片key，ARGV[1]=请求数量
+     */
+    private static final RedisScript<Long> LOCK_SCRIPT = new DefaultRedisScript<>(
+            "local available = tonumber(redis.call('GET', KEYS[1]) or '0') "
+                    + "if available <= 0 then return 0 end "
+                    + "local locked = math.min(available, tonumber(ARGV[1])) "
+                    + "redis.call('DECRBY', KEYS[1], locked) "
+                    + "return locked",
+            Long.class);
+
+    /**
+     * 写入渠道分片和配额记录，配额记录已存在时不写入
+     * KEYS[1]=配额key，ARGV[1]=分片key前缀，ARGV[2]=配额，ARGV[3]=保留配额，ARGV[4...]=各分片库存
+     * 返回1表示写入成功，0表示配额已存在
+     */
+    private static final RedisScript<Long> CONFIGURE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('EXISTS', KEYS[1]) == 1 then return 0 end "
+                    + "for i = 4, #ARGV do "
+                    + "  redis.call('SET', ARGV[1] .. (i - 4), ARGV[i]) "
+                    + "end "
+                    + "redis.call('HSET', KEYS[1], 'count', #ARGV - 3, 'quota', ARGV[2], 'floor', ARGV[3], "
+                    + "'sold', 0, 'lent', 0, 'borrowed', 0) "
+                    + "return 1",
+            Long.class);
+
+    /**
+     * 回滚渠道分片上扣减的库存，配额已解除时不写回
+     * KEYS[1]=配额key，KEYS[2]=分片key，ARGV[1]=数量
+     * 返回1表示已写回渠道分片，0表示配额已解除
+     */
+    private static final RedisScript<Long> ROLLBACK_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('EXISTS', KEYS[1]) == 0 then return 0 end "
+                    + "redis.call('INCRBY', KEYS[2], ARGV[1]) "
+                    + "return 1",
+            Long.class);
+
+    /**
+     * 渠道间借入配额：从出借方的分片取出库存，均分到借入方的分片
+     * KEYS[1]=出借方配额key，KEYS[2]=借入方配额key
+     * ARGV[1]=出借方分片key前缀，ARGV[2]=借入方分片key前缀，ARGV[3]=借入数量
+     * 返回实际借入数量，出借方余量不超过保留配额时返回0
+     */
+    private static final RedisScript<Long> BORROW_SCRIPT = new DefaultRedisScript<>(
+            "local lender = redis.call('HMGET', KEYS[1], 'count', 'floor') "
+                    + "local borrowerCount = tonumber(redis.call('HGET', KEYS[2], 'count') or '0') "
+                    + "if not lender[1] or borrowerCount == 0 then return 0 end "
+                    + "local lenderCount = tonumber(lender[1]) "
+                    + "local stocks = {} "
+                    + "local total = 0 "
+                    + "for i = 0, lenderCount - 1 do "
+                    + "  stocks[i] = tonumber(redis.call('GET', ARGV[1] .. i) or '0') "
+                    + "  total = total + stocks[i] "
+                    + "end "
+                    + "local amount = math.min(tonumber(ARGV[3]), total - tonumber(lender[2] or '0')) "
+                    + "if amount <= 0 then return 0 end "
+                    + "local left = amount "
+                    + "for i = 0, lenderCount - 1 do "
+                    + "  local take = math.min(stocks[i], left) "
+                    + "  if take > 0 then "
+                    + "    redis.call('DECRBY', ARGV[1] .. i, take) "
+                    + "    left = left - take "
+                    + "  end "
+                    + "end "
+                    + "for i = 0, borrowerCount - 1 do "
+                    + "  local share = math.floor(amount / borrowerCount) "
+                    + "  if i < amount % borrowerCount then share = share + 1 end "
+                    + "  if share > 0 then redis.call('INCRBY', ARGV[2] .. i, share) end "
+                    + "end "
+                    + "redis.call('HINCRBY', KEYS[1], 'lent', amount) "
+                    + "redis.call('HINCRBY', KEYS[2], 'borrowed', amount) "
+                    + "return amount",
+            Long.class);
+
+    /**
+     * 按渠道划分配额
+     * 从公共分片批量取出库存写入各渠道的分片，百分比之和不足100的部分留在公共分片
+     * 配置标记以SET NX占用，并发的配置请求只有一个能继续，解除配额或配置失败时清除标记
+     * @param percents 渠道到配额百分比的映射
+     * @return 渠道到实际划入数量的映射
+     */
+    public Map<SalesChannel, Integer> configureQuotas(Long eventId, Long ticketTypeId, Map<SalesChannel, Integer> percents) {
+        if (percents == null || percents.isEmpty()) {
+            throw new BusinessException("渠道配额不能为空");
+        }
+        int totalPercent = 0;
+        for (Integer percent : percents.values()) {
+            if (percent == null || percent <= 0) {
+                throw new BusinessException("渠道配额百分比需大于0");
+            }
+            totalPercent += percent;
+        }
+        if (totalPercent > 100) {
+            throw new BusinessException("渠道配额百分比之和不能超过100");
+        }
+        if (!Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(getConfigKey(eventId, ticketTypeId), "1"))) {
+            throw new BusinessException("渠道配额已配置");
+        }
+
+        Map<SalesChannel, Integer> assigned = new EnumMap<>(SalesChannel.class);
+        try {
+            int total = inventoryShardingService.getAvailability(eventId, ticketTypeId).getLiveStock();
+            for (Map.Entry<SalesChannel, Integer> entry : percents.entrySet()) {
+                SalesChannel channel = entry.getKey();
+                int acquired = inventoryShardingService.acquireBlock(eventId, ticketTypeId, total * entry.getValue() / 100);
+                if (configureChannel(eventId, ticketTypeId, channel, acquired)) {
+                    assigned.put(channel, acquired);
+                }
+            }
+        } catch (RuntimeException e) {
+            // 已写入的渠道配额全部解除并清除配置标记，库存回到公共分片后可以重新配置
+            log.error("Failed to configure channel quotas for event: {}, ticketType: {}, rolling back: {}",
+                    eventId, ticketTypeId, assigned, e);
+            dissolveQuotas(eventId, ticketTypeId);
+            throw e;
+        }
+
+        log.info("Configured channel quotas for event: {}, ticketType: {}, quotas: {}", eventId, ticketTypeId, assigned);
+        return assigned;
+    }
+
+    /**
+     * 写入一个渠道的分片和配额记录，配额已存在或写入失败时取出的库存归还公共分片
+     * @return 是否写入成功
+     */
+    private boolean configureChannel(Long eventId, Long ticketTypeId, SalesChannel channel, int acquired) {
+        // 分片数按配额计算，至少一个分片，空分片在借入时也能接收库存
+        int shardCount = Math.max(1, Math.min(MAX_CHANNEL_SHARDS, (acquired + CHANNEL_SHARD_SIZE - 1) / CHANNEL_SHARD_SIZE));
+        List<String> args = new ArrayList<>(shardCount + 3);
+        args.add(getShardKeyPrefix(eventId, ticketTypeId, channel));
+        args.add(String.valueOf(acquired));
+        args.add(String.valueOf(acquired * MIN_RETAIN_PERCENT / 100));
+        for (int i = 0; i < shardCount; i++) {
+            args.add(String.valueOf(acquired / shardCount + (i < acquired % shardCount ? 1 : 0)));
+        }
+
+        // 分片和配额记录由一个脚本写入，锁定请求看到配额时分片已就绪
+        String quotaKey = getQuotaKey(eventId, ticketTypeId, channel);
+        Long configured;
+        try {
+            configured = redisTemplate.execute(CONFIGURE_SCRIPT, Collections.singletonList(quotaKey), args.toArray());
+        } catch (RuntimeException e) {
+            // 脚本可能已执行，配额存在时由解除配额归还
+            if (!Boolean.TRUE.equals(redisTemplate.hasKey(quotaKey))) {
+                inventoryShardingService.returnBlock(eventId, ticketTypeId, acquired);
+            }
+            throw e;
+        }
+        if (configured == null || configured != 1) {
+            log.warn("Channel quota already exists, returned {} to common shards, event: {}, ticketType: {}, channel: {}",
+                    acquired, eventId, ticketTypeId, channel);
+            inventoryShardingService.returnBlock(eventId, ticketTypeId, acquired);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 按渠道锁定库存
+     * 先在渠道分片上扣减，不足时从其他渠道借入后重试，仍不足时回退到公共分片
+     */
+    public boolean lockStock(Long eventId, Long ticketTypeId, Long userId, int quantity, SalesChannel channel) {
+        ballotGate.checkNotInBallot(eventId);
+        String quotaKey = getQuotaKey(eventId, ticketTypeId, channel);
+        Object count = redisTemplate.opsForHash().get(quotaKey, "count");
+        if (count == null) {
+            return inventoryShardingService.lockStock(eventId, ticketTypeId, userId, quantity);
+        }
+
+        int shardCount = Integer.parseInt((String) count);
+        boolean locked = tryLockChannel(eventId, ticketTypeId, channel, shardCount, userId, quantity);
+        if (!locked && borrow(eventId, ticketTypeId, channel, quantity) > 0) {
+            locked = tryLockChannel(eventId, ticketTypeId, channel, shardCount, userId, quantity);
+        }
+        if (!locked) {
+            return inventoryShardingService.lockStock(eventId, ticketTypeId, userId, quantity);
+        }
+
+        try {
+            if (inventoryShardingService.recordLeasedLock(eventId, ticketTypeId, userId, quantity, quotaKey)) {
+                return true;
+            }
+            // 配额已解除，取出的库存归还公共分片后按公共分片锁定
+            inventoryShardingService.returnBlock(eventId, ticketTypeId, quantity);
+            return inventoryShardingService.lockStock(eventId, ticketTypeId, userId, quantity);
+        } catch (BusinessException e) {
+            // 用户已有锁定，取出的库存写回渠道分片
+            rollback(eventId, ticketTypeId, channel, (int) Math.floorMod(userId, (long) shardCount), quantity);
+            log.warn("Skipped channel lock for event: {}, ticketType: {}, user: {}, reason: {}",
+                    eventId, ticketTypeId, userId, e.getMessage());
+            return false;
+        } catch (Exception e) {
+            log.error("Failed to record channel lock", e);
+            rollback(eventId, ticketTypeId, channel, (int) Math.floorMod(userId, (long) shardCount), quantity);
+            return false;
+        }
+    }
+
+    /**
+     * 查询各渠道的配额使用情况
+     */
+    public Map<SalesChannel, ChannelQuota> getQuotas(Long eventId, Long ticketTypeId) {
+        Map<SalesChannel, ChannelQuota> quotas = new EnumMap<>(SalesChannel.class);
+        for (SalesChannel channel : SalesChannel.values()) {
+            List<Object> values = redisTemplate.opsForHash().multiGet(getQuotaKey(eventId, ticketTypeId, channel),
+                    Arrays.asList("count", "quota", "sold", "lent", "borrowed"));
+            if (values.get(0) == null) {
+                continue;
+            }
+            quotas.put(channel, new ChannelQuota(
+                    parse(values.get(1)),
+                    getRemaining(eventId, ticketTypeId, channel, Integer.parseInt((String) values.get(0))),
+                    parse(values.get(2)),
+                    parse(values.get(3)),
+                    parse(values.get(4))));
+        }
+        return quotas;
+    }
+
+    /**
+     * 解除渠道配额，各渠道剩余库存归还到公共分片
+     * 配额记录先删除，此后在途请求的回滚直接归还公共分片
+     * @return 归还的库存总量
+     */
+    public int dissolveQuotas(Long eventId, Long ticketTypeId) {
+        int returned = 0;
+        for (SalesChannel channel : SalesChannel.values()) {
+            String quotaKey = getQuotaKey(eventId, ticketTypeId, channel);
+            Object count = redisTemplate.opsForHash().get(quotaKey, "count");
+            if (count == null) {
+                continue;
+            }
+            // 先删除配额记录，新的锁定请求直接走公共分片
+            redisTemplate.delete(quotaKey);
+
+            String prefix = getShardKeyPrefix(eventId, ticketTypeId, channel);
+            for (int i = 0; i < Integer.parseInt((String) count); i++) {
+                // 原子取出全部余量，在途的锁定请求只会扣减失败
+                Long quantity = redisTemplate.execute(LOCK_SCRIPT,
+                        Collections.singletonList(prefix + i), String.valueOf(Integer.MAX_VALUE));
+                redisTemplate.delete(prefix + i);
+                if (quantity != null && quantity > 0) {
+                    inventoryShardingService.returnBlock(eventId, ticketTypeId, quantity.intValue());
+                    returned += quantity.intValue();
+                }
+            }
+        }
+        redisTemplate.delete(getConfigKey(eventId, ticketTypeId));
+        log.info("Dissolved channel quotas for event: {}, ticketType: {}, returned: {}", eventId, ticketTypeId, returned);
+        return returned;
+    }
+
+    /**
+     * 在渠道分片上锁定库存，从用户对应的分片开始依次扣减，不足时全部回滚
+     */
+    private boolean tryLockChannel(Long eventId, Long ticketTypeId, SalesChannel channel, int shardCount,
+                                   Long userId, int quantity) {
+        String prefix = getShardKeyPrefix(eventId, ticketTypeId, channel);
+        int start = (int) Math.floorMod(userId, (long) shardCount);
+        List<int[]> taken = new ArrayList<>();
+        int remaining = quantity;
+        for (int i = 0; i < shardCount && remaining > 0; i++) {
+            int index = (start + i) % shardCount;
+            Long locked = redisTemplate.execute(LOCK_SCRIPT,
+                    Collections.singletonList(prefix + index), String.valueOf(remaining));
+            if (locked != null && locked > 0) {
+                taken.add(new int[]{index, locked.intValue()});
+                remaining -= locked.intValue();
+            }
+        }
+        if (remaining <= 0) {
+            return true;
+        }
+
+        for (int[] shard : taken) {
+            rollback(eventId, ticketTypeId, channel, shard[0], shard[1]);
+        }
+        return false;
+    }
+
+    /**
+     * 回滚渠道分片上扣减的库存，配额已解除时归还到公共分片
+     */
+    private void rollback(Long eventId, Long ticketTypeId, SalesChannel channel, int shardIndex, int quantity) {
+        Long restored = redisTemplate.execute(ROLLBACK_SCRIPT,
+                Arrays.asList(getQuotaKey(eventId, ticketTypeId, channel),
+                        getShardKeyPrefix(eventId, ticketTypeId, channel) + shardIndex),
+                String.valueOf(quantity));
+        if (restored == null || restored != 1) {
+            inventoryShardingService.returnBlock(eventId, ticketTypeId, quantity);
+        }
+    }
+
+    /**
+     * 从余量最多的渠道借入一批配额
+     * @return 实际借入数量
+     */
+    private int borrow(Long eventId, Long ticketTypeId, SalesChannel borrower, int quantity) {
+        Map<SalesChannel, ChannelQuota> quotas = getQuotas(eventId, ticketTypeId);
+        ChannelQuota own = quotas.get(borrower);
+        // 配额已解除，不再借入
+        if (own == null) {
+            return 0;
+        }
+        int block = Math.max(quantity, Math.max(MIN_BORROW_BLOCK, own.getQuota() * BORROW_BLOCK_PERCENT / 100));
+
+        List<Map.Entry<SalesChannel, ChannelQuota>> lenders = new ArrayList<>(quotas.entrySet());
+        lenders.removeIf(entry -> entry.getKey() == borrower);
+        lenders.sort((a, b) -> Integer.compare(b.getValue().getRemaining(), a.getValue().getRemaining()));
+
+        for (Map.Entry<SalesChannel, ChannelQuota> lender : lenders) {
+            Long borrowed = redisTemplate.execute(BORROW_SCRIPT,
+                    Arrays.asList(getQuotaKey(eventId, ticketTypeId, lender.getKey()),
+                            getQuotaKey(eventId, ticketTypeId, borrower)),
+                    getShardKeyPrefix(eventId, ticketTypeId, lender.getKey()),
+                    getShardKeyPrefix(eventId, ticketTypeId, borrower),
+                    String.valueOf(block));
+            if (borrowed != null && borrowed > 0) {
+                log.info("Channel {} borrowed {} from {} for event: {}, ticketType: {}",
+                        borrower, borrowed, lender.getKey(), eventId, ticketTypeId);
+                return borrowed.intValue();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 汇总渠道各分片的余量
+     */
+    private int getRemaining(Long eventId, Long ticketTypeId, SalesChannel channel, int shardCount) {
+        String prefix = getShardKeyPrefix(eventId, ticketTypeId, channel);
+        List<String> keys = new ArrayList<>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            keys.add(prefix + i);
+        }
+        int remaining = 0;
+        List<String> values = redisTemplate.opsForValue().multiGet(keys);
+        if (values != null) {
+            for (String value : values) {
+                remaining += value == null ? 0 : Integer.parseInt(value);
+            }
+        }
+        return remaining;
+    }
+
+    private int parse(Object value) {
+        return value == null ? 0 : Integer.parseInt((String) value);
+    }
+
+    // 工具方法：生成渠道配额key，锁定成功时在该key上累加已售数量
+    private String getQuotaKey(Long eventId, Long ticketTypeId, SalesChannel channel) {
+        return "inventory:channel:quota:" + eventId + ":" + ticketTypeId + ":" + channel.name();
+    }
+
+    // 工具方法：生成渠道配额配置标记key
+    private String getConfigKey(Long eventId, Long ticketTypeId) {
+        return "inventory:channel:config:" + eventId + ":" + ticketTypeId;
+    }
+
+    // 工具方法：生成渠道分片key前缀
+    private String getShardKeyPrefix(Long eventId, Long ticketTypeId, SalesChannel channel) {
+        return "inventory:channel:shard:" + eventId + ":" + ticketTypeId + ":" + channel.name() + ":";
+    }
+
+    /**
+     * 渠道配额使用情况
+     */
+    @lombok.Data
+    @lombok.AllArgsConstructor
+    public static class ChannelQuota {
+        private int quota;
+        private int remaining;
+        private int sold;
+        private int lent;
+        private int borrowed;
+    }
+}
@@ -0,0 +1,512 @@
+package com.ticketing.inventory.service.impl;
+
+import com.ticketing.common.exception.BusinessException;
+import com.ticketing.common.utils.InventoryKeyUtil;
+import com.ticketing.inventory.ballot.BallotGate;
+import com.ticketing.inventory.hotspot.HotspotChangedEvent;
+import com.ticketing.inventory.service.InventoryShardingService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 库存租约服务
+ * 实例从中心分片批量租用库存，之后在本地原子计数器上售卖，不再争抢分片
+ * - 租约大小按近期售卖速率自适应
+ * - 闲置租约定时归还，停机和临近售罄时全部归还
+ * - 租约记录在Redis中带过期时间，实例宕机后由其他实例回收未售出的部分
+ * - 续期、续租、归还和售卖记账都先确认租约记录仍存在且未过期，租约已被回收时丢弃本地余量
+ * - 所有故障路径只会少卖，不会超卖
+ */
+@Slf4j
+@Service
+public class InventoryLeaseService {
+
+    @Autowired
+    private InventoryShardingService inventoryShardingService;
+
+    @Autowired
+    private BallotGate ballotGate;
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    @Autowired
+    private ThreadPoolTaskExecutor inventoryThreadPool;
+
+    // 租约有效期（毫秒）
+    private static final long LEASE_TTL = 30000;
+
+    // 本地停止售卖的安全余量（毫秒），留出时钟误差
+    private static final long LEASE_SAFETY_MARGIN = 5000;
+
+    // 租约覆盖的售卖时长（秒），租约大小 = 售卖速率 * 该时长
+    private static final int LEASE_HORIZON_SECONDS = 5;
+
+    // 租约大小上下限
+    private static final int MIN_LEASE_BLOCK = 10;
+    private static final int MAX_LEASE_BLOCK = 500;
+
+    // 闲置多久后归还租约（毫秒）
+    private static final long LEASE_IDLE_RETURN = 30000;
+
+    // 售卖速率的平滑系数
+    private static final double RATE_SMOOTHING = 0.3;
+
+    // 中心库存不足后重新检查的间隔（毫秒）
+    private static final long SOLD_OUT_RECHECK_INTERVAL = 5000;
+
+    private static final String LEASE_INDEX_KEY = "inventory:lease:index";
+
+    /**
+     * 回收过期租约：删除租约记录并返回未售出数量
+     * KEYS[1]=租约key，KEYS[2]=租约索引，ARGV[1]=当前时间
+     * 租约未过期时返回-1
+     */
+    private static final RedisScript<Long> RECLAIM_SCRIPT = new DefaultRedisScript<>(
+            "local lease = redis.call('HMGET', KEYS[1], 'granted', 'sold', 'expireAt') "
+                    + "if not lease[3] then redis.call('SREM', KEYS[2], KEYS[1]) return -1 end "
+                    + "if tonumber(lease[3]) >= tonumber(ARGV[1]) then return -1 end "
+                    + "redis.call('DEL', KEYS[1]) "
+                    + "redis.call('SREM', KEYS[2], KEYS[1]) "
+                    + "return tonumber(lease[1] or '0') - tonumber(lease[2] or '0')",
+            Long.class);
+
+    /**
+     * 续期租约：租约记录存在且未过期时更新过期时间
+     * KEYS[1]=租约key，ARGV[1]=当前时间，ARGV[2]=新的过期时间
+     * 返回1表示已续期，0表示租约已被回收或已过期
+     */
+    private static final RedisScript<Long> HEARTBEAT_SCRIPT = new DefaultRedisScript<>(
+            "local expireAt = redis.call('HGET', KEYS[1], 'expireAt') "
+                    + "if not expireAt or tonumber(expireAt) < tonumber(ARGV[1]) then return 0 end "
+                    + "redis.call('HSET', KEYS[1], 'expireAt', ARGV[2]) "
+                    + "return 1",
+            Long.class);
+
+    /**
+     * 记入新租到的库存：租约记录不存在时新建，存在且未过期时累加并续期
+     * KEYS[1]=租约key，KEYS[2]=租约索引，ARGV[1]=场次ID，ARGV[2]=票种ID，ARGV[3]=当前时间，
+     * ARGV[4]=新的过期时间，ARGV[5]=数量
+     * 返回1表示累加到现有租约，2表示新建租约，0表示租约已过期尚未回收
+     */
+    private static final RedisScript<Long> GRANT_SCRIPT = new DefaultRedisScript<>(
+            "local expireAt = redis.call('HGET', KEYS[1], 'expireAt') "
+                    + "if expireAt and tonumber(expireAt) < tonumber(ARGV[3]) then return 0 end "
+                    + "redis.call('HSET', KEYS[1], 'eventId', ARGV[1], 'ticketTypeId', ARGV[2], 'expireAt', ARGV[4]) "
+                    + "redis.call('HINCRBY', KEYS[1], 'granted', ARGV[5]) "
+                    + "redis.call('SADD', KEYS[2], KEYS[1]) "
+                    + "if expireAt then return 1 end "
+                    + "return 2",
+            Long.class);
+
+    /**
+     * 归还租约中的库存：租约记录存在且未过期时减少租到的数量
+     * KEYS[1]=租约key，ARGV[1]=当前时间，ARGV[2]=数量
+     * 返回1表示已记账，调用方应归还中心库存；0表示租约已被回收或已过期，由回收方归还
+     */
+    private static final RedisScript<Long> RETURN_SCRIPT = new DefaultRedisScript<>(
+            "local expireAt = redis.call('HGET', KEYS[1], 'expireAt') "
+                    + "if not expireAt or tonumber(expireAt) < tonumber(ARGV[1]) then return 0 end "
+                    + "redis.call('HINCRBY', KEYS[1], 'granted', -tonumber(ARGV[2])) "
+                    + "return 1",
+            Long.class);
+
+    // 本实例ID
+    private final String instanceId = UUID.randomUUID().toString();
+
+    // 当前启用租约的票种，key为打包后的(eventId, ticketTypeId)
+    private final Map<Long, Lease> leases = new ConcurrentHashMap<>();
+
+    /**
+     * 锁定库存
+     * 启用租约的票种优先在本地租约上扣减，租约不足时回退到中心分片
+     */
+    public boolean lockStock(Long eventId, Long ticketTypeId, Long userId, int quantity) {
+        ballotGate.checkNotInBallot(eventId);
+        Lease lease = leases.get(InventoryKeyUtil.pack(eventId, ticketTypeId));
+        if (lease == null || lease.isSoldOut() || System.currentTimeMillis() > lease.getValidUntil()) {
+            return inventoryShardingService.lockStock(eventId, ticketTypeId, userId, quantity);
+        }
+
+        if (!lease.tryTake(quantity)) {
+            renewAsync(lease);
+            return inventoryShardingService.lockStock(eventId, ticketTypeId, userId, quantity);
+        }
+
+        try {
+            if (!inventoryShardingService.recordLeasedLock(eventId, ticketTypeId, userId, quantity, lease.getLeaseKey())) {
+                // 租约已被其他实例回收，本地余量已不属于本实例
+                dropLease(lease);
+                return inventoryShardingService.lockStock(eventId, ticketTypeId, userId, quantity);
+            }
+        } catch (BusinessException e) {
+            // 用户已有锁定，取出的库存退回租约
+            lease.getRemaining().addAndGet(quantity);
+            log.warn("Skipped leased lock for event: {}, ticketType: {}, user: {}, reason: {}",
+                    eventId, ticketTypeId, userId, e.getMessage());
+            return false;
+        } catch (Exception e) {
+            log.error("Failed to record leased lock", e);
+            lease.getRemaining().addAndGet(quantity);
+            return false;
+        }
+
+        lease.recordSale(quantity);
+        if (lease.getRemaining().get() < lease.getBlockSize() / 4) {
+            renewAsync(lease);
+        }
+        return true;
+    }
+
+    /**
+     * 启用票种的本地租约
+     */
+    public void enableLeasing(Long eventId, Long ticketTypeId) {
+        long key = InventoryKeyUtil.pack(eventId, ticketTypeId);
+        Lease lease = leases.computeIfAbsent(key, k -> new Lease(eventId, ticketTypeId,
+                String.format("inventory:lease:%d:%d:%s", eventId, ticketTypeId, instanceId)));
+        renewAsync(lease);
+        log.info("Enabled leasing for event: {}, ticketType: {}", eventId, ticketTypeId);
+    }
+
+    /**
+     * 停用票种的本地租约并归还剩余库存
+     */
+    public void disableLeasing(Long eventId, Long ticketTypeId) {
+        Lease lease = leases.remove(InventoryKeyUtil.pack(eventId, ticketTypeId));
+        if (lease != null) {
+            returnLease(lease);
+            log.info("Disabled leasing for event: {}, ticketType: {}", eventId, ticketTypeId);
+        }
+    }
+
+    /**
+     * 票种变热时启用租约，退出热点时停用
+     */
+    @EventListener
+    public void onHotspotChanged(HotspotChangedEvent event) {
+        if (event.isHot()) {
+            inventoryThreadPool.execute(() -> enableLeasing(event.getEventId(), event.getTicketTypeId()));
+        } else {
+            inventoryThreadPool.execute(() -> disableLeasing(event.getEventId(), event.getTicketTypeId()));
+        }
+    }
+
+    /**
+     * 定时维护租约：更新售卖速率、续期租约记录、归还闲置租约、中心库存恢复后重新启用租约
+     */
+    @Scheduled(fixedRate = 1000)
+    public void maintainLeases() {
+        long now = System.currentTimeMillis();
+        for (Lease lease : leases.values()) {
+            try {
+                lease.updateRate();
+
+                if (lease.isSoldOut()) {
+                    recheckSoldOut(lease, now);
+                }
+
+                if (lease.getRemaining().get() > 0 && now - lease.getLastSaleTime() > LEASE_IDLE_RETURN) {
+                    returnLease(lease);
+                    continue;
+                }
+                if (lease.getGranted() > 0) {
+                    heartbeat(lease, now);
+                }
+            } catch (Exception e) {
+                log.error("Failed to maintain lease: {}", lease.getLeaseKey(), e);
+            }
+        }
+    }
+
+    /**
+     * 定时回收已宕机实例的过期租约
+     */
+    @Scheduled(fixedRate = 10000)
+    public void reclaimExpiredLeases() {
+        Set<String> leaseKeys = redisTemplate.opsForSet().members(LEASE_INDEX_KEY);
+        if (leaseKeys == null) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        for (String leaseKey : leaseKeys) {
+            if (leaseKey.endsWith(instanceId)) {
+                continue;
+            }
+            try {
+                List<Object> ids = redisTemplate.opsForHash().multiGet(leaseKey, Arrays.asList("eventId", "ticketTypeId"));
+                Long outstanding = redisTemplate.execute(RECLAIM_SCRIPT,
+                        Arrays.asList(leaseKey, LEASE_INDEX_KEY), String.valueOf(now));
+                if (outstanding == null || outstanding <= 0 || ids.get(0) == null || ids.get(1) == null) {
+                    continue;
+                }
+
+                Long eventId = Long.parseLong((String) ids.get(0));
+                Long ticketTypeId = Long.parseLong((String) ids.get(1));
+                inventoryShardingService.returnBlock(eventId, ticketTypeId, outstanding.intValue());
+                log.info("Reclaimed expired lease: {}, quantity: {}", leaseKey, outstanding);
+            } catch (Exception e) {
+                log.error("Failed to reclaim lease: {}", leaseKey, e);
+            }
+        }
+    }
+
+    /**
+     * 统计所有实例的租约中已从中心分片取出、尚未售出也未归还的库存
+     * 过期但未回收的租约仍计入，其库存在回收前不在分片中
+     * @return 各票种的租约余量，key为打包后的(eventId, ticketTypeId)
+     */
+    public Map<Long, Integer> getOutstandingLeases() {
+        Map<Long, Integer> outstanding = new HashMap<>();
+        Set<String> leaseKeys = redisTemplate.opsForSet().members(LEASE_INDEX_KEY);
+        if (leaseKeys == null) {
+            return outstanding;
+        }
+        for (String leaseKey : leaseKeys) {
+            List<Object> values = redisTemplate.opsForHash().multiGet(leaseKey,
+                    Arrays.asList("eventId", "ticketTypeId", "granted", "sold"));
+            if (values.get(0) == null || values.get(1) == null) {
+                continue;
+            }
+            int granted = values.get(2) == null ? 0 : Integer.parseInt((String) values.get(2));
+            int sold = values.get(3) == null ? 0 : Integer.parseInt((String) values.get(3));
+            outstanding.merge(InventoryKeyUtil.pack(Long.parseLong((String) values.get(0)), Long.parseLong((String) values.get(1))),
+                    granted - sold, Integer::sum);
+        }
+        return outstanding;
+    }
+
+    /**
+     * 停机时归还所有租约
+     */
+    @PreDestroy
+    public void destroy() {
+        for (Lease lease : leases.values()) {
+            returnLease(lease);
+        }
+        leases.clear();
+    }
+
+    /**
+     * 异步续租，同一租约同时只有一个续租任务
+     */
+    private void renewAsync(Lease lease) {
+        if (lease.isSoldOut() || !lease.getRenewing().compareAndSet(false, true)) {
+            return;
+        }
+        inventoryThreadPool.execute(() -> {
+            try {
+                renew(lease);
+            } catch (Exception e) {
+                log.error("Failed to renew lease: {}", lease.getLeaseKey(), e);
+            } finally {
+                lease.getRenewing().set(false);
+            }
+        });
+    }
+
+    /**
+     * 从中心分片租用一批库存
+     * 先扣中心库存再记账，中途失败只会少卖
+     * 租约已过期尚未回收时不能再累加，取出的库存直接归还，等回收后重新建立租约
+     */
+    private void renew(Lease lease) {
+        int blockSize = lease.getBlockSize();
+        int acquired = inventoryShardingService.acquireBlock(lease.getEventId(), lease.getTicketTypeId(), blockSize);
+
+        if (acquired > 0) {
+            long now = System.currentTimeMillis();
+            Long granted = redisTemplate.execute(GRANT_SCRIPT,
+                    Arrays.asList(lease.getLeaseKey(), LEASE_INDEX_KEY),
+                    String.valueOf(lease.getEventId()), String.valueOf(lease.getTicketTypeId()),
+                    String.valueOf(now), String.valueOf(now + LEASE_TTL), String.valueOf(acquired));
+            if (granted == null || granted == 0) {
+                dropLease(lease);
+                inventoryShardingService.returnBlock(lease.getEventId(), lease.getTicketTypeId(), acquired);
+                return;
+            }
+            // 新建的租约说明之前的租约已被回收，本地余量作废
+            if (granted == 2 && lease.getGranted() > 0) {
+                dropLease(lease);
+            }
+            lease.grant(acquired, now + LEASE_TTL - LEASE_SAFETY_MARGIN);
+        }
+
+        // 中心库存已不足一个租约，临近售罄，归还本地库存让所有实例直接争抢剩余库存
+        if (acquired < blockSize) {
+            lease.markSoldOut();
+            returnLease(lease);
+            log.info("Lease exhausted central stock, event: {}, ticketType: {}, acquired: {}",
+                    lease.getEventId(), lease.getTicketTypeId(), acquired);
+        }
+    }
+
+    /**
+     * 续期租约记录，租约已被回收或已过期时丢弃本地余量
+     */
+    private void heartbeat(Lease lease, long now) {
+        Long renewed = redisTemplate.execute(HEARTBEAT_SCRIPT,
+                Collections.singletonList(lease.getLeaseKey()), String.valueOf(now), String.valueOf(now + LEASE_TTL));
+        if (renewed == null || renewed == 0) {
+            dropLease(lease);
+            return;
+        }
+        lease.setValidUntil(now + LEASE_TTL - LEASE_SAFETY_MARGIN);
+    }
+
+    /**
+     * 归还本地剩余库存
+     * 先停止本地售卖并记账，再归还中心库存，中途失败只会少卖
+     * 租约已被回收或已过期时只丢弃本地余量，库存由回收方归还
+     */
+    private void returnLease(Lease lease) {
+        int remaining = lease.getRemaining().getAndSet(0);
+        if (remaining <= 0) {
+            return;
+        }
+        try {
+            Long recorded = redisTemplate.execute(RETURN_SCRIPT, Collections.singletonList(lease.getLeaseKey()),
+                    String.valueOf(System.currentTimeMillis()), String.valueOf(remaining));
+            if (recorded == null || recorded == 0) {
+                dropLease(lease);
+                log.warn("Lease already reclaimed, dropped local stock: {}, quantity: {}", lease.getLeaseKey(), remaining);
+                return;
+            }
+            lease.revoke(remaining);
+            inventoryShardingService.returnBlock(lease.getEventId(), lease.getTicketTypeId(), remaining);
+            log.info("Returned lease: {}, quantity: {}", lease.getLeaseKey(), remaining);
+        } catch (Exception e) {
+            log.error("Failed to return lease: {}, quantity: {}", lease.getLeaseKey(), remaining, e);
+        }
+    }
+
+    /**
+     * 丢弃本地租约状态，停止本地售卖
+     */
+    private void dropLease(Lease lease) {
+        int dropped = lease.getRemaining().getAndSet(0);
+        lease.reset();
+        if (dropped > 0) {
+            log.warn("Dropped lost lease: {}, local stock: {}", lease.getLeaseKey(), dropped);
+        }
+    }
+
+    /**
+     * 中心库存因释放、放量或归还重新充足时解除售罄标记，恢复租约
+     */
+    private void recheckSoldOut(Lease lease, long now) {
+        if (now - lease.getSoldOutTime() < SOLD_OUT_RECHECK_INTERVAL) {
+            return;
+        }
+        int liveStock = inventoryShardingService.getAvailability(lease.getEventId(), lease.getTicketTypeId()).getLiveStock();
+        // 留出一个租约的余量，避免在售罄边缘反复租用和归还
+        if (liveStock >= lease.getBlockSize() * 2) {
+            lease.clearSoldOut();
+            renewAsync(lease);
+            log.info("Central stock replenished, resumed leasing for event: {}, ticketType: {}, stock: {}",
+                    lease.getEventId(), lease.getTicketTypeId(), liveStock);
+        } else {
+            lease.markSoldOut();
+        }
+    }
+
+    /**
+     * 本地租约
+     */
+    @lombok.Getter
+    private static class Lease {
+        private final Long eventId;
+        private final Long ticketTypeId;
+        private final String leaseKey;
+        private final AtomicInteger remaining = new AtomicInteger();
+        private final AtomicBoolean renewing = new AtomicBoolean();
+        private final LongAdder soldSinceLastTick = new LongAdder();
+
+        // 累计租到且未归还的数量
+        private volatile long granted;
+        private volatile double sellRate;
+        private volatile long lastSaleTime = System.currentTimeMillis();
+        @lombok.Setter
+        private volatile long validUntil;
+        private volatile boolean soldOut;
+        private volatile long soldOutTime;
+
+        Lease(Long eventId, Long ticketTypeId, String leaseKey) {
+            this.eventId = eventId;
+            this.ticketTypeId = ticketTypeId;
+            this.leaseKey = leaseKey;
+        }
+
+        boolean tryTake(int quantity) {
+            while (true) {
+                int current = remaining.get();
+                if (current < quantity) {
+                    return false;
+                }
+                if (remaining.compareAndSet(current, current - quantity)) {
+                    return true;
+                }
+            }
+        }
+
+        void recordSale(int quantity) {
+            soldSinceLastTick.add(quantity);
+            lastSaleTime = System.currentTimeMillis();
+        }
+
+        void updateRate() {
+            long sold = soldSinceLastTick.sumThenReset();
+            sellRate = sellRate * (1 - RATE_SMOOTHING) + sold * RATE_SMOOTHING;
+        }
+
+        int getBlockSize() {
+            long size = Math.round(sellRate * LEASE_HORIZON_SECONDS);
+            return (int) Math.max(MIN_LEASE_BLOCK, Math.min(MAX_LEASE_BLOCK, size));
+        }
+
+        synchronized void grant(int quantity, long validUntil) {
+            granted += quantity;
+            remaining.addAndGet(quantity);
+            this.validUntil = validUntil;
+        }
+
+        synchronized void revoke(int quantity) {
+            granted -= quantity;
+        }
+
+        synchronized void reset() {
+            granted = 0;
+            validUntil = 0;
+        }
+
+        void markSoldOut() {
+            soldOut = true;
+            soldOutTime = System.currentTimeMillis();
+        }
+
+        void clearSoldOut() {
+            soldOut = false;
+        }
+    }
+}
@@ -1,73 +1,177 @@
 package com.ticketing.inventory.service.impl;
 
+import com.ticketing.common.entity.Inventory;
+import com.ticketing.common.utils.CacheUtil;
+import com.ticketing.common.utils.InventoryKeyUtil;
+import com.ticketing.common.utils.ShardingUtil;
 import com.ticketing.inventory.hotspot.HotspotDetectionService;
+import com.ticketing.inventory.hotspot.HotspotDetectionService.HotItem;
+import com.ticketing.inventory.mapper.EventMapper;
+import com.ticketing.inventory.mapper.InventoryMapper;
+import com.ticketing.inventory.service.InventoryShardingService;
+import com.ticketing.inventory.snapshot.InventorySnapshotService;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.event.EventListener;
 import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.ThreadPoolTaskExecutor;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 库存预热服务
- * - 系统启动时预加载库存数据到Redis和本地缓存
+ * - 应用启动完成后在后台线程预热，不阻塞启动：先从本地快照恢复，再分页读取活动场次，按库并行加载库存行
+ * - 库存行通过管道写入Redis二级缓存和本地缓存，快照未覆盖的票种同时加载Redis分片
+ * - Redis分片按可用库存加载，数据库中已锁定和已售出的库存不计入；加载后该票种只从分片锁定，不再扣减数据库行
+ * - 读取和写入流水线执行，同时在途的库查询数受信号量限制
+ * - 预热完成前实例就绪状态为拒绝流量
  * - 定时刷新热点数据
- * - 动态调整缓存容量
  */
 @Slf4j
 @Service
 public class InventoryPreloadService {
 
-    @Autowired
-    private RedisTemplate<String, Object> redisTemplate;
-
     @Autowired
     private HotspotDetectionService hotspotDetectionService;
 
     @Autowired
     private ThreadPoolTaskExecutor inventoryThreadPool;
 
-    // 预热批次大小
+    @Autowired
+    private InventorySnapshotService inventorySnapshotService;
+
+    @Autowired
+    private InventoryShardingService inventoryShardingService;
+
+    @Autowired
+    private EventMapper eventMapper;
+
+    @Autowired
+    private InventoryMapper inventoryMapper;
+
+    @Autowired
+    private ShardingUtil shardingUtil;
+
+    @Autowired
+    private CacheUtil cacheUtil;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private ApplicationContext applicationContext;
+
+    // 每页读取的场次数量
     private static final int PRELOAD_BATCH_SIZE = 1000;
-    
-    // 预热超时时间（秒）
-    private static final int PRELOAD_TIMEOUT = 300;
+
+    // 单次库存查询的最大场次数量
+    private static final int QUERY_BATCH_SIZE = 100;
+
+    // 同时在途的库存查询数量，与物理库数量一致
+    private static final int PRELOAD_PARALLELISM = 16;
+
+    // 缓存过期时间（秒），与库存服务一致
+    private static final long CACHE_EXPIRE_TIME = 300L;
+
+    private final Semaphore queryPermits = new Semaphore(PRELOAD_PARALLELISM);
+
+    // 预热进度
+    private final AtomicLong eventsLoaded = new AtomicLong();
+    private final AtomicLong rowsLoaded = new AtomicLong();
+    private final AtomicLong shardsLoaded = new AtomicLong();
+    private final AtomicLong failedBatches = new AtomicLong();
+    private volatile long eventsScanned;
+    private volatile int snapshotTicketTypes;
+    private volatile long preloadStartTime;
+    private volatile long preloadEndTime;
+    private volatile boolean ready;
+
+    private Timer preloadTimer;
+
+    @PostConstruct
+    public void init() {
+        registerMetrics();
+    }
 
     /**
-     * 系统启动时预热库存数据
+     * 应用启动完成后在后台预热库存数据
+     * 启动不等待预热，预热完成前由就绪状态阻止流量进入
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        AvailabilityChangeEvent.publish(applicationContext, ReadinessState.REFUSING_TRAFFIC);
+        Thread thread = new Thread(this::preloadInventory, "inventory-preload");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 预热库存数据，全部批次结束后标记就绪
      */
-    @PostConstruct
     public void preloadInventory() {
         log.info("Starting inventory preload...");
+        preloadStartTime = System.currentTimeMillis();
+
+        CompletableFuture<Void> completion;
         try {
-            // 1. 获取所有活动场次ID
-            List<Long> eventIds = getActiveEventIds();
-            
-            // 2. 批量预热库存数据
-            for (int i = 0; i < eventIds.size(); i += PRELOAD_BATCH_SIZE) {
-                int end = Math.min(i + PRELOAD_BATCH_SIZE, eventIds.size());
-                List<Long> batchEventIds = eventIds.subList(i, end);
-                
-                // 并行预热每个批次
-                inventoryThreadPool.submit(() -> preloadBatch(batchEventIds));
-            }
-            
-            // 3. 等待预热完成
-            boolean completed = inventoryThreadPool.getThreadPoolExecutor().awaitTermination(
-                    PRELOAD_TIMEOUT, TimeUnit.SECONDS);
-            
-            if (completed) {
-                log.info("Inventory preload completed successfully");
-            } else {
-                log.warn("Inventory preload timeout after {} seconds", PRELOAD_TIMEOUT);
-            }
+            // 1. 优先从本地快照恢复，快照覆盖的票种无需再加载Redis分片
+            snapshotTicketTypes = inventorySnapshotService.restore();
+
+            // 2. 分页读取活动场次，按库并行加载
+            completion = streamActiveEvents();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            completion = CompletableFuture.completedFuture(null);
         } catch (Exception e) {
             log.error("Failed to preload inventory", e);
+            completion = CompletableFuture.completedFuture(null);
         }
+
+        // 3. 失败的批次由请求路径按需回源
+        completion.whenComplete((result, e) -> markReady());
+    }
+
+    /**
+     * 预热完成前拒绝流量
+     * 启动完成时框架会把就绪状态置为接收流量，这里重新置回
+     */
+    @EventListener
+    public void onReadinessChanged(AvailabilityChangeEvent<ReadinessState> event) {
+        if (event.getState() == ReadinessState.ACCEPTING_TRAFFIC && !ready) {
+            AvailabilityChangeEvent.publish(applicationContext, ReadinessState.REFUSING_TRAFFIC);
+        }
+    }
+
+    /**
+     * 是否已完成预热
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 获取预热进度
+     */
+    public PreloadProgress getProgress() {
+        long end = ready ? preloadEndTime : System.currentTimeMillis();
+        return new PreloadProgress(ready, snapshotTicketTypes, eventsScanned, eventsLoaded.get(),
+                rowsLoaded.get(), shardsLoaded.get(), failedBatches.get(), end - preloadStartTime);
     }
 
     /**
@@ -78,13 +182,13 @@ public class InventoryPreloadService {
     public void refreshHotData() {
         try {
             // 1. 获取热点商品列表
-            List<String> hotItems = hotspotDetectionService.getHotItems();
-            
+            List<HotItem> hotItems = hotspotDetectionService.getHotItems();
+
             // 2. 刷新热点商品缓存
-            for (String item : hotItems) {
+            for (HotItem item : hotItems) {
                 refreshItemCache(item);
             }
-            
+
             log.info("Refreshed {} hot items", hotItems.size());
         } catch (Exception e) {
             log.error("Failed to refresh hot data", e);
@@ -92,50 +196,140 @@ public class InventoryPreloadService {
     }
 
     /**
-     * 预热单个批次的库存数据
+     * 按主键游标分页读取活动场次，每页按库拆分后提交加载
+     * 在途查询达到上限时阻塞读取下一页，形成背压
      */
-    private void preloadBatch(List<Long> eventIds) {
-        for (Long eventId : eventIds) {
-            try {
-                // 1. 加载库存数据到Redis
-                loadInventoryToRedis(eventId);
-                
-                // 2. 预热本地缓存
-                warmupLocalCache(eventId);
-                
-                log.info("Preloaded inventory for event: {}", eventId);
-            } catch (Exception e) {
-                log.error("Failed to preload inventory for event: {}", eventId, e);
+    private CompletableFuture<Void> streamActiveEvents() throws InterruptedException {
+        List<CompletableFuture<Void>> batches = new ArrayList<>();
+        long lastId = 0;
+        while (true) {
+            List<Long> eventIds = eventMapper.selectActiveEventIds(lastId, PRELOAD_BATCH_SIZE);
+            if (eventIds.isEmpty()) {
+                break;
+            }
+            lastId = eventIds.get(eventIds.size() - 1);
+            eventsScanned += eventIds.size();
+
+            // 同一库的场次合并查询，避免广播到所有库
+            Map<Integer, List<Long>> eventIdsByDatabase = new HashMap<>();
+            for (Long eventId : eventIds) {
+                eventIdsByDatabase.computeIfAbsent(shardingUtil.getDatabaseShardingIndex(eventId),
+                        k -> new ArrayList<>()).add(eventId);
+            }
+
+            for (List<Long> databaseEventIds : eventIdsByDatabase.values()) {
+                for (int i = 0; i < databaseEventIds.size(); i += QUERY_BATCH_SIZE) {
+                    List<Long> batch = databaseEventIds.subList(i, Math.min(i + QUERY_BATCH_SIZE, databaseEventIds.size()));
+                    queryPermits.acquire();
+                    batches.add(CompletableFuture.runAsync(() -> preloadBatch(batch), inventoryThreadPool));
+                }
+            }
+
+            if (eventIds.size() < PRELOAD_BATCH_SIZE) {
+                break;
             }
         }
+        return CompletableFuture.allOf(batches.toArray(new CompletableFuture[0]));
     }
 
     /**
-     * 获取活动场次ID列表
+     * 预热单个批次的库存数据
      */
-    private List<Long> getActiveEventIds() {
-        // TODO: 实现从数据库获取活动场次ID的逻辑
-        return List.of();
+    private void preloadBatch(List<Long> eventIds) {
+        try {
+            List<Inventory> rows = inventoryMapper.selectByEventIds(eventIds);
+
+            // 1. 加载库存数据到Redis
+            loadInventoryToRedis(rows);
+
+            eventsLoaded.addAndGet(eventIds.size());
+            rowsLoaded.addAndGet(rows.size());
+        } catch (Exception e) {
+            failedBatches.incrementAndGet();
+            log.error("Failed to preload inventory for events: {}", eventIds, e);
+        } finally {
+            queryPermits.release();
+        }
     }
 
     /**
      * 加载库存数据到Redis
+     * - 库存行写入二级缓存，Redis写入走管道，同时预热本地缓存
+     * - 快照未覆盖的票种按可用库存加载Redis分片，已有分片的票种不覆盖
      */
-    private void loadInventoryToRedis(Long eventId) {
-        // TODO: 实现加载库存数据到Redis的逻辑
+    private void loadInventoryToRedis(List<Inventory> rows) {
+        Map<String, Inventory> cacheValues = new HashMap<>(rows.size() * 2);
+        Map<Long, Integer> availableStocks = new HashMap<>();
+        for (Inventory row : rows) {
+            cacheValues.put(cacheUtil.getInventoryCacheKey(row.getEventId(), row.getTicketTypeId(), row.getShardingId()), row);
+            if (!inventorySnapshotService.isCovered(row.getEventId(), row.getTicketTypeId())) {
+                availableStocks.merge(InventoryKeyUtil.pack(row.getEventId(), row.getTicketTypeId()),
+                        row.getAvailableStock(), Integer::sum);
+            }
+        }
+
+        cacheUtil.updateCacheBatch(cacheValues, CACHE_EXPIRE_TIME);
+        shardsLoaded.addAndGet(inventoryShardingService.loadShardsIfAbsent(availableStocks));
     }
 
     /**
-     * 预热本地缓存
+     * 刷新单个商品的缓存
+     * 热点票种的库存行在缓存过期前重新加载，避免过期瞬间集中回源
      */
-    private void warmupLocalCache(Long eventId) {
-        // TODO: 实现预热本地缓存的逻辑
+    private void refreshItemCache(HotItem item) {
+        List<Inventory> rows = inventoryMapper.selectByEventAndTicketType(item.getEventId(), item.getTicketTypeId());
+        Map<String, Inventory> cacheValues = new HashMap<>(rows.size() * 2);
+        for (Inventory row : rows) {
+            cacheValues.put(cacheUtil.getInventoryCacheKey(row.getEventId(), row.getTicketTypeId(), row.getShardingId()), row);
+        }
+        cacheUtil.updateCacheBatch(cacheValues, CACHE_EXPIRE_TIME);
+    }
+
+    private void markReady() {
+        preloadEndTime = System.currentTimeMillis();
+        preloadTimer.record(preloadEndTime - preloadStartTime, TimeUnit.MILLISECONDS);
+        ready = true;
+        AvailabilityChangeEvent.publish(applicationContext, ReadinessState.ACCEPTING_TRAFFIC);
+        log.info("Inventory preload completed in {}ms, snapshot ticket types: {}, events: {}/{}, rows: {}, shards loaded: {}, failed batches: {}",
+                preloadEndTime - preloadStartTime, snapshotTicketTypes, eventsLoaded.get(), eventsScanned,
+                rowsLoaded.get(), shardsLoaded.get(), failedBatches.get());
+    }
+
+    private void registerMetrics() {
+        preloadTimer = Timer.builder("inventory_preload_duration")
+                .description("Inventory preload duration")
+                .register(meterRegistry);
+
+        Gauge.builder("inventory_preload_events", eventsLoaded, AtomicLong::get)
+                .description("Number of events preloaded")
+                .register(meterRegistry);
+
+        Gauge.builder("inventory_preload_rows", rowsLoaded, AtomicLong::get)
+                .description("Number of inventory rows preloaded")
+                .register(meterRegistry);
+
+        Gauge.builder("inventory_preload_failed_batches", failedBatches, AtomicLong::get)
+                .description("Number of failed preload batches")
+                .register(meterRegistry);
+
+        Gauge.builder("inventory_preload_ready", this, service -> service.isReady() ? 1 : 0)
+                .description("Whether inventory preload has completed")
+                .register(meterRegistry);
     }
 
     /**
-     * 刷新单个商品的缓存
+     * 预热进度
      */
-    private void refreshItemCache(String item) {
-        // TODO: 实现刷新单个商品缓存的逻辑
+    @lombok.Data
+    @lombok.AllArgsConstructor
+    public static class PreloadProgress {
+        private boolean ready;
+        private int snapshotTicketTypes;
+        private long eventsScanned;
+        private long eventsLoaded;
+        private long rowsLoaded;
+        private long shardsLoaded;
+        private long failedBatches;
+        private long elapsedMillis;
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,160 @@
+package com.ticketing.inventory.service.impl;
+
+import com.ticketing.common.utils.InventoryKeyUtil;
+import com.ticketing.inventory.hotspot.HotspotChangedEvent;
+import com.ticketing.inventory.service.InventoryShardingService;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 库存动态分片服务
+ * - 票种成为热点时自动拆分分片
+ * - 热度消退并冷却一段时间后合并回初始分片数量
+ * - 拆分失败时记录失败次数，按指数退避重试，票种不再是热点后停止重试
+ */
+@Slf4j
+@Service
+public class InventoryReshardService {
+
+    @Autowired
+    private InventoryShardingService inventoryShardingService;
+
+    @Autowired
+    private ThreadPoolTaskExecutor inventoryThreadPool;
+
+    // 拆分倍数
+    private static final int SPLIT_FACTOR = 4;
+
+    // 热度消退后合并前的冷却时间（毫秒）
+    private static final long MERGE_COOLDOWN = 300000;
+
+    // 拆分失败后首次重试的等待时间（毫秒）
+    private static final long INITIAL_RETRY_BACKOFF = 1000;
+
+    // 拆分失败重试的最长等待时间（毫秒）
+    private static final long MAX_RETRY_BACKOFF = 60000;
+
+    // 已拆分的票种 -> 退出热点的时间，仍为热点时为0
+    private final Map<Long, Long> splitTicketTypes = new ConcurrentHashMap<>();
+
+    // 拆分失败待重试的票种
+    private final Map<Long, SplitRetry> failedSplits = new ConcurrentHashMap<>();
+
+    /**
+     * 热点变化时拆分分片或开始冷却计时
+     * 在库存线程池中执行，不阻塞热点分析线程
+     */
+    @EventListener
+    public void onHotspotChanged(HotspotChangedEvent event) {
+        long key = InventoryKeyUtil.pack(event.getEventId(), event.getTicketTypeId());
+
+        if (event.isHot()) {
+            Long previous = splitTicketTypes.put(key, 0L);
+            if (previous == null) {
+                inventoryThreadPool.execute(() -> split(event.getEventId(), event.getTicketTypeId()));
+            }
+        } else {
+            splitTicketTypes.computeIfPresent(key, (k, v) -> System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * 定时合并冷却完成的票种
+     */
+    @Scheduled(fixedRate = 60000)
+    public void mergeCooledShards() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<Long, Long> entry : splitTicketTypes.entrySet()) {
+            long coldSince = entry.getValue();
+            if (coldSince == 0 || now - coldSince < MERGE_COOLDOWN) {
+                continue;
+            }
+            // 冷却期间再次变热则跳过
+            if (!splitTicketTypes.remove(entry.getKey(), coldSince)) {
+                continue;
+            }
+            merge(InventoryKeyUtil.eventId(entry.getKey()), InventoryKeyUtil.ticketTypeId(entry.getKey()));
+        }
+    }
+
+    /**
+     * 定时重试到期的失败拆分
+     * 重试提交前把重试时间推到无穷远，同一票种同时只有一次重试
+     */
+    @Scheduled(fixedDelay = 1000)
+    public void retryFailedSplits() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<Long, SplitRetry> entry : failedSplits.entrySet()) {
+            SplitRetry retry = entry.getValue();
+            if (retry.getRetryAt() > now) {
+                continue;
+            }
+            Long key = entry.getKey();
+            // 已不再是热点的票种不再重试
+            Long coldSince = splitTicketTypes.get(key);
+            if (coldSince == null || coldSince != 0) {
+                failedSplits.remove(key, retry);
+                continue;
+            }
+            if (failedSplits.replace(key, retry, new SplitRetry(retry.getFailures(), Long.MAX_VALUE))) {
+                log.info("Retrying shard split for event: {}, ticketType: {}, failures: {}",
+                        InventoryKeyUtil.eventId(key), InventoryKeyUtil.ticketTypeId(key), retry.getFailures());
+                inventoryThreadPool.execute(() -> split(InventoryKeyUtil.eventId(key), InventoryKeyUtil.ticketTypeId(key)));
+            }
+        }
+    }
+
+    /**
+     * 拆分热点票种的分片
+     * 失败时记录下来按退避时间重试，成功后清除失败记录
+     */
+    public int split(Long eventId, Long ticketTypeId) {
+        long key = InventoryKeyUtil.pack(eventId, ticketTypeId);
+        try {
+            int current = inventoryShardingService.getShardCount(eventId, ticketTypeId);
+            int count = current == 0 ? 0 : inventoryShardingService.splitShards(eventId, ticketTypeId, current * SPLIT_FACTOR);
+            failedSplits.remove(key);
+            return count;
+        } catch (Exception e) {
+            SplitRetry retry = failedSplits.compute(key, (k, previous) -> {
+                int failures = previous == null ? 1 : previous.getFailures() + 1;
+                long backoff = Math.min(MAX_RETRY_BACKOFF, INITIAL_RETRY_BACKOFF << Math.min(failures - 1, 16));
+                return new SplitRetry(failures, System.currentTimeMillis() + backoff);
+            });
+            log.error("Failed to split shards for event: {}, ticketType: {}, failures: {}, retry at: {}",
+                    eventId, ticketTypeId, retry.getFailures(), retry.getRetryAt(), e);
+            return inventoryShardingService.getShardCount(eventId, ticketTypeId);
+        }
+    }
+
+    /**
+     * 合并票种的分片
+     */
+    public int merge(Long eventId, Long ticketTypeId) {
+        try {
+            return inventoryShardingService.mergeShards(eventId, ticketTypeId);
+        } catch (Exception e) {
+            log.error("Failed to merge shards for event: {}, ticketType: {}", eventId, ticketTypeId, e);
+            return inventoryShardingService.getShardCount(eventId, ticketTypeId);
+        }
+    }
+
+    /**
+     * 拆分失败记录
+     */
+    @Value
+    private static class SplitRetry {
+        // 连续失败次数
+        int failures;
+        // 下次重试时间，重试进行中为Long.MAX_VALUE
+        long retryAt;
+    }
+}
@@ -5,15 +5,19 @@ import com.ticketing.common.exception.BusinessException;
 import com.ticketing.common.utils.CacheUtil;
 import com.ticketing.common.utils.RedisLockUtil;
 import com.ticketing.common.utils.ShardingUtil;
+import com.ticketing.inventory.ballot.BallotGate;
+import com.ticketing.inventory.hotspot.HotspotDetectionService;
 import com.ticketing.inventory.mapper.InventoryMapper;
 import com.ticketing.inventory.service.InventoryService;
+import com.ticketing.inventory.service.InventoryShardingService;
+import com.ticketing.inventory.sharding.ShardMigrationService;
+import com.ticketing.inventory.sharding.ShardReadService;
 import io.seata.spring.annotation.GlobalTransactional;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
-import java.util.List;
 
 /**
  * 库存服务实现类
@@ -34,6 +38,21 @@ public class InventoryServiceImpl implements InventoryService {
     @Autowired
     private CacheUtil cacheUtil;
 
+    @Autowired
+    private HotspotDetectionService hotspotDetectionService;
+
+    @Autowired
+    private BallotGate ballotGate;
+
+    @Autowired
+    private InventoryShardingService inventoryShardingService;
+
+    @Autowired
+    private ShardMigrationService shardMigrationService;
+
+    @Autowired
+    private ShardReadService shardReadService;
+
     private static final long LOCK_WAIT_TIME = 1000L;
     private static final long LOCK_LEASE_TIME = 5000L;
     private static final long CACHE_EXPIRE_TIME = 300L;
@@ -58,6 +77,7 @@ public class InventoryServiceImpl implements InventoryService {
                     .setVersion(0);
             
             inventoryMapper.insert(inventory);
+            shardMigrationService.mirror(inventory);
             
             // 更新缓存
             String cacheKey = cacheUtil.getInventoryCacheKey(eventId, ticketTypeId, i);
@@ -69,6 +89,23 @@ public class InventoryServiceImpl implements InventoryService {
     @Override
     @GlobalTransactional
     public boolean lockStock(Long eventId, Long ticketTypeId, Long userId, Integer quantity) {
+        // 抽签报名期内只接受报名，不允许先到先得
+        ballotGate.checkNotInBallot(eventId);
+
+        // 候补分配等已为用户锁定的库存直接认领，不再重复锁定
+        if (inventoryShardingService.claimHold(eventId, ticketTypeId, userId, quantity)) {
+            return true;
+        }
+
+        // 已加载Redis分片的票种只从分片锁定，数据库行不再参与扣减，避免两处同时售出同一份库存
+        if (inventoryShardingService.getShardCount(eventId, ticketTypeId) > 0) {
+            if (!inventoryShardingService.lockStock(eventId, ticketTypeId, userId, quantity)) {
+                throw new BusinessException("库存不足");
+            }
+            return true;
+        }
+        hotspotDetectionService.recordAccess(eventId, ticketTypeId);
+
         // 计算用户对应的分片ID
         int shardingId = shardingUtil.getShardingId(userId, eventId);
         
@@ -89,6 +126,7 @@ public class InventoryServiceImpl implements InventoryService {
             if (updated <= 0) {
                 throw new BusinessException("库存更新失败");
             }
+            shardMigrationService.mirror(inventory);
 
             // 更新缓存
             String cacheKey = cacheUtil.getInventoryCacheKey(eventId, ticketTypeId, shardingId);
@@ -101,12 +139,18 @@ public class InventoryServiceImpl implements InventoryService {
     @Override
     @GlobalTransactional
     public boolean releaseStock(Long eventId, Long ticketTypeId, Long userId, Integer quantity) {
+        // 抽签中签、候补分配等锁定记录在Redis分片中，先按锁定记录释放
+        if (inventoryShardingService.releaseStock(eventId, ticketTypeId, userId, quantity)) {
+            return true;
+        }
+        hotspotDetectionService.recordAccess(eventId, ticketTypeId);
+
         // 计算用户对应的分片ID
         int shardingId = shardingUtil.getShardingId(userId, eventId);
         
         // 获取分布式锁
         String lockKey = redisLockUtil.getSegmentLockKey(eventId, ticketTypeId, shardingId);
-        return redisLockUtil.executeWithLock(lockKey, LOCK_WAIT_TIME, LOCK_LEASE_TIME, () -> {
+        boolean released = redisLockUtil.executeWithLock(lockKey, LOCK_WAIT_TIME, LOCK_LEASE_TIME, () -> {
             // 查询分片库存
             Inventory inventory = getInventoryBySharding(eventId, ticketTypeId, shardingId);
             if (inventory == null || inventory.getLockedStock() < quantity) {
@@ -121,6 +165,7 @@ public class InventoryServiceImpl implements InventoryService {
             if (updated <= 0) {
                 throw new BusinessException("库存更新失败");
             }
+            shardMigrationService.mirror(inventory);
 
             // 更新缓存
             String cacheKey = cacheUtil.getInventoryCacheKey(eventId, ticketTypeId, shardingId);
@@ -128,11 +173,23 @@ public class InventoryServiceImpl implements InventoryService {
             
             return true;
         });
+
+        // 分片加载前在数据库锁定的库存不在分片余量中，释放后归还到分片
+        if (released && inventoryShardingService.getShardCount(eventId, ticketTypeId) > 0) {
+            inventoryShardingService.returnBlock(eventId, ticketTypeId, quantity);
+        }
+        return released;
     }
 
     @Override
     @GlobalTransactional
     public boolean deductStock(Long eventId, Long ticketTypeId, Long userId, Integer quantity) {
+        // 抽签中签、候补分配等锁定记录在Redis分片中，先按锁定记录核销
+        if (inventoryShardingService.deductStock(eventId, ticketTypeId, userId, quantity)) {
+            return true;
+        }
+        hotspotDetectionService.recordAccess(eventId, ticketTypeId);
+
         // 计算用户对应的分片ID
         int shardingId = shardingUtil.getShardingId(userId, eventId);
         
@@ -153,6 +210,7 @@ public class InventoryServiceImpl implements InventoryService {
             if (updated <= 0) {
                 throw new BusinessException("库存更新失败");
             }
+            shardMigrationService.mirror(inventory);
 
             // 更新缓存
             String cacheKey = cacheUtil.getInventoryCacheKey(eventId, ticketTypeId, shardingId);
@@ -164,28 +222,10 @@ public class InventoryServiceImpl implements InventoryService {
 
     @Override
     public Inventory getInventory(Long eventId, Long ticketTypeId) {
-        List<Inventory> inventories = inventoryMapper.selectByEventAndTicketType(eventId, ticketTypeId);
-        if (inventories == null || inventories.isEmpty()) {
-            return null;
-        }
-
-        // 汇总所有分片的库存
-        Inventory total = new Inventory()
-                .setEventId(eventId)
-                .setTicketTypeId(ticketTypeId)
-                .setTotalStock(0)
-                .setAvailableStock(0)
-                .setSoldStock(0)
-                .setLockedStock(0);
-
-        for (Inventory inventory : inventories) {
-            total.setTotalStock(total.getTotalStock() + inventory.getTotalStock())
-                    .setAvailableStock(total.getAvailableStock() + inventory.getAvailableStock())
-                    .setSoldStock(total.getSoldStock() + inventory.getSoldStock())
-                    .setLockedStock(total.getLockedStock() + inventory.getLockedStock());
-        }
+        hotspotDetectionService.recordAccess(eventId, ticketTypeId);
 
-        return total;
+        // 场次的全部分片在同一个库，走分片中间件的单库路由
+        return shardReadService.sumByEventAndTicketType(eventId, ticketTypeId);
     }
 
     @Override
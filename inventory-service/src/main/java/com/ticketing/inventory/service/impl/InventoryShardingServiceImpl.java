@@ -1,40 +1,408 @@
 package com.ticketing.inventory.service.impl;
 
 import com.ticketing.common.exception.BusinessException;
+import com.ticketing.common.utils.InventoryKeyUtil;
+import com.ticketing.inventory.ballot.BallotGate;
+import com.ticketing.inventory.hotspot.HotspotDetectionService;
+import com.ticketing.inventory.journal.InventoryJournal;
+import com.ticketing.inventory.journal.JournalOp;
+import com.ticketing.inventory.model.ReleaseWave;
+import com.ticketing.inventory.model.StockAvailability;
+import com.ticketing.inventory.model.TicketTypeSnapshot;
+import com.ticketing.inventory.reconcile.InventoryChangeTracker;
 import com.ticketing.inventory.service.InventoryShardingService;
+import com.ticketing.inventory.waitlist.StockReleasedEvent;
 import lombok.extern.slf4j.Slf4j;
-import org.redisson.api.RLock;
-import org.redisson.api.RedissonClient;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 
 /**
  * 库存分片服务实现
- * 通过分片 + 分段锁方式实现高性能库存操作
+ * 通过分片 + Lua原子操作实现高性能库存操作
+ * - 分片映射带纪元号（epoch），分片key中包含纪元号，运行期拆分/合并分片时纪元号递增
+ * - 拆分/合并由一个Lua脚本原子完成，无需暂停售卖
+ * - 旧纪元上的在途请求扣减失败后按新映射重试，释放库存时自动路由到当前纪元
+ * - 临近售罄时进入残局模式：零散的分片余量原子地收拢到单个分片，后续不再拆分
+ * - 批量写入的限时锁定（抽签、候补）登记到锁定索引，核销或释放时移出，过期未处理的定时回收
  */
 @Slf4j
 @Service
 public class InventoryShardingServiceImpl implements InventoryShardingService {
 
     @Autowired
-    private RedissonClient redissonClient;
+    private StringRedisTemplate redisTemplate;
 
     @Autowired
-    private StringRedisTemplate redisTemplate;
+    private HotspotDetectionService hotspotDetectionService;
+
+    @Autowired
+    private InventoryJournal inventoryJournal;
+
+    @Autowired
+    private InventoryChangeTracker inventoryChangeTracker;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private BallotGate ballotGate;
 
     // 每个分片的库存数量
     private static final int SHARD_SIZE = 1000;
-    
+
     // 分片数量
     private static final int SHARD_COUNT = 500;
 
-    // 库存锁超时时间
-    private static final int LOCK_TIMEOUT_SECONDS = 3;
+    // 用户锁定记录过期时间（分钟）
+    private static final int USER_LOCK_EXPIRE_MINUTES = 10;
+
+    // 分片映射变更时锁定库存的最大重试次数
+    private static final int MAX_EPOCH_RETRIES = 2;
+
+    // 总库存低于该值时进入残局模式
+    private static final int ENDGAME_STOCK_THRESHOLD = 500;
+
+    // 一次锁定跨越的分片数达到该值，说明库存已零散
+    private static final int ENDGAME_FRAGMENT_SHARDS = 3;
+
+    // 同一票种两次残局检查的最小间隔（毫秒）
+    private static final long ENDGAME_CHECK_INTERVAL = 1000;
+
+    // 扫描key时每批的数量
+    private static final int SCAN_BATCH_SIZE = 1000;
+
+    // 导出用户锁定时每个脚本处理的key数量
+    private static final int HOLD_EXPORT_BATCH_SIZE = 500;
+
+    // 批量锁定记录比有效期多保留的时间（秒），回收任务延迟时仍能找到锁定记录归还库存
+    private static final long HOLD_RECLAIM_GRACE_SECONDS = 1800;
+
+    // 每次扫描回收的过期锁定数量
+    private static final int HOLD_RECLAIM_BATCH = 100;
+
+    // 批量锁定的有效期索引，成员为"场次ID:票种ID:用户ID:数量"，分数为过期时间
+    private static final String HOLD_INDEX_KEY = "inventory:hold:index";
+
+    // 认领后锁定记录的保留时间（分钟），需覆盖订单的支付时限
+    private static final int CLAIMED_HOLD_EXPIRE_MINUTES = 60;
+
+    private static final String SHARD_MAP_KEY_PREFIX = "inventory:shard:map:";
+    private static final String USER_LOCK_KEY_PREFIX = "inventory:lock:";
+    private static final String WAVE_KEY_PREFIX = "inventory:wave:";
+    private static final String RESERVE_KEY_PREFIX = "inventory:reserve:";
+
+    // 预热锁定路径使用的分片和分片映射，与真实库存隔离
+    private static final String WARMUP_KEY_PREFIX = "inventory:warmup:";
+
+    // 预热key的过期时间（秒），预热中途宕机时自动清理
+    private static final long WARMUP_KEY_EXPIRE_SECONDS = 60;
+
+    // 渠道配额的key由渠道配额服务维护，快照按前缀原样保存和恢复
+    private static final String CHANNEL_SHARD_KEY_PREFIX = "inventory:channel:shard:";
+    private static final String CHANNEL_QUOTA_KEY_PREFIX = "inventory:channel:quota:";
+    private static final String CHANNEL_CONFIG_KEY_PREFIX = "inventory:channel:config:";
+
+    // 各票种最近一次残局检查时间
+    private final Map<Long, Long> endgameCheckTimes = new ConcurrentHashMap<>();
+
+    /**
+     * 原子扣减分片库存，返回实际扣减数量
+     * KEYS[1]=分片key，ARGV[1]=请求数量
+     */
+    private static final RedisScript<Long> LOCK_SCRIPT = new DefaultRedisScript<>(
+            "local available = tonumber(redis.call('GET', KEYS[1]) or '0') "
+                    + "if available <= 0 then return 0 end "
+                    + "local locked = math.min(available, tonumber(ARGV[1])) "
+                    + "redis.call('DECRBY', KEYS[1], locked) "
+                    + "return locked",
+            Long.class);
+
+    /**
+     * 归还分片库存，纪元已变更时归还到当前纪元的对应分片
+     * KEYS[1]=分片映射key，ARGV[1]=分片key前缀，ARGV[2]=纪元，ARGV[3]=分片序号，ARGV[4]=数量
+     */
+    private static final RedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>(
+            "local map = redis.call('HMGET', KEYS[1], 'epoch', 'count') "
+                    + "if not map[1] then return -1 end "
+                    + "local index = tonumber(ARGV[3]) "
+                    + "if map[1] ~= ARGV[2] then index = index % tonumber(map[2]) end "
+                    + "return redis.call('INCRBY', ARGV[1] .. map[1] .. ':' .. index, ARGV[4])",
+            Long.class);
+
+    /**
+     * 核销用户锁定：锁定数量一致时删除锁定记录并移出锁定索引，库存已在锁定时扣出，不再归还
+     * KEYS[1]=用户锁定key，KEYS[2]=锁定索引key，ARGV[1]=数量，ARGV[2]=索引成员
+     * 返回1表示已核销，0表示锁定记录不存在或数量不一致
+     */
+    private static final RedisScript<Long> DEDUCT_LOCK_SCRIPT = new DefaultRedisScript<>(
+            "local value = redis.call('GET', KEYS[1]) "
+                    + "if not value then return 0 end "
+                    + "local separator = string.find(value, ';', 1, true) "
+                    + "local quantity = separator and string.sub(value, 1, separator - 1) or value "
+                    + "if tonumber(quantity) ~= tonumber(ARGV[1]) then return 0 end "
+                    + "redis.call('DEL', KEYS[1]) "
+                    + "redis.call('ZREM', KEYS[2], ARGV[2]) "
+                    + "return 1",
+            Long.class);
+
+    /**
+     * 认领批量锁定：锁定记录存在且索引中的锁定未过期时移出索引，并延长锁定记录到订单支付时限之后
+     * KEYS[1]=用户锁定key，KEYS[2]=锁定索引key，ARGV[1]=索引成员，ARGV[2]=当前时间，ARGV[3]=锁定记录过期秒数
+     * 返回1表示已认领，0表示没有可认领的锁定
+     */
+    private static final RedisScript<Long> CLAIM_HOLD_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('EXISTS', KEYS[1]) == 0 then return 0 end "
+                    + "local expireAt = redis.call('ZSCORE', KEYS[2], ARGV[1]) "
+                    + "if not expireAt or tonumber(expireAt) < tonumber(ARGV[2]) then return 0 end "
+                    + "redis.call('ZREM', KEYS[2], ARGV[1]) "
+                    + "redis.call('EXPIRE', KEYS[1], ARGV[3]) "
+                    + "return 1",
+            Long.class);
+
+    /**
+     * 释放用户锁定：锁定数量一致时删除锁定记录，并把记录中的各分片数量归还到当前纪元，
+     * 校验、删除和归还在一个脚本中完成，并发的释放或核销只有一个能成功
+     * KEYS[1]=用户锁定key，KEYS[2]=分片映射key，KEYS[3]=锁定索引key，ARGV[1]=分片key前缀，ARGV[2]=数量，ARGV[3]=索引成员
+     * 返回被释放的锁定记录，锁定记录不存在或数量不一致时返回nil
+     */
+    private static final RedisScript<String> RELEASE_LOCK_SCRIPT = new DefaultRedisScript<>(
+            "local value = redis.call('GET', KEYS[1]) "
+                    + "if not value then return false end "
+                    + "local separator = string.find(value, ';', 1, true) "
+                    + "local quantity = separator and string.sub(value, 1, separator - 1) or value "
+                    + "if tonumber(quantity) ~= tonumber(ARGV[2]) then return false end "
+                    + "redis.call('DEL', KEYS[1]) "
+                    + "redis.call('ZREM', KEYS[3], ARGV[3]) "
+                    + "local map = redis.call('HMGET', KEYS[2], 'epoch', 'count') "
+                    + "if map[1] and separator then "
+                    + "  for epoch, index, locked in string.gmatch(string.sub(value, separator + 1), '(%-?%d+):(%d+):(%d+)') do "
+                    + "    local shard = tonumber(index) "
+                    + "    if epoch ~= map[1] then shard = shard % tonumber(map[2]) end "
+                    + "    redis.call('INCRBY', ARGV[1] .. map[1] .. ':' .. shard, locked) "
+                    + "  end "
+                    + "end "
+                    + "return value",
+            String.class);
+
+    /**
+     * 重新分片：汇总当前纪元所有分片的剩余库存，均分到新纪元的分片中
+     * KEYS[1]=分片映射key，ARGV[1]=分片key前缀，ARGV[2]=期望的当前纪元，ARGV[3]=新分片数量
+     * 返回迁移的库存总量，纪元不匹配时返回-1，已进入残局模式时返回-2
+     */
+    private static final RedisScript<Long> RESHARD_SCRIPT = new DefaultRedisScript<>(
+            "local map = redis.call('HMGET', KEYS[1], 'epoch', 'count', 'endgame') "
+                    + "if map[1] ~= ARGV[2] then return -1 end "
+                    + "if map[3] == '1' then return -2 end "
+                    + "local epoch = tonumber(map[1]) "
+                    + "local total = 0 "
+                    + "for i = 0, tonumber(map[2]) - 1 do "
+                    + "  local key = ARGV[1] .. epoch .. ':' .. i "
+                    + "  total = total + tonumber(redis.call('GET', key) or '0') "
+                    + "  redis.call('DEL', key) "
+                    + "end "
+                    + "local newEpoch = epoch + 1 "
+                    + "local newCount = tonumber(ARGV[3]) "
+                    + "local base = math.floor(total / newCount) "
+                    + "local remainder = total % newCount "
+                    + "for i = 0, newCount - 1 do "
+                    + "  local quantity = base "
+                    + "  if i < remainder then quantity = quantity + 1 end "
+                    + "  redis.call('SET', ARGV[1] .. newEpoch .. ':' .. i, quantity) "
+                    + "end "
+                    + "redis.call('HSET', KEYS[1], 'epoch', newEpoch, 'count', newCount) "
+                    + "return total",
+            Long.class);
+
+    /**
+     * 残局收拢：总库存低于阈值时，把当前纪元所有分片的余量收拢到新纪元的单个分片
+     * KEYS[1]=分片映射key，ARGV[1]=分片key前缀，ARGV[2]=库存阈值
+     * 返回收拢的库存总量，未触发时返回-1
+     */
+    private static final RedisScript<Long> ENDGAME_SCRIPT = new DefaultRedisScript<>(
+            "local map = redis.call('HMGET', KEYS[1], 'epoch', 'count', 'endgame') "
+                    + "if not map[1] or map[3] == '1' then return -1 end "
+                    + "local epoch = tonumber(map[1]) "
+                    + "local count = tonumber(map[2]) "
+                    + "local total = 0 "
+                    + "for i = 0, count - 1 do "
+                    + "  total = total + tonumber(redis.call('GET', ARGV[1] .. epoch .. ':' .. i) or '0') "
+                    + "end "
+                    + "if total >= tonumber(ARGV[2]) then return -1 end "
+                    + "for i = 0, count - 1 do "
+                    + "  redis.call('DEL', ARGV[1] .. epoch .. ':' .. i) "
+                    + "end "
+                    + "redis.call('SET', ARGV[1] .. (epoch + 1) .. ':0', total) "
+                    + "redis.call('HSET', KEYS[1], 'epoch', epoch + 1, 'count', 1, 'endgame', 1) "
+                    + "return total",
+            Long.class);
+
+    /**
+     * 记录租约售出的用户锁定，同时累加租约的已售数量
+     * 租约记录不存在或已过期时不写入，避免在已回收的租约上售卖
+     * 以SET NX写入，不覆盖用户已有的锁定，否则原锁定的库存再也无法归还
+     * KEYS[1]=用户锁定key，KEYS[2]=租约key，ARGV[1]=锁定记录，ARGV[2]=过期秒数，ARGV[3]=数量，ARGV[4]=当前时间
+     * 返回租约的已售数量，租约已失效时返回-1，用户已有锁定时返回-2
+     */
+    private static final RedisScript<Long> LEASED_LOCK_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('EXISTS', KEYS[2]) == 0 then return -1 end "
+                    + "local expireAt = redis.call('HGET', KEYS[2], 'expireAt') "
+                    + "if expireAt and tonumber(expireAt) < tonumber(ARGV[4]) then return -1 end "
+                    + "if not redis.call('SET', KEYS[1], ARGV[1], 'EX', ARGV[2], 'NX') then return -2 end "
+                    + "return redis.call('HINCRBY', KEYS[2], 'sold', ARGV[3])",
+            Long.class);
+
+    /**
+     * 导出票种的分片映射和当前纪元各分片的余量，保证同一票种内的一致性
+     * KEYS[1]=分片映射key，ARGV[1]=分片key前缀
+     * 返回[纪元, 分片数量, 初始分片数量, 残局标记, 分片0余量, 分片1余量, ...]，未初始化时返回空列表
+     */
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> EXPORT_SCRIPT = new DefaultRedisScript<>(
+            "local map = redis.call('HMGET', KEYS[1], 'epoch', 'count', 'base', 'endgame') "
+                    + "if not map[1] or not map[2] then return {} end "
+                    + "local result = {map[1], map[2], map[3] or map[2], map[4] or '0'} "
+                    + "for i = 0, tonumber(map[2]) - 1 do "
+                    + "  result[#result + 1] = redis.call('GET', ARGV[1] .. map[1] .. ':' .. i) or '0' "
+                    + "end "
+                    + "return result",
+            List.class);
+
+    /**
+     * 批量导出用户锁定，跳过同前缀下其他类型的key（如分布式锁）
+     * ARGV=用户锁定key列表，返回[key, 锁定记录, 剩余毫秒数, ...]
+     */
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> EXPORT_HOLDS_SCRIPT = new DefaultRedisScript<>(
+            "local result = {} "
+                    + "for i = 1, #ARGV do "
+                    + "  if redis.call('TYPE', ARGV[i]).ok == 'string' then "
+                    + "    result[#result + 1] = ARGV[i] "
+                    + "    result[#result + 1] = redis.call('GET', ARGV[i]) "
+                    + "    result[#result + 1] = tostring(redis.call('PTTL', ARGV[i])) "
+                    + "  end "
+                    + "end "
+                    + "return result",
+            List.class);
+
+    /**
+     * 从快照恢复分片映射和分片余量，映射已存在时不做任何修改
+     * KEYS[1]=分片映射key，ARGV[1]=分片key前缀，ARGV[2]=纪元，ARGV[3]=初始分片数量，ARGV[4]=残局标记，
+     * ARGV[5...]=各分片余量
+     * 返回1表示已恢复，0表示映射已存在
+     */
+    private static final RedisScript<Long> RESTORE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('EXISTS', KEYS[1]) == 1 then return 0 end "
+                    + "for i = 5, #ARGV do "
+                    + "  redis.call('SET', ARGV[1] .. ARGV[2] .. ':' .. (i - 5), ARGV[i]) "
+                    + "end "
+                    + "redis.call('HSET', KEYS[1], 'epoch', ARGV[2], 'count', #ARGV - 4, 'base', ARGV[3], 'endgame', ARGV[4]) "
+                    + "return 1",
+            Long.class);
+
+    /**
+     * 配置分批放量：按百分比计算各批次数量，分片库存全部移入预留池，首批与其余批次一样到期后放出
+     * KEYS[1]=分片映射key，KEYS[2]=放量计划key，KEYS[3]=预留池key
+     * ARGV[1]=分片key前缀，ARGV[2]=售票开始时间，ARGV[3...]=各批次的偏移毫秒数和百分比
+     * 返回移入预留池的数量，未初始化时返回-1，已配置时返回-2
+     */
+    private static final RedisScript<Long> CONFIGURE_WAVES_SCRIPT = new DefaultRedisScript<>(
+            "local map = redis.call('HMGET', KEYS[1], 'epoch', 'count') "
+                    + "if not map[1] then return -1 end "
+                    + "if redis.call('EXISTS', KEYS[2]) == 1 then return -2 end "
+                    + "local count = tonumber(map[2]) "
+                    + "local total = 0 "
+                    + "for i = 0, count - 1 do "
+                    + "  total = total + tonumber(redis.call('GET', ARGV[1] .. map[1] .. ':' .. i) or '0') "
+                    + "end "
+                    + "local waves = (#ARGV - 2) / 2 "
+                    + "local plan = {} "
+                    + "local assigned = 0 "
+                    + "for w = 1, waves do "
+                    + "  local quantity = total - assigned "
+                    + "  if w < waves then quantity = math.floor(total * tonumber(ARGV[2 + w * 2]) / 100) end "
+                    + "  assigned = assigned + quantity "
+                    + "  plan[w] = ARGV[1 + w * 2] .. ':' .. quantity "
+                    + "end "
+                    + "for i = 0, count - 1 do "
+                    + "  redis.call('SET', ARGV[1] .. map[1] .. ':' .. i, 0) "
+                    + "end "
+                    + "redis.call('SET', KEYS[3], total) "
+                    + "redis.call('HSET', KEYS[2], 'startAt', ARGV[2], 'plan', table.concat(plan, ','), 'released', -1) "
+                    + "return total",
+            Long.class);
+
+    /**
+     * 放出一个批次：从预留池取出库存均分到当前纪元的分片
+     * 残局模式下只剩单个分片时，连同余量一起恢复到初始分片数，并退出残局模式
+     * KEYS[1]=分片映射key，KEYS[2]=放量计划key，KEYS[3]=预留池key
+     * ARGV[1]=分片key前缀，ARGV[2]=批次序号，ARGV[3]=批次数量
+     * 返回放出的数量，批次已放出时返回-1，未初始化时返回-2
+     */
+    private static final RedisScript<Long> RELEASE_WAVE_SCRIPT = new DefaultRedisScript<>(
+            "local released = tonumber(redis.call('HGET', KEYS[2], 'released') or '-1') "
+                    + "if released >= tonumber(ARGV[2]) then return -1 end "
+                    + "local map = redis.call('HMGET', KEYS[1], 'epoch', 'count', 'base', 'endgame') "
+                    + "if not map[1] then return -2 end "
+                    + "local quantity = math.min(tonumber(redis.call('GET', KEYS[3]) or '0'), tonumber(ARGV[3])) "
+                    + "local epoch = tonumber(map[1]) "
+                    + "local count = tonumber(map[2]) "
+                    + "local base = tonumber(map[3] or map[2]) "
+                    + "if map[4] == '1' and quantity > 0 and base > count then "
+                    + "  local total = quantity "
+                    + "  for i = 0, count - 1 do "
+                    + "    local key = ARGV[1] .. epoch .. ':' .. i "
+                    + "    total = total + tonumber(redis.call('GET', key) or '0') "
+                    + "    redis.call('DEL', key) "
+                    + "  end "
+                    + "  for i = 0, base - 1 do "
+                    + "    local share = math.floor(total / base) "
+                    + "    if i < total % base then share = share + 1 end "
+                    + "    redis.call('SET', ARGV[1] .. (epoch + 1) .. ':' .. i, share) "
+                    + "  end "
+                    + "  redis.call('HSET', KEYS[1], 'epoch', epoch + 1, 'count', base, 'endgame', 0) "
+                    + "else "
+                    + "  for i = 0, count - 1 do "
+                    + "    local share = math.floor(quantity / count) "
+                    + "    if i < quantity % count then share = share + 1 end "
+                    + "    if share > 0 then redis.call('INCRBY', ARGV[1] .. epoch .. ':' .. i, share) end "
+                    + "  end "
+                    + "  if map[4] == '1' and quantity > 0 then redis.call('HSET', KEYS[1], 'endgame', 0) end "
+                    + "end "
+                    + "redis.call('DECRBY', KEYS[3], quantity) "
+                    + "redis.call('HSET', KEYS[2], 'released', ARGV[2]) "
+                    + "return quantity",
+            Long.class);
+
+    // 不属于任何纪元的锁定记录（如租约售出），释放时路由到当前纪元
+    private static final long ANY_EPOCH = -1;
 
     /**
      * 初始化票种库存分片
@@ -44,25 +412,45 @@ public class InventoryShardingServiceImpl implements InventoryShardingService {
         try {
             // 计算需要的分片数量
             int requiredShards = (totalQuantity + SHARD_SIZE - 1) / SHARD_SIZE;
-            
+
             // 确保不超过最大分片数
             if (requiredShards > SHARD_COUNT) {
                 throw new BusinessException("库存数量超过系统上限");
             }
 
+            // 已初始化过的票种使用新纪元，旧纪元的在途请求不会再命中
+            ShardMap existing = getShardMap(eventId, ticketTypeId);
+            long epoch = existing == null ? 0 : existing.getEpoch() + 1;
+
             // 初始化每个分片
             for (int i = 0; i < requiredShards; i++) {
-                String shardKey = getInventoryShardKey(eventId, ticketTypeId, i);
+                String shardKey = getInventoryShardKey(eventId, ticketTypeId, epoch, i);
                 int shardQuantity = Math.min(SHARD_SIZE, totalQuantity - i * SHARD_SIZE);
                 redisTemplate.opsForValue().set(shardKey, String.valueOf(shardQuantity));
             }
 
-            // 记录分片数量
-            String shardCountKey = getShardCountKey(eventId, ticketTypeId);
-            redisTemplate.opsForValue().set(shardCountKey, String.valueOf(requiredShards));
+            // 记录分片映射，一次写入所有字段
+            Map<String, String> shardMap = new HashMap<>();
+            shardMap.put("epoch", String.valueOf(epoch));
+            shardMap.put("count", String.valueOf(requiredShards));
+            shardMap.put("base", String.valueOf(requiredShards));
+            shardMap.put("endgame", "0");
+            redisTemplate.opsForHash().putAll(getShardMapKey(eventId, ticketTypeId), shardMap);
+
+            inventoryJournal.append(JournalOp.INIT, eventId, ticketTypeId, requiredShards, totalQuantity, null);
+            inventoryChangeTracker.markChanged(eventId, ticketTypeId);
 
-            log.info("Initialized inventory shards for event: {}, ticketType: {}, total: {}, shards: {}",
-                    eventId, ticketTypeId, totalQuantity, requiredShards);
+            // 清理旧纪元的分片
+            if (existing != null) {
+                for (int i = 0; i < existing.getCount(); i++) {
+                    redisTemplate.delete(getInventoryShardKey(eventId, ticketTypeId, existing.getEpoch(), i));
+                }
+            }
+
+            log.info("Initialized inventory shards for event: {}, ticketType: {}, total: {}, shards: {}, epoch: {}",
+                    eventId, ticketTypeId, totalQuantity, requiredShards, epoch);
+        } catch (BusinessException e) {
+            throw e;
         } catch (Exception e) {
             log.error("Failed to initialize inventory shards", e);
             throw new BusinessException("初始化库存分片失败");
@@ -71,61 +459,64 @@ public class InventoryShardingServiceImpl implements InventoryShardingService {
 
     /**
      * 锁定库存
-     * 使用分段锁和乐观锁保证并发安全
+     * 从用户对应的分片开始依次原子扣减，分片映射变更时按新映射重试
      */
     @Override
     public boolean lockStock(Long eventId, Long ticketTypeId, Long userId, int quantity) {
-        List<InventoryLockResult> lockResults = new ArrayList<>();
-        
+        ballotGate.checkNotInBallot(eventId);
+        hotspotDetectionService.recordAccess(eventId, ticketTypeId);
         try {
-            // 获取分片数量
-            String shardCountKey = getShardCountKey(eventId, ticketTypeId);
-            String shardCountStr = redisTemplate.opsForValue().get(shardCountKey);
-            int shardCount = Integer.parseInt(shardCountStr);
+            for (int attempt = 0; attempt <= MAX_EPOCH_RETRIES; attempt++) {
+                ShardMap shardMap = getShardMap(eventId, ticketTypeId);
+                if (shardMap == null) {
+                    return false;
+                }
 
-            // 遍历分片尝试锁定库存
-            int remainingQuantity = quantity;
-            for (int i = 0; i < shardCount && remainingQuantity > 0; i++) {
-                String shardKey = getInventoryShardKey(eventId, ticketTypeId, i);
-                InventoryLockResult result = tryLockShardStock(shardKey, remainingQuantity);
-                
-                if (result.isSuccess()) {
-                    lockResults.add(result);
-                    remainingQuantity -= result.getLockedQuantity();
+                List<InventoryLockResult> lockResults = tryLockShards(eventId, ticketTypeId, shardMap, userId, quantity);
+                if (lockResults != null) {
+                    // 记录用户锁定信息
+                    recordUserLock(eventId, ticketTypeId, userId, quantity, lockResults);
+                    journal(JournalOp.LOCK, eventId, ticketTypeId, userId, lockResults);
+
+                    // 跨越多个分片说明库存已零散，检查是否进入残局模式
+                    if (lockResults.size() >= ENDGAME_FRAGMENT_SHARDS) {
+                        tryEnterEndgame(eventId, ticketTypeId, shardMap);
+                    }
+                    return true;
                 }
-            }
 
-            // 检查是否完全锁定成功
-            if (remainingQuantity > 0) {
-                // 回滚已锁定的库存
-                rollbackLocks(lockResults);
-                return false;
-            }
+                // 分片余量之和可能仍满足请求，收拢后按新映射重试
+                tryEnterEndgame(eventId, ticketTypeId, shardMap);
 
-            // 记录用户锁定信息
-            recordUserLock(eventId, ticketTypeId, userId, quantity);
-            return true;
+                // 映射未变化说明确实库存不足
+                ShardMap latest = getShardMap(eventId, ticketTypeId);
+                if (latest == null || latest.getEpoch() == shardMap.getEpoch()) {
+                    return false;
+                }
+            }
+            return false;
         } catch (Exception e) {
             log.error("Failed to lock stock", e);
-            rollbackLocks(lockResults);
             return false;
         }
     }
 
     /**
      * 扣减库存
-     * 将锁定的库存真正扣减
+     * 将锁定的库存真正扣减，校验和清除锁定记录由一个脚本原子完成
      */
     @Override
     public boolean deductStock(Long eventId, Long ticketTypeId, Long userId, int quantity) {
+        hotspotDetectionService.recordAccess(eventId, ticketTypeId);
         try {
-            // 验证之前的锁定记录
-            if (!validateUserLock(eventId, ticketTypeId, userId, quantity)) {
+            Long deducted = redisTemplate.execute(DEDUCT_LOCK_SCRIPT,
+                    Arrays.asList(getUserLockKey(eventId, ticketTypeId, userId), HOLD_INDEX_KEY),
+                    String.valueOf(quantity), getHoldMember(eventId, ticketTypeId, userId, quantity));
+            if (deducted == null || deducted != 1) {
                 return false;
             }
-
-            // 清除锁定记录
-            clearUserLock(eventId, ticketTypeId, userId);
+            inventoryJournal.append(JournalOp.DEDUCT, eventId, ticketTypeId, -1, quantity, userId);
+            inventoryChangeTracker.markChanged(eventId, ticketTypeId);
             return true;
         } catch (Exception e) {
             log.error("Failed to deduct stock", e);
@@ -135,24 +526,24 @@ public class InventoryShardingServiceImpl implements InventoryShardingService {
 
     /**
      * 释放库存
-     * 将锁定的库存释放回分片
+     * 将锁定的库存释放回分片，校验、清除锁定记录和归还分片由一个脚本原子完成
      */
     @Override
     public boolean releaseStock(Long eventId, Long ticketTypeId, Long userId, int quantity) {
+        hotspotDetectionService.recordAccess(eventId, ticketTypeId);
         try {
-            // 验证之前的锁定记录
-            if (!validateUserLock(eventId, ticketTypeId, userId, quantity)) {
+            String lockValue = redisTemplate.execute(RELEASE_LOCK_SCRIPT,
+                    Arrays.asList(getUserLockKey(eventId, ticketTypeId, userId), getShardMapKey(eventId, ticketTypeId),
+                            HOLD_INDEX_KEY),
+                    getInventoryShardKeyPrefix(eventId, ticketTypeId), String.valueOf(quantity),
+                    getHoldMember(eventId, ticketTypeId, userId, quantity));
+            if (lockValue == null) {
                 return false;
             }
+            journal(JournalOp.RELEASE, eventId, ticketTypeId, userId, parseUserLock(lockValue));
 
-            // 获取用户锁定的分片信息并释放
-            List<InventoryLockResult> lockResults = getUserLockResults(eventId, ticketTypeId, userId);
-            for (InventoryLockResult result : lockResults) {
-                releaseShardStock(result.getShardKey(), result.getLockedQuantity());
-            }
-
-            // 清除锁定记录
-            clearUserLock(eventId, ticketTypeId, userId);
+            // 通知候补队列，释放的库存直接分配给排队用户
+            eventPublisher.publishEvent(new StockReleasedEvent(eventId, ticketTypeId, quantity));
             return true;
         } catch (Exception e) {
             log.error("Failed to release stock", e);
@@ -161,125 +552,983 @@ public class InventoryShardingServiceImpl implements InventoryShardingService {
     }
 
     /**
-     * 尝试锁定分片库存
+     * 从分片中批量取出库存
+     */
+    @Override
+    public int acquireBlock(Long eventId, Long ticketTypeId, int maxQuantity) {
+        ShardMap shardMap = getShardMap(eventId, ticketTypeId);
+        if (shardMap == null || maxQuantity <= 0) {
+            return 0;
+        }
+
+        int shardCount = shardMap.getCount();
+        int start = ThreadLocalRandom.current().nextInt(shardCount);
+        int acquired = 0;
+        for (int i = 0; i < shardCount && acquired < maxQuantity; i++) {
+            String shardKey = getInventoryShardKey(eventId, ticketTypeId, shardMap.getEpoch(), (start + i) % shardCount);
+            Long locked = redisTemplate.execute(LOCK_SCRIPT,
+                    Collections.singletonList(shardKey), String.valueOf(maxQuantity - acquired));
+            if (locked != null && locked > 0) {
+                acquired += locked.intValue();
+            }
+        }
+        if (acquired > 0) {
+            inventoryChangeTracker.markChanged(eventId, ticketTypeId);
+        }
+        return acquired;
+    }
+
+    /**
+     * 批量归还库存到分片
+     */
+    @Override
+    public void returnBlock(Long eventId, Long ticketTypeId, int quantity) {
+        if (quantity <= 0) {
+            return;
+        }
+        releaseShardStock(eventId, ticketTypeId,
+                new InventoryLockResult(ANY_EPOCH, ThreadLocalRandom.current().nextInt(SHARD_COUNT), quantity));
+        inventoryChangeTracker.markChanged(eventId, ticketTypeId);
+    }
+
+    /**
+     * 记录由本地租约售出的用户锁定
+     * 用户已有锁定时不写入并抛出异常，调用方把取出的库存退回租约或配额
+     */
+    @Override
+    public boolean recordLeasedLock(Long eventId, Long ticketTypeId, Long userId, int quantity, String leaseKey) {
+        InventoryLockResult result = new InventoryLockResult(ANY_EPOCH, (int) Math.floorMod(userId, (long) SHARD_COUNT), quantity);
+        Long sold = redisTemplate.execute(LEASED_LOCK_SCRIPT,
+                Arrays.asList(getUserLockKey(eventId, ticketTypeId, userId), leaseKey),
+                formatUserLock(quantity, Collections.singletonList(result)),
+                String.valueOf(TimeUnit.MINUTES.toSeconds(USER_LOCK_EXPIRE_MINUTES)),
+                String.valueOf(quantity),
+                String.valueOf(System.currentTimeMillis()));
+        if (sold != null && sold == -2) {
+            throw new BusinessException("已有未完成的锁定");
+        }
+        if (sold == null || sold < 0) {
+            return false;
+        }
+        journal(JournalOp.LOCK, eventId, ticketTypeId, userId, Collections.singletonList(result));
+        return true;
+    }
+
+    /**
+     * 批量记录用户锁定
+     * 库存已由调用方批量取出，锁定记录不属于任何纪元，释放时路由到当前纪元
+     * - 以SET NX写入，不覆盖用户已有的锁定，否则原锁定的库存再也无法归还
+     * - 锁定记录保留到有效期之后一段时间，回收任务在有效期到达时按记录归还库存
+     */
+    @Override
+    public Set<Long> recordBulkLocks(Long eventId, Long ticketTypeId, Map<Long, Integer> quantities, long holdSeconds) {
+        if (quantities.isEmpty()) {
+            return Collections.emptySet();
+        }
+
+        List<Map.Entry<Long, Integer>> entries = new ArrayList<>(quantities.entrySet());
+        List<Object> results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Map.Entry<Long, Integer> entry : entries) {
+                InventoryLockResult result = new InventoryLockResult(ANY_EPOCH,
+                        (int) Math.floorMod(entry.getKey(), (long) SHARD_COUNT), entry.getValue());
+                connection.set(
+                        getUserLockKey(eventId, ticketTypeId, entry.getKey()).getBytes(StandardCharsets.UTF_8),
+                        formatUserLock(entry.getValue(), Collections.singletonList(result)).getBytes(StandardCharsets.UTF_8),
+                        Expiration.seconds(holdSeconds + HOLD_RECLAIM_GRACE_SECONDS),
+                        RedisStringCommands.SetOption.SET_IF_ABSENT);
+            }
+            return null;
+        });
+
+        Set<Long> rejected = new HashSet<>();
+        List<Map.Entry<Long, Integer>> recorded = new ArrayList<>(entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            if (Boolean.TRUE.equals(results.get(i))) {
+                recorded.add(entries.get(i));
+            } else {
+                rejected.add(entries.get(i).getKey());
+            }
+        }
+
+        long expireAt = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(holdSeconds);
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            byte[] indexKey = HOLD_INDEX_KEY.getBytes(StandardCharsets.UTF_8);
+            for (Map.Entry<Long, Integer> entry : recorded) {
+                connection.zAdd(indexKey, expireAt, getHoldMember(eventId, ticketTypeId, entry.getKey(), entry.getValue())
+                        .getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        });
+
+        for (Map.Entry<Long, Integer> entry : recorded) {
+            inventoryJournal.append(JournalOp.LOCK, eventId, ticketTypeId,
+                    (int) Math.floorMod(entry.getKey(), (long) SHARD_COUNT), entry.getValue(), entry.getKey());
+        }
+        inventoryChangeTracker.markChanged(eventId, ticketTypeId);
+        if (!rejected.isEmpty()) {
+            log.warn("Skipped bulk locks for users already holding stock, event: {}, ticketType: {}, users: {}",
+                    eventId, ticketTypeId, rejected);
+        }
+        return rejected;
+    }
+
+    /**
+     * 认领批量锁定
+     * 索引成员包含数量，数量不一致的下单不会认领
      */
-    private InventoryLockResult tryLockShardStock(String shardKey, int requestQuantity) {
-        RLock lock = redissonClient.getLock(shardKey + ":lock");
-        
+    @Override
+    public boolean claimHold(Long eventId, Long ticketTypeId, Long userId, int quantity) {
         try {
-            // 获取分段锁
-            if (!lock.tryLock(LOCK_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
-                return InventoryLockResult.failed(shardKey);
-            }
-
-            // 检查分片库存
-            String quantityStr = redisTemplate.opsForValue().get(shardKey);
-            int availableQuantity = Integer.parseInt(quantityStr);
-            
-            if (availableQuantity <= 0) {
-                return InventoryLockResult.failed(shardKey);
-            }
-
-            // 计算实际可锁定数量
-            int lockQuantity = Math.min(requestQuantity, availableQuantity);
-            
-            // 更新分片库存
-            redisTemplate.opsForValue().set(shardKey, String.valueOf(availableQuantity - lockQuantity));
-            
-            return InventoryLockResult.success(shardKey, lockQuantity);
+            Long claimed = redisTemplate.execute(CLAIM_HOLD_SCRIPT,
+                    Arrays.asList(getUserLockKey(eventId, ticketTypeId, userId), HOLD_INDEX_KEY),
+                    getHoldMember(eventId, ticketTypeId, userId, quantity),
+                    String.valueOf(System.currentTimeMillis()),
+                    String.valueOf(TimeUnit.MINUTES.toSeconds(CLAIMED_HOLD_EXPIRE_MINUTES)));
+            return claimed != null && claimed == 1;
         } catch (Exception e) {
-            log.error("Failed to lock shard stock", e);
-            return InventoryLockResult.failed(shardKey);
+            log.error("Failed to claim hold", e);
+            return false;
+        }
+    }
+
+    /**
+     * 回收过期未核销的批量锁定
+     * 每5秒执行一次，从索引中删除成功的实例负责释放，避免多个实例重复释放
+     * 已认领、核销或释放的锁定已移出索引，释放会触发候补分配
+     */
+    @Scheduled(fixedDelay = 5000)
+    public void reclaimExpiredHolds() {
+        Set<String> expired = redisTemplate.opsForZSet().rangeByScore(HOLD_INDEX_KEY, 0,
+                System.currentTimeMillis(), 0, HOLD_RECLAIM_BATCH);
+        if (expired == null) {
+            return;
+        }
+
+        for (String member : expired) {
+            Long removed = redisTemplate.opsForZSet().remove(HOLD_INDEX_KEY, member);
+            if (removed == null || removed == 0) {
+                continue;
+            }
+            try {
+                String[] parts = member.split(":");
+                if (releaseStock(Long.parseLong(parts[0]), Long.parseLong(parts[1]),
+                        Long.parseLong(parts[2]), Integer.parseInt(parts[3]))) {
+                    log.info("Reclaimed expired hold: {}", member);
+                }
+            } catch (Exception e) {
+                log.error("Failed to reclaim hold: {}", member, e);
+            }
+        }
+    }
+
+    /**
+     * 拆分库存分片
+     */
+    @Override
+    public int splitShards(Long eventId, Long ticketTypeId, int targetShardCount) {
+        ShardMap shardMap = getShardMap(eventId, ticketTypeId);
+        if (shardMap == null) {
+            throw new BusinessException("库存分片未初始化");
+        }
+        int target = Math.min(targetShardCount, SHARD_COUNT);
+        if (shardMap.isEndgame() || target <= shardMap.getCount()) {
+            return shardMap.getCount();
+        }
+        return reshard(eventId, ticketTypeId, shardMap, target);
+    }
+
+    /**
+     * 合并库存分片，恢复到初始化时的分片数量
+     */
+    @Override
+    public int mergeShards(Long eventId, Long ticketTypeId) {
+        ShardMap shardMap = getShardMap(eventId, ticketTypeId);
+        if (shardMap == null) {
+            throw new BusinessException("库存分片未初始化");
+        }
+        if (shardMap.getCount() <= shardMap.getBaseCount()) {
+            return shardMap.getCount();
+        }
+        return reshard(eventId, ticketTypeId, shardMap, shardMap.getBaseCount());
+    }
+
+    /**
+     * 获取当前分片数量
+     */
+    @Override
+    public int getShardCount(Long eventId, Long ticketTypeId) {
+        ShardMap shardMap = getShardMap(eventId, ticketTypeId);
+        return shardMap == null ? 0 : shardMap.getCount();
+    }
+
+    /**
+     * 导出所有票种的分片库存状态
+     * 同一票种的分片余量一次读出，用户锁定与分片余量之间可能相差在途请求
+     * 批量锁定的回收到期时间、预留池、放量计划和渠道配额随票种一起导出，恢复后回收和放量从原进度继续
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<TicketTypeSnapshot> exportSnapshots() {
+        Map<Long, TicketTypeSnapshot> snapshots = new HashMap<>();
+        for (String mapKey : scanKeys(SHARD_MAP_KEY_PREFIX + "*")) {
+            String[] ids = mapKey.substring(SHARD_MAP_KEY_PREFIX.length()).split(":");
+            Long eventId = Long.valueOf(ids[0]);
+            Long ticketTypeId = Long.valueOf(ids[1]);
+
+            List<Object> values = redisTemplate.execute(EXPORT_SCRIPT,
+                    Collections.singletonList(mapKey), getInventoryShardKeyPrefix(eventId, ticketTypeId));
+            if (values == null || values.isEmpty()) {
+                continue;
+            }
+
+            TicketTypeSnapshot snapshot = new TicketTypeSnapshot();
+            snapshot.setEventId(eventId);
+            snapshot.setTicketTypeId(ticketTypeId);
+            snapshot.setEpoch(Long.parseLong((String) values.get(0)));
+            snapshot.setBaseCount(Integer.parseInt((String) values.get(2)));
+            snapshot.setEndgame("1".equals(values.get(3)));
+            int[] shardStocks = new int[Integer.parseInt((String) values.get(1))];
+            for (int i = 0; i < shardStocks.length; i++) {
+                shardStocks[i] = Integer.parseInt((String) values.get(4 + i));
+            }
+            snapshot.setShardStocks(shardStocks);
+            snapshots.put(InventoryKeyUtil.pack(eventId, ticketTypeId), snapshot);
+        }
+
+        Map<String, Long> indexExpireAts = new HashMap<>();
+        Set<ZSetOperations.TypedTuple<String>> indexed = redisTemplate.opsForZSet().rangeWithScores(HOLD_INDEX_KEY, 0, -1);
+        if (indexed != null) {
+            for (ZSetOperations.TypedTuple<String> entry : indexed) {
+                if (entry.getValue() != null && entry.getScore() != null) {
+                    indexExpireAts.put(entry.getValue(), entry.getScore().longValue());
+                }
+            }
+        }
+
+        List<String> lockKeys = scanKeys(USER_LOCK_KEY_PREFIX + "*");
+        for (int i = 0; i < lockKeys.size(); i += HOLD_EXPORT_BATCH_SIZE) {
+            List<String> batch = lockKeys.subList(i, Math.min(i + HOLD_EXPORT_BATCH_SIZE, lockKeys.size()));
+            List<Object> values = redisTemplate.execute(EXPORT_HOLDS_SCRIPT, Collections.emptyList(), batch.toArray());
+            if (values == null) {
+                continue;
+            }
+            for (int j = 0; j + 2 < values.size(); j += 3) {
+                String[] ids = ((String) values.get(j)).substring(USER_LOCK_KEY_PREFIX.length()).split(":");
+                long ttlMillis = Long.parseLong((String) values.get(j + 2));
+                TicketTypeSnapshot snapshot = snapshots.get(InventoryKeyUtil.pack(Long.valueOf(ids[0]), Long.valueOf(ids[1])));
+                // 没有过期时间的key不是用户锁定
+                if (snapshot != null && ttlMillis > 0) {
+                    String lockValue = (String) values.get(j + 1);
+                    Long userId = Long.valueOf(ids[2]);
+                    Long indexExpireAt = indexExpireAts.get(getHoldMember(snapshot.getEventId(),
+                            snapshot.getTicketTypeId(), userId, parseLockQuantity(lockValue)));
+                    snapshot.getHolds().add(new TicketTypeSnapshot.Hold(
+                            userId, lockValue, ttlMillis, indexExpireAt == null ? 0 : indexExpireAt));
+                }
+            }
+        }
+
+        exportStrings(snapshots, RESERVE_KEY_PREFIX, true);
+        exportStrings(snapshots, CHANNEL_SHARD_KEY_PREFIX, true);
+        exportStrings(snapshots, CHANNEL_CONFIG_KEY_PREFIX, false);
+        exportHashes(snapshots, WAVE_KEY_PREFIX);
+        exportHashes(snapshots, CHANNEL_QUOTA_KEY_PREFIX);
+        return new ArrayList<>(snapshots.values());
+    }
+
+    /**
+     * 导出字符串状态到所属票种的快照
+     * @param counter 是否为持有库存的计数器
+     */
+    private void exportStrings(Map<Long, TicketTypeSnapshot> snapshots, String prefix, boolean counter) {
+        List<String> keys = scanKeys(prefix + "*");
+        for (int i = 0; i < keys.size(); i += HOLD_EXPORT_BATCH_SIZE) {
+            List<String> batch = keys.subList(i, Math.min(i + HOLD_EXPORT_BATCH_SIZE, keys.size()));
+            List<String> values = redisTemplate.opsForValue().multiGet(batch);
+            if (values == null) {
+                continue;
+            }
+            for (int j = 0; j < batch.size(); j++) {
+                TicketTypeSnapshot snapshot = ownerOf(snapshots, prefix, batch.get(j));
+                if (snapshot == null || values.get(j) == null) {
+                    continue;
+                }
+                if (counter) {
+                    snapshot.getCounters().put(batch.get(j), Integer.parseInt(values.get(j)));
+                } else {
+                    snapshot.getValues().put(batch.get(j), values.get(j));
+                }
+            }
+        }
+    }
+
+    /**
+     * 导出哈希状态到所属票种的快照
+     */
+    private void exportHashes(Map<Long, TicketTypeSnapshot> snapshots, String prefix) {
+        for (String key : scanKeys(prefix + "*")) {
+            TicketTypeSnapshot snapshot = ownerOf(snapshots, prefix, key);
+            if (snapshot == null) {
+                continue;
+            }
+            Map<Object, Object> entries = redisTemplate.opsForHash().entries(key);
+            if (entries.isEmpty()) {
+                continue;
+            }
+            Map<String, String> fields = new LinkedHashMap<>();
+            entries.forEach((field, value) -> fields.put((String) field, (String) value));
+            snapshot.getHashes().put(key, fields);
+        }
+    }
+
+    /**
+     * 查找附属状态所属的票种快照，key格式为"前缀场次ID:票种ID[:...]"，票种未导出时返回null
+     */
+    private TicketTypeSnapshot ownerOf(Map<Long, TicketTypeSnapshot> snapshots, String prefix, String key) {
+        String[] ids = key.substring(prefix.length()).split(":");
+        if (ids.length < 2) {
+            return null;
+        }
+        try {
+            return snapshots.get(InventoryKeyUtil.pack(Long.valueOf(ids[0]), Long.valueOf(ids[1])));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 从快照恢复票种的分片库存状态
+     * 分片映射和余量由Lua脚本原子写入，仍在有效期内的用户锁定按剩余有效期恢复
+     * 写入的批量锁定重新登记回收索引，预留池、放量计划和渠道配额只写入Redis中不存在的key和字段
+     */
+    @Override
+    public boolean restoreSnapshot(TicketTypeSnapshot snapshot, long elapsedMillis) {
+        Long eventId = snapshot.getEventId();
+        Long ticketTypeId = snapshot.getTicketTypeId();
+        if (snapshot.getShardStocks().length == 0) {
+            return false;
+        }
+
+        List<String> args = new ArrayList<>();
+        args.add(getInventoryShardKeyPrefix(eventId, ticketTypeId));
+        args.add(String.valueOf(snapshot.getEpoch()));
+        args.add(String.valueOf(snapshot.getBaseCount()));
+        args.add(snapshot.isEndgame() ? "1" : "0");
+        for (int stock : snapshot.getShardStocks()) {
+            args.add(String.valueOf(stock));
+        }
+        Long restored = redisTemplate.execute(RESTORE_SCRIPT,
+                Collections.singletonList(getShardMapKey(eventId, ticketTypeId)), args.toArray());
+        if (restored == null || restored == 0) {
+            return false;
+        }
+
+        // 已过期的锁定不恢复，其库存也不归还，宁可少卖
+        List<TicketTypeSnapshot.Hold> liveHolds = new ArrayList<>();
+        for (TicketTypeSnapshot.Hold hold : snapshot.getHolds()) {
+            if (hold.getTtlMillis() > elapsedMillis) {
+                liveHolds.add(hold);
+            }
+        }
+        List<Object> written = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (TicketTypeSnapshot.Hold hold : liveHolds) {
+                connection.set(
+                        getUserLockKey(eventId, ticketTypeId, hold.getUserId()).getBytes(StandardCharsets.UTF_8),
+                        hold.getValue().getBytes(StandardCharsets.UTF_8),
+                        Expiration.milliseconds(hold.getTtlMillis() - elapsedMillis),
+                        RedisStringCommands.SetOption.SET_IF_ABSENT);
+            }
+            return null;
+        });
+
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            // 只登记本次写入的锁定，已到期的由回收任务立即归还
+            byte[] indexKey = HOLD_INDEX_KEY.getBytes(StandardCharsets.UTF_8);
+            for (int i = 0; i < liveHolds.size(); i++) {
+                TicketTypeSnapshot.Hold hold = liveHolds.get(i);
+                if (hold.getIndexExpireAt() > 0 && Boolean.TRUE.equals(written.get(i))) {
+                    connection.zAdd(indexKey, hold.getIndexExpireAt(), getHoldMember(eventId, ticketTypeId,
+                            hold.getUserId(), parseLockQuantity(hold.getValue())).getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            snapshot.getCounters().forEach((key, value) -> connection.setNX(
+                    key.getBytes(StandardCharsets.UTF_8), String.valueOf(value).getBytes(StandardCharsets.UTF_8)));
+            snapshot.getValues().forEach((key, value) -> connection.setNX(
+                    key.getBytes(StandardCharsets.UTF_8), value.getBytes(StandardCharsets.UTF_8)));
+            snapshot.getHashes().forEach((key, fields) -> fields.forEach((field, value) -> connection.hSetNX(
+                    key.getBytes(StandardCharsets.UTF_8), field.getBytes(StandardCharsets.UTF_8),
+                    value.getBytes(StandardCharsets.UTF_8))));
+            return null;
+        });
+
+        // 操作日志以恢复后的状态为新基线：分片、预留池和渠道分片的余量加锁定数量初始化，再逐条记录锁定
+        int total = (int) snapshot.counterStock();
+        for (int stock : snapshot.getShardStocks()) {
+            total += stock;
+        }
+        List<List<InventoryLockResult>> holdResults = new ArrayList<>(liveHolds.size());
+        for (TicketTypeSnapshot.Hold hold : liveHolds) {
+            List<InventoryLockResult> results = parseUserLock(hold.getValue());
+            for (InventoryLockResult result : results) {
+                total += result.getLockedQuantity();
+            }
+            holdResults.add(results);
+        }
+        inventoryJournal.append(JournalOp.INIT, eventId, ticketTypeId, snapshot.getShardStocks().length, total, null);
+        inventoryChangeTracker.markChanged(eventId, ticketTypeId);
+        for (int i = 0; i < liveHolds.size(); i++) {
+            journal(JournalOp.LOCK, eventId, ticketTypeId, liveHolds.get(i).getUserId(), holdResults.get(i));
+        }
+
+        log.info("Restored inventory shards from snapshot for event: {}, ticketType: {}, shards: {}, epoch: {}, holds: {}",
+                eventId, ticketTypeId, snapshot.getShardStocks().length, snapshot.getEpoch(), snapshot.getHolds().size());
+        return true;
+    }
+
+    /**
+     * 批量加载票种库存分片
+     * 每个票种一次恢复脚本调用，所有调用通过管道一次提交
+     */
+    @Override
+    public int loadShardsIfAbsent(Map<Long, Integer> availableStocks) {
+        if (availableStocks.isEmpty()) {
+            return 0;
+        }
+
+        byte[] script = RESTORE_SCRIPT.getScriptAsString().getBytes(StandardCharsets.UTF_8);
+        List<Object> results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Map.Entry<Long, Integer> entry : availableStocks.entrySet()) {
+                Long eventId = InventoryKeyUtil.eventId(entry.getKey());
+                Long ticketTypeId = InventoryKeyUtil.ticketTypeId(entry.getKey());
+                int total = Math.max(entry.getValue(), 0);
+                int shardCount = Math.max(1, Math.min(SHARD_COUNT, (total + SHARD_SIZE - 1) / SHARD_SIZE));
+
+                List<String> keysAndArgs = new ArrayList<>(shardCount + 5);
+                keysAndArgs.add(getShardMapKey(eventId, ticketTypeId));
+                keysAndArgs.add(getInventoryShardKeyPrefix(eventId, ticketTypeId));
+                keysAndArgs.add("0");
+                keysAndArgs.add(String.valueOf(shardCount));
+                keysAndArgs.add("0");
+                for (int i = 0; i < shardCount; i++) {
+                    keysAndArgs.add(String.valueOf(total / shardCount + (i < total % shardCount ? 1 : 0)));
+                }
+
+                byte[][] encoded = new byte[keysAndArgs.size()][];
+                for (int i = 0; i < encoded.length; i++) {
+                    encoded[i] = keysAndArgs.get(i).getBytes(StandardCharsets.UTF_8);
+                }
+                connection.eval(script, ReturnType.INTEGER, 1, encoded);
+            }
+            return null;
+        });
+
+        // 管道结果与提交顺序一致，实际写入的票种在操作日志中初始化
+        int loaded = 0;
+        int index = 0;
+        for (Map.Entry<Long, Integer> entry : availableStocks.entrySet()) {
+            Object result = results.get(index++);
+            if (result instanceof Long && (Long) result == 1) {
+                inventoryJournal.append(JournalOp.INIT, InventoryKeyUtil.eventId(entry.getKey()),
+                        InventoryKeyUtil.ticketTypeId(entry.getKey()), -1, Math.max(entry.getValue(), 0), null);
+                inventoryChangeTracker.markChanged(InventoryKeyUtil.eventId(entry.getKey()),
+                        InventoryKeyUtil.ticketTypeId(entry.getKey()));
+                loaded++;
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * 预热锁定路径
+     * 在独立的预热分片上执行与真实锁定相同的扣减和归还脚本，脚本缓存、连接和分片映射读取都走一遍，真实库存不变
+     */
+    @Override
+    public int warmupLockPath(Long eventId, Long ticketTypeId, int iterations) {
+        if (getShardMap(eventId, ticketTypeId) == null) {
+            return 0;
+        }
+        String warmupMapKey = WARMUP_KEY_PREFIX + "map:" + eventId + ":" + ticketTypeId;
+        String warmupShardPrefix = WARMUP_KEY_PREFIX + eventId + ":" + ticketTypeId + ":";
+        String warmupShardKey = warmupShardPrefix + "0:0";
+        Map<String, String> warmupMap = new HashMap<>();
+        warmupMap.put("epoch", "0");
+        warmupMap.put("count", "1");
+        redisTemplate.opsForHash().putAll(warmupMapKey, warmupMap);
+        redisTemplate.expire(warmupMapKey, WARMUP_KEY_EXPIRE_SECONDS, TimeUnit.SECONDS);
+        redisTemplate.opsForValue().set(warmupShardKey, "1", WARMUP_KEY_EXPIRE_SECONDS, TimeUnit.SECONDS);
+
+        int executed = 0;
+        try {
+            for (int i = 0; i < iterations; i++) {
+                if (getShardMap(eventId, ticketTypeId) == null) {
+                    break;
+                }
+                Long locked = redisTemplate.execute(LOCK_SCRIPT,
+                        Collections.singletonList(warmupShardKey), "1");
+                if (locked != null && locked > 0) {
+                    redisTemplate.execute(RELEASE_SCRIPT,
+                            Collections.singletonList(warmupMapKey),
+                            warmupShardPrefix, "0", "0", String.valueOf(locked));
+                }
+                executed++;
+            }
         } finally {
-            if (lock.isHeldByCurrentThread()) {
-                lock.unlock();
+            redisTemplate.delete(Arrays.asList(warmupMapKey, warmupShardKey));
+        }
+        return executed;
+    }
+
+    /**
+     * 配置分批放量计划
+     */
+    @Override
+    public int configureReleaseWaves(Long eventId, Long ticketTypeId, long saleStartMillis, List<ReleaseWave> waves) {
+        if (waves == null || waves.isEmpty()) {
+            throw new BusinessException("放量批次不能为空");
+        }
+        if (waves.get(0).getOffsetMinutes() != 0) {
+            throw new BusinessException("首个批次必须在开售时放出");
+        }
+
+        List<String> args = new ArrayList<>();
+        args.add(getInventoryShardKeyPrefix(eventId, ticketTypeId));
+        args.add(String.valueOf(saleStartMillis));
+        int totalPercent = 0;
+        int lastOffset = -1;
+        for (ReleaseWave wave : waves) {
+            if (wave.getOffsetMinutes() <= lastOffset || wave.getPercent() <= 0) {
+                throw new BusinessException("放量批次的时间需递增且百分比需大于0");
             }
+            lastOffset = wave.getOffsetMinutes();
+            totalPercent += wave.getPercent();
+            args.add(String.valueOf(TimeUnit.MINUTES.toMillis(wave.getOffsetMinutes())));
+            args.add(String.valueOf(wave.getPercent()));
+        }
+        if (totalPercent != 100) {
+            throw new BusinessException("放量批次的百分比之和必须为100");
+        }
+
+        Long reserved = redisTemplate.execute(CONFIGURE_WAVES_SCRIPT,
+                Arrays.asList(getShardMapKey(eventId, ticketTypeId), getWaveKey(eventId, ticketTypeId),
+                        getReserveKey(eventId, ticketTypeId)),
+                args.toArray());
+        if (reserved == null || reserved == -1) {
+            throw new BusinessException("库存分片未初始化");
+        }
+        if (reserved == -2) {
+            throw new BusinessException("已配置分批放量");
         }
+
+        log.info("Configured release waves for event: {}, ticketType: {}, waves: {}, reserved: {}",
+                eventId, ticketTypeId, waves.size(), reserved);
+        return reserved.intValue();
     }
 
     /**
-     * 回滚已锁定的库存
+     * 放出已到期的批次，按批次顺序依次放出
+     */
+    @Override
+    public int releaseDueWaves(Long eventId, Long ticketTypeId, long nowMillis) {
+        WavePlan plan = getWavePlan(eventId, ticketTypeId);
+        if (plan == null) {
+            return 0;
+        }
+
+        int releasedTotal = 0;
+        for (int i = plan.getReleased() + 1; i < plan.getOffsets().length; i++) {
+            if (nowMillis < plan.getStartAt() + plan.getOffsets()[i]) {
+                break;
+            }
+            Long released = redisTemplate.execute(RELEASE_WAVE_SCRIPT,
+                    Arrays.asList(getShardMapKey(eventId, ticketTypeId), getWaveKey(eventId, ticketTypeId),
+                            getReserveKey(eventId, ticketTypeId)),
+                    getInventoryShardKeyPrefix(eventId, ticketTypeId),
+                    String.valueOf(i),
+                    String.valueOf(plan.getQuantities()[i]));
+            if (released == null || released == -2) {
+                break;
+            }
+            if (released >= 0) {
+                releasedTotal += released.intValue();
+                log.info("Released wave {} for event: {}, ticketType: {}, stock: {}", i, eventId, ticketTypeId, released);
+            }
+        }
+        return releasedTotal;
+    }
+
+    /**
+     * 查询可售库存和当前放量批次
      */
-    private void rollbackLocks(List<InventoryLockResult> lockResults) {
+    @Override
+    @SuppressWarnings("unchecked")
+    public StockAvailability getAvailability(Long eventId, Long ticketTypeId) {
+        StockAvailability availability = new StockAvailability();
+        availability.setEventId(eventId);
+        availability.setTicketTypeId(ticketTypeId);
+
+        List<Object> values = redisTemplate.execute(EXPORT_SCRIPT,
+                Collections.singletonList(getShardMapKey(eventId, ticketTypeId)),
+                getInventoryShardKeyPrefix(eventId, ticketTypeId));
+        int liveStock = 0;
+        for (int i = 4; values != null && i < values.size(); i++) {
+            liveStock += Integer.parseInt((String) values.get(i));
+        }
+        availability.setLiveStock(liveStock);
+
+        WavePlan plan = getWavePlan(eventId, ticketTypeId);
+        if (plan != null) {
+            String reserved = redisTemplate.opsForValue().get(getReserveKey(eventId, ticketTypeId));
+            availability.setReservedStock(reserved == null ? 0 : Integer.parseInt(reserved));
+            availability.setCurrentWave(plan.getReleased());
+            availability.setTotalWaves(plan.getOffsets().length);
+            int next = plan.getReleased() + 1;
+            if (next < plan.getOffsets().length) {
+                availability.setNextWaveTime(plan.getStartAt() + plan.getOffsets()[next]);
+            }
+        }
+        return availability;
+    }
+
+    /**
+     * 统计多个票种未过期的用户锁定数量
+     * 遍历一次用户锁定key，只批量读取指定票种的锁定记录
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<Long, Integer> sumHolds(Set<Long> keys) {
+        Map<Long, Integer> holds = new HashMap<>();
+        if (keys.isEmpty()) {
+            return holds;
+        }
+
+        List<String> lockKeys = new ArrayList<>();
+        for (String lockKey : scanKeys(USER_LOCK_KEY_PREFIX + "*")) {
+            String[] ids = lockKey.substring(USER_LOCK_KEY_PREFIX.length()).split(":");
+            if (ids.length == 3 && keys.contains(InventoryKeyUtil.pack(Long.valueOf(ids[0]), Long.valueOf(ids[1])))) {
+                lockKeys.add(lockKey);
+            }
+        }
+
+        for (int i = 0; i < lockKeys.size(); i += HOLD_EXPORT_BATCH_SIZE) {
+            List<String> batch = lockKeys.subList(i, Math.min(i + HOLD_EXPORT_BATCH_SIZE, lockKeys.size()));
+            List<Object> values = redisTemplate.execute(EXPORT_HOLDS_SCRIPT, Collections.emptyList(), batch.toArray());
+            if (values == null) {
+                continue;
+            }
+            for (int j = 0; j + 2 < values.size(); j += 3) {
+                // 没有过期时间的key不是用户锁定
+                if (Long.parseLong((String) values.get(j + 2)) <= 0) {
+                    continue;
+                }
+                String[] ids = ((String) values.get(j)).substring(USER_LOCK_KEY_PREFIX.length()).split(":");
+                String lockValue = (String) values.get(j + 1);
+                holds.merge(InventoryKeyUtil.pack(Long.valueOf(ids[0]), Long.valueOf(ids[1])),
+                        parseLockQuantity(lockValue), Integer::sum);
+            }
+        }
+        return holds;
+    }
+
+    /**
+     * 原子地把剩余库存迁移到新纪元的分片
+     */
+    private int reshard(Long eventId, Long ticketTypeId, ShardMap shardMap, int newShardCount) {
+        Long moved = redisTemplate.execute(RESHARD_SCRIPT,
+                Collections.singletonList(getShardMapKey(eventId, ticketTypeId)),
+                getInventoryShardKeyPrefix(eventId, ticketTypeId),
+                String.valueOf(shardMap.getEpoch()),
+                String.valueOf(newShardCount));
+
+        if (moved != null && moved == -2) {
+            log.info("Skipped resharding in endgame mode for event: {}, ticketType: {}", eventId, ticketTypeId);
+            return shardMap.getCount();
+        }
+        if (moved == null || moved < 0) {
+            throw new BusinessException("分片映射已变更，请重试");
+        }
+
+        log.info("Resharded inventory for event: {}, ticketType: {}, shards: {} -> {}, epoch: {} -> {}, stock: {}",
+                eventId, ticketTypeId, shardMap.getCount(), newShardCount,
+                shardMap.getEpoch(), shardMap.getEpoch() + 1, moved);
+        return newShardCount;
+    }
+
+    /**
+     * 按分片写入操作日志，并记录票种变更供对账使用
+     */
+    private void journal(JournalOp op, Long eventId, Long ticketTypeId, Long userId,
+                         List<InventoryLockResult> lockResults) {
         for (InventoryLockResult result : lockResults) {
-            if (result.isSuccess()) {
-                releaseShardStock(result.getShardKey(), result.getLockedQuantity());
+            inventoryJournal.append(op, eventId, ticketTypeId, result.getShardIndex(), result.getLockedQuantity(), userId);
+        }
+        inventoryChangeTracker.markChanged(eventId, ticketTypeId);
+    }
+
+    /**
+     * 尝试进入残局模式
+     * 同一票种的检查做节流，避免售罄尾声反复汇总所有分片
+     */
+    private void tryEnterEndgame(Long eventId, Long ticketTypeId, ShardMap shardMap) {
+        if (shardMap.isEndgame()) {
+            return;
+        }
+
+        long key = InventoryKeyUtil.pack(eventId, ticketTypeId);
+        long now = System.currentTimeMillis();
+        Long lastCheck = endgameCheckTimes.get(key);
+        if (lastCheck != null && now - lastCheck < ENDGAME_CHECK_INTERVAL) {
+            return;
+        }
+        endgameCheckTimes.put(key, now);
+
+        try {
+            Long consolidated = redisTemplate.execute(ENDGAME_SCRIPT,
+                    Collections.singletonList(getShardMapKey(eventId, ticketTypeId)),
+                    getInventoryShardKeyPrefix(eventId, ticketTypeId),
+                    String.valueOf(ENDGAME_STOCK_THRESHOLD));
+
+            if (consolidated != null && consolidated >= 0) {
+                endgameCheckTimes.remove(key);
+                log.info("Entered endgame for event: {}, ticketType: {}, shards: {} -> 1, stock: {}",
+                        eventId, ticketTypeId, shardMap.getCount(), consolidated);
             }
+        } catch (Exception e) {
+            log.error("Failed to enter endgame for event: {}, ticketType: {}", eventId, ticketTypeId, e);
         }
     }
 
     /**
-     * 释放分片库存
+     * 在指定纪元的分片上锁定库存
+     * 库存不足时回滚并返回null
      */
-    private void releaseShardStock(String shardKey, int quantity) {
-        RLock lock = redissonClient.getLock(shardKey + ":lock");
-        
+    private List<InventoryLockResult> tryLockShards(Long eventId, Long ticketTypeId, ShardMap shardMap,
+                                                    Long userId, int quantity) {
+        List<InventoryLockResult> lockResults = new ArrayList<>();
         try {
-            if (lock.tryLock(LOCK_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
-                String currentQuantityStr = redisTemplate.opsForValue().get(shardKey);
-                int currentQuantity = Integer.parseInt(currentQuantityStr);
-                redisTemplate.opsForValue().set(shardKey, String.valueOf(currentQuantity + quantity));
+            // 不同用户从不同分片开始，分散热点
+            int shardCount = shardMap.getCount();
+            int start = userId == null
+                    ? ThreadLocalRandom.current().nextInt(shardCount)
+                    : (int) Math.floorMod(userId, (long) shardCount);
+
+            int remainingQuantity = quantity;
+            for (int i = 0; i < shardCount && remainingQuantity > 0; i++) {
+                int shardIndex = (start + i) % shardCount;
+                String shardKey = getInventoryShardKey(eventId, ticketTypeId, shardMap.getEpoch(), shardIndex);
+                Long locked = redisTemplate.execute(LOCK_SCRIPT,
+                        Collections.singletonList(shardKey), String.valueOf(remainingQuantity));
+
+                if (locked != null && locked > 0) {
+                    lockResults.add(new InventoryLockResult(shardMap.getEpoch(), shardIndex, locked.intValue()));
+                    remainingQuantity -= locked.intValue();
+                }
             }
+
+            // 检查是否完全锁定成功
+            if (remainingQuantity > 0) {
+                // 回滚已锁定的库存
+                rollbackLocks(eventId, ticketTypeId, lockResults);
+                return null;
+            }
+            return lockResults;
+        } catch (RuntimeException e) {
+            rollbackLocks(eventId, ticketTypeId, lockResults);
+            throw e;
+        }
+    }
+
+    /**
+     * 回滚已锁定的库存
+     */
+    private void rollbackLocks(Long eventId, Long ticketTypeId, List<InventoryLockResult> lockResults) {
+        for (InventoryLockResult result : lockResults) {
+            releaseShardStock(eventId, ticketTypeId, result);
+        }
+    }
+
+    /**
+     * 释放分片库存
+     */
+    private void releaseShardStock(Long eventId, Long ticketTypeId, InventoryLockResult result) {
+        try {
+            redisTemplate.execute(RELEASE_SCRIPT,
+                    Collections.singletonList(getShardMapKey(eventId, ticketTypeId)),
+                    getInventoryShardKeyPrefix(eventId, ticketTypeId),
+                    String.valueOf(result.getEpoch()),
+                    String.valueOf(result.getShardIndex()),
+                    String.valueOf(result.getLockedQuantity()));
         } catch (Exception e) {
             log.error("Failed to release shard stock", e);
-        } finally {
-            if (lock.isHeldByCurrentThread()) {
-                lock.unlock();
+        }
+    }
+
+    /**
+     * 按模式增量扫描key，避免KEYS阻塞Redis
+     */
+    private List<String> scanKeys(String pattern) {
+        return redisTemplate.execute((RedisCallback<List<String>>) connection -> {
+            List<String> keys = new ArrayList<>();
+            ScanOptions options = ScanOptions.scanOptions().match(pattern).count(SCAN_BATCH_SIZE).build();
+            try (Cursor<byte[]> cursor = connection.scan(options)) {
+                while (cursor.hasNext()) {
+                    keys.add(new String(cursor.next(), StandardCharsets.UTF_8));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
             }
+            return keys;
+        });
+    }
+
+    /**
+     * 读取放量计划，计划格式为"偏移毫秒数:数量,..."
+     */
+    private WavePlan getWavePlan(Long eventId, Long ticketTypeId) {
+        List<Object> values = redisTemplate.opsForHash().multiGet(getWaveKey(eventId, ticketTypeId),
+                Arrays.asList("startAt", "plan", "released"));
+        if (values.get(0) == null || values.get(1) == null) {
+            return null;
+        }
+        String[] parts = ((String) values.get(1)).split(",");
+        long[] offsets = new long[parts.length];
+        int[] quantities = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            String[] fields = parts[i].split(":");
+            offsets[i] = Long.parseLong(fields[0]);
+            quantities[i] = Integer.parseInt(fields[1]);
         }
+        int released = values.get(2) == null ? -1 : Integer.parseInt((String) values.get(2));
+        return new WavePlan(Long.parseLong((String) values.get(0)), offsets, quantities, released);
+    }
+
+    /**
+     * 解析用户锁定的数量，格式为"锁定数量;分片ID:库存版本:数量,..."或旧格式的纯数量
+     */
+    private int parseLockQuantity(String lockValue) {
+        int separator = lockValue.indexOf(';');
+        return Integer.parseInt(separator < 0 ? lockValue : lockValue.substring(0, separator));
+    }
+
+    /**
+     * 读取分片映射
+     */
+    private ShardMap getShardMap(Long eventId, Long ticketTypeId) {
+        List<Object> values = redisTemplate.opsForHash().multiGet(getShardMapKey(eventId, ticketTypeId),
+                Arrays.asList("epoch", "count", "base", "endgame"));
+        if (values.get(0) == null || values.get(1) == null) {
+            return null;
+        }
+        int count = Integer.parseInt((String) values.get(1));
+        int baseCount = values.get(2) == null ? count : Integer.parseInt((String) values.get(2));
+        boolean endgame = "1".equals(values.get(3));
+        return new ShardMap(Long.parseLong((String) values.get(0)), count, baseCount, endgame);
+    }
+
+    // 工具方法：生成库存分片key前缀，后接"纪元:分片序号"
+    private String getInventoryShardKeyPrefix(Long eventId, Long ticketTypeId) {
+        return String.format("inventory:shard:%d:%d:", eventId, ticketTypeId);
     }
 
     // 工具方法：生成库存分片key
-    private String getInventoryShardKey(Long eventId, Long ticketTypeId, int shardIndex) {
-        return String.format("inventory:shard:%d:%d:%d", eventId, ticketTypeId, shardIndex);
+    private String getInventoryShardKey(Long eventId, Long ticketTypeId, long epoch, int shardIndex) {
+        return getInventoryShardKeyPrefix(eventId, ticketTypeId) + epoch + ":" + shardIndex;
     }
 
-    // 工具方法：生成分片数量key
-    private String getShardCountKey(Long eventId, Long ticketTypeId) {
-        return String.format("inventory:shard:count:%d:%d", eventId, ticketTypeId);
+    // 工具方法：生成锁定索引成员
+    private String getHoldMember(Long eventId, Long ticketTypeId, Long userId, int quantity) {
+        return eventId + ":" + ticketTypeId + ":" + userId + ":" + quantity;
+    }
+
+    // 工具方法：生成分片映射key
+    private String getShardMapKey(Long eventId, Long ticketTypeId) {
+        return SHARD_MAP_KEY_PREFIX + eventId + ":" + ticketTypeId;
+    }
+
+    // 工具方法：生成放量计划key
+    private String getWaveKey(Long eventId, Long ticketTypeId) {
+        return WAVE_KEY_PREFIX + eventId + ":" + ticketTypeId;
+    }
+
+    // 工具方法：生成预留池key
+    private String getReserveKey(Long eventId, Long ticketTypeId) {
+        return RESERVE_KEY_PREFIX + eventId + ":" + ticketTypeId;
+    }
+
+    // 工具方法：生成用户锁定key
+    private String getUserLockKey(Long eventId, Long ticketTypeId, Long userId) {
+        return USER_LOCK_KEY_PREFIX + eventId + ":" + ticketTypeId + ":" + userId;
     }
 
     // 工具方法：记录用户锁定信息
-    private void recordUserLock(Long eventId, Long ticketTypeId, Long userId, int quantity) {
-        String userLockKey = String.format("inventory:lock:%d:%d:%d", eventId, ticketTypeId, userId);
-        redisTemplate.opsForValue().set(userLockKey, String.valueOf(quantity), 10, TimeUnit.MINUTES);
+    private void recordUserLock(Long eventId, Long ticketTypeId, Long userId, int quantity,
+                                List<InventoryLockResult> lockResults) {
+        redisTemplate.opsForValue().set(getUserLockKey(eventId, ticketTypeId, userId),
+                formatUserLock(quantity, lockResults), USER_LOCK_EXPIRE_MINUTES, TimeUnit.MINUTES);
+    }
+
+    // 工具方法：格式化用户锁定信息，格式为"数量;纪元:分片:数量,..."
+    private String formatUserLock(int quantity, List<InventoryLockResult> lockResults) {
+        StringBuilder value = new StringBuilder().append(quantity).append(';');
+        for (int i = 0; i < lockResults.size(); i++) {
+            InventoryLockResult result = lockResults.get(i);
+            if (i > 0) {
+                value.append(',');
+            }
+            value.append(result.getEpoch()).append(':')
+                    .append(result.getShardIndex()).append(':')
+                    .append(result.getLockedQuantity());
+        }
+        return value.toString();
     }
 
-    // 工具方法：验证用户锁定记录
-    private boolean validateUserLock(Long eventId, Long ticketTypeId, Long userId, int quantity) {
-        String userLockKey = String.format("inventory:lock:%d:%d:%d", eventId, ticketTypeId, userId);
-        String lockedQuantityStr = redisTemplate.opsForValue().get(userLockKey);
-        return lockedQuantityStr != null && Integer.parseInt(lockedQuantityStr) == quantity;
+    // 工具方法：解析用户锁定记录中的分片信息
+    private List<InventoryLockResult> parseUserLock(String lockValue) {
+        List<InventoryLockResult> results = new ArrayList<>();
+        int separator = lockValue == null ? -1 : lockValue.indexOf(';');
+        if (separator < 0 || separator == lockValue.length() - 1) {
+            return results;
+        }
+
+        for (String part : lockValue.substring(separator + 1).split(",")) {
+            String[] fields = part.split(":");
+            results.add(new InventoryLockResult(
+                    Long.parseLong(fields[0]), Integer.parseInt(fields[1]), Integer.parseInt(fields[2])));
+        }
+        return results;
     }
 
-    // 工具方法：清除用户锁定记录
-    private void clearUserLock(Long eventId, Long ticketTypeId, Long userId) {
-        String userLockKey = String.format("inventory:lock:%d:%d:%d", eventId, ticketTypeId, userId);
-        redisTemplate.delete(userLockKey);
+    /**
+     * 分片映射
+     */
+    @lombok.Data
+    @lombok.AllArgsConstructor
+    private static class ShardMap {
+        private long epoch;
+        private int count;
+        private int baseCount;
+        private boolean endgame;
     }
 
-    // 工具方法：获取用户锁定的分片信息
-    private List<InventoryLockResult> getUserLockResults(Long eventId, Long ticketTypeId, Long userId) {
-        // 实际项目中需要从Redis或其他存储中获取用户锁定的具体分片信息
-        return new ArrayList<>();
+    /**
+     * 放量计划
+     */
+    @lombok.Data
+    @lombok.AllArgsConstructor
+    private static class WavePlan {
+        private long startAt;
+        private long[] offsets;
+        private int[] quantities;
+        private int released;
     }
 
     /**
      * 库存锁定结果
      */
     @lombok.Data
-    @lombok.AllArgsConstructor(staticName = "of")
+    @lombok.AllArgsConstructor
     private static class InventoryLockResult {
-        private String shardKey;
+        private long epoch;
+        private int shardIndex;
         private int lockedQuantity;
-        private boolean success;
-
-        public static InventoryLockResult success(String shardKey, int quantity) {
-            return of(shardKey, quantity, true);
-        }
-
-        public static InventoryLockResult failed(String shardKey) {
-            return of(shardKey, 0, false);
-        }
     }
-} 
\ No newline at end of file
+}
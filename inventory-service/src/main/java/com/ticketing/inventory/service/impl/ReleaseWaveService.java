@@ -0,0 +1,93 @@
+package com.ticketing.inventory.service.impl;
+
+import com.ticketing.common.entity.Event;
+import com.ticketing.common.exception.BusinessException;
+import com.ticketing.inventory.mapper.EventMapper;
+import com.ticketing.inventory.model.ReleaseWave;
+import com.ticketing.inventory.model.StockAvailability;
+import com.ticketing.inventory.service.InventoryShardingService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 分批放量服务
+ * 票种库存按计划分多个批次放出，例如开售时40%，10分钟后30%，30分钟后30%
+ * - 未放出的库存保存在预留池中，不参与锁定
+ * - 每秒检查一次到期批次，批次的放出由Lua脚本保证原子且只执行一次
+ */
+@Slf4j
+@Service
+public class ReleaseWaveService {
+
+    @Autowired
+    private InventoryShardingService inventoryShardingService;
+
+    @Autowired
+    private EventMapper eventMapper;
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    // 配置了放量计划且尚未放完的票种集合，成员格式为"场次ID:票种ID"
+    private static final String WAVE_INDEX_KEY = "inventory:wave:index";
+
+    /**
+     * 为票种配置放量计划，批次偏移以场次的售票开始时间为基准
+     * @return 移入预留池的库存数量
+     */
+    public int configure(Long eventId, Long ticketTypeId, List<ReleaseWave> waves) {
+        Event event = eventMapper.selectById(eventId);
+        if (event == null || event.getSaleStartTime() == null) {
+            throw new BusinessException("场次不存在或未设置售票开始时间");
+        }
+        long saleStartMillis = event.getSaleStartTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+
+        int reserved = inventoryShardingService.configureReleaseWaves(eventId, ticketTypeId, saleStartMillis, waves);
+        redisTemplate.opsForSet().add(WAVE_INDEX_KEY, eventId + ":" + ticketTypeId);
+        return reserved;
+    }
+
+    /**
+     * 查询可售库存和当前放量批次
+     */
+    public StockAvailability getAvailability(Long eventId, Long ticketTypeId) {
+        return inventoryShardingService.getAvailability(eventId, ticketTypeId);
+    }
+
+    /**
+     * 放出到期批次
+     * 每秒执行一次，所有批次放完的票种从集合中移除
+     */
+    @Scheduled(fixedDelay = 1000)
+    public void releaseDueWaves() {
+        Set<String> members = redisTemplate.opsForSet().members(WAVE_INDEX_KEY);
+        if (members == null || members.isEmpty()) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        for (String member : members) {
+            try {
+                String[] parts = member.split(":");
+                Long eventId = Long.parseLong(parts[0]);
+                Long ticketTypeId = Long.parseLong(parts[1]);
+
+                inventoryShardingService.releaseDueWaves(eventId, ticketTypeId, now);
+                StockAvailability availability = inventoryShardingService.getAvailability(eventId, ticketTypeId);
+                if (availability.getNextWaveTime() == null) {
+                    redisTemplate.opsForSet().remove(WAVE_INDEX_KEY, member);
+                    log.info("All release waves finished for event: {}, ticketType: {}", eventId, ticketTypeId);
+                }
+            } catch (Exception e) {
+                log.error("Failed to release waves for: {}", member, e);
+            }
+        }
+    }
+}
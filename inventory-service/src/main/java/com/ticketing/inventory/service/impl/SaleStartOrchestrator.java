@@ -0,0 +1,240 @@
+package com.ticketing.inventory.service.impl;
+
+import com.ticketing.common.entity.Event;
+import com.ticketing.common.entity.Inventory;
+import com.ticketing.common.exception.BusinessException;
+import com.ticketing.common.utils.CacheUtil;
+import com.ticketing.common.utils.InventoryKeyUtil;
+import com.ticketing.common.utils.ShardingUtil;
+import com.ticketing.inventory.mapper.EventMapper;
+import com.ticketing.inventory.mapper.InventoryMapper;
+import com.ticketing.inventory.service.InventoryShardingService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 开售编排服务
+ * 在每个场次售票开始前若干分钟完成准备工作，避免开售初期的冷启动延迟
+ * - 预建Redis库存分片，预热库存二级缓存（每个实例各自执行，覆盖所有实例的本地缓存）
+ * - 并发访问数据库和Redis，提前建立连接池中的连接
+ * - 以只读命令预热锁定路径，并预先加载锁定脚本
+ * - 场次在售票开始时间区间内直接从数据库查询，不经过可能过期的场次缓存
+ * - 各实例的就绪报告写入Redis，便于开售前统一检查
+ */
+@Slf4j
+@Service
+public class SaleStartOrchestrator {
+
+    @Autowired
+    private EventMapper eventMapper;
+
+    @Autowired
+    private InventoryMapper inventoryMapper;
+
+    @Autowired
+    private InventoryShardingService inventoryShardingService;
+
+    @Autowired
+    private CacheUtil cacheUtil;
+
+    @Autowired
+    private ShardingUtil shardingUtil;
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    @Autowired
+    private ThreadPoolTaskExecutor inventoryThreadPool;
+
+    // 开售前提前预热的时间（分钟），本地缓存5分钟过期，提前量需小于该值
+    private static final int PREWARM_LEAD_MINUTES = 3;
+
+    // 预热后的缓存需保留到开售之后（秒）
+    private static final long CACHE_EXPIRE_TIME = PREWARM_LEAD_MINUTES * 60L + 300L;
+
+    // 连接池预热的并发数
+    private static final int POOL_WARMUP_CONCURRENCY = 16;
+
+    // 连接池预热超时时间（秒）
+    private static final int POOL_WARMUP_TIMEOUT = 30;
+
+    // 每个票种预热锁定路径的调用次数
+    private static final int LOCK_WARMUP_ITERATIONS = 1000;
+
+    // 就绪报告保留时间（小时）
+    private static final int REPORT_EXPIRE_HOURS = 6;
+
+    private final String instanceId = UUID.randomUUID().toString();
+
+    // 已预热的场次及其售票开始时间
+    private final Map<Long, LocalDateTime> prewarmedEvents = new ConcurrentHashMap<>();
+
+    /**
+     * 扫描即将开售的场次
+     * 每30秒执行一次，每个场次在本实例只预热一次
+     */
+    @Scheduled(fixedDelay = 30000)
+    public void scheduleUpcomingSales() {
+        try {
+            LocalDateTime now = LocalDateTime.now();
+            // 清理已开售较久的场次
+            prewarmedEvents.values().removeIf(saleStartTime -> saleStartTime.isBefore(now.minusHours(1)));
+
+            List<Event> events = eventMapper.selectSalesStartingBetween(now, now.plusMinutes(PREWARM_LEAD_MINUTES));
+            for (Event event : events) {
+                if (prewarmedEvents.putIfAbsent(event.getId(), event.getSaleStartTime()) == null) {
+                    inventoryThreadPool.execute(() -> prewarm(event.getId(), event.getSaleStartTime()));
+                }
+            }
+        } catch (Exception e) {
+            log.error("Failed to schedule sale prewarm", e);
+        }
+    }
+
+    /**
+     * 立即预热指定场次，用于手动触发
+     * @return 本实例的就绪报告
+     */
+    public PrewarmReport prewarm(Long eventId) {
+        Event event = eventMapper.selectById(eventId);
+        if (event == null) {
+            throw new BusinessException("场次不存在");
+        }
+        LocalDateTime saleStartTime = event.getSaleStartTime() != null ? event.getSaleStartTime() : LocalDateTime.now();
+        prewarmedEvents.put(eventId, saleStartTime);
+        return prewarm(eventId, saleStartTime);
+    }
+
+    /**
+     * 预热单个场次
+     * @return 本实例的就绪报告
+     */
+    public PrewarmReport prewarm(Long eventId, LocalDateTime saleStartTime) {
+        long start = System.currentTimeMillis();
+        PrewarmReport report = new PrewarmReport();
+        report.setEventId(eventId);
+        report.setInstanceId(instanceId);
+        try {
+            List<Inventory> rows = inventoryMapper.selectByEventIds(Collections.singletonList(eventId));
+            if (rows.isEmpty()) {
+                throw new BusinessException("场次库存未初始化");
+            }
+
+            // 1. 预建Redis分片，已存在的票种不覆盖
+            Map<Long, Integer> availableStocks = new HashMap<>();
+            Map<String, Inventory> cacheValues = new HashMap<>(rows.size() * 2);
+            for (Inventory row : rows) {
+                availableStocks.merge(InventoryKeyUtil.pack(row.getEventId(), row.getTicketTypeId()),
+                        row.getAvailableStock(), Integer::sum);
+                cacheValues.put(cacheUtil.getInventoryCacheKey(row.getEventId(), row.getTicketTypeId(), row.getShardingId()), row);
+            }
+            report.setTicketTypes(availableStocks.size());
+            report.setShardsCreated(inventoryShardingService.loadShardsIfAbsent(availableStocks));
+
+            // 2. 预热库存二级缓存
+            cacheUtil.updateCacheBatch(cacheValues, CACHE_EXPIRE_TIME);
+            report.setRowsCached(rows.size());
+
+            // 3. 建立连接池中的连接
+            long poolStart = System.currentTimeMillis();
+            warmupConnectionPools(eventId, rows.get(0).getTicketTypeId());
+            report.setPoolWarmupMillis(System.currentTimeMillis() - poolStart);
+
+            // 4. 预热锁定路径
+            long lockStart = System.currentTimeMillis();
+            for (Long key : availableStocks.keySet()) {
+                inventoryShardingService.warmupLockPath(InventoryKeyUtil.eventId(key), InventoryKeyUtil.ticketTypeId(key),
+                        LOCK_WARMUP_ITERATIONS);
+            }
+            report.setLockWarmupMillis(System.currentTimeMillis() - lockStart);
+
+            report.setReady(true);
+        } catch (Exception e) {
+            log.error("Failed to prewarm sale for event: {}", eventId, e);
+            report.setError(e.getMessage());
+        }
+        report.setElapsedMillis(System.currentTimeMillis() - start);
+
+        publishReport(report, saleStartTime);
+        log.info("Sale prewarm finished for event: {}, report: {}", eventId, report);
+        return report;
+    }
+
+    /**
+     * 查询场次在各实例上的就绪报告
+     * @return 实例ID到报告内容的映射
+     */
+    public Map<Object, Object> getReports(Long eventId) {
+        return redisTemplate.opsForHash().entries(getReportKey(eventId));
+    }
+
+    /**
+     * 并发访问数据库和Redis，使连接池提前建立足够的连接
+     */
+    private void warmupConnectionPools(Long eventId, Long ticketTypeId) throws Exception {
+        List<CompletableFuture<Void>> tasks = new ArrayList<>(POOL_WARMUP_CONCURRENCY);
+        for (int i = 0; i < POOL_WARMUP_CONCURRENCY; i++) {
+            int shardingId = i % shardingUtil.getShardingCount();
+            tasks.add(CompletableFuture.runAsync(() -> {
+                inventoryMapper.selectBySharding(eventId, ticketTypeId, shardingId);
+                redisTemplate.execute((RedisCallback<String>) RedisConnection::ping);
+            }, inventoryThreadPool));
+        }
+        CompletableFuture.allOf(tasks.toArray(new CompletableFuture[0])).get(POOL_WARMUP_TIMEOUT, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 写入就绪报告，保留到开售之后
+     */
+    private void publishReport(PrewarmReport report, LocalDateTime saleStartTime) {
+        try {
+            String key = getReportKey(report.getEventId());
+            redisTemplate.opsForHash().put(key, instanceId, report.toString());
+            Duration untilSaleStart = Duration.between(LocalDateTime.now(), saleStartTime);
+            long expireSeconds = Math.max(untilSaleStart.getSeconds(), 0) + TimeUnit.HOURS.toSeconds(REPORT_EXPIRE_HOURS);
+            redisTemplate.expire(key, expireSeconds, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            log.error("Failed to publish prewarm report for event: {}", report.getEventId(), e);
+        }
+    }
+
+    // 工具方法：生成就绪报告key
+    private String getReportKey(Long eventId) {
+        return "inventory:prewarm:report:" + eventId;
+    }
+
+    /**
+     * 开售就绪报告
+     */
+    @lombok.Data
+    public static class PrewarmReport {
+        private Long eventId;
+        private String instanceId;
+        private boolean ready;
+        private int ticketTypes;
+        private int shardsCreated;
+        private int rowsCached;
+        private long poolWarmupMillis;
+        private long lockWarmupMillis;
+        private long elapsedMillis;
+        private String error;
+    }
+}
@@ -0,0 +1,816 @@
+package com.ticketing.inventory.service.impl;
+
+import com.ticketing.common.exception.BusinessException;
+import com.ticketing.inventory.mapper.TicketTypeMapper;
+import com.ticketing.inventory.model.EventInventory.TicketType;
+import com.ticketing.inventory.seat.OffHeapSeatStore;
+import com.ticketing.inventory.seat.SeatLayout;
+import com.ticketing.inventory.seat.SeatMapFeedService;
+import com.ticketing.inventory.seat.SeatSearchIndex;
+import com.ticketing.inventory.seat.SeatStatus;
+import com.ticketing.inventory.service.SeatInventoryService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.BitFieldSubCommands;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 座位库存服务实现
+ * - 场次的座位按区域映射为连续序号，状态保存在一个Redis位图中，每个座位占2位（可售/锁定/已售）
+ * - 多座位锁定由一个Lua脚本完成：一次BITFIELD读出全部座位状态，全部可售时一次BITFIELD写入锁定状态
+ * - 锁定人和过期时间保存在旁路的Hash和ZSET中，过期锁定由定时任务回收
+ * - 6万座的场馆状态位图约15KB，查询任意数量座位只需一次往返
+ * - 自动选座使用本地的座位搜索索引，选中的座位通过锁定脚本原子提交
+ * - 每次状态变更递增场次版本号并写入变更记录，供座位图增量同步使用
+ * - 每个场次在堆外存储中保留座位状态的本地副本，锁定前先在本地CAS占位，本地已锁定或已售的座位直接拒绝，不访问Redis；
+ *   本地占位成功后是否可锁仍由锁定脚本决定，座位状态查询直接读本地副本
+ * - 本地副本只保存状态，锁定人和过期时间以Redis为准，释放和确认始终由脚本校验
+ */
+@Slf4j
+@Service
+public class SeatInventoryServiceImpl implements SeatInventoryService {
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    @Autowired
+    private TicketTypeMapper ticketTypeMapper;
+
+    // 单次最多锁定的座位数
+    private static final int MAX_SEATS_PER_LOCK = 10;
+
+    // 自动选座时锁定冲突的最大重试次数
+    private static final int MAX_ALLOCATE_ATTEMPTS = 3;
+
+    // 批量更新时每个脚本处理的座位数，避免单个脚本参数过多
+    private static final int UPDATE_BATCH_SIZE = 1000;
+
+    // 初始化时每次写入的座位编号数量
+    private static final int INIT_BATCH_SIZE = 1000;
+
+    // 初始化锁的过期时间（秒），初始化中途崩溃后可重新初始化
+    private static final long INIT_LOCK_SECONDS = 60;
+
+    // 每次扫描回收的过期锁定数量
+    private static final int EXPIRE_SCAN_BATCH = 500;
+
+    // 运营保留座位的锁定人，不会过期，也不能被用户释放
+    private static final String OPERATOR_HOLDER = "0";
+
+    private static final String SEAT_INDEX_KEY = "inventory:seat:index";
+
+    private static final BitFieldSubCommands.BitFieldType STATUS_TYPE = BitFieldSubCommands.BitFieldType.unsigned(2);
+
+
+    // 保留的座位变更记录数，落后更多的客户端改为拉取全量快照
+    private static final int CHANGE_RING_SIZE = 4096;
+
+    /**
+     * 所有座位脚本共用的变更记录函数
+     * 一次脚本调用的全部变更共用一个版本号，记录格式为"版本号|座位序号:状态码,..."
+     * KEYS[5]=版本号key，KEYS[6]=变更记录列表key
+     */
+    private static final String RECORD_CHANGES = "local function record(changes) "
+            + "  if #changes == 0 then return end "
+            + "  local version = redis.call('INCR', KEYS[5]) "
+            + "  redis.call('RPUSH', KEYS[6], version .. '|' .. table.concat(changes, ',')) "
+            + "  redis.call('LTRIM', KEYS[6], -" + CHANGE_RING_SIZE + ", -1) "
+            + "end ";
+
+    /**
+     * 锁定座位，任一座位不可售时全部不锁定
+     * KEYS[1]=状态位图key，KEYS[2]=锁定人Hash key，KEYS[3]=锁定过期ZSET key，KEYS[4]=座位订单Hash key
+     * KEYS[5]=版本号key，KEYS[6]=变更记录列表key，所有座位脚本使用相同的KEYS
+     * ARGV[1]=用户ID，ARGV[2]=过期时间戳（毫秒），ARGV[3..]=座位序号
+     * 返回1成功，0失败
+     */
+    private static final RedisScript<Long> LOCK_SCRIPT = new DefaultRedisScript<>(
+            RECORD_CHANGES
+                    + "local get = {} "
+                    + "for i = 3, #ARGV do "
+                    + "  table.insert(get, 'GET') table.insert(get, 'u2') table.insert(get, '#' .. ARGV[i]) "
+                    + "end "
+                    + "local states = redis.call('BITFIELD', KEYS[1], unpack(get)) "
+                    + "for i = 1, #states do "
+                    + "  if states[i] ~= 0 then return 0 end "
+                    + "end "
+                    + "local set = {} "
+                    + "local changes = {} "
+                    + "for i = 3, #ARGV do "
+                    + "  table.insert(set, 'SET') table.insert(set, 'u2') table.insert(set, '#' .. ARGV[i]) table.insert(set, 1) "
+                    + "  table.insert(changes, ARGV[i] .. ':1') "
+                    + "  redis.call('HSET', KEYS[2], ARGV[i], ARGV[1]) "
+                    + "  redis.call('ZADD', KEYS[3], ARGV[2], ARGV[i]) "
+                    + "end "
+                    + "redis.call('BITFIELD', KEYS[1], unpack(set)) "
+                    + "record(changes) "
+                    + "return 1",
+            Long.class);
+
+    /**
+     * 释放用户锁定的座位，任一座位不是该用户锁定时全部不释放
+     * KEYS同锁定脚本，ARGV[1]=用户ID，ARGV[2..]=座位序号
+     * 返回1成功，0失败
+     */
+    private static final RedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>(
+            RECORD_CHANGES
+                    + "for i = 2, #ARGV do "
+                    + "  if redis.call('BITFIELD', KEYS[1], 'GET', 'u2', '#' .. ARGV[i])[1] ~= 1 "
+                    + "      or redis.call('HGET', KEYS[2], ARGV[i]) ~= ARGV[1] then return 0 end "
+                    + "end "
+                    + "local changes = {} "
+                    + "for i = 2, #ARGV do "
+                    + "  redis.call('BITFIELD', KEYS[1], 'SET', 'u2', '#' .. ARGV[i], 0) "
+                    + "  redis.call('HDEL', KEYS[2], ARGV[i]) "
+                    + "  redis.call('ZREM', KEYS[3], ARGV[i]) "
+                    + "  table.insert(changes, ARGV[i] .. ':0') "
+                    + "end "
+                    + "record(changes) "
+                    + "return 1",
+            Long.class);
+
+    /**
+     * 确认用户锁定的座位为已售，已由同一订单确认的座位直接跳过，消息重投不会失败
+     * KEYS同锁定脚本，ARGV[1]=用户ID，ARGV[2]=订单ID，ARGV[3..]=座位序号
+     * 返回1成功，0失败
+     */
+    private static final RedisScript<Long> CONFIRM_SCRIPT = new DefaultRedisScript<>(
+            RECORD_CHANGES
+                    + "local pending = {} "
+                    + "for i = 3, #ARGV do "
+                    + "  local state = redis.call('BITFIELD', KEYS[1], 'GET', 'u2', '#' .. ARGV[i])[1] "
+                    + "  if state == 2 and redis.call('HGET', KEYS[4], ARGV[i]) == ARGV[2] then "
+                    + "  elseif state == 1 and redis.call('HGET', KEYS[2], ARGV[i]) == ARGV[1] then "
+                    + "    table.insert(pending, ARGV[i]) "
+                    + "  else return 0 end "
+                    + "end "
+                    + "local changes = {} "
+                    + "for _, seat in ipairs(pending) do "
+                    + "  redis.call('BITFIELD', KEYS[1], 'SET', 'u2', '#' .. seat, 2) "
+                    + "  redis.call('HDEL', KEYS[2], seat) "
+                    + "  redis.call('ZREM', KEYS[3], seat) "
+                    + "  redis.call('HSET', KEYS[4], seat, ARGV[2]) "
+                    + "  table.insert(changes, seat .. ':2') "
+                    + "end "
+                    + "record(changes) "
+                    + "return 1",
+            Long.class);
+
+    /**
+     * 直接设置座位状态，用于运营调整
+     * 设为锁定的座位由运营保留，不会过期；设为非已售的座位清除订单记录
+     * KEYS同锁定脚本，ARGV为成对的座位序号和状态码
+     * 返回更新的座位数
+     */
+    private static final RedisScript<Long> UPDATE_SCRIPT = new DefaultRedisScript<>(
+            RECORD_CHANGES
+                    + "local changes = {} "
+                    + "for i = 1, #ARGV, 2 do "
+                    + "  redis.call('BITFIELD', KEYS[1], 'SET', 'u2', '#' .. ARGV[i], ARGV[i + 1]) "
+                    + "  table.insert(changes, ARGV[i] .. ':' .. ARGV[i + 1]) "
+                    + "  redis.call('ZREM', KEYS[3], ARGV[i]) "
+                    + "  if ARGV[i + 1] == '1' then "
+                    + "    redis.call('HSET', KEYS[2], ARGV[i], '" + OPERATOR_HOLDER + "') "
+                    + "  else "
+                    + "    redis.call('HDEL', KEYS[2], ARGV[i]) "
+                    + "  end "
+                    + "  if ARGV[i + 1] ~= '2' then redis.call('HDEL', KEYS[4], ARGV[i]) end "
+                    + "end "
+                    + "record(changes) "
+                    + "return #ARGV / 2",
+            Long.class);
+
+    /**
+     * 回收过期的用户锁定
+     * KEYS同锁定脚本，ARGV[1]=当前时间戳（毫秒），ARGV[2]=最大回收数量
+     * 返回回收的座位数
+     */
+    private static final RedisScript<Long> RECLAIM_SCRIPT = new DefaultRedisScript<>(
+            RECORD_CHANGES
+                    + "local expired = redis.call('ZRANGEBYSCORE', KEYS[3], '-inf', ARGV[1], 'LIMIT', 0, ARGV[2]) "
+                    + "local changes = {} "
+                    + "for _, seat in ipairs(expired) do "
+                    + "  if redis.call('BITFIELD', KEYS[1], 'GET', 'u2', '#' .. seat)[1] == 1 then "
+                    + "    redis.call('BITFIELD', KEYS[1], 'SET', 'u2', '#' .. seat, 0) "
+                    + "    table.insert(changes, seat .. ':0') "
+                    + "  end "
+                    + "  redis.call('HDEL', KEYS[2], seat) "
+                    + "  redis.call('ZREM', KEYS[3], seat) "
+                    + "end "
+                    + "record(changes) "
+                    + "return #expired",
+            Long.class);
+
+    // 已加载的座位布局
+    private final Map<Long, SeatLayout> layouts = new ConcurrentHashMap<>();
+
+    // 已加载的座位搜索索引
+    private final Map<Long, SeatSearchIndex> searchIndexes = new ConcurrentHashMap<>();
+
+    // 已加载的堆外座位存储
+    private final Map<Long, OffHeapSeatStore> seatStores = new ConcurrentHashMap<>();
+
+    // 堆外座位存储的文件目录
+    private Path seatStoreDir = Paths.get("data", "seat");
+
+    /**
+     * 初始化场次座位库存
+     * 区域按名称绑定同名票种；未传入票种时使用场次在数据库中的票种
+     * 持有初始化锁时先写座位编号和区域，最后以SET NX创建状态位图，位图存在即表示初始化完成
+     * - 重复初始化会失败，不会覆盖已有的锁定和售出状态
+     * - 中途崩溃留下的残缺布局在重新初始化时清除，位图不存在时布局不会被加载
+     */
+    @Override
+    public boolean initializeSeatInventory(Long eventId, Map<String, List<String>> seatMap, List<TicketType> ticketTypes) {
+        Map<String, Long> typeIds = new HashMap<>();
+        if (ticketTypes != null && !ticketTypes.isEmpty()) {
+            for (TicketType ticketType : ticketTypes) {
+                typeIds.put(ticketType.getTypeName(), ticketType.getTypeId());
+            }
+        } else {
+            List<com.ticketing.common.entity.TicketType> stored = ticketTypeMapper.selectByEventId(eventId);
+            for (com.ticketing.common.entity.TicketType ticketType : stored) {
+                typeIds.put(ticketType.getName(), ticketType.getId());
+            }
+        }
+
+        List<String> seatIds = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        Map<String, String> sections = new LinkedHashMap<>();
+        for (Map.Entry<String, List<String>> entry : seatMap.entrySet()) {
+            int start = seatIds.size();
+            for (String seatId : entry.getValue()) {
+                if (!seen.add(seatId)) {
+                    throw new BusinessException("座位编号重复: " + seatId);
+                }
+                seatIds.add(seatId);
+            }
+            sections.put(entry.getKey(), start + ":" + seatIds.size() + ":" + typeIds.getOrDefault(entry.getKey(), 0L));
+        }
+        if (seatIds.isEmpty()) {
+            throw new BusinessException("座位分布图为空");
+        }
+
+        String initLockKey = getInitLockKey(eventId);
+        if (!Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(initLockKey, "1", INIT_LOCK_SECONDS, TimeUnit.SECONDS))) {
+            throw new BusinessException("场次座位库存正在初始化");
+        }
+        try {
+            if (Boolean.TRUE.equals(redisTemplate.hasKey(getStatusKey(eventId)))) {
+                log.warn("Seat inventory already initialized for event: {}", eventId);
+                return false;
+            }
+
+            // 清除上次中途失败留下的布局，再写座位编号和区域
+            String seatIdsKey = getSeatIdsKey(eventId);
+            redisTemplate.delete(Arrays.asList(seatIdsKey, getSectionKey(eventId)));
+            for (int from = 0; from < seatIds.size(); from += INIT_BATCH_SIZE) {
+                redisTemplate.opsForList().rightPushAll(seatIdsKey,
+                        seatIds.subList(from, Math.min(from + INIT_BATCH_SIZE, seatIds.size())));
+            }
+            redisTemplate.opsForHash().putAll(getSectionKey(eventId), sections);
+
+            // 每个座位2位，全部为0即全部可售，位图最后写入
+            byte[] statusKey = getStatusKey(eventId).getBytes(StandardCharsets.UTF_8);
+            byte[] bitmap = new byte[(seatIds.size() * 2 + 7) / 8];
+            Boolean created = redisTemplate.execute((RedisCallback<Boolean>) connection ->
+                    connection.set(statusKey, bitmap, Expiration.persistent(), RedisStringCommands.SetOption.SET_IF_ABSENT));
+            if (!Boolean.TRUE.equals(created)) {
+                log.warn("Seat inventory already initialized for event: {}", eventId);
+                return false;
+            }
+            redisTemplate.opsForSet().add(SEAT_INDEX_KEY, String.valueOf(eventId));
+        } finally {
+            redisTemplate.delete(initLockKey);
+        }
+
+        log.info("Initialized seat inventory for event: {}, sections: {}, seats: {}",
+                eventId, sections.size(), seatIds.size());
+        return true;
+    }
+
+    @Override
+    public boolean lockSeats(Long eventId, List<String> seatIds, Long userId, int lockDuration) {
+        boolean success = lock(eventId, toIndexes(eventId, seatIds), userId, lockDuration);
+        if (success) {
+            log.info("Locked seats for event: {}, user: {}, seats: {}", eventId, userId, seatIds);
+        }
+        return success;
+    }
+
+    /**
+     * 分配并锁定同排相邻的最佳座位
+     * 在本地索引中选座并预占，再由锁定脚本在Redis中原子提交；索引落后导致锁定失败时，按实际状态修正索引后重新选座
+     * @return 锁定的座位ID列表，没有满足条件的座位时返回空列表
+     */
+    @Override
+    public List<String> allocateSeats(Long eventId, int quantity, Long ticketTypeId, Long userId, int lockDuration) {
+        if (quantity <= 0 || quantity > MAX_SEATS_PER_LOCK) {
+            throw new BusinessException("选座数量需在1到" + MAX_SEATS_PER_LOCK + "之间");
+        }
+        SeatLayout layout = getLayout(eventId);
+        SeatSearchIndex index = getSearchIndex(eventId);
+        for (int attempt = 0; attempt < MAX_ALLOCATE_ATTEMPTS; attempt++) {
+            int[] seats = index.reserve(quantity, ticketTypeId);
+            if (seats == null) {
+                return Collections.emptyList();
+            }
+
+            boolean locked;
+            try {
+                locked = lock(eventId, seats, userId, lockDuration);
+            } catch (RuntimeException e) {
+                index.update(seats, true);
+                throw e;
+            }
+            if (locked) {
+                List<String> allocated = toSeatIds(layout, seats);
+                log.info("Allocated seats for event: {}, user: {}, seats: {}", eventId, userId, allocated);
+                return allocated;
+            }
+
+            // 其他实例已锁定其中的座位，按Redis中的实际状态修正本地索引
+            List<Long> states = readStates(eventId, seats);
+            for (int i = 0; i < seats.length; i++) {
+                if (states.get(i) == SeatStatus.AVAILABLE.getCode()) {
+                    index.update(new int[]{seats[i]}, true);
+                }
+            }
+        }
+        log.warn("Failed to allocate seats after {} attempts for event: {}, user: {}",
+                MAX_ALLOCATE_ATTEMPTS, eventId, userId);
+        return Collections.emptyList();
+    }
+
+    @Override
+    public boolean releaseSeats(Long eventId, List<String> seatIds, Long userId) {
+        int[] seats = toIndexes(eventId, seatIds);
+        Long result = redisTemplate.execute(RELEASE_SCRIPT, getSeatKeys(eventId), toArgs(seats, String.valueOf(userId)));
+        boolean success = result != null && result == 1;
+        if (success) {
+            OffHeapSeatStore store = getSeatStore(eventId);
+            for (int seat : seats) {
+                store.set(seat, SeatStatus.AVAILABLE.getCode());
+            }
+            SeatSearchIndex index = searchIndexes.get(eventId);
+            if (index != null) {
+                index.update(seats, true);
+            }
+            log.info("Released seats for event: {}, user: {}, seats: {}", eventId, userId, seatIds);
+        } else {
+            log.warn("Failed to release seats for event: {}, user: {}, seats: {}", eventId, userId, seatIds);
+        }
+        return success;
+    }
+
+    @Override
+    public boolean confirmSeats(Long eventId, List<String> seatIds, Long userId, Long orderId) {
+        int[] seats = toIndexes(eventId, seatIds);
+        Long result = redisTemplate.execute(CONFIRM_SCRIPT, getSeatKeys(eventId),
+                toArgs(seats, String.valueOf(userId), String.valueOf(orderId)));
+        boolean success = result != null && result == 1;
+        if (success) {
+            OffHeapSeatStore store = getSeatStore(eventId);
+            for (int seat : seats) {
+                store.set(seat, SeatStatus.SOLD.getCode());
+            }
+            log.info("Confirmed seats for event: {}, order: {}, seats: {}", eventId, orderId, seatIds);
+        } else {
+            log.warn("Failed to confirm seats for event: {}, order: {}, seats: {}", eventId, orderId, seatIds);
+        }
+        return success;
+    }
+
+    /**
+     * 查询座位状态，读取本地堆外存储，最多落后Redis一个同步周期，不存在的座位不出现在结果中
+     */
+    @Override
+    public Map<String, String> querySeatStatus(Long eventId, List<String> seatIds) {
+        SeatLayout layout = getLayout(eventId);
+        OffHeapSeatStore store = getSeatStore(eventId);
+        Map<String, String> result = new LinkedHashMap<>();
+        for (String seatId : new LinkedHashSet<>(seatIds)) {
+            int index = layout.indexOf(seatId);
+            if (index >= 0) {
+                result.put(seatId, SeatStatus.of(store.status(index)).name());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 获取同排相邻的最佳可用座位，不做锁定
+     * 结果来自本地索引，可能略落后于Redis，需要锁定时使用allocateSeats
+     */
+    @Override
+    public List<String> getAvailableSeats(Long eventId, int quantity, Long ticketTypeId) {
+        int[] seats = getSearchIndex(eventId).find(quantity, ticketTypeId);
+        return seats == null ? Collections.emptyList() : toSeatIds(getLayout(eventId), seats);
+    }
+
+    /**
+     * 设置区域质量分，分数高的区域优先分配，其他实例在下次同步时生效
+     */
+    @Override
+    public void updateSectionScores(Long eventId, Map<String, Integer> scores) {
+        Map<String, String> values = new HashMap<>();
+        scores.forEach((section, score) -> values.put(section, String.valueOf(score)));
+        redisTemplate.opsForHash().putAll(getScoreKey(eventId), values);
+
+        SeatSearchIndex index = searchIndexes.get(eventId);
+        if (index != null) {
+            index.setSectionScores(loadSectionScores(eventId));
+        }
+        log.info("Updated section scores for event: {}, scores: {}", eventId, scores);
+    }
+
+    /**
+     * 获取座位分布图，座位顺序即座位图快照和增量中的座位序号
+     */
+    @Override
+    public Map<String, List<String>> getSeatMap(Long eventId) {
+        SeatLayout layout = getLayout(eventId);
+        Map<String, List<String>> seatMap = new LinkedHashMap<>();
+        for (SeatLayout.Section section : layout.getSections()) {
+            List<String> seatIds = new ArrayList<>(section.getEnd() - section.getStart());
+            for (int index = section.getStart(); index < section.getEnd(); index++) {
+                seatIds.add(layout.seatId(index));
+            }
+            seatMap.put(section.getName(), seatIds);
+        }
+        return seatMap;
+    }
+
+    /**
+     * 批量更新座位状态，每批座位在一个脚本中原子更新
+     */
+    @Override
+    public boolean batchUpdateSeatStatus(Long eventId, Map<String, String> seatStatusMap) {
+        SeatLayout layout = getLayout(eventId);
+        List<String> args = new ArrayList<>(seatStatusMap.size() * 2);
+        for (Map.Entry<String, String> entry : seatStatusMap.entrySet()) {
+            int index = layout.indexOf(entry.getKey());
+            if (index < 0) {
+                throw new BusinessException("座位不存在: " + entry.getKey());
+            }
+            SeatStatus status;
+            try {
+                status = SeatStatus.valueOf(entry.getValue());
+            } catch (IllegalArgumentException e) {
+                throw new BusinessException("不支持的座位状态: " + entry.getValue());
+            }
+            args.add(String.valueOf(index));
+            args.add(String.valueOf(status.getCode()));
+        }
+
+        long updated = 0;
+        for (int from = 0; from < args.size(); from += UPDATE_BATCH_SIZE * 2) {
+            Long count = redisTemplate.execute(UPDATE_SCRIPT, getSeatKeys(eventId),
+                    args.subList(from, Math.min(from + UPDATE_BATCH_SIZE * 2, args.size())).toArray());
+            updated += count == null ? 0 : count;
+        }
+        log.info("Updated seat status for event: {}, seats: {}", eventId, updated);
+        return updated == seatStatusMap.size();
+    }
+
+    /**
+     * 回收过期的座位锁定
+     * 每秒执行一次，脚本按座位判断状态，多个实例同时执行也不会误改
+     */
+    @Scheduled(fixedDelay = 1000)
+    public void reclaimExpiredHolds() {
+        Set<String> eventIds = redisTemplate.opsForSet().members(SEAT_INDEX_KEY);
+        if (eventIds == null) {
+            return;
+        }
+
+        String now = String.valueOf(System.currentTimeMillis());
+        for (String member : eventIds) {
+            Long eventId = Long.parseLong(member);
+            try {
+                Long reclaimed = redisTemplate.execute(RECLAIM_SCRIPT, getSeatKeys(eventId),
+                        now, String.valueOf(EXPIRE_SCAN_BATCH));
+                if (reclaimed != null && reclaimed > 0) {
+                    log.info("Reclaimed {} expired seat holds for event: {}", reclaimed, eventId);
+                }
+            } catch (Exception e) {
+                log.error("Failed to reclaim seat holds for event: {}", eventId, e);
+            }
+        }
+    }
+
+    /**
+     * 按Redis状态位图同步本地搜索索引和堆外座位存储
+     * 每200毫秒执行一次，其他实例的锁定、释放和过期回收在这里生效
+     */
+    @Scheduled(fixedDelay = 200)
+    public void syncLocalState() {
+        Set<Long> eventIds = new HashSet<>(seatStores.keySet());
+        eventIds.addAll(searchIndexes.keySet());
+        for (Long eventId : eventIds) {
+            try {
+                byte[] bitmap = readBitmap(eventId);
+                SeatSearchIndex index = searchIndexes.get(eventId);
+                if (index != null) {
+                    index.sync(bitmap);
+                    index.setSectionScores(loadSectionScores(eventId));
+                }
+                OffHeapSeatStore store = seatStores.get(eventId);
+                if (store != null) {
+                    syncSeatStore(store, bitmap);
+                }
+            } catch (Exception e) {
+                log.error("Failed to sync local seat state for event: {}", eventId, e);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        for (Map.Entry<Long, OffHeapSeatStore> entry : seatStores.entrySet()) {
+            try {
+                entry.getValue().close();
+            } catch (IOException e) {
+                log.error("Failed to close seat store for event: {}", entry.getKey(), e);
+            }
+        }
+    }
+
+    /**
+     * 锁定座位序号，任一座位不可售时全部不锁定
+     */
+    private boolean lock(Long eventId, int[] seats, Long userId, int lockDuration) {
+        if (lockDuration <= 0) {
+            throw new BusinessException("锁定时长必须大于0");
+        }
+        if (seats.length > MAX_SEATS_PER_LOCK) {
+            throw new BusinessException("单次最多锁定" + MAX_SEATS_PER_LOCK + "个座位");
+        }
+
+        long expireAt = System.currentTimeMillis() + lockDuration * 1000L;
+        OffHeapSeatStore store = getSeatStore(eventId);
+        // 先在本地占位，任一座位在本地已被锁定或售出时直接拒绝；本地状态最多落后Redis一个同步周期，
+        // 刚在其他实例释放的座位可能被多拒绝一次，但不会多放行，占位成功的座位仍由锁定脚本按Redis判断
+        int claimed = 0;
+        while (claimed < seats.length
+                && store.compareAndSet(seats[claimed], SeatStatus.AVAILABLE.getCode(), SeatStatus.LOCKED.getCode())) {
+            claimed++;
+        }
+        if (claimed < seats.length) {
+            unclaim(store, seats, claimed);
+            return false;
+        }
+
+        boolean success = false;
+        try {
+            Long result = redisTemplate.execute(LOCK_SCRIPT, getSeatKeys(eventId),
+                    toArgs(seats, String.valueOf(userId), String.valueOf(expireAt)));
+            success = result != null && result == 1;
+        } finally {
+            if (!success) {
+                // 与Redis不一致的状态在下次同步时修正
+                unclaim(store, seats, seats.length);
+            }
+        }
+        if (success) {
+            SeatSearchIndex index = searchIndexes.get(eventId);
+            if (index != null) {
+                index.update(seats, false);
+            }
+        }
+        return success;
+    }
+
+    /**
+     * 归还本地占位的前count个座位
+     */
+    private void unclaim(OffHeapSeatStore store, int[] seats, int count) {
+        for (int i = 0; i < count; i++) {
+            store.compareAndSet(seats[i], SeatStatus.LOCKED.getCode(), SeatStatus.AVAILABLE.getCode());
+        }
+    }
+
+    /**
+     * 按Redis状态位图修正堆外存储
+     */
+    private void syncSeatStore(OffHeapSeatStore store, byte[] bitmap) {
+        for (int seat = 0; seat < store.size(); seat++) {
+            int status = SeatStatus.decode(bitmap, seat);
+            if (store.status(seat) != status) {
+                store.set(seat, status);
+            }
+        }
+    }
+
+    /**
+     * 一次BITFIELD读取座位状态码
+     */
+    private List<Long> readStates(Long eventId, int[] seats) {
+        BitFieldSubCommands commands = BitFieldSubCommands.create();
+        for (int seat : seats) {
+            commands = commands.get(STATUS_TYPE).valueAt(BitFieldSubCommands.Offset.offset(seat).multipliedByTypeLength());
+        }
+        List<Long> states = redisTemplate.opsForValue().bitField(getStatusKey(eventId), commands);
+        List<Long> result = new ArrayList<>(seats.length);
+        for (int i = 0; i < seats.length; i++) {
+            Long state = states == null ? null : states.get(i);
+            result.add(state == null ? SeatStatus.AVAILABLE.getCode() : state);
+        }
+        return result;
+    }
+
+    /**
+     * 把座位编号转换为去重后的序号，座位不存在时抛出业务异常
+     */
+    private int[] toIndexes(Long eventId, List<String> seatIds) {
+        if (seatIds == null || seatIds.isEmpty()) {
+            throw new BusinessException("座位不能为空");
+        }
+        SeatLayout layout = getLayout(eventId);
+        Set<String> unique = new LinkedHashSet<>(seatIds);
+        int[] indexes = new int[unique.size()];
+        int i = 0;
+        for (String seatId : unique) {
+            int index = layout.indexOf(seatId);
+            if (index < 0) {
+                throw new BusinessException("座位不存在: " + seatId);
+            }
+            indexes[i++] = index;
+        }
+        return indexes;
+    }
+
+    // 脚本参数：前置参数之后依次为座位序号
+    private Object[] toArgs(int[] seats, String... leading) {
+        Object[] args = new Object[leading.length + seats.length];
+        System.arraycopy(leading, 0, args, 0, leading.length);
+        for (int i = 0; i < seats.length; i++) {
+            args[leading.length + i] = String.valueOf(seats[i]);
+        }
+        return args;
+    }
+
+    private List<String> toSeatIds(SeatLayout layout, int[] seats) {
+        List<String> seatIds = new ArrayList<>(seats.length);
+        for (int seat : seats) {
+            seatIds.add(layout.seatId(seat));
+        }
+        return seatIds;
+    }
+
+    /**
+     * 获取场次的座位搜索索引，首次访问时按Redis状态位图构建
+     */
+    private SeatSearchIndex getSearchIndex(Long eventId) {
+        SeatSearchIndex index = searchIndexes.get(eventId);
+        if (index != null) {
+            return index;
+        }
+
+        SeatLayout layout = getLayout(eventId);
+        index = new SeatSearchIndex(layout, readBitmap(eventId));
+        index.setSectionScores(loadSectionScores(eventId));
+        SeatSearchIndex existing = searchIndexes.putIfAbsent(eventId, index);
+        return existing != null ? existing : index;
+    }
+
+    /**
+     * 获取场次的堆外座位存储，首次访问时打开本地文件并按Redis状态位图同步
+     * 文件无法打开时退回直接内存
+     */
+    private OffHeapSeatStore getSeatStore(Long eventId) {
+        OffHeapSeatStore store = seatStores.get(eventId);
+        if (store != null) {
+            return store;
+        }
+
+        synchronized (seatStores) {
+            store = seatStores.get(eventId);
+            if (store != null) {
+                return store;
+            }
+            int seats = getLayout(eventId).size();
+            try {
+                Files.createDirectories(seatStoreDir);
+                store = OffHeapSeatStore.open(seatStoreDir.resolve(eventId + ".seats"), seats);
+            } catch (IOException e) {
+                log.error("Failed to open seat store file for event: {}, falling back to direct memory", eventId, e);
+                store = OffHeapSeatStore.allocate(seats);
+            }
+            syncSeatStore(store, readBitmap(eventId));
+            seatStores.put(eventId, store);
+            return store;
+        }
+    }
+
+    private byte[] readBitmap(Long eventId) {
+        return redisTemplate.execute((RedisCallback<byte[]>) connection ->
+                connection.get(getStatusKey(eventId).getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private Map<String, Integer> loadSectionScores(Long eventId) {
+        Map<String, Integer> scores = new HashMap<>();
+        redisTemplate.opsForHash().entries(getScoreKey(eventId))
+                .forEach((section, score) -> scores.put((String) section, Integer.parseInt((String) score)));
+        return scores;
+    }
+
+    /**
+     * 获取场次座位布局，首次访问时从Redis加载
+     */
+    private SeatLayout getLayout(Long eventId) {
+        SeatLayout layout = layouts.get(eventId);
+        if (layout != null) {
+            return layout;
+        }
+
+        // 状态位图最后写入，位图不存在时布局可能不完整
+        Map<Object, Object> stored = redisTemplate.opsForHash().entries(getSectionKey(eventId));
+        if (stored.isEmpty() || !Boolean.TRUE.equals(redisTemplate.hasKey(getStatusKey(eventId)))) {
+            throw new BusinessException("场次座位库存未初始化");
+        }
+        List<String> seatIds = redisTemplate.opsForList().range(getSeatIdsKey(eventId), 0, -1);
+        List<SeatLayout.Section> sections = new ArrayList<>(stored.size());
+        for (Map.Entry<Object, Object> entry : stored.entrySet()) {
+            String[] parts = ((String) entry.getValue()).split(":");
+            sections.add(new SeatLayout.Section((String) entry.getKey(), Integer.parseInt(parts[0]),
+                    Integer.parseInt(parts[1]), Long.parseLong(parts[2])));
+        }
+        sections.sort((a, b) -> Integer.compare(a.getStart(), b.getStart()));
+
+        layout = new SeatLayout(seatIds, sections);
+        SeatLayout existing = layouts.putIfAbsent(eventId, layout);
+        return existing != null ? existing : layout;
+    }
+
+    private List<String> getSeatKeys(Long eventId) {
+        return Arrays.asList(getStatusKey(eventId), getHolderKey(eventId), getExpiryKey(eventId), getOrderKey(eventId),
+                SeatMapFeedService.getVersionKey(eventId), SeatMapFeedService.getChangeKey(eventId));
+    }
+
+    // 工具方法：生成座位状态位图key
+    private String getStatusKey(Long eventId) {
+        return "inventory:seat:status:" + eventId;
+    }
+
+    // 工具方法：生成初始化锁key
+    private String getInitLockKey(Long eventId) {
+        return "inventory:seat:init:" + eventId;
+    }
+
+    // 工具方法：生成座位编号列表key
+    private String getSeatIdsKey(Long eventId) {
+        return "inventory:seat:ids:" + eventId;
+    }
+
+    // 工具方法：生成区域Hash key
+    private String getSectionKey(Long eventId) {
+        return "inventory:seat:sections:" + eventId;
+    }
+
+    // 工具方法：生成区域质量分Hash key
+    private String getScoreKey(Long eventId) {
+        return "inventory:seat:scores:" + eventId;
+    }
+
+    // 工具方法：生成锁定人Hash key
+    private String getHolderKey(Long eventId) {
+        return "inventory:seat:holders:" + eventId;
+    }
+
+    // 工具方法：生成锁定过期ZSET key
+    private String getExpiryKey(Long eventId) {
+        return "inventory:seat:expiry:" + eventId;
+    }
+
+    // 工具方法：生成座位订单Hash key
+    private String getOrderKey(Long eventId) {
+        return "inventory:seat:orders:" + eventId;
+    }
+}
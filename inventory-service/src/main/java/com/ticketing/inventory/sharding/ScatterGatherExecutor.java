@@ -0,0 +1,264 @@
+package com.ticketing.inventory.sharding;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.IntFunction;
+
+/**
+ * 库存分散聚合查询执行器
+ * - 每个物理库一个查询，在有界线程池中并行执行，结果按返回顺序在调用线程中逐个合并，合并函数无需线程安全
+ * - 整个查询有总截止时间，到期时取消未返回的查询，返回已合并的部分结果并列出超时的物理库
+ * - 物理库超过对冲等待时间仍未返回时再发一次相同的查询，先返回的结果生效；查询失败时立即重试，每个物理库最多执行两次
+ * - 对冲等待时间按该库的平均延迟计算，一个慢库只拖慢自己的那一份结果
+ * - 线程池队列满时直接判定该物理库失败，不在调用线程中执行
+ */
+@Slf4j
+@Component
+public class ScatterGatherExecutor {
+
+    // 查询线程数
+    private static final int THREADS = 16;
+
+    // 等待队列长度
+    private static final int QUEUE_CAPACITY = 256;
+
+    // 每个物理库最多执行的次数，包含对冲请求
+    private static final int MAX_ATTEMPTS = 2;
+
+    // 对冲等待时间为平均延迟的倍数
+    private static final int HEDGE_LATENCY_MULTIPLE = 3;
+
+    // 对冲等待时间的上下限
+    private static final long MIN_HEDGE_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+    private static final long MAX_HEDGE_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+
+    // 单库耗时超过该值时告警
+    private static final long SLOW_SHARD_MILLIS = 200;
+
+    private ThreadPoolExecutor executor;
+
+    // 各物理库的延迟统计
+    private final Map<Integer, ShardLatency> latencies = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger threadIndex = new AtomicInteger();
+        executor = new ThreadPoolExecutor(THREADS, THREADS, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(QUEUE_CAPACITY), runnable -> {
+            Thread thread = new Thread(runnable, "inventory-scatter-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 在多个物理库上执行查询并合并结果
+     * @param operation 操作名称，用于日志
+     * @param databases 物理库索引
+     * @param timeoutMillis 总截止时间
+     * @param query 单库查询，可能被并发调用两次
+     * @param accumulator 合并结果
+     * @param merger 把一个物理库的结果合并到accumulator中，在调用线程中执行
+     */
+    public <T, A> ScatterResult<A> execute(String operation, Collection<Integer> databases, long timeoutMillis,
+                                           IntFunction<List<T>> query, A accumulator, BiConsumer<A, List<T>> merger) {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        BlockingQueue<Completion<T>> completions = new LinkedBlockingQueue<>();
+        Map<Integer, ShardCall> calls = new LinkedHashMap<>();
+        Map<Integer, Long> shardLatencies = new TreeMap<>();
+        Set<Integer> failed = new LinkedHashSet<>();
+        Set<Integer> timedOut = new LinkedHashSet<>();
+        int hedges = 0;
+
+        for (Integer db : databases) {
+            if (calls.containsKey(db)) {
+                continue;
+            }
+            ShardCall call = new ShardCall(db);
+            calls.put(db, call);
+            submit(call, query, completions);
+        }
+
+        int pending = calls.size();
+        try {
+            while (pending > 0) {
+                long now = System.nanoTime();
+                if (now >= deadline) {
+                    break;
+                }
+
+                // 到期的物理库发出对冲请求
+                long wakeAt = deadline;
+                for (ShardCall call : calls.values()) {
+                    if (call.done || call.attempts >= MAX_ATTEMPTS) {
+                        continue;
+                    }
+                    if (call.hedgeAt <= now) {
+                        latency(call.db).recordHedge();
+                        hedges++;
+                        submit(call, query, completions);
+                    } else {
+                        wakeAt = Math.min(wakeAt, call.hedgeAt);
+                    }
+                }
+
+                Completion<T> completion = completions.poll(wakeAt - now, TimeUnit.NANOSECONDS);
+                if (completion == null) {
+                    continue;
+                }
+                ShardCall call = calls.get(completion.db);
+                call.inFlight--;
+                latency(call.db).record(completion.elapsedNanos, completion.error == null);
+                if (call.done) {
+                    continue;
+                }
+
+                if (completion.error != null) {
+                    if (call.attempts < MAX_ATTEMPTS) {
+                        // 失败的物理库立即重试
+                        call.hedgeAt = System.nanoTime();
+                    } else if (call.inFlight == 0) {
+                        call.done = true;
+                        pending--;
+                        failed.add(call.db);
+                        log.warn("Scatter {} failed on ds{}", operation, call.db, completion.error);
+                    }
+                    continue;
+                }
+
+                call.done = true;
+                pending--;
+                call.cancel();
+                long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                shardLatencies.put(call.db, elapsedMillis);
+                if (elapsedMillis > SLOW_SHARD_MILLIS) {
+                    log.warn("Slow shard in scatter {}: ds{} took {}ms, attempts: {}",
+                            operation, call.db, elapsedMillis, call.attempts);
+                }
+                merger.accept(accumulator, completion.rows);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            long waited = System.nanoTime() - start;
+            for (ShardCall call : calls.values()) {
+                if (!call.done) {
+                    call.cancel();
+                    timedOut.add(call.db);
+                    latency(call.db).recordTimeout(waited);
+                }
+            }
+        }
+
+        if (!failed.isEmpty() || !timedOut.isEmpty()) {
+            log.warn("Scatter {} returned partial result after {}ms, failed: {}, timed out: {}, latencies: {}",
+                    operation, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), failed, timedOut, shardLatencies);
+        } else {
+            log.debug("Scatter {} completed, hedges: {}, latencies: {}", operation, hedges, shardLatencies);
+        }
+        return new ScatterResult<>(accumulator, shardLatencies, failed, timedOut, hedges);
+    }
+
+    /**
+     * 查询各物理库的延迟统计
+     */
+    public Map<Integer, Map<String, Long>> getLatencyStats() {
+        Map<Integer, Map<String, Long>> stats = new TreeMap<>();
+        latencies.forEach((db, latency) -> stats.put(db, latency.toMap()));
+        return stats;
+    }
+
+    private <T> void submit(ShardCall call, IntFunction<List<T>> query, BlockingQueue<Completion<T>> completions) {
+        call.attempts++;
+        call.inFlight++;
+        // 下一次对冲只在本次请求也超过等待时间后发出
+        call.hedgeAt = System.nanoTime() + hedgeDelay(call.db);
+        try {
+            call.futures.add(executor.submit(() -> {
+                long start = System.nanoTime();
+                try {
+                    List<T> rows = query.apply(call.db);
+                    completions.add(new Completion<>(call.db, rows, null, System.nanoTime() - start));
+                } catch (Exception e) {
+                    completions.add(new Completion<>(call.db, null, e, System.nanoTime() - start));
+                }
+            }));
+        } catch (RejectedExecutionException e) {
+            completions.add(new Completion<>(call.db, null, e, 0));
+        }
+    }
+
+    private long hedgeDelay(int db) {
+        long delay = latency(db).getAverageNanos() * HEDGE_LATENCY_MULTIPLE;
+        return Math.max(MIN_HEDGE_DELAY_NANOS, Math.min(MAX_HEDGE_DELAY_NANOS, delay));
+    }
+
+    private ShardLatency latency(int db) {
+        return latencies.computeIfAbsent(db, key -> new ShardLatency());
+    }
+
+    /**
+     * 单个物理库的查询状态，只在调用线程中访问
+     */
+    private static class ShardCall {
+        private final int db;
+        private final List<Future<?>> futures = new ArrayList<>(MAX_ATTEMPTS);
+        private long hedgeAt;
+        private int attempts;
+        private int inFlight;
+        private boolean done;
+
+        ShardCall(int db) {
+            this.db = db;
+        }
+
+        void cancel() {
+            futures.forEach(future -> future.cancel(true));
+        }
+    }
+
+    /**
+     * 单次查询的结果
+     */
+    private static class Completion<T> {
+        private final int db;
+        private final List<T> rows;
+        private final Exception error;
+        private final long elapsedNanos;
+
+        Completion(int db, List<T> rows, Exception error, long elapsedNanos) {
+            this.db = db;
+            this.rows = rows;
+            this.error = error;
+            this.elapsedNanos = elapsedNanos;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.ticketing.inventory.sharding;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 分散查询结果
+ * - 截止时间前返回的物理库结果已合并到value中，失败和超时的物理库单独列出
+ * - 调用方根据isComplete决定使用部分结果还是放弃
+ */
+public class ScatterResult<A> {
+
+    private final A value;
+
+    // 各物理库从首次请求到返回的耗时（毫秒），只包含成功的物理库
+    private final Map<Integer, Long> latencies;
+
+    private final Set<Integer> failed;
+    private final Set<Integer> timedOut;
+
+    // 发出的对冲请求数
+    private final int hedges;
+
+    public ScatterResult(A value, Map<Integer, Long> latencies, Set<Integer> failed, Set<Integer> timedOut, int hedges) {
+        this.value = value;
+        this.latencies = latencies;
+        this.failed = failed;
+        this.timedOut = timedOut;
+        this.hedges = hedges;
+    }
+
+    /**
+     * 全部物理库都已返回
+     */
+    public boolean isComplete() {
+        return failed.isEmpty() && timedOut.isEmpty();
+    }
+
+    public A getValue() {
+        return value;
+    }
+
+    public Map<Integer, Long> getLatencies() {
+        return latencies;
+    }
+
+    public Set<Integer> getFailed() {
+        return failed;
+    }
+
+    public Set<Integer> getTimedOut() {
+        return timedOut;
+    }
+
+    public int getHedges() {
+        return hedges;
+    }
+}
@@ -0,0 +1,73 @@
+package com.ticketing.inventory.sharding;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单个物理库的查询延迟统计
+ * - 平均延迟为指数加权移动平均，近期的慢查询很快反映到对冲等待时间上
+ * - 超时的查询按已等待的时间计入，慢库的平均延迟随之升高
+ */
+public class ShardLatency {
+
+    // 加权移动平均的新样本权重
+    private static final double ALPHA = 0.2;
+
+    private long count;
+    private long failures;
+    private long timeouts;
+    private long hedges;
+    private double averageNanos;
+    private long maxNanos;
+
+    /**
+     * 记录一次完成的查询
+     */
+    public synchronized void record(long elapsedNanos, boolean success) {
+        count++;
+        if (!success) {
+            failures++;
+        }
+        update(elapsedNanos);
+    }
+
+    /**
+     * 记录一次在截止时间前未返回的查询
+     */
+    public synchronized void recordTimeout(long waitedNanos) {
+        count++;
+        timeouts++;
+        update(waitedNanos);
+    }
+
+    /**
+     * 记录一次对冲请求
+     */
+    public synchronized void recordHedge() {
+        hedges++;
+    }
+
+    public synchronized long getAverageNanos() {
+        return (long) averageNanos;
+    }
+
+    /**
+     * 导出统计，延迟单位为毫秒
+     */
+    public synchronized Map<String, Long> toMap() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("count", count);
+        stats.put("failures", failures);
+        stats.put("timeouts", timeouts);
+        stats.put("hedges", hedges);
+        stats.put("avgMillis", TimeUnit.NANOSECONDS.toMillis((long) averageNanos));
+        stats.put("maxMillis", TimeUnit.NANOSECONDS.toMillis(maxNanos));
+        return stats;
+    }
+
+    private void update(long nanos) {
+        averageNanos = count == 1 ? nanos : averageNanos + ALPHA * (nanos - averageNanos);
+        maxNanos = Math.max(maxNanos, nanos);
+    }
+}
@@ -0,0 +1,538 @@
+package com.ticketing.inventory.sharding;
+
+import com.google.common.util.concurrent.RateLimiter;
+import com.ticketing.common.entity.Inventory;
+import com.ticketing.common.exception.BusinessException;
+import com.ticketing.common.sharding.InventoryRouting;
+import com.ticketing.common.sharding.MigrationPhase;
+import com.ticketing.common.sharding.RoutingEpoch;
+import com.ticketing.common.sharding.ShardRouter;
+import com.ticketing.inventory.config.ShardingConfig;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * 分片在线迁移服务
+ * - 扩容开启新的路由纪元，迁移区间进入双写阶段，写入原库的同时复制到新库
+ * - 等待纪元在所有实例生效后，按物理库和分表并行分批回填存量数据，全局限速
+ * - 按区间比较新旧两库的校验和，一致的区间可以切换读写，不一致的区间退回双写重新回填；
+ *   复制不随全局事务回滚，切换前重新校验，期间回滚造成的差异不会被切换到新库
+ * - 切换后保留一段时间的反向复制，之后清理原库数据；全部区间清理完成后新路由表成为稳定纪元
+ * - 纪元和区间阶段保存在Redis中，各实例每秒刷新，切换读写时各实例最多有一个刷新周期的视图差异，应在非售卖时段执行
+ * - 迁移以场次为单位，同一场次的全部分片一起迁移
+ * - 分片规则只在启动时加载，新库的数据源和覆盖全部物理库的实际数据节点需要先发布到所有实例并重启生效，
+ *   本实例的分片规则未注册目标物理库时拒绝开始迁移和切换
+ */
+@Slf4j
+@Service
+public class ShardMigrationService {
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    @Autowired
+    private ShardRowStore rowStore;
+
+    @Autowired
+    private Environment environment;
+
+    // 纪元Hash：id, source, target, startTime, cutoverTime
+    private static final String EPOCH_KEY = "inventory:migration:epoch";
+
+    // 分片规则中的数据源名称和库存表实际数据节点
+    private static final String DATASOURCE_NAMES = "spring.shardingsphere.datasource.names";
+    private static final String ACTUAL_DATA_NODES = "spring.shardingsphere.rules.sharding.tables."
+            + ShardingConfig.ShardingTableRuleConfig.LOGIC_TABLE + ".actual-data-nodes";
+
+    // 每批读取的行数
+    private static final int CHUNK_SIZE = 500;
+
+    // 回填、校验和清理的全局限速（行/秒）
+    private static final double ROWS_PER_SECOND = 5000;
+
+    // 并行处理的物理表数量
+    private static final int MIGRATION_THREADS = 4;
+
+    // 纪元变化在所有实例生效所需的时间（毫秒），大于若干个刷新周期
+    private static final long EPOCH_PROPAGATION_DELAY = 5000;
+
+    /**
+     * 区间阶段的条件更新
+     * KEYS[1]=区间阶段Hash key，ARGV[1]=区间，ARGV[2]=预期阶段，ARGV[3]=新阶段
+     * 返回1成功，0阶段不符
+     */
+    private static final RedisScript<Long> TRANSITION_SCRIPT = new DefaultRedisScript<>(
+            "local current = redis.call('HGET', KEYS[1], ARGV[1]) or '" + MigrationPhase.DOUBLE_WRITE.name() + "' "
+                    + "if current ~= ARGV[2] then return 0 end "
+                    + "redis.call('HSET', KEYS[1], ARGV[1], ARGV[3]) "
+                    + "return 1",
+            Long.class);
+
+    private final RateLimiter rateLimiter = RateLimiter.create(ROWS_PER_SECOND);
+
+    // 各物理库数量的路由表
+    private final Map<Integer, ShardRouter> routers = new ConcurrentHashMap<>();
+
+    private volatile RoutingEpoch epoch = RoutingEpoch.stable(0, InventoryRouting.ROUTER);
+
+    private volatile long epochStartTime;
+    private volatile long cutoverTime;
+
+    private ExecutorService executor;
+
+    // 启动时分片规则中可用的物理库数量
+    private int registeredDatabaseCount;
+
+    @PostConstruct
+    public void init() {
+        routers.put(InventoryRouting.ROUTER.getDatabaseCount(), InventoryRouting.ROUTER);
+        registeredDatabaseCount = ShardingConfig.DynamicExpansionConfig.registeredDatabaseCount(
+                environment.getProperty(DATASOURCE_NAMES), environment.getProperty(ACTUAL_DATA_NODES));
+        AtomicInteger threadIndex = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(MIGRATION_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "inventory-migration-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        refreshEpoch();
+    }
+
+    @PreDestroy
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 开始扩容迁移，新库的数据源和扩展后的实际数据节点需要已在分片规则中生效
+     * @return 新纪元ID
+     */
+    public long start(int newDatabaseCount) {
+        RoutingEpoch current = refreshEpoch();
+        if (current.isMigrating()) {
+            throw new BusinessException("已有迁移正在进行");
+        }
+        ShardRouter source = current.getTarget();
+        if (newDatabaseCount <= source.getDatabaseCount()) {
+            throw new BusinessException("新的物理库数量必须大于" + source.getDatabaseCount());
+        }
+        requireRegistered(newDatabaseCount);
+        for (int db = source.getDatabaseCount(); db < newDatabaseCount; db++) {
+            if (!rowStore.hasDatabase(db)) {
+                throw new BusinessException("物理库ds" + db + "的数据源未配置");
+            }
+        }
+
+        long id = current.getId() + 1;
+        Map<String, String> values = new HashMap<>();
+        values.put("id", String.valueOf(id));
+        values.put("source", String.valueOf(source.getDatabaseCount()));
+        values.put("target", String.valueOf(newDatabaseCount));
+        values.put("startTime", String.valueOf(System.currentTimeMillis()));
+        values.put("cutoverTime", "0");
+        redisTemplate.delete(getRangeKey(id));
+        redisTemplate.opsForHash().putAll(EPOCH_KEY, values);
+
+        RoutingEpoch started = refreshEpoch();
+        log.info("Started shard migration epoch: {}, databases: {} -> {}, ranges: {}",
+                id, source.getDatabaseCount(), newDatabaseCount, started.countPhases());
+        return id;
+    }
+
+    /**
+     * 把写入复制到迁移区间的另一个库，在业务写入原库成功后调用
+     * 处于本地事务中时在提交后复制；复制失败时切换前的区间退回双写阶段，校验通过前不会切换
+     */
+    public void mirror(Inventory row) {
+        RoutingEpoch current = epoch;
+        if (!current.isMigrating() || row == null || row.getId() == null) {
+            return;
+        }
+        if (current.mirrorDatabase(row.getEventId()) < 0) {
+            return;
+        }
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    copy(current, row);
+                }
+            });
+        } else {
+            copy(current, row);
+        }
+    }
+
+    // 从主库重新读取行并写入迁移区间的另一个库
+    private void copy(RoutingEpoch current, Inventory row) {
+        long eventId = row.getEventId();
+        int mirrorDb = current.mirrorDatabase(eventId);
+        int range = current.range(eventId);
+        try {
+            // 重新读取主库中的行，复制的是写入后的版本
+            List<Inventory> fresh = rowStore.selectByIds(current.primaryDatabase(eventId),
+                    row.getShardingId(), Collections.singletonList(row.getId()));
+            rowStore.upsert(mirrorDb, fresh);
+        } catch (Exception e) {
+            log.error("Failed to mirror inventory row: {} to ds{}, range: {}", row.getId(), mirrorDb, range, e);
+            MigrationPhase phase = current.phase(range);
+            if (phase.compareTo(MigrationPhase.CUTOVER) < 0 && phase != MigrationPhase.DOUBLE_WRITE) {
+                transition(current, range, phase, MigrationPhase.DOUBLE_WRITE);
+            }
+        }
+    }
+
+    /**
+     * 回填双写阶段区间的存量数据
+     * @return 复制的行数
+     */
+    public long backfill() {
+        RoutingEpoch current = requireMigrating();
+        if (System.currentTimeMillis() - epochStartTime < EPOCH_PROPAGATION_DELAY) {
+            throw new BusinessException("路由纪元尚未在所有实例生效，请稍后回填");
+        }
+        Set<Integer> ranges = rangesIn(current, MigrationPhase.DOUBLE_WRITE);
+        if (ranges.isEmpty()) {
+            return 0;
+        }
+
+        AtomicLong copied = new AtomicLong();
+        forEachChunk(current, ranges, (db, rows) -> {
+            Map<Integer, List<Inventory>> byTarget = new HashMap<>();
+            for (Inventory row : rows) {
+                int range = current.range(row.getEventId());
+                byTarget.computeIfAbsent(current.getTarget().nodeDatabase(range), k -> new ArrayList<>()).add(row);
+            }
+            byTarget.forEach(rowStore::upsert);
+            copied.addAndGet(rows.size());
+        });
+
+        for (int range : ranges) {
+            transition(current, range, MigrationPhase.DOUBLE_WRITE, MigrationPhase.BACKFILLED);
+        }
+        refreshEpoch();
+        log.info("Backfilled shard migration epoch: {}, ranges: {}, rows: {}", current.getId(), ranges.size(), copied.get());
+        return copied.get();
+    }
+
+    /**
+     * 校验已回填区间的新旧两库数据
+     * 每个区间分别累加两库各行的校验和，一致时进入已校验阶段，否则退回双写阶段
+     * @return 校验不一致的区间
+     */
+    public List<Integer> verify() {
+        RoutingEpoch current = requireMigrating();
+        Set<Integer> ranges = rangesIn(current, MigrationPhase.BACKFILLED);
+        Set<Integer> mismatched = compare(current, ranges);
+        for (int range : ranges) {
+            if (mismatched.contains(range)) {
+                transition(current, range, MigrationPhase.BACKFILLED, MigrationPhase.DOUBLE_WRITE);
+            } else {
+                transition(current, range, MigrationPhase.BACKFILLED, MigrationPhase.VERIFIED);
+            }
+        }
+        refreshEpoch();
+        log.info("Verified shard migration epoch: {}, ranges: {}, mismatched: {}",
+                current.getId(), ranges.size(), mismatched);
+        return new ArrayList<>(mismatched);
+    }
+
+    /**
+     * 比较区间在新旧两库中的校验和
+     * @return 不一致的区间
+     */
+    private Set<Integer> compare(RoutingEpoch current, Set<Integer> ranges) {
+        if (ranges.isEmpty()) {
+            return Collections.emptySet();
+        }
+        Map<Integer, AtomicLong> sourceSums = new ConcurrentHashMap<>();
+        Map<Integer, AtomicLong> targetSums = new ConcurrentHashMap<>();
+        for (int range : ranges) {
+            sourceSums.put(range, new AtomicLong());
+            targetSums.put(range, new AtomicLong());
+        }
+
+        forEachChunk(current, ranges, (db, rows) -> {
+            Map<Integer, List<Long>> idsByTarget = new HashMap<>();
+            for (Inventory row : rows) {
+                int range = current.range(row.getEventId());
+                sourceSums.get(range).addAndGet(checksum(row));
+                idsByTarget.computeIfAbsent(current.getTarget().nodeDatabase(range), k -> new ArrayList<>()).add(row.getId());
+            }
+            // 同一批行都来自同一张物理表
+            int table = rows.get(0).getShardingId();
+            idsByTarget.forEach((targetDb, ids) -> {
+                for (Inventory copy : rowStore.selectByIds(targetDb, table, ids)) {
+                    targetSums.get(current.range(copy.getEventId())).addAndGet(checksum(copy));
+                }
+            });
+        });
+
+        Set<Integer> mismatched = new HashSet<>();
+        for (int range : ranges) {
+            if (sourceSums.get(range).get() != targetSums.get(range).get()) {
+                mismatched.add(range);
+            }
+        }
+        return mismatched;
+    }
+
+    /**
+     * 把已校验的区间切换到新库读写
+     * 校验后回滚的全局事务只撤销原库的写入，切换前重新校验，不一致的区间退回双写阶段
+     * @param ranges 要切换的区间，为空时切换全部已校验区间
+     * @return 切换的区间数量
+     */
+    public int cutover(List<Integer> ranges) {
+        RoutingEpoch current = requireMigrating();
+        requireRegistered(current.getTarget().getDatabaseCount());
+        Set<Integer> verified = rangesIn(current, MigrationPhase.VERIFIED);
+        if (ranges != null && !ranges.isEmpty()) {
+            verified.retainAll(ranges);
+        }
+        Set<Integer> mismatched = compare(current, verified);
+        int switched = 0;
+        for (int range : verified) {
+            if (mismatched.contains(range)) {
+                transition(current, range, MigrationPhase.VERIFIED, MigrationPhase.DOUBLE_WRITE);
+            } else if (transition(current, range, MigrationPhase.VERIFIED, MigrationPhase.CUTOVER)) {
+                switched++;
+            }
+        }
+        if (!mismatched.isEmpty()) {
+            log.warn("Ranges diverged after verification and returned to double write, epoch: {}, ranges: {}",
+                    current.getId(), mismatched);
+        }
+        if (switched > 0) {
+            redisTemplate.opsForHash().put(EPOCH_KEY, "cutoverTime", String.valueOf(System.currentTimeMillis()));
+        }
+        refreshEpoch();
+        log.info("Cut over shard migration epoch: {}, ranges: {}", current.getId(), switched);
+        return switched;
+    }
+
+    /**
+     * 清理已切换区间在原库中的数据，全部区间清理完成后结束迁移
+     * @return 删除的行数
+     */
+    public long cleanup() {
+        RoutingEpoch current = requireMigrating();
+        if (System.currentTimeMillis() - cutoverTime < EPOCH_PROPAGATION_DELAY) {
+            throw new BusinessException("读写切换尚未在所有实例生效，请稍后清理");
+        }
+        Set<Integer> ranges = rangesIn(current, MigrationPhase.CUTOVER);
+        AtomicLong deleted = new AtomicLong();
+        if (!ranges.isEmpty()) {
+            forEachChunk(current, ranges, (db, rows) -> {
+                List<Long> ids = new ArrayList<>(rows.size());
+                rows.forEach(row -> ids.add(row.getId()));
+                deleted.addAndGet(rowStore.delete(db, rows.get(0).getShardingId(), ids));
+            });
+            for (int range : ranges) {
+                transition(current, range, MigrationPhase.CUTOVER, MigrationPhase.CLEANED);
+            }
+        }
+
+        RoutingEpoch cleaned = refreshEpoch();
+        Map<MigrationPhase, Integer> counts = cleaned.countPhases();
+        if (counts.size() == 1 && counts.containsKey(MigrationPhase.CLEANED)) {
+            finish(cleaned);
+        }
+        log.info("Cleaned shard migration epoch: {}, ranges: {}, rows: {}", current.getId(), ranges.size(), deleted.get());
+        return deleted.get();
+    }
+
+    /**
+     * 查询迁移状态
+     */
+    public Map<String, Object> getStatus() {
+        RoutingEpoch current = epoch;
+        Map<String, Object> status = new HashMap<>();
+        status.put("epoch", current.getId());
+        status.put("sourceDatabases", current.getSource().getDatabaseCount());
+        status.put("targetDatabases", current.getTarget().getDatabaseCount());
+        status.put("ranges", current.countPhases());
+        return status;
+    }
+
+    /**
+     * 定时刷新路由纪元
+     * 每秒执行一次，其他实例推进的迁移阶段在这里生效
+     */
+    @Scheduled(fixedDelay = 1000)
+    public void syncEpoch() {
+        refreshEpoch();
+    }
+
+    /**
+     * 从Redis刷新路由纪元并安装到分片算法
+     */
+    private RoutingEpoch refreshEpoch() {
+        try {
+            Map<Object, Object> values = redisTemplate.opsForHash().entries(EPOCH_KEY);
+            if (values.isEmpty()) {
+                return epoch;
+            }
+            long id = Long.parseLong((String) values.get("id"));
+            int source = Integer.parseInt((String) values.get("source"));
+            int target = Integer.parseInt((String) values.get("target"));
+
+            ShardRouter sourceRouter = routerFor(source);
+            RoutingEpoch refreshed;
+            if (source == target) {
+                refreshed = RoutingEpoch.stable(id, sourceRouter);
+            } else {
+                Map<Integer, MigrationPhase> phases = new HashMap<>();
+                redisTemplate.opsForHash().entries(getRangeKey(id)).forEach((range, phase) ->
+                        phases.put(Integer.parseInt((String) range), MigrationPhase.valueOf((String) phase)));
+                refreshed = RoutingEpoch.migrating(id, sourceRouter, routerFor(target), phases);
+            }
+            epochStartTime = Long.parseLong((String) values.get("startTime"));
+            cutoverTime = Long.parseLong((String) values.getOrDefault("cutoverTime", "0"));
+            epoch = refreshed;
+            InventoryRouting.setEpoch(refreshed);
+            return refreshed;
+        } catch (Exception e) {
+            log.error("Failed to refresh shard routing epoch", e);
+            return epoch;
+        }
+    }
+
+    // 迁移完成，新路由表成为稳定纪元
+    private void finish(RoutingEpoch completed) {
+        long id = completed.getId() + 1;
+        Map<String, String> values = new HashMap<>();
+        values.put("id", String.valueOf(id));
+        values.put("source", String.valueOf(completed.getTarget().getDatabaseCount()));
+        values.put("target", String.valueOf(completed.getTarget().getDatabaseCount()));
+        values.put("startTime", String.valueOf(System.currentTimeMillis()));
+        values.put("cutoverTime", "0");
+        redisTemplate.opsForHash().putAll(EPOCH_KEY, values);
+        redisTemplate.delete(getRangeKey(completed.getId()));
+        refreshEpoch();
+        log.info("Finished shard migration, databases: {}", completed.getTarget().getDatabaseCount());
+    }
+
+    /**
+     * 并行读取原库各物理表，把属于指定区间的行按批交给处理函数
+     * 每个原库的每张分表是一个任务，任务内按主键顺序分批，每批都经过全局限速
+     */
+    private void forEachChunk(RoutingEpoch current, Set<Integer> ranges, ChunkHandler handler) {
+        ShardRouter source = current.getSource();
+        List<CompletableFuture<Void>> tasks = new ArrayList<>();
+        for (int db = 0; db < source.getDatabaseCount(); db++) {
+            for (int table = 0; table < source.getTableCount(); table++) {
+                int sourceDb = db;
+                int sourceTable = table;
+                tasks.add(CompletableFuture.runAsync(() -> {
+                    long afterId = 0;
+                    while (true) {
+                        List<Inventory> rows = rowStore.scan(sourceDb, sourceTable, afterId, CHUNK_SIZE);
+                        if (rows.isEmpty()) {
+                            return;
+                        }
+                        rateLimiter.acquire(rows.size());
+                        afterId = rows.get(rows.size() - 1).getId();
+                        List<Inventory> selected = new ArrayList<>();
+                        for (Inventory row : rows) {
+                            if (ranges.contains(current.range(row.getEventId()))) {
+                                selected.add(row);
+                            }
+                        }
+                        if (!selected.isEmpty()) {
+                            handler.handle(sourceDb, selected);
+                        }
+                    }
+                }, executor));
+            }
+        }
+        try {
+            CompletableFuture.allOf(tasks.toArray(new CompletableFuture[0])).join();
+        } catch (Exception e) {
+            log.error("Shard migration task failed, epoch: {}", current.getId(), e);
+            throw new BusinessException("迁移任务执行失败: " + e.getMessage());
+        }
+    }
+
+    private boolean transition(RoutingEpoch current, int range, MigrationPhase from, MigrationPhase to) {
+        Long result = redisTemplate.execute(TRANSITION_SCRIPT, Collections.singletonList(getRangeKey(current.getId())),
+                String.valueOf(range), from.name(), to.name());
+        return result != null && result == 1;
+    }
+
+    // 切换后业务读写经分片规则路由到新库，规则中没有新库时拒绝执行
+    private void requireRegistered(int databaseCount) {
+        if (databaseCount > registeredDatabaseCount) {
+            throw new BusinessException("分片规则只注册了" + registeredDatabaseCount + "个物理库，请先注册新库数据源并将实际数据节点扩展为"
+                    + ShardingConfig.DynamicExpansionConfig.generateExpandedRule(databaseCount) + "后重启");
+        }
+    }
+
+    private RoutingEpoch requireMigrating() {
+        RoutingEpoch current = refreshEpoch();
+        if (!current.isMigrating()) {
+            throw new BusinessException("没有正在进行的迁移");
+        }
+        return current;
+    }
+
+    private Set<Integer> rangesIn(RoutingEpoch current, MigrationPhase phase) {
+        Set<Integer> ranges = new HashSet<>();
+        for (int node = 0; node < current.getTarget().nodeCount(); node++) {
+            if (current.phase(node) == phase) {
+                ranges.add(node);
+            }
+        }
+        return ranges;
+    }
+
+    // 同一物理库数量复用同一张路由表，稳定纪元的原路由表和新路由表是同一个实例
+    private ShardRouter routerFor(int databaseCount) {
+        return routers.computeIfAbsent(databaseCount, InventoryRouting.ROUTER::withDatabaseCount);
+    }
+
+    // 校验和覆盖主键、版本号和各项库存，与行的读取顺序无关
+    private static long checksum(Inventory row) {
+        CRC32 crc = new CRC32();
+        String value = row.getId() + ":" + row.getVersion() + ":" + row.getTotalStock() + ":" + row.getSoldStock()
+                + ":" + row.getLockedStock() + ":" + row.getAvailableStock();
+        crc.update(value.getBytes(StandardCharsets.UTF_8));
+        return crc.getValue();
+    }
+
+    // 工具方法：生成区间阶段Hash key
+    private String getRangeKey(long epochId) {
+        return "inventory:migration:ranges:" + epochId;
+    }
+
+    @FunctionalInterface
+    private interface ChunkHandler {
+        void handle(int sourceDb, List<Inventory> rows);
+    }
+}
@@ -0,0 +1,125 @@
+package com.ticketing.inventory.sharding;
+
+import com.ticketing.common.entity.Inventory;
+import com.ticketing.common.sharding.InventoryRouting;
+import com.ticketing.common.sharding.RoutingEpoch;
+import com.ticketing.common.utils.InventoryKeyUtil;
+import com.ticketing.inventory.mapper.InventoryMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * 库存聚合读取
+ * - 只落在一个物理库的读取走分片中间件的正常路由，不经过分散查询执行器
+ * - 需要访问多个物理库的读取不经过分片中间件的默认执行，按物理库分散查询，有总截止时间和慢库对冲；
+ *   按当前路由纪元的主库读取，迁移期间读到的是正在服务写入的那一份
+ */
+@Service
+public class ShardReadService {
+
+    @Autowired
+    private ScatterGatherExecutor scatterGatherExecutor;
+
+    @Autowired
+    private ShardRowStore shardRowStore;
+
+    @Autowired
+    private InventoryMapper inventoryMapper;
+
+    // 批量查询的总截止时间
+    private static final long BATCH_TIMEOUT_MILLIS = 5000;
+
+    // 单条语句的场次数上限
+    private static final int EVENT_BATCH_SIZE = 200;
+
+    /**
+     * 汇总场次和票种所有分片的库存
+     * 场次的全部分片在同一个库，分片中间件按场次ID路由到单库执行
+     * @return 没有库存行时返回null
+     */
+    public Inventory sumByEventAndTicketType(long eventId, long ticketTypeId) {
+        List<Inventory> rows = inventoryMapper.selectByEventAndTicketType(eventId, ticketTypeId);
+        if (rows == null || rows.isEmpty()) {
+            return null;
+        }
+
+        Inventory total = emptyTotal(eventId, ticketTypeId);
+        rows.forEach(row -> add(total, row));
+        return total;
+    }
+
+    /**
+     * 汇总多个票种的库存，场次按主库分组，每个物理库一组查询
+     * @param keys 打包的场次ID和票种ID
+     * @return 打包key到汇总库存的映射，没有库存行的票种不在结果中
+     */
+    public ScatterResult<Map<Long, Inventory>> sumByTicketTypes(Collection<Long> keys) {
+        Set<Long> wanted = new HashSet<>(keys);
+        Map<Integer, List<Long>> eventIdsByDatabase = wanted.stream()
+                .map(InventoryKeyUtil::eventId)
+                .distinct()
+                .collect(Collectors.groupingBy(InventoryRouting::databaseIndex, TreeMap::new, Collectors.toList()));
+
+        return scatterGatherExecutor.execute("sumByTicketTypes", eventIdsByDatabase.keySet(), BATCH_TIMEOUT_MILLIS,
+                db -> {
+                    List<Long> eventIds = eventIdsByDatabase.get(db);
+                    List<Inventory> rows = new ArrayList<>();
+                    for (int i = 0; i < eventIds.size(); i += EVENT_BATCH_SIZE) {
+                        rows.addAll(shardRowStore.selectByEventIds(db,
+                                eventIds.subList(i, Math.min(i + EVENT_BATCH_SIZE, eventIds.size()))));
+                    }
+                    return rows;
+                },
+                new HashMap<>(), (totals, rows) -> {
+                    for (Inventory row : rows) {
+                        long key = InventoryKeyUtil.pack(row.getEventId(), row.getTicketTypeId());
+                        if (wanted.contains(key)) {
+                            add(totals.computeIfAbsent(key, k -> emptyTotal(row.getEventId(), row.getTicketTypeId())), row);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * 查询指定时间之后有库存变更的票种，迁移期间同时访问新旧路由表的全部物理库
+     * @return 打包的场次ID和票种ID
+     */
+    public ScatterResult<Set<Long>> selectChangedTicketTypes(LocalDateTime since) {
+        RoutingEpoch epoch = InventoryRouting.getEpoch();
+        int databaseCount = Math.max(epoch.getSource().getDatabaseCount(), epoch.getTarget().getDatabaseCount());
+        List<Integer> databases = IntStream.range(0, databaseCount).boxed().collect(Collectors.toList());
+        return scatterGatherExecutor.execute("selectChangedTicketTypes", databases, BATCH_TIMEOUT_MILLIS,
+                db -> shardRowStore.selectChangedTicketTypes(db, since),
+                new HashSet<>(), (changed, rows) -> rows.forEach(row ->
+                        changed.add(InventoryKeyUtil.pack(row.getEventId(), row.getTicketTypeId()))));
+    }
+
+    private Inventory emptyTotal(Long eventId, Long ticketTypeId) {
+        return new Inventory()
+                .setEventId(eventId)
+                .setTicketTypeId(ticketTypeId)
+                .setTotalStock(0)
+                .setAvailableStock(0)
+                .setSoldStock(0)
+                .setLockedStock(0);
+    }
+
+    private void add(Inventory total, Inventory row) {
+        total.setTotalStock(total.getTotalStock() + row.getTotalStock())
+                .setAvailableStock(total.getAvailableStock() + row.getAvailableStock())
+                .setSoldStock(total.getSoldStock() + row.getSoldStock())
+                .setLockedStock(total.getLockedStock() + row.getLockedStock());
+    }
+}
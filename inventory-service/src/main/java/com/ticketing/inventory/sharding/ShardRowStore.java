@@ -0,0 +1,212 @@
+package com.ticketing.inventory.sharding;
+
+import com.ticketing.common.entity.Inventory;
+import com.ticketing.common.sharding.InventoryRouting;
+import com.zaxxer.hikari.HikariDataSource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * 物理库存表访问
+ * - 迁移和分散查询需要绕过分片路由直接读写指定物理库，数据源按分片数据源的配置单独创建，连接池很小，不影响业务连接
+ * - 分散查询在一个物理库上把各分表的查询用UNION ALL合并为一条语句，每个库只有一次往返
+ * - 物理库dsN对应分片配置中的同名数据源，物理表为t_inventory_{sharding_id}；启动时路由表中的每个物理库都必须有数据源配置
+ * - 写入按版本号合并：目标行不存在时插入，存在时只有版本不低于目标行才覆盖，回填和双写以任意顺序到达结果都相同
+ */
+@Slf4j
+@Component
+public class ShardRowStore {
+
+    @Autowired
+    private Environment environment;
+
+    private static final String DATASOURCE_PREFIX = "spring.shardingsphere.datasource.ds";
+
+    // 每个物理库的直连连接数
+    private static final int POOL_SIZE = 8;
+
+    // 获取连接的等待时间，连接耗尽时尽快失败，由分散查询重试或放弃
+    private static final long CONNECTION_TIMEOUT_MILLIS = 1000;
+
+    private static final RowMapper<Inventory> ROW_MAPPER = new BeanPropertyRowMapper<>(Inventory.class);
+
+    // 版本号最后更新，前面各列比较的都是目标行的旧版本号
+    private static final String UPSERT_SQL = "INSERT INTO %s (id, event_id, ticket_type_id, sharding_id, total_stock, "
+            + "sold_stock, locked_stock, available_stock, version, create_time, update_time) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?) "
+            + "ON DUPLICATE KEY UPDATE "
+            + "total_stock = IF(VALUES(version) >= version, VALUES(total_stock), total_stock), "
+            + "sold_stock = IF(VALUES(version) >= version, VALUES(sold_stock), sold_stock), "
+            + "locked_stock = IF(VALUES(version) >= version, VALUES(locked_stock), locked_stock), "
+            + "available_stock = IF(VALUES(version) >= version, VALUES(available_stock), available_stock), "
+            + "update_time = IF(VALUES(version) >= version, VALUES(update_time), update_time), "
+            + "version = GREATEST(version, VALUES(version))";
+
+    private final Map<Integer, JdbcTemplate> templates = new ConcurrentHashMap<>();
+    private final Map<Integer, HikariDataSource> dataSources = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        int databaseCount = InventoryRouting.getEpoch().getTarget().getDatabaseCount();
+        List<String> missing = new ArrayList<>();
+        for (int db = 0; db < databaseCount; db++) {
+            if (!hasDatabase(db)) {
+                missing.add("ds" + db);
+            }
+        }
+        if (!missing.isEmpty()) {
+            throw new IllegalStateException("Data sources not configured for inventory databases: " + missing);
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        dataSources.values().forEach(HikariDataSource::close);
+    }
+
+    /**
+     * 物理库是否已配置数据源
+     */
+    public boolean hasDatabase(int db) {
+        return bindProperties(db) != null;
+    }
+
+    /**
+     * 按主键顺序读取一批行
+     * @param afterId 从大于该主键的行开始
+     */
+    public List<Inventory> scan(int db, int table, long afterId, int limit) {
+        return getTemplate(db).query("SELECT * FROM " + tableName(table) + " WHERE id > ? ORDER BY id LIMIT ?",
+                ROW_MAPPER, afterId, limit);
+    }
+
+    /**
+     * 按主键读取行
+     */
+    public List<Inventory> selectByIds(int db, int table, List<Long> ids) {
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return getTemplate(db).query("SELECT * FROM " + tableName(table) + " WHERE id IN (" + placeholders(ids.size()) + ")",
+                ROW_MAPPER, ids.toArray());
+    }
+
+    /**
+     * 查询场次和票种在物理库中的全部分片行
+     */
+    public List<Inventory> selectByEventAndTicketType(int db, long eventId, long ticketTypeId) {
+        return queryAllTables(db, "SELECT * FROM %s WHERE event_id = ? AND ticket_type_id = ?", " UNION ALL ",
+                eventId, ticketTypeId);
+    }
+
+    /**
+     * 查询多个场次在物理库中的全部分片行
+     */
+    public List<Inventory> selectByEventIds(int db, List<Long> eventIds) {
+        if (eventIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return queryAllTables(db, "SELECT * FROM %s WHERE event_id IN (" + placeholders(eventIds.size()) + ")",
+                " UNION ALL ", eventIds.toArray());
+    }
+
+    /**
+     * 查询物理库中指定时间之后有变更的场次和票种
+     * @return 只包含场次ID和票种ID的库存列表
+     */
+    public List<Inventory> selectChangedTicketTypes(int db, LocalDateTime since) {
+        return queryAllTables(db, "SELECT event_id, ticket_type_id FROM %s WHERE update_time >= ?", " UNION ", since);
+    }
+
+    /**
+     * 按版本号合并写入
+     */
+    public void upsert(int db, List<Inventory> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        Map<Integer, List<Object[]>> byTable = rows.stream().collect(Collectors.groupingBy(Inventory::getShardingId,
+                Collectors.mapping(row -> new Object[]{row.getId(), row.getEventId(), row.getTicketTypeId(),
+                        row.getShardingId(), row.getTotalStock(), row.getSoldStock(), row.getLockedStock(),
+                        row.getAvailableStock(), row.getVersion(), row.getCreateTime(), row.getUpdateTime()},
+                        Collectors.toList())));
+        for (Map.Entry<Integer, List<Object[]>> entry : byTable.entrySet()) {
+            getTemplate(db).batchUpdate(String.format(UPSERT_SQL, tableName(entry.getKey())), entry.getValue());
+        }
+    }
+
+    /**
+     * 按主键删除行
+     * @return 删除的行数
+     */
+    public int delete(int db, int table, List<Long> ids) {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        return getTemplate(db).update("DELETE FROM " + tableName(table) + " WHERE id IN (" + placeholders(ids.size()) + ")",
+                ids.toArray());
+    }
+
+    // 对物理库的每张分表执行相同的查询并合并结果，参数按分表重复
+    private List<Inventory> queryAllTables(int db, String sqlTemplate, String union, Object... params) {
+        int tableCount = InventoryRouting.getEpoch().getTarget().getTableCount();
+        List<String> selects = new ArrayList<>(tableCount);
+        Object[] args = new Object[params.length * tableCount];
+        for (int table = 0; table < tableCount; table++) {
+            selects.add(String.format(sqlTemplate, tableName(table)));
+            System.arraycopy(params, 0, args, table * params.length, params.length);
+        }
+        return getTemplate(db).query(String.join(union, selects), ROW_MAPPER, args);
+    }
+
+    private JdbcTemplate getTemplate(int db) {
+        return templates.computeIfAbsent(db, key -> {
+            Map<String, String> properties = bindProperties(key);
+            if (properties == null) {
+                throw new IllegalStateException("Data source ds" + key + " is not configured");
+            }
+            HikariDataSource dataSource = new HikariDataSource();
+            dataSource.setPoolName("inventory-direct-ds" + key);
+            dataSource.setDriverClassName(properties.get("driver-class-name"));
+            dataSource.setJdbcUrl(properties.get("jdbc-url"));
+            dataSource.setUsername(properties.get("username"));
+            dataSource.setPassword(properties.get("password"));
+            dataSource.setMaximumPoolSize(POOL_SIZE);
+            dataSource.setConnectionTimeout(CONNECTION_TIMEOUT_MILLIS);
+            dataSources.put(key, dataSource);
+            log.info("Created direct data source for ds{}", key);
+            return new JdbcTemplate(dataSource);
+        });
+    }
+
+    private Map<String, String> bindProperties(int db) {
+        return Binder.get(environment)
+                .bind(DATASOURCE_PREFIX + db, Bindable.mapOf(String.class, String.class))
+                .orElse(null);
+    }
+
+    private String tableName(int table) {
+        return "t_inventory_" + table;
+    }
+
+    private String placeholders(int count) {
+        return String.join(",", Collections.nCopies(count, "?"));
+    }
+}
@@ -0,0 +1,266 @@
+package com.ticketing.inventory.snapshot;
+
+import com.ticketing.inventory.model.TicketTypeSnapshot;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * 库存快照文件
+ * - 二进制格式，带CRC32校验，读取时以内存映射方式一次校验整个文件
+ * - 校验失败、魔数或版本不符时抛出IOException，由调用方放弃快照
+ *
+ * 文件格式：
+ * 魔数(4) 版本(4) 生成时间(8) 票种数(4) 票种记录... CRC32(8)
+ * 票种记录：场次ID(8) 票种ID(8) 纪元(8) 初始分片数(4) 标记(1) 分片数(4) 分片余量(4*n) 锁定数(4) 锁定记录...
+ *          计数器数(4) 计数器... 字符串数(4) 字符串... 哈希数(4) 哈希...
+ * 锁定记录：用户ID(8) 剩余有效期(8) 回收索引到期时间(8) 锁定内容
+ * 计数器：key 余量(4)；字符串：key 值；哈希：key 字段数(4) (字段 值)...
+ * 字符串编码：长度(2) 内容(UTF-8)
+ */
+public class InventorySnapshotFile {
+
+    private static final int SNAPSHOT_MAGIC = 0x494E5653;
+    private static final int SNAPSHOT_VERSION = 2;
+
+    // 文件头大小
+    private static final int HEADER_SIZE = 20;
+
+    private static final byte FLAG_ENDGAME = 1;
+
+    private final long createdAt;
+    private final List<TicketTypeSnapshot> items;
+
+    public InventorySnapshotFile(long createdAt, List<TicketTypeSnapshot> items) {
+        this.createdAt = createdAt;
+        this.items = items;
+    }
+
+    /**
+     * 快照生成时间
+     */
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    /**
+     * 快照中的票种
+     */
+    public List<TicketTypeSnapshot> getItems() {
+        return items;
+    }
+
+    /**
+     * 写入快照文件并刷盘
+     */
+    public void write(Path path) throws IOException {
+        long size = HEADER_SIZE + 8;
+        for (TicketTypeSnapshot item : items) {
+            size += 49 + 4L * item.getShardStocks().length;
+            for (TicketTypeSnapshot.Hold hold : item.getHolds()) {
+                size += 24 + sizeOf(hold.getValue());
+            }
+            for (String key : item.getCounters().keySet()) {
+                size += sizeOf(key) + 4;
+            }
+            for (Map.Entry<String, String> entry : item.getValues().entrySet()) {
+                size += sizeOf(entry.getKey()) + sizeOf(entry.getValue());
+            }
+            for (Map.Entry<String, Map<String, String>> hash : item.getHashes().entrySet()) {
+                size += sizeOf(hash.getKey()) + 4;
+                for (Map.Entry<String, String> field : hash.getValue().entrySet()) {
+                    size += sizeOf(field.getKey()) + sizeOf(field.getValue());
+                }
+            }
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(Math.toIntExact(size));
+        buffer.putInt(SNAPSHOT_MAGIC);
+        buffer.putInt(SNAPSHOT_VERSION);
+        buffer.putLong(createdAt);
+        buffer.putInt(items.size());
+        for (TicketTypeSnapshot item : items) {
+            buffer.putLong(item.getEventId());
+            buffer.putLong(item.getTicketTypeId());
+            buffer.putLong(item.getEpoch());
+            buffer.putInt(item.getBaseCount());
+            buffer.put(item.isEndgame() ? FLAG_ENDGAME : 0);
+            buffer.putInt(item.getShardStocks().length);
+            for (int stock : item.getShardStocks()) {
+                buffer.putInt(stock);
+            }
+
+            buffer.putInt(item.getHolds().size());
+            for (TicketTypeSnapshot.Hold hold : item.getHolds()) {
+                buffer.putLong(hold.getUserId());
+                buffer.putLong(hold.getTtlMillis());
+                buffer.putLong(hold.getIndexExpireAt());
+                putString(buffer, hold.getValue());
+            }
+
+            buffer.putInt(item.getCounters().size());
+            for (Map.Entry<String, Integer> entry : item.getCounters().entrySet()) {
+                putString(buffer, entry.getKey());
+                buffer.putInt(entry.getValue());
+            }
+            buffer.putInt(item.getValues().size());
+            for (Map.Entry<String, String> entry : item.getValues().entrySet()) {
+                putString(buffer, entry.getKey());
+                putString(buffer, entry.getValue());
+            }
+            buffer.putInt(item.getHashes().size());
+            for (Map.Entry<String, Map<String, String>> hash : item.getHashes().entrySet()) {
+                putString(buffer, hash.getKey());
+                buffer.putInt(hash.getValue().size());
+                for (Map.Entry<String, String> field : hash.getValue().entrySet()) {
+                    putString(buffer, field.getKey());
+                    putString(buffer, field.getValue());
+                }
+            }
+        }
+
+        // 校验和本身不参与校验
+        CRC32 checksum = new CRC32();
+        checksum.update(buffer.array(), 0, buffer.position());
+        buffer.putLong(checksum.getValue());
+        buffer.flip();
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+    }
+
+    /**
+     * 读取并校验快照文件
+     */
+    public static InventorySnapshotFile read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE + 8 || size > Integer.MAX_VALUE) {
+                throw new IOException("Invalid snapshot size: " + size);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            int checkedSize = (int) size - 8;
+
+            ByteBuffer checked = buffer.duplicate();
+            checked.position(0).limit(checkedSize);
+            CRC32 checksum = new CRC32();
+            checksum.update(checked);
+            if (buffer.getLong(checkedSize) != checksum.getValue()) {
+                throw new IOException("Snapshot checksum mismatch");
+            }
+            if (buffer.getInt(0) != SNAPSHOT_MAGIC || buffer.getInt(4) != SNAPSHOT_VERSION) {
+                throw new IOException("Unknown snapshot format");
+            }
+
+            buffer.position(8);
+            long createdAt = buffer.getLong();
+            int count = buffer.getInt();
+            List<TicketTypeSnapshot> items = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                TicketTypeSnapshot item = new TicketTypeSnapshot();
+                item.setEventId(buffer.getLong());
+                item.setTicketTypeId(buffer.getLong());
+                item.setEpoch(buffer.getLong());
+                item.setBaseCount(buffer.getInt());
+                item.setEndgame((buffer.get() & FLAG_ENDGAME) != 0);
+                int[] stocks = new int[buffer.getInt()];
+                for (int j = 0; j < stocks.length; j++) {
+                    stocks[j] = buffer.getInt();
+                }
+                item.setShardStocks(stocks);
+
+                int holdCount = buffer.getInt();
+                for (int j = 0; j < holdCount; j++) {
+                    long userId = buffer.getLong();
+                    long ttlMillis = buffer.getLong();
+                    long indexExpireAt = buffer.getLong();
+                    item.getHolds().add(new TicketTypeSnapshot.Hold(userId, getString(buffer), ttlMillis, indexExpireAt));
+                }
+
+                int counterCount = buffer.getInt();
+                for (int j = 0; j < counterCount; j++) {
+                    String key = getString(buffer);
+                    item.getCounters().put(key, buffer.getInt());
+                }
+                int valueCount = buffer.getInt();
+                for (int j = 0; j < valueCount; j++) {
+                    String key = getString(buffer);
+                    item.getValues().put(key, getString(buffer));
+                }
+                int hashCount = buffer.getInt();
+                for (int j = 0; j < hashCount; j++) {
+                    String key = getString(buffer);
+                    int fieldCount = buffer.getInt();
+                    Map<String, String> fields = new LinkedHashMap<>();
+                    for (int k = 0; k < fieldCount; k++) {
+                        String field = getString(buffer);
+                        fields.put(field, getString(buffer));
+                    }
+                    item.getHashes().put(key, fields);
+                }
+                items.add(item);
+            }
+            return new InventorySnapshotFile(createdAt, items);
+        }
+    }
+
+    /**
+     * 恢复的余量不超过操作日志中的可用库存，从最后一个分片开始收紧，分片收紧到0后再收紧预留池和渠道分片
+     * - 日志的可用库存包含预留池、租约和渠道配额中的库存，租约不在快照中，只会偏大，收紧不会多卖
+     * @return 收紧的数量
+     */
+    public static long capStock(TicketTypeSnapshot item, long available) {
+        int[] stocks = item.getShardStocks();
+        long excess = item.counterStock() - Math.max(available, 0);
+        for (int stock : stocks) {
+            excess += stock;
+        }
+        long capped = Math.max(excess, 0);
+        for (int i = stocks.length - 1; i >= 0 && excess > 0; i--) {
+            int taken = (int) Math.min(stocks[i], excess);
+            stocks[i] -= taken;
+            excess -= taken;
+        }
+        for (Map.Entry<String, Integer> entry : item.getCounters().entrySet()) {
+            if (excess <= 0) {
+                break;
+            }
+            int taken = (int) Math.min(entry.getValue(), excess);
+            entry.setValue(entry.getValue() - taken);
+            excess -= taken;
+        }
+        return capped;
+    }
+
+    // 字符串编码后的长度
+    private static int sizeOf(String value) {
+        return 2 + value.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    private static void putString(ByteBuffer buffer, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
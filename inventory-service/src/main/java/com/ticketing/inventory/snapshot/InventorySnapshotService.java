@@ -0,0 +1,157 @@
+package com.ticketing.inventory.snapshot;
+
+import com.ticketing.common.utils.InventoryKeyUtil;
+import com.ticketing.inventory.journal.InventoryJournal;
+import com.ticketing.inventory.model.TicketTypeSnapshot;
+import com.ticketing.inventory.service.InventoryShardingService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 库存状态快照服务
+ * - 定时把Redis中各票种的分片余量和用户锁定写入本地快照文件，格式见InventorySnapshotFile
+ * - 启动时读取快照，Redis中缺失的票种直接从快照恢复，无需从数据库全量重建
+ * - 恢复的余量按操作日志重放出的可用库存收紧，快照之后由本实例售出的库存不会被再次售卖
+ */
+@Slf4j
+@Service
+public class InventorySnapshotService {
+
+    @Autowired
+    private InventoryShardingService inventoryShardingService;
+
+    // 注入操作日志同时保证其重放先于快照恢复完成
+    @Autowired
+    private InventoryJournal inventoryJournal;
+
+    // 快照目录
+    private static final String SNAPSHOT_DIR = "data/snapshot";
+
+    private static final String SNAPSHOT_FILE = "inventory.snap";
+
+    // 快照最长可用时间，超过后由预热从数据库全量加载
+    private static final long MAX_SNAPSHOT_AGE = TimeUnit.HOURS.toMillis(6);
+
+    // 快照覆盖的票种，预热时无需再从数据库加载
+    private final Set<Long> coveredKeys = ConcurrentHashMap.newKeySet();
+
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    // 恢复完成前不写快照，避免Redis丢失时覆盖唯一的备份
+    private volatile boolean restored;
+
+    private Path directory;
+
+    @PostConstruct
+    public void init() throws IOException {
+        directory = Paths.get(SNAPSHOT_DIR);
+        Files.createDirectories(directory);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        // 停机前再写一次，滚动重启时下一个实例拿到的是最新状态
+        takeSnapshot();
+    }
+
+    /**
+     * 从本地快照恢复库存状态
+     * @return 快照覆盖的票种数量，没有可用快照时返回0
+     */
+    public int restore() {
+        long start = System.currentTimeMillis();
+        try {
+            Path path = directory.resolve(SNAPSHOT_FILE);
+            if (!Files.exists(path)) {
+                log.info("No inventory snapshot found, skipped restore");
+                return 0;
+            }
+
+            InventorySnapshotFile snapshot = InventorySnapshotFile.read(path);
+            long age = start - snapshot.getCreatedAt();
+            if (age < 0 || age > MAX_SNAPSHOT_AGE) {
+                log.warn("Skipped stale inventory snapshot, age: {}ms", age);
+                return 0;
+            }
+
+            // 操作日志中没有基线的票种无法收紧，按快照原样恢复
+            Map<Long, long[]> journalState = inventoryJournal.copyState();
+
+            int written = 0;
+            int capped = 0;
+            for (TicketTypeSnapshot item : snapshot.getItems()) {
+                long key = InventoryKeyUtil.pack(item.getEventId(), item.getTicketTypeId());
+                long[] values = journalState.get(key);
+                if (values != null && InventorySnapshotFile.capStock(item, values[0]) > 0) {
+                    capped++;
+                }
+                if (inventoryShardingService.restoreSnapshot(item, System.currentTimeMillis() - snapshot.getCreatedAt())) {
+                    written++;
+                }
+                coveredKeys.add(key);
+            }
+
+            log.info("Restored inventory snapshot in {}ms, age: {}ms, ticket types: {}, written to Redis: {}, capped by journal: {}",
+                    System.currentTimeMillis() - start, age, snapshot.getItems().size(), written, capped);
+            return snapshot.getItems().size();
+        } catch (Exception e) {
+            log.error("Failed to restore inventory snapshot", e);
+            coveredKeys.clear();
+            return 0;
+        } finally {
+            restored = true;
+        }
+    }
+
+    /**
+     * 判断票种是否已由快照覆盖
+     */
+    public boolean isCovered(Long eventId, Long ticketTypeId) {
+        return coveredKeys.contains(InventoryKeyUtil.pack(eventId, ticketTypeId));
+    }
+
+    /**
+     * 定时生成快照
+     * 每10秒执行一次，先写临时文件再原子替换
+     */
+    @Scheduled(fixedDelay = 10000)
+    public void takeSnapshot() {
+        if (!restored) {
+            return;
+        }
+
+        writeLock.lock();
+        try {
+            // 生成时间取导出之前，恢复时按此计算锁定的剩余有效期只会偏短
+            long createdAt = System.currentTimeMillis();
+            List<TicketTypeSnapshot> items = inventoryShardingService.exportSnapshots();
+
+            Path temp = directory.resolve(SNAPSHOT_FILE + ".tmp");
+            new InventorySnapshotFile(createdAt, items).write(temp);
+            Files.move(temp, directory.resolve(SNAPSHOT_FILE),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            log.debug("Wrote inventory snapshot in {}ms, ticket types: {}",
+                    System.currentTimeMillis() - createdAt, items.size());
+        } catch (Exception e) {
+            log.error("Failed to write inventory snapshot", e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+}
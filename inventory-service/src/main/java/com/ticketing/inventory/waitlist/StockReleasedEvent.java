@@ -0,0 +1,28 @@
+package com.ticketing.inventory.waitlist;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * 库存释放事件
+ * 用户锁定的库存因取消或超时归还到分片后发布
+ */
+@Data
+@AllArgsConstructor
+public class StockReleasedEvent {
+
+    /**
+     * 场次ID
+     */
+    private Long eventId;
+
+    /**
+     * 票种ID
+     */
+    private Long ticketTypeId;
+
+    /**
+     * 释放数量
+     */
+    private int quantity;
+}
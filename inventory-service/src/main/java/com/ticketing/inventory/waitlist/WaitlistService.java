@@ -0,0 +1,334 @@
+package com.ticketing.inventory.waitlist;
+
+import com.ticketing.common.exception.BusinessException;
+import com.ticketing.common.message.WaitlistOfferMessage;
+import com.ticketing.common.utils.InventoryKeyUtil;
+import com.ticketing.inventory.service.InventoryShardingService;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.rocketmq.client.producer.SendCallback;
+import org.apache.rocketmq.client.producer.SendResult;
+import org.apache.rocketmq.spring.core.RocketMQTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 候补队列服务
+ * 售罄后用户进入票种的候补队列，释放的库存按先到先得直接分配给排队用户，不再由刷新的用户争抢
+ * - 队列保存在Redis列表中，Redis写入失败时先进入本地暂存队列，恢复后按原顺序补写
+ * - 分配的库存以限时锁定的形式交给用户，并通过消息通知，用户下单时认领锁定，按订单支付或关单核销、释放
+ * - 锁定过期未认领的由分片服务回收，释放的库存继续分配给下一批排队用户
+ * - 分配在单独的线程上按释放顺序执行，不占用释放库存的请求线程
+ */
+@Slf4j
+@Service
+public class WaitlistService {
+
+    private static final String WAITLIST_OFFER_TOPIC = "waitlist-offer-topic";
+
+    @Autowired
+    private InventoryShardingService inventoryShardingService;
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    @Autowired
+    private RocketMQTemplate rocketMQTemplate;
+
+    // 每个用户候补的最大数量
+    private static final int MAX_WAITLIST_QUANTITY = 4;
+
+    // 候补锁定的有效期（分钟）
+    private static final int HOLD_EXPIRE_MINUTES = 10;
+
+    // 消息发送超时时间（毫秒）
+    private static final long SEND_TIMEOUT = 3000;
+
+    // 待执行的分配任务上限，超出时放弃本次分配，库存留在分片中由下次释放带出
+    private static final int ASSIGN_QUEUE_CAPACITY = 1000;
+
+    // 队列中扫描用户记录的批次大小
+    private static final int LEAVE_SCAN_BATCH = 1000;
+
+    /**
+     * 按先后顺序从队首取出能被满足的用户，队首用户需要的数量超过剩余库存时停止，保证先到先得
+     * KEYS[1]=候补队列key，KEYS[2]=排队用户集合key，ARGV[1]=可分配数量
+     * 返回取出的记录列表，记录格式为"用户ID:数量"
+     */
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> ASSIGN_SCRIPT = new DefaultRedisScript<>(
+            "local remaining = tonumber(ARGV[1]) "
+                    + "local assigned = {} "
+                    + "while remaining > 0 do "
+                    + "  local head = redis.call('LINDEX', KEYS[1], 0) "
+                    + "  if not head then break end "
+                    + "  local sep = string.find(head, ':') "
+                    + "  local quantity = tonumber(string.sub(head, sep + 1)) "
+                    + "  if quantity > remaining then break end "
+                    + "  redis.call('LPOP', KEYS[1]) "
+                    + "  redis.call('SREM', KEYS[2], string.sub(head, 1, sep - 1)) "
+                    + "  remaining = remaining - quantity "
+                    + "  table.insert(assigned, head) "
+                    + "end "
+                    + "return assigned",
+            List.class);
+
+    /**
+     * 加入候补队列，同一用户在同一票种只能排一次
+     * KEYS[1]=候补队列key，KEYS[2]=排队用户集合key，ARGV[1]=用户ID，ARGV[2]=数量
+     * 返回排队位置，从1开始，已在队列中时返回0
+     */
+    private static final RedisScript<Long> JOIN_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('SADD', KEYS[2], ARGV[1]) == 0 then return 0 end "
+                    + "return redis.call('RPUSH', KEYS[1], ARGV[1] .. ':' .. ARGV[2])",
+            Long.class);
+
+    /**
+     * 退出候补队列，只有队列中确实移除了用户的记录时才从排队用户集合中移除
+     * KEYS[1]=候补队列key，KEYS[2]=排队用户集合key，ARGV[1]=用户ID，ARGV[2]=扫描批次大小
+     * 返回移除的候补数量，用户不在队列中时返回0
+     */
+    private static final RedisScript<Long> LEAVE_SCRIPT = new DefaultRedisScript<>(
+            "local prefix = ARGV[1] .. ':' "
+                    + "local batch = tonumber(ARGV[2]) "
+                    + "local start = 0 "
+                    + "while true do "
+                    + "  local entries = redis.call('LRANGE', KEYS[1], start, start + batch - 1) "
+                    + "  if #entries == 0 then return 0 end "
+                    + "  for _, entry in ipairs(entries) do "
+                    + "    if string.sub(entry, 1, #prefix) == prefix then "
+                    + "      if redis.call('LREM', KEYS[1], 1, entry) == 0 then return 0 end "
+                    + "      redis.call('SREM', KEYS[2], ARGV[1]) "
+                    + "      return tonumber(string.sub(entry, #prefix + 1)) "
+                    + "    end "
+                    + "  end "
+                    + "  start = start + batch "
+                    + "end",
+            Long.class);
+
+    // Redis不可用时暂存的加入请求，key为打包后的(eventId, ticketTypeId)
+    private final Map<Long, Queue<String>> pendingJoins = new ConcurrentHashMap<>();
+
+    // 分配任务线程，单线程保证按释放顺序分配
+    private ExecutorService assignExecutor;
+
+    @PostConstruct
+    public void init() {
+        assignExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(ASSIGN_QUEUE_CAPACITY));
+    }
+
+    @PreDestroy
+    public void destroy() throws InterruptedException {
+        assignExecutor.shutdown();
+        assignExecutor.awaitTermination(SEND_TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 加入候补队列
+     * @return 排队位置，暂存在本地时返回-1
+     */
+    public long join(Long eventId, Long ticketTypeId, Long userId, int quantity) {
+        if (quantity <= 0 || quantity > MAX_WAITLIST_QUANTITY) {
+            throw new BusinessException("候补数量需在1到" + MAX_WAITLIST_QUANTITY + "之间");
+        }
+
+        long key = InventoryKeyUtil.pack(eventId, ticketTypeId);
+        Queue<String> pending = pendingJoins.get(key);
+        if (pending == null || pending.isEmpty()) {
+            try {
+                Long position = redisTemplate.execute(JOIN_SCRIPT,
+                        Arrays.asList(getWaitlistKey(eventId, ticketTypeId), getMemberKey(eventId, ticketTypeId)),
+                        String.valueOf(userId), String.valueOf(quantity));
+                if (position != null && position == 0) {
+                    throw new BusinessException("已在候补队列中");
+                }
+                return position == null ? -1 : position;
+            } catch (BusinessException e) {
+                throw e;
+            } catch (Exception e) {
+                log.error("Failed to join waitlist in Redis, buffering locally", e);
+            }
+        }
+
+        // 本地已有暂存记录时继续暂存，保持先后顺序
+        pendingJoins.computeIfAbsent(key, k -> new ConcurrentLinkedQueue<>()).offer(userId + ":" + quantity);
+        return -1;
+    }
+
+    /**
+     * 退出候补队列，同时移除本地暂存的加入请求
+     * @return 是否移除了用户的候补记录
+     */
+    public boolean leave(Long eventId, Long ticketTypeId, Long userId) {
+        Queue<String> pending = pendingJoins.get(InventoryKeyUtil.pack(eventId, ticketTypeId));
+        boolean removed = pending != null && pending.removeIf(entry -> entry.startsWith(userId + ":"));
+
+        Long quantity = redisTemplate.execute(LEAVE_SCRIPT,
+                Arrays.asList(getWaitlistKey(eventId, ticketTypeId), getMemberKey(eventId, ticketTypeId)),
+                String.valueOf(userId), String.valueOf(LEAVE_SCAN_BATCH));
+        return removed || (quantity != null && quantity > 0);
+    }
+
+    /**
+     * 查询候补队列长度
+     */
+    public long getSize(Long eventId, Long ticketTypeId) {
+        Long size = redisTemplate.opsForList().size(getWaitlistKey(eventId, ticketTypeId));
+        Queue<String> pending = pendingJoins.get(InventoryKeyUtil.pack(eventId, ticketTypeId));
+        return (size == null ? 0 : size) + (pending == null ? 0 : pending.size());
+    }
+
+    /**
+     * 库存释放后分配给排队用户
+     * 分配提交到分配线程执行，先从分片取回释放的数量，再按队列顺序分配，未分配的部分归还分片
+     */
+    @EventListener
+    public void onStockReleased(StockReleasedEvent event) {
+        try {
+            assignExecutor.execute(() -> {
+                try {
+                    assign(event.getEventId(), event.getTicketTypeId(), event.getQuantity());
+                } catch (Exception e) {
+                    log.error("Failed to assign released stock to waitlist for event: {}, ticketType: {}",
+                            event.getEventId(), event.getTicketTypeId(), e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.warn("Waitlist assign queue full, skipped released stock for event: {}, ticketType: {}, stock: {}",
+                    event.getEventId(), event.getTicketTypeId(), event.getQuantity());
+        }
+    }
+
+    /**
+     * 补写本地暂存的加入请求
+     */
+    @Scheduled(fixedDelay = 1000)
+    public void flushPendingJoins() {
+        for (Map.Entry<Long, Queue<String>> entry : pendingJoins.entrySet()) {
+            Long eventId = InventoryKeyUtil.eventId(entry.getKey());
+            Long ticketTypeId = InventoryKeyUtil.ticketTypeId(entry.getKey());
+            Queue<String> pending = entry.getValue();
+            String head;
+            while ((head = pending.peek()) != null) {
+                String[] parts = head.split(":");
+                try {
+                    redisTemplate.execute(JOIN_SCRIPT,
+                            Arrays.asList(getWaitlistKey(eventId, ticketTypeId), getMemberKey(eventId, ticketTypeId)),
+                            parts[0], parts[1]);
+                } catch (Exception e) {
+                    log.warn("Redis still unavailable, {} waitlist joins buffered for event: {}, ticketType: {}",
+                            pending.size(), eventId, ticketTypeId);
+                    break;
+                }
+                pending.poll();
+            }
+        }
+    }
+
+    /**
+     * 分配库存给排队用户
+     * @return 分配的库存数量
+     */
+    @SuppressWarnings("unchecked")
+    private int assign(Long eventId, Long ticketTypeId, int quantity) {
+        Long size = redisTemplate.opsForList().size(getWaitlistKey(eventId, ticketTypeId));
+        if (size == null || size == 0 || quantity <= 0) {
+            return 0;
+        }
+
+        int acquired = inventoryShardingService.acquireBlock(eventId, ticketTypeId, quantity);
+        if (acquired <= 0) {
+            return 0;
+        }
+
+        List<String> assigned = redisTemplate.execute(ASSIGN_SCRIPT,
+                Arrays.asList(getWaitlistKey(eventId, ticketTypeId), getMemberKey(eventId, ticketTypeId)),
+                String.valueOf(acquired));
+        Map<Long, Integer> holds = new LinkedHashMap<>();
+        int used = 0;
+        if (assigned != null) {
+            for (String value : assigned) {
+                String[] parts = value.split(":");
+                int held = Integer.parseInt(parts[1]);
+                holds.put(Long.parseLong(parts[0]), held);
+                used += held;
+            }
+        }
+        if (acquired > used) {
+            inventoryShardingService.returnBlock(eventId, ticketTypeId, acquired - used);
+        }
+        if (holds.isEmpty()) {
+            return 0;
+        }
+
+        long expireAt = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(HOLD_EXPIRE_MINUTES);
+        Set<Long> rejected = inventoryShardingService.recordBulkLocks(eventId, ticketTypeId, holds,
+                TimeUnit.MINUTES.toSeconds(HOLD_EXPIRE_MINUTES));
+        // 已持有锁定的用户未写入，其库存归还分片
+        int unrecorded = 0;
+        for (Long userId : rejected) {
+            unrecorded += holds.remove(userId);
+        }
+        inventoryShardingService.returnBlock(eventId, ticketTypeId, unrecorded);
+        used -= unrecorded;
+        for (Map.Entry<Long, Integer> hold : holds.entrySet()) {
+            notifyOffer(new WaitlistOfferMessage(eventId, ticketTypeId, hold.getKey(), hold.getValue(), expireAt));
+        }
+
+        log.info("Assigned released stock to waitlist for event: {}, ticketType: {}, users: {}, stock: {}",
+                eventId, ticketTypeId, holds.size(), used);
+        return used;
+    }
+
+    /**
+     * 异步通知用户候补成功，发送失败不影响已分配的锁定
+     */
+    private void notifyOffer(WaitlistOfferMessage message) {
+        try {
+            rocketMQTemplate.asyncSend(WAITLIST_OFFER_TOPIC, MessageBuilder.withPayload(message).build(), new SendCallback() {
+                @Override
+                public void onSuccess(SendResult sendResult) {
+                }
+
+                @Override
+                public void onException(Throwable e) {
+                    log.error("Failed to notify waitlist offer for user: {}", message.getUserId(), e);
+                }
+            }, SEND_TIMEOUT);
+        } catch (Exception e) {
+            log.error("Failed to notify waitlist offer for user: {}", message.getUserId(), e);
+        }
+    }
+
+    // 工具方法：生成候补队列key
+    private String getWaitlistKey(Long eventId, Long ticketTypeId) {
+        return "inventory:waitlist:" + eventId + ":" + ticketTypeId;
+    }
+
+    // 工具方法：生成排队用户集合key
+    private String getMemberKey(Long eventId, Long ticketTypeId) {
+        return "inventory:waitlist:members:" + eventId + ":" + ticketTypeId;
+    }
+}
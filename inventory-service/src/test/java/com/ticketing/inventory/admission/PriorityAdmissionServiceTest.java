@@ -0,0 +1,77 @@
+package com.ticketing.inventory.admission;
+
+import com.ticketing.common.exception.BusinessException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.seata.core.context.RootContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PriorityAdmissionServiceTest {
+
+    @InjectMocks
+    private PriorityAdmissionService priorityAdmissionService;
+
+    @Spy
+    private MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        priorityAdmissionService.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        priorityAdmissionService.destroy();
+    }
+
+    @Test
+    void execute_BindsCallerXidInWorker() {
+        RootContext.bind("xid-1");
+        try {
+            assertEquals("xid-1", priorityAdmissionService.execute(AdmissionLane.PRESALE, RootContext::getXID));
+        } finally {
+            RootContext.unbind();
+        }
+
+        assertNull(priorityAdmissionService.execute(AdmissionLane.PRESALE, RootContext::getXID));
+    }
+
+    @Test
+    void execute_WaitsForStartedTaskAfterTimeout() {
+        Boolean locked = priorityAdmissionService.execute(AdmissionLane.GENERAL, () -> {
+            try {
+                Thread.sleep(3500);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return true;
+        });
+
+        assertTrue(locked);
+    }
+
+    @Test
+    void execute_RethrowsBusinessException() {
+        BusinessException exception = assertThrows(BusinessException.class,
+                () -> priorityAdmissionService.execute(AdmissionLane.MEMBER, () -> {
+                    throw new BusinessException("库存不足");
+                }));
+
+        assertEquals("库存不足", exception.getMessage());
+    }
+
+    @Test
+    void getQueueDepths_EmptyAfterCompletion() {
+        priorityAdmissionService.execute(AdmissionLane.GENERAL, () -> true);
+
+        priorityAdmissionService.getQueueDepths().values().forEach(depth -> assertEquals(0, depth.intValue()));
+    }
+}
@@ -0,0 +1,96 @@
+package com.ticketing.inventory.async;
+
+import com.ticketing.inventory.service.InventoryShardingService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.rocketmq.spring.core.RocketMQTemplate;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.messaging.Message;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class AsyncInventoryServiceTest {
+
+    @InjectMocks
+    private AsyncInventoryService asyncInventoryService;
+
+    @Mock
+    private InventoryShardingService inventoryShardingService;
+
+    @Mock
+    private RocketMQTemplate rocketMQTemplate;
+
+    @Mock
+    private DeductIdempotencyFilter idempotencyFilter;
+
+    @Spy
+    private MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private AsyncInventoryService.DeductMessageListener listener;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        when(idempotencyFilter.filterUnprocessed(any()))
+                .thenAnswer(invocation -> new HashSet<>(invocation.<Collection<String>>getArgument(0)));
+        asyncInventoryService.init();
+        listener = asyncInventoryService.new DeductMessageListener();
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        asyncInventoryService.destroy();
+    }
+
+    @Test
+    void batchDeduct_DeductsEachUsersLock() {
+        when(inventoryShardingService.deductStock(1L, 2L, 10L, 1)).thenReturn(true);
+        when(inventoryShardingService.deductStock(1L, 2L, 11L, 2)).thenReturn(true);
+
+        listener.onMessage(new AsyncInventoryService.DeductMessage("op-1", 1L, 2L, 10L, 1, 0));
+        listener.onMessage(new AsyncInventoryService.DeductMessage("op-2", 1L, 2L, 11L, 2, 0));
+
+        verify(idempotencyFilter, timeout(1000)).markProcessed(Arrays.asList("op-1", "op-2"));
+        verify(inventoryShardingService, never()).deductStock(anyLong(), anyLong(), isNull(), anyInt());
+        verify(rocketMQTemplate, never()).syncSend(anyString(), any(Message.class), anyLong(), anyInt());
+    }
+
+    @Test
+    void batchDeduct_RedeliversOnlyFailedRequests() {
+        when(inventoryShardingService.deductStock(1L, 2L, 10L, 1)).thenReturn(true);
+        when(inventoryShardingService.deductStock(1L, 2L, 11L, 2)).thenReturn(false);
+
+        listener.onMessage(new AsyncInventoryService.DeductMessage("op-1", 1L, 2L, 10L, 1, 0));
+        listener.onMessage(new AsyncInventoryService.DeductMessage("op-2", 1L, 2L, 11L, 2, 0));
+
+        verify(idempotencyFilter, timeout(1000)).markProcessed(Arrays.asList("op-1"));
+        verify(rocketMQTemplate, timeout(1000)).syncSend(anyString(),
+                argThat((Message<?> message) -> "op-2".equals(
+                        ((AsyncInventoryService.DeductMessage) message.getPayload()).getOperationId())),
+                anyLong(), anyInt());
+        verify(rocketMQTemplate, times(1)).syncSend(anyString(), any(Message.class), anyLong(), anyInt());
+    }
+
+    @Test
+    void batchDeduct_MarkFailureDoesNotRedeliver() {
+        when(inventoryShardingService.deductStock(1L, 2L, 10L, 1)).thenReturn(true);
+        doThrow(new IllegalStateException("redis down")).when(idempotencyFilter).markProcessed(any());
+
+        listener.onMessage(new AsyncInventoryService.DeductMessage("op-1", 1L, 2L, 10L, 1, 0));
+
+        verify(idempotencyFilter, timeout(1000)).markProcessed(any());
+        verify(rocketMQTemplate, after(200).never()).syncSend(anyString(), any(Message.class), anyLong(), anyInt());
+        verify(inventoryShardingService, times(1)).deductStock(1L, 2L, 10L, 1);
+    }
+}
@@ -0,0 +1,109 @@
+package com.ticketing.inventory.async;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.data.redis.core.SetOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class DeductIdempotencyFilterTest {
+
+    @InjectMocks
+    private DeductIdempotencyFilter idempotencyFilter;
+
+    @Mock
+    private StringRedisTemplate redisTemplate;
+
+    @Mock
+    private SetOperations<String, String> setOperations;
+
+    @Spy
+    private MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        when(redisTemplate.opsForSet()).thenReturn(setOperations);
+        idempotencyFilter.init();
+    }
+
+    @Test
+    void filterUnprocessed_ReturnsNewIdsOnce() {
+        String operationId = DeductIdempotencyFilter.newOperationId();
+
+        Set<String> unprocessed = idempotencyFilter.filterUnprocessed(Arrays.asList(operationId, operationId));
+
+        assertEquals(Collections.singleton(operationId), unprocessed);
+    }
+
+    @Test
+    void filterUnprocessed_SkipsNullIds() {
+        String operationId = DeductIdempotencyFilter.newOperationId();
+
+        Set<String> unprocessed = idempotencyFilter.filterUnprocessed(Arrays.asList(null, operationId));
+
+        assertEquals(Collections.singleton(operationId), unprocessed);
+        assertFalse(idempotencyFilter.isRecentlyProcessed(null));
+    }
+
+    @Test
+    void filterUnprocessed_RemovesIdsFoundInRedis() {
+        String operationId = DeductIdempotencyFilter.newOperationId();
+        when(setOperations.isMember(anyString(), any())).thenReturn(Collections.singletonMap(operationId, true));
+
+        assertTrue(idempotencyFilter.filterUnprocessed(Collections.singletonList(operationId)).isEmpty());
+    }
+
+    @Test
+    void filterUnprocessed_TreatsRedisFailureAsUnprocessed() {
+        String operationId = DeductIdempotencyFilter.newOperationId();
+        when(setOperations.isMember(anyString(), any())).thenThrow(new IllegalStateException("redis down"));
+
+        assertEquals(Collections.singleton(operationId),
+                idempotencyFilter.filterUnprocessed(Collections.singletonList(operationId)));
+    }
+
+    @Test
+    void markProcessed_FiltersFromMemoryWithoutRedis() {
+        String operationId = DeductIdempotencyFilter.newOperationId();
+
+        idempotencyFilter.markProcessed(Collections.singletonList(operationId));
+
+        verify(setOperations).add(anyString(), eq(operationId));
+        verify(redisTemplate).expire(anyString(), anyLong(), eq(TimeUnit.HOURS));
+        assertTrue(idempotencyFilter.isRecentlyProcessed(operationId));
+        assertTrue(idempotencyFilter.filterUnprocessed(Collections.singletonList(operationId)).isEmpty());
+        verify(setOperations, never()).isMember(anyString(), any());
+    }
+
+    @Test
+    void markProcessed_IgnoresNullIds() {
+        idempotencyFilter.markProcessed(Collections.singletonList(null));
+
+        verifyNoInteractions(setOperations);
+    }
+
+    @Test
+    void markProcessed_KeepsMemoryWhenRedisFails() {
+        String operationId = DeductIdempotencyFilter.newOperationId();
+        when(setOperations.add(anyString(), any())).thenThrow(new IllegalStateException("redis down"));
+
+        idempotencyFilter.markProcessed(Collections.singletonList(operationId));
+
+        assertTrue(idempotencyFilter.isRecentlyProcessed(operationId));
+    }
+}
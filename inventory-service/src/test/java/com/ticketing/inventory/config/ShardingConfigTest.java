@@ -0,0 +1,27 @@
+package com.ticketing.inventory.config;
+
+import com.ticketing.inventory.config.ShardingConfig.DynamicExpansionConfig;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShardingConfigTest {
+
+    @Test
+    void generateExpandedRule_CoversAllDatabases() {
+        assertEquals("ds${0..17}.t_inventory_${0..19}", DynamicExpansionConfig.generateExpandedRule(18));
+    }
+
+    @Test
+    void registeredDatabaseCount_RequiresNameAndDataNode() {
+        assertEquals(16, DynamicExpansionConfig.registeredDatabaseCount(
+                "ds0,ds1,ds2,ds3,ds4,ds5,ds6,ds7,ds8,ds9,ds10,ds11,ds12,ds13,ds14,ds15,ds16",
+                "ds${0..15}.t_inventory_${0..19}"));
+        assertEquals(18, DynamicExpansionConfig.registeredDatabaseCount(
+                "ds0, ds1, ds2, ds3, ds4, ds5, ds6, ds7, ds8, ds9, ds10, ds11, ds12, ds13, ds14, ds15, ds16, ds17",
+                DynamicExpansionConfig.generateExpandedRule(18)));
+        assertEquals(2, DynamicExpansionConfig.registeredDatabaseCount(
+                "ds0,ds1,ds3", "ds0.t_inventory_0,ds1.t_inventory_0,ds2.t_inventory_0,ds3.t_inventory_0"));
+        assertEquals(0, DynamicExpansionConfig.registeredDatabaseCount(null, "ds${0..15}.t_inventory_${0..19}"));
+    }
+}
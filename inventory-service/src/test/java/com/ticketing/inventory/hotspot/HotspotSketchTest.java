@@ -0,0 +1,67 @@
+package com.ticketing.inventory.hotspot;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HotspotSketchTest {
+
+    @Test
+    void estimate_NeverUnderCounts() {
+        SlidingWindowCountMinSketch sketch = new SlidingWindowCountMinSketch(4, 1024, 3);
+        for (long key = 0; key < 2000; key++) {
+            for (int i = 0; i < key % 7; i++) {
+                sketch.add(key);
+            }
+        }
+
+        for (long key = 0; key < 2000; key++) {
+            assertTrue(sketch.estimate(key) >= key % 7);
+        }
+    }
+
+    @Test
+    void advance_ExpiresOldestSlot() {
+        SlidingWindowCountMinSketch sketch = new SlidingWindowCountMinSketch(4, 1024, 2);
+        sketch.add(42L);
+        sketch.advance();
+        sketch.add(42L);
+        assertEquals(2, sketch.estimate(42L));
+
+        sketch.advance();
+        assertEquals(1, sketch.estimate(42L));
+
+        sketch.advance();
+        assertEquals(0, sketch.estimate(42L));
+    }
+
+    @Test
+    void topK_KeepsHeavyHitters() {
+        SpaceSavingTopK topK = new SpaceSavingTopK(3);
+        for (long key = 100; key < 200; key++) {
+            topK.offer(key, 1);
+        }
+        topK.offer(1L, 500);
+        topK.offer(2L, 300);
+
+        List<SpaceSavingTopK.Entry> top = topK.top();
+        assertEquals(3, top.size());
+        assertEquals(1L, top.get(0).getKey());
+        assertEquals(2L, top.get(1).getKey());
+    }
+
+    @Test
+    void decay_RemovesColdKeys() {
+        SpaceSavingTopK topK = new SpaceSavingTopK(10);
+        topK.offer(1L, 8);
+        topK.offer(2L, 1);
+
+        topK.decay(1);
+
+        List<SpaceSavingTopK.Entry> top = topK.top();
+        assertEquals(1, top.size());
+        assertEquals(4, top.get(0).getCount());
+    }
+}
@@ -0,0 +1,85 @@
+package com.ticketing.inventory.journal;
+
+import com.ticketing.common.utils.InventoryKeyUtil;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InventoryJournalTest {
+
+    private static final long KEY = InventoryKeyUtil.pack(1L, 2L);
+
+    @Test
+    void recover_RebuildsStateFromSegments(@TempDir Path dir) throws Exception {
+        InventoryJournal journal = open(dir);
+        journal.append(JournalOp.INIT, 1L, 2L, -1, 100, null);
+        journal.append(JournalOp.LOCK, 1L, 2L, 0, 3, 10L);
+        journal.append(JournalOp.DEDUCT, 1L, 2L, -1, 2, 10L);
+        journal.append(JournalOp.RELEASE, 1L, 2L, 0, 1, 10L);
+
+        // 不经过停机快照，模拟进程崩溃后重启
+        InventoryJournal recovered = open(dir);
+        assertArrayEquals(new long[]{98, 0, 2}, recovered.copyState().get(KEY));
+        recovered.destroy();
+    }
+
+    @Test
+    void recover_ReplaysRecordsAfterSnapshot(@TempDir Path dir) throws Exception {
+        InventoryJournal journal = open(dir);
+        journal.append(JournalOp.INIT, 1L, 2L, -1, 100, null);
+        journal.append(JournalOp.LOCK, 1L, 2L, 0, 5, 10L);
+        journal.destroy();
+
+        InventoryJournal restarted = open(dir);
+        assertEquals(3, restarted.append(JournalOp.LOCK, 1L, 2L, 1, 4, 11L));
+
+        InventoryJournal recovered = open(dir);
+        assertArrayEquals(new long[]{91, 9, 0}, recovered.copyState().get(KEY));
+        recovered.destroy();
+    }
+
+    @Test
+    void append_IgnoresTicketTypesWithoutInit(@TempDir Path dir) throws Exception {
+        InventoryJournal journal = open(dir);
+        journal.append(JournalOp.LOCK, 1L, 2L, 0, 3, 10L);
+        assertNull(journal.copyState().get(KEY));
+
+        journal.append(JournalOp.INIT, 1L, 2L, -1, 10, null);
+        journal.append(JournalOp.LOCK, 1L, 2L, 0, 3, 10L);
+        assertArrayEquals(new long[]{7, 3, 0}, journal.copyState().get(KEY));
+        journal.destroy();
+    }
+
+    @Test
+    void recover_StopsAtCorruptRecord(@TempDir Path dir) throws Exception {
+        InventoryJournal journal = open(dir);
+        journal.append(JournalOp.INIT, 1L, 2L, -1, 100, null);
+        journal.append(JournalOp.LOCK, 1L, 2L, 0, 5, 10L);
+        journal.append(JournalOp.LOCK, 1L, 2L, 1, 7, 11L);
+
+        // 破坏第三条记录的数量字段，模拟写了一半的记录
+        try (Stream<Path> files = Files.list(dir);
+             RandomAccessFile file = new RandomAccessFile(
+                     files.filter(p -> p.toString().endsWith(".log")).findFirst().get().toFile(), "rw")) {
+            file.seek(2 * 64 + 44);
+            file.writeInt(70);
+        }
+
+        InventoryJournal recovered = open(dir);
+        assertArrayEquals(new long[]{95, 5, 0}, recovered.copyState().get(KEY));
+        assertEquals(3, recovered.append(JournalOp.LOCK, 1L, 2L, 1, 7, 11L));
+        recovered.destroy();
+    }
+
+    private InventoryJournal open(Path dir) throws Exception {
+        InventoryJournal journal = new InventoryJournal(dir);
+        journal.init();
+        return journal;
+    }
+}
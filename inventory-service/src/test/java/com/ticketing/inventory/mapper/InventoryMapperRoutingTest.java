@@ -0,0 +1,69 @@
+package com.ticketing.inventory.mapper;
+
+import com.ticketing.common.sharding.BroadcastQueryDetector;
+import com.ticketing.common.sharding.BroadcastQueryDetector.Scope;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InventoryMapperRoutingTest {
+
+    private static final Pattern STATEMENT = Pattern.compile(
+            "<(select|update|insert|delete) id=\"(\\w+)\"[^>]*>(.*?)</\\1>", Pattern.DOTALL);
+
+    @Test
+    void analyze_RequiresEventForDatabase() {
+        assertEquals(Scope.SINGLE_TABLE, BroadcastQueryDetector.analyze(
+                "SELECT * FROM t_inventory WHERE event_id = ? AND sharding_id = ?"));
+        assertEquals(Scope.SINGLE_DATABASE, BroadcastQueryDetector.analyze(
+                "SELECT * FROM t_inventory WHERE event_id = ? AND ticket_type_id = ?"));
+        assertEquals(Scope.ALL_DATABASES, BroadcastQueryDetector.analyze(
+                "SELECT * FROM t_inventory WHERE sharding_id = ?"));
+        assertEquals(Scope.ALL_DATABASES, BroadcastQueryDetector.analyze(
+                "SELECT * FROM t_inventory WHERE event_id = ? OR sharding_id = ?"));
+        assertEquals(Scope.SINGLE_TABLE, BroadcastQueryDetector.analyze(
+                "INSERT INTO t_inventory (id, event_id, sharding_id) VALUES (?, ?, ?)"));
+        assertEquals(Scope.UNSHARDED, BroadcastQueryDetector.analyze("SELECT * FROM t_order WHERE id = ?"));
+    }
+
+    @Test
+    void mapper_HotStatementsHitSingleTable() throws Exception {
+        Map<String, String> statements = loadStatements();
+        assertEquals(Scope.SINGLE_TABLE, BroadcastQueryDetector.analyze(statements.get("selectBySharding")));
+        assertEquals(Scope.SINGLE_TABLE, BroadcastQueryDetector.analyze(statements.get("updateStock")));
+    }
+
+    @Test
+    void mapper_FanoutStatementsAreDeclared() throws Exception {
+        for (Map.Entry<String, String> entry : loadStatements().entrySet()) {
+            Scope scope = BroadcastQueryDetector.analyze(entry.getValue());
+            if (scope == Scope.SINGLE_DATABASE || scope == Scope.ALL_DATABASES) {
+                assertTrue(entry.getValue().contains(BroadcastQueryDetector.FANOUT_MARKER),
+                        entry.getKey() + " fans out without " + BroadcastQueryDetector.FANOUT_MARKER);
+            }
+        }
+    }
+
+    // 读取映射文件中的语句，参数占位符替换为?
+    private Map<String, String> loadStatements() throws Exception {
+        String xml = new String(Files.readAllBytes(Paths.get("src", "main", "resources", "mapper", "InventoryMapper.xml")),
+                StandardCharsets.UTF_8);
+        Map<String, String> statements = new HashMap<>();
+        Matcher matcher = STATEMENT.matcher(xml);
+        while (matcher.find()) {
+            statements.put(matcher.group(2), matcher.group(3)
+                    .replaceAll("<[^>]+>", " ")
+                    .replaceAll("#\\{[^}]+}", "?"));
+        }
+        assertFalse(statements.isEmpty());
+        return statements;
+    }
+}
@@ -0,0 +1,159 @@
+package com.ticketing.inventory.presale;
+
+import com.ticketing.common.exception.BusinessException;
+import com.ticketing.inventory.admission.AdmissionLane;
+import com.ticketing.inventory.admission.PriorityAdmissionService;
+import com.ticketing.inventory.service.InventoryService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.InOrder;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.SetOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class PresaleCodeServiceTest {
+
+    private static final Long EVENT_ID = 1L;
+
+    private static final String BITMAP_KEY = "inventory:presale:used:1";
+
+    private static final String REVOKED_KEY = "inventory:presale:revoked:1";
+
+    @InjectMocks
+    private PresaleCodeService presaleCodeService;
+
+    @Mock
+    private StringRedisTemplate redisTemplate;
+
+    @Mock
+    private InventoryService inventoryService;
+
+    @Mock
+    private PriorityAdmissionService priorityAdmissionService;
+
+    @Mock
+    private ValueOperations<String, String> valueOperations;
+
+    @Mock
+    private HashOperations<String, Object, Object> hashOperations;
+
+    @Mock
+    private SetOperations<String, String> setOperations;
+
+    @TempDir
+    Path tempDir;
+
+    private int index;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        MockitoAnnotations.openMocks(this);
+        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        doReturn(hashOperations).when(redisTemplate).opsForHash();
+        when(redisTemplate.opsForSet()).thenReturn(setOperations);
+        when(hashOperations.putIfAbsent(anyString(), eq("path"), anyString())).thenReturn(true);
+        when(valueOperations.setBit(eq(BITMAP_KEY), anyLong(), eq(true))).thenReturn(false);
+
+        Path file = tempDir.resolve("codes.txt");
+        Files.write(file, "CODE-1\n".getBytes(StandardCharsets.UTF_8));
+        presaleCodeService.register(EVENT_ID, file.toString());
+        index = PresaleCodeSet.load(file).indexOf("CODE-1");
+    }
+
+    @Test
+    void register_RejectsExistingEvent() {
+        when(hashOperations.putIfAbsent(anyString(), eq("path"), anyString())).thenReturn(false);
+
+        assertThrows(BusinessException.class, () -> presaleCodeService.register(EVENT_ID, "other.txt"));
+    }
+
+    @Test
+    void lockStock_RevokesCodeWhenRequestNeverRan() {
+        when(priorityAdmissionService.execute(eq(AdmissionLane.PRESALE), any()))
+                .thenThrow(new BusinessException("系统繁忙，请稍后重试"));
+
+        assertThrows(BusinessException.class,
+                () -> presaleCodeService.lockStock(EVENT_ID, 2L, 3L, 1, "CODE-1"));
+        verify(valueOperations).setBit(BITMAP_KEY, index, false);
+    }
+
+    @Test
+    void lockStock_RevokesCodeWhenLockFails() {
+        runAdmittedAction();
+        when(inventoryService.lockStock(EVENT_ID, 2L, 3L, 1)).thenThrow(new BusinessException("库存不足"));
+
+        assertThrows(BusinessException.class,
+                () -> presaleCodeService.lockStock(EVENT_ID, 2L, 3L, 1, "CODE-1"));
+        verify(valueOperations).setBit(BITMAP_KEY, index, false);
+    }
+
+    @Test
+    void lockStock_KeepsCodeWhenLockOutcomeUnknown() {
+        // 锁定已开始执行，调用方在等待结果时被打断
+        when(inventoryService.lockStock(EVENT_ID, 2L, 3L, 1)).thenReturn(true);
+        when(priorityAdmissionService.execute(eq(AdmissionLane.PRESALE), any())).thenAnswer(invocation -> {
+            ((Supplier<?>) invocation.getArgument(1)).get();
+            throw new BusinessException("请求被中断");
+        });
+
+        assertThrows(BusinessException.class,
+                () -> presaleCodeService.lockStock(EVENT_ID, 2L, 3L, 1, "CODE-1"));
+        verify(valueOperations, never()).setBit(BITMAP_KEY, index, false);
+    }
+
+    @Test
+    void lockStock_KeepsCodeWhenLocked() {
+        runAdmittedAction();
+        when(inventoryService.lockStock(EVENT_ID, 2L, 3L, 1)).thenReturn(true);
+
+        assertTrue(presaleCodeService.lockStock(EVENT_ID, 2L, 3L, 1, "CODE-1"));
+        verify(valueOperations, never()).setBit(BITMAP_KEY, index, false);
+    }
+
+    @Test
+    void revoke_RecordsRevocationBeforeClearingBit() {
+        presaleCodeService.revoke(EVENT_ID, index);
+
+        InOrder order = inOrder(setOperations, valueOperations);
+        order.verify(setOperations).add(REVOKED_KEY, String.valueOf(index));
+        order.verify(valueOperations).setBit(BITMAP_KEY, index, false);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void syncAndSnapshot_DoesNotRestoreRevokedCode() {
+        ReflectionTestUtils.setField(presaleCodeService, "snapshotDir", tempDir.resolve("snapshots"));
+        assertEquals(index, presaleCodeService.consume(EVENT_ID, "CODE-1"));
+        // 其他实例归还了该码，Redis中的位已清除，本实例的本地位图仍是已消费
+        when(setOperations.members("inventory:presale:index")).thenReturn(Collections.singleton("1"));
+        when(setOperations.members(REVOKED_KEY)).thenReturn(Collections.singleton(String.valueOf(index)));
+
+        presaleCodeService.syncAndSnapshot();
+
+        verify(redisTemplate, never()).executePipelined(any(RedisCallback.class));
+        assertEquals(index, presaleCodeService.consume(EVENT_ID, "CODE-1"));
+        verify(setOperations, times(2)).remove(REVOKED_KEY, String.valueOf(index));
+    }
+
+    private void runAdmittedAction() {
+        when(priorityAdmissionService.execute(eq(AdmissionLane.PRESALE), any()))
+                .thenAnswer(invocation -> ((Supplier<?>) invocation.getArgument(1)).get());
+    }
+}
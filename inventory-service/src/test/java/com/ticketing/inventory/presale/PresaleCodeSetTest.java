@@ -0,0 +1,80 @@
+package com.ticketing.inventory.presale;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PresaleCodeSetTest {
+
+    @Test
+    void indexOf_FindsEveryLoadedCode() throws Exception {
+        Path file = Files.createTempFile("presale", ".txt");
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            content.append("CODE-").append(i).append('\n');
+        }
+        content.append("\n");
+        Files.write(file, content.toString().getBytes(StandardCharsets.UTF_8));
+
+        PresaleCodeSet codeSet = PresaleCodeSet.load(file);
+        assertEquals(10000, codeSet.size());
+
+        Set<Integer> indexes = new HashSet<>();
+        for (int i = 0; i < 10000; i++) {
+            int index = codeSet.indexOf("CODE-" + i);
+            assertTrue(index >= 0 && index < codeSet.size());
+            indexes.add(index);
+        }
+        assertEquals(10000, indexes.size());
+        Files.delete(file);
+    }
+
+    @Test
+    void indexOf_RejectsUnknownCodes() {
+        PresaleCodeSet codeSet = PresaleCodeSet.of("ABC123", "XYZ789");
+        assertEquals(-1, codeSet.indexOf("NOPE"));
+        assertEquals(-1, codeSet.indexOf(""));
+    }
+
+    @Test
+    void indexOf_IgnoresCaseAndWhitespace() {
+        PresaleCodeSet codeSet = PresaleCodeSet.of("abc123");
+        assertEquals(codeSet.indexOf("ABC123"), codeSet.indexOf("  abc123 "));
+        assertTrue(codeSet.indexOf("ABC123") >= 0);
+    }
+
+    @Test
+    void of_DeduplicatesCodes() {
+        PresaleCodeSet codeSet = PresaleCodeSet.of("A", "B", "a", "B");
+        assertEquals(2, codeSet.size());
+    }
+
+    @Test
+    void toBitSet_UsesRedisBitOrder() {
+        // Redis的SETBIT 0对应首字节最高位
+        byte[] bitmap = {(byte) 0x80, 0x01};
+        BitSet bits = PresaleCodeService.toBitSet(bitmap);
+        assertTrue(bits.get(0));
+        assertTrue(bits.get(15));
+        assertEquals(2, bits.cardinality());
+    }
+
+    @Test
+    void toBitmap_RoundTripsThroughRedisBitOrder() {
+        BitSet bits = new BitSet();
+        bits.set(0);
+        bits.set(9);
+        bits.set(23);
+
+        byte[] bitmap = PresaleCodeService.toBitmap(bits);
+        assertArrayEquals(new byte[]{(byte) 0x80, 0x40, 0x01}, bitmap);
+        assertEquals(bits, PresaleCodeService.toBitSet(bitmap));
+    }
+}
@@ -0,0 +1,72 @@
+package com.ticketing.inventory.reconcile;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReconcileLedgerTest {
+
+    @Test
+    void databaseImbalance_ComparesTotalWithParts() {
+        assertEquals(0, new ReconcileLedger(100, 60, 10, 30).databaseImbalance());
+        assertEquals(-2, new ReconcileLedger(100, 62, 10, 30).databaseImbalance());
+    }
+
+    @Test
+    void expectedRedisStock_SubtractsPaidHoldsAndLeases() {
+        ReconcileLedger ledger = new ReconcileLedger(100, 60, 10, 30);
+        assertEquals(45, ledger.expectedRedisStock(30, 15, 10));
+    }
+
+    @Test
+    void correctionLimit_BoundedByRatioAndAbsoluteMax() {
+        assertEquals(1, new ReconcileLedger(50, 50, 0, 0).correctionLimit(20, 0.01));
+        assertEquals(10, new ReconcileLedger(1000, 1000, 0, 0).correctionLimit(20, 0.01));
+        assertEquals(20, new ReconcileLedger(100000, 100000, 0, 0).correctionLimit(20, 0.01));
+    }
+
+    @Test
+    void correction_RequiresIdenticalPreviousObservation() {
+        ReconcileLedger.Observation current = new ReconcileLedger.Observation(3, 50, 2);
+        assertEquals(0, ReconcileLedger.correction(null, current, 10));
+        assertEquals(0, ReconcileLedger.correction(new ReconcileLedger.Observation(3, 51, 2), current, 10));
+        assertEquals(3, ReconcileLedger.correction(new ReconcileLedger.Observation(3, 50, 2), current, 10));
+    }
+
+    @Test
+    void correction_OnlyWithdrawsSurplus() {
+        ReconcileLedger.Observation shortfall = new ReconcileLedger.Observation(-4, 40, 0);
+        assertEquals(0, ReconcileLedger.correction(shortfall, shortfall, 10));
+    }
+
+    @Test
+    void correction_SkipsDriftBeyondLimit() {
+        ReconcileLedger.Observation observation = new ReconcileLedger.Observation(30, 10, 0);
+        assertEquals(0, ReconcileLedger.correction(observation, observation, 20));
+    }
+
+    @Test
+    void restoration_ReturnsShortfallUpToOutstandingCorrection() {
+        ReconcileLedger.Observation shortfall = new ReconcileLedger.Observation(-4, 40, 0);
+        assertEquals(4, ReconcileLedger.restoration(shortfall, shortfall, 10));
+        assertEquals(3, ReconcileLedger.restoration(shortfall, shortfall, 3));
+        assertEquals(0, ReconcileLedger.restoration(shortfall, shortfall, 0));
+        assertEquals(0, ReconcileLedger.restoration(null, shortfall, 10));
+        assertEquals(0, ReconcileLedger.restoration(new ReconcileLedger.Observation(-4, 41, 0), shortfall, 10));
+    }
+
+    @Test
+    void restoration_IgnoresSurplus() {
+        ReconcileLedger.Observation surplus = new ReconcileLedger.Observation(3, 50, 2);
+        assertEquals(0, ReconcileLedger.restoration(surplus, surplus, 10));
+    }
+
+    @Test
+    void observation_ParsesFormattedValue() {
+        ReconcileLedger.Observation observation = new ReconcileLedger.Observation(-2, 17, 5);
+        assertEquals(observation, ReconcileLedger.Observation.parse(observation.format()));
+        assertNull(ReconcileLedger.Observation.parse("1:2"));
+        assertNull(ReconcileLedger.Observation.parse("a:b:c"));
+        assertNull(ReconcileLedger.Observation.parse(null));
+    }
+}
@@ -0,0 +1,73 @@
+package com.ticketing.inventory.seat;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OffHeapSeatStoreTest {
+
+    @Test
+    void compareAndSet_OnlyFromExpectedStatus() {
+        OffHeapSeatStore store = OffHeapSeatStore.allocate(8);
+        assertTrue(store.compareAndSet(3, 0, 1));
+        assertFalse(store.compareAndSet(3, 0, 1));
+
+        assertEquals(1, store.status(3));
+        assertEquals(0, store.status(2));
+
+        store.set(3, 2);
+        assertEquals(2, store.status(3));
+    }
+
+    @Test
+    void compareAndSet_SingleWinnerUnderContention() throws Exception {
+        OffHeapSeatStore store = OffHeapSeatStore.allocate(1);
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger winners = new AtomicInteger();
+        for (int t = 0; t < threads; t++) {
+            executor.execute(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (store.compareAndSet(0, 0, 1)) {
+                    winners.incrementAndGet();
+                }
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(1, winners.get());
+        assertEquals(1, store.status(0));
+    }
+
+    @Test
+    void open_KeepsRecordsAcrossReopen(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("1.seats");
+        try (OffHeapSeatStore store = OffHeapSeatStore.open(file, 100)) {
+            store.set(99, 1);
+        }
+
+        try (OffHeapSeatStore store = OffHeapSeatStore.open(file, 100)) {
+            assertEquals(1, store.status(99));
+        }
+
+        // 座位数变化时重建
+        try (OffHeapSeatStore store = OffHeapSeatStore.open(file, 200)) {
+            assertEquals(0, store.status(99));
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.ticketing.inventory.seat;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SeatMapFeedTest {
+
+    @Test
+    void changesSince_MergesToLatestState() {
+        SeatMapFeed feed = new SeatMapFeed(16, 0);
+        assertTrue(feed.append("1|3:1,4:1"));
+        assertTrue(feed.append("2|3:2"));
+        assertTrue(feed.append("3|4:0"));
+
+        Map<Integer, Integer> expected = new HashMap<>();
+        expected.put(3, 2);
+        expected.put(4, 0);
+        SeatMapFeed.Delta delta = feed.changesSince(0);
+        assertEquals(3, delta.getVersion());
+        assertEquals(expected, delta.getChanges());
+        assertEquals(Collections.singletonMap(4, 0), feed.changesSince(2).getChanges());
+    }
+
+    @Test
+    void changesSince_EmptyWhenClientIsCurrentOrAhead() {
+        SeatMapFeed feed = new SeatMapFeed(16, 5);
+        assertTrue(feed.changesSince(5).getChanges().isEmpty());
+        SeatMapFeed.Delta ahead = feed.changesSince(9);
+        assertEquals(9, ahead.getVersion());
+        assertTrue(ahead.getChanges().isEmpty());
+    }
+
+    @Test
+    void changesSince_NullOnceVersionLeavesRing() {
+        SeatMapFeed feed = new SeatMapFeed(4, 0);
+        for (int v = 1; v <= 10; v++) {
+            assertTrue(feed.append(v + "|" + v + ":1"));
+        }
+        assertEquals(6, feed.getBaseVersion());
+        assertNull(feed.changesSince(5));
+        assertEquals(4, feed.changesSince(6).getChanges().size());
+    }
+
+    @Test
+    void append_RejectsGaps() {
+        SeatMapFeed feed = new SeatMapFeed(16, 0);
+        assertTrue(feed.append("1|0:1"));
+        assertFalse(feed.append("3|0:0"));
+        assertEquals(1, feed.getVersion());
+
+        feed.reset(3);
+        assertNull(feed.changesSince(1));
+        assertTrue(feed.append("4|0:0"));
+    }
+}
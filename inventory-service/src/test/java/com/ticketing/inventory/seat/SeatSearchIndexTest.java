@@ -0,0 +1,110 @@
+package com.ticketing.inventory.seat;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SeatSearchIndexTest {
+
+    // 两个区域，每个区域3排，每排10个座位
+    private static SeatLayout layout() {
+        List<String> seatIds = new ArrayList<>();
+        List<SeatLayout.Section> sections = new ArrayList<>();
+        String[] names = {"A", "B"};
+        for (int s = 0; s < names.length; s++) {
+            int start = seatIds.size();
+            for (int row = 1; row <= 3; row++) {
+                for (int seat = 1; seat <= 10; seat++) {
+                    seatIds.add(names[s] + row + "-" + seat);
+                }
+            }
+            sections.add(new SeatLayout.Section(names[s], start, seatIds.size(), s + 1));
+        }
+        return new SeatLayout(seatIds, sections);
+    }
+
+    private static byte[] bitmap(int seats, int... taken) {
+        byte[] bitmap = new byte[(seats * 2 + 7) / 8];
+        for (int seat : taken) {
+            bitmap[seat >>> 2] |= (byte) (SeatStatus.LOCKED.getCode() << (6 - ((seat & 3) << 1)));
+        }
+        return bitmap;
+    }
+
+    @Test
+    void layout_SplitsSectionsIntoRows() {
+        SeatLayout layout = layout();
+        assertEquals(6, layout.getRows().size());
+        assertEquals(new SeatLayout.Row(1, 30, 40), layout.getRows().get(3));
+    }
+
+    @Test
+    void find_PrefersCenterOfFrontRow() {
+        SeatSearchIndex index = new SeatSearchIndex(layout(), null);
+        assertArrayEquals(new int[]{4, 5}, index.find(2, null));
+        assertArrayEquals(new int[]{3, 4, 5, 6}, index.find(4, null));
+    }
+
+    @Test
+    void find_SkipsRowsWithoutLongEnoughRun() {
+        // 第一排每隔一个座位被占用，最长连续空座为1
+        SeatSearchIndex index = new SeatSearchIndex(layout(), bitmap(60, 0, 2, 4, 6, 8));
+        int[] seats = index.find(2, null);
+        assertNotNull(seats);
+        assertTrue(seats[0] >= 10 && seats[1] < 20);
+        assertEquals(seats[0] + 1, seats[1]);
+    }
+
+    @Test
+    void find_PlacesInsideRunClosestToCenter() {
+        // 第一排只剩座位0-2和7-9两段
+        SeatSearchIndex index = new SeatSearchIndex(layout(), bitmap(60, 3, 4, 5, 6));
+        assertArrayEquals(new int[]{1, 2}, index.find(2, null));
+    }
+
+    @Test
+    void find_HonorsSectionScoresAndTicketType() {
+        SeatSearchIndex index = new SeatSearchIndex(layout(), null);
+        index.setSectionScores(Collections.singletonMap("B", 10));
+        assertEquals(34, index.find(2, null)[0]);
+        assertEquals(4, index.find(2, 1L)[0]);
+        assertNull(index.find(2, 3L));
+    }
+
+    @Test
+    void reserve_NeverHandsOutSameSeatsTwice() {
+        SeatSearchIndex index = new SeatSearchIndex(layout(), null);
+        boolean[] taken = new boolean[60];
+        int[] seats;
+        int reserved = 0;
+        while ((seats = index.reserve(3, null)) != null) {
+            for (int seat : seats) {
+                assertFalse(taken[seat]);
+                taken[seat] = true;
+            }
+            reserved++;
+        }
+        // 每排10个座位最多放下3组3个
+        assertEquals(18, reserved);
+    }
+
+    @Test
+    void sync_AppliesChangedSeatsOnly() {
+        SeatSearchIndex index = new SeatSearchIndex(layout(), null);
+        index.sync(bitmap(60, 4, 5));
+        assertFalse(index.isFree(4));
+        assertFalse(index.isFree(5));
+        // 两侧离中心一样近，取靠前的一段
+        assertArrayEquals(new int[]{2, 3}, index.find(2, null));
+
+        index.sync(bitmap(60));
+        assertTrue(index.isFree(4));
+        assertArrayEquals(new int[]{4, 5}, index.find(2, null));
+        assertTrue(Arrays.stream(index.find(10, null)).allMatch(seat -> seat < 10));
+    }
+}
@@ -0,0 +1,116 @@
+package com.ticketing.inventory.service;
+
+import com.ticketing.common.exception.BusinessException;
+import com.ticketing.inventory.ballot.BallotGate;
+import com.ticketing.inventory.model.SalesChannel;
+import com.ticketing.inventory.model.StockAvailability;
+import com.ticketing.inventory.service.impl.ChannelQuotaService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class ChannelQuotaServiceTest {
+
+    private static final String CONFIG_KEY = "inventory:channel:config:1:2";
+
+    private static final String APP_QUOTA_KEY = "inventory:channel:quota:1:2:APP";
+
+    @InjectMocks
+    private ChannelQuotaService channelQuotaService;
+
+    @Mock
+    private InventoryShardingService inventoryShardingService;
+
+    @Mock
+    private BallotGate ballotGate;
+
+    @Mock
+    private StringRedisTemplate redisTemplate;
+
+    @Mock
+    private ValueOperations<String, String> valueOperations;
+
+    @Mock
+    private HashOperations<String, Object, Object> hashOperations;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        doReturn(hashOperations).when(redisTemplate).opsForHash();
+        when(hashOperations.multiGet(anyString(), anyCollection())).thenReturn(Arrays.asList(null, null, null, null, null));
+    }
+
+    @Test
+    void configureQuotas_RejectsConcurrentConfiguration() {
+        when(valueOperations.setIfAbsent(CONFIG_KEY, "1")).thenReturn(false);
+
+        assertThrows(BusinessException.class, () -> channelQuotaService.configureQuotas(1L, 2L,
+                Collections.singletonMap(SalesChannel.APP, 50)));
+        verify(inventoryShardingService, never()).acquireBlock(anyLong(), anyLong(), anyInt());
+    }
+
+    @Test
+    void configureQuotas_ReturnsStockWhenQuotaAlreadyExists() {
+        StockAvailability availability = new StockAvailability();
+        availability.setLiveStock(1000);
+        when(valueOperations.setIfAbsent(CONFIG_KEY, "1")).thenReturn(true);
+        when(inventoryShardingService.getAvailability(1L, 2L)).thenReturn(availability);
+        when(inventoryShardingService.acquireBlock(1L, 2L, 500)).thenReturn(500);
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), any())).thenReturn(0L);
+
+        Map<SalesChannel, Integer> assigned = channelQuotaService.configureQuotas(1L, 2L,
+                Collections.singletonMap(SalesChannel.APP, 50));
+
+        assertTrue(assigned.isEmpty());
+        verify(inventoryShardingService).returnBlock(1L, 2L, 500);
+    }
+
+    @Test
+    void configureQuotas_ClearsConfigMarkerOnFailure() {
+        StockAvailability availability = new StockAvailability();
+        availability.setLiveStock(1000);
+        when(valueOperations.setIfAbsent(CONFIG_KEY, "1")).thenReturn(true);
+        when(inventoryShardingService.getAvailability(1L, 2L)).thenReturn(availability);
+        when(inventoryShardingService.acquireBlock(1L, 2L, 500)).thenReturn(500);
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), any())).thenThrow(new IllegalStateException("redis down"));
+        when(redisTemplate.hasKey(APP_QUOTA_KEY)).thenReturn(false);
+
+        assertThrows(IllegalStateException.class, () -> channelQuotaService.configureQuotas(1L, 2L,
+                Collections.singletonMap(SalesChannel.APP, 50)));
+        verify(inventoryShardingService).returnBlock(1L, 2L, 500);
+        verify(redisTemplate).delete(CONFIG_KEY);
+    }
+
+    @Test
+    void lockStock_RollbackGoesToCommonShardsAfterDissolve() {
+        when(hashOperations.get(APP_QUOTA_KEY, "count")).thenReturn("1");
+        // 渠道分片扣减2张后不足，回滚时配额已被解除
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), any())).thenReturn(2L, 0L);
+        when(inventoryShardingService.lockStock(1L, 2L, 7L, 3)).thenReturn(true);
+
+        assertTrue(channelQuotaService.lockStock(1L, 2L, 7L, 3, SalesChannel.APP));
+        verify(inventoryShardingService).returnBlock(1L, 2L, 2);
+        verify(valueOperations, never()).increment(anyString(), anyLong());
+    }
+
+    @Test
+    void dissolveQuotas_ClearsConfigMarker() {
+        assertEquals(0, channelQuotaService.dissolveQuotas(1L, 2L));
+        verify(redisTemplate).delete(CONFIG_KEY);
+    }
+}
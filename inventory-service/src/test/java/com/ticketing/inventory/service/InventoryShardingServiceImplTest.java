@@ -0,0 +1,136 @@
+package com.ticketing.inventory.service;
+
+import com.ticketing.common.exception.BusinessException;
+import com.ticketing.inventory.journal.InventoryJournal;
+import com.ticketing.inventory.journal.JournalOp;
+import com.ticketing.inventory.model.ReleaseWave;
+import com.ticketing.inventory.reconcile.InventoryChangeTracker;
+import com.ticketing.inventory.service.impl.InventoryShardingServiceImpl;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class InventoryShardingServiceImplTest {
+
+    private static final String LOCK_KEY = "inventory:lock:1:2:7";
+
+    private static final String LEASE_KEY = "inventory:lease:1:2:instance";
+
+    @InjectMocks
+    private InventoryShardingServiceImpl inventoryShardingService;
+
+    @Mock
+    private StringRedisTemplate redisTemplate;
+
+    @Mock
+    private InventoryJournal inventoryJournal;
+
+    @Mock
+    private InventoryChangeTracker inventoryChangeTracker;
+
+    @Mock
+    private HashOperations<String, Object, Object> hashOperations;
+
+    @Mock
+    private ValueOperations<String, String> valueOperations;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        when(redisTemplate.<Object, Object>opsForHash()).thenReturn(hashOperations);
+        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+    }
+
+    @Test
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    void recordLeasedLock_NeverOverwritesExistingLock() {
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), any())).thenReturn(3L);
+
+        assertTrue(inventoryShardingService.recordLeasedLock(1L, 2L, 7L, 3, LEASE_KEY));
+
+        ArgumentCaptor<RedisScript> script = ArgumentCaptor.forClass(RedisScript.class);
+        verify(redisTemplate).execute(script.capture(), eq(Arrays.asList(LOCK_KEY, LEASE_KEY)), any());
+        assertTrue(script.getValue().getScriptAsString().contains("'NX'"));
+        verify(inventoryJournal).append(eq(JournalOp.LOCK), eq(1L), eq(2L), anyInt(), eq(3), eq(7L));
+        verify(inventoryChangeTracker).markChanged(1L, 2L);
+    }
+
+    @Test
+    void recordLeasedLock_RejectsUserWithExistingLock() {
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), any())).thenReturn(-2L);
+
+        assertThrows(BusinessException.class,
+                () -> inventoryShardingService.recordLeasedLock(1L, 2L, 7L, 3, LEASE_KEY));
+        verifyNoInteractions(inventoryJournal);
+    }
+
+    @Test
+    void recordLeasedLock_ReturnsFalseForExpiredLease() {
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), any())).thenReturn(-1L);
+
+        assertFalse(inventoryShardingService.recordLeasedLock(1L, 2L, 7L, 3, LEASE_KEY));
+        verifyNoInteractions(inventoryJournal);
+    }
+
+    @Test
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    void configureReleaseWaves_ReservesFirstWave() {
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), any())).thenReturn(100L);
+
+        assertEquals(100, inventoryShardingService.configureReleaseWaves(1L, 2L, 1000L,
+                Arrays.asList(new ReleaseWave(0, 40), new ReleaseWave(10, 60))));
+
+        ArgumentCaptor<RedisScript> script = ArgumentCaptor.forClass(RedisScript.class);
+        verify(redisTemplate).execute(script.capture(), anyList(), any());
+        assertTrue(script.getValue().getScriptAsString().contains("'released', -1"));
+    }
+
+    @Test
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    void releaseDueWaves_ReleasesFirstWaveAtSaleStart() {
+        when(hashOperations.multiGet(eq("inventory:wave:1:2"), anyCollection()))
+                .thenReturn(Arrays.asList("1000", "0:40,600000:60", "-1"));
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), any())).thenReturn(40L);
+
+        assertEquals(0, inventoryShardingService.releaseDueWaves(1L, 2L, 999L));
+        verify(redisTemplate, never()).execute(any(RedisScript.class), anyList(), any());
+
+        assertEquals(40, inventoryShardingService.releaseDueWaves(1L, 2L, 1000L));
+        verify(redisTemplate).execute(any(RedisScript.class), anyList(), any(), eq("0"), eq("40"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void warmupLockPath_LocksAndReleasesWarmupShardOnly() {
+        when(hashOperations.multiGet(eq("inventory:shard:map:1:2"), anyCollection()))
+                .thenReturn(Arrays.asList("3", "4", "4", null));
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), any())).thenReturn(1L);
+
+        assertEquals(2, inventoryShardingService.warmupLockPath(1L, 2L, 2));
+
+        verify(valueOperations).set("inventory:warmup:1:2:0:0", "1", 60L, TimeUnit.SECONDS);
+        verify(redisTemplate, times(2)).execute(any(RedisScript.class),
+                eq(Collections.singletonList("inventory:warmup:1:2:0:0")), eq("1"));
+        verify(redisTemplate, times(2)).execute(any(RedisScript.class),
+                eq(Collections.singletonList("inventory:warmup:map:1:2")),
+                eq("inventory:warmup:1:2:"), eq("0"), eq("0"), eq("1"));
+        verify(redisTemplate).delete(Arrays.asList("inventory:warmup:map:1:2", "inventory:warmup:1:2:0:0"));
+        verify(redisTemplate, never()).execute(any(RedisScript.class),
+                eq(Collections.singletonList("inventory:shard:1:2:3:0")), any());
+    }
+}
@@ -0,0 +1,209 @@
+package com.ticketing.inventory.service;
+
+import com.ticketing.inventory.mapper.TicketTypeMapper;
+import com.ticketing.inventory.service.impl.SeatInventoryServiceImpl;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.ListOperations;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.SetOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class SeatInventoryServiceImplTest {
+
+    private static final Long EVENT_ID = 1L;
+
+    private static final List<String> SEAT_KEYS = Arrays.asList("inventory:seat:status:1", "inventory:seat:holders:1",
+            "inventory:seat:expiry:1", "inventory:seat:orders:1", "inventory:seat:version:1", "inventory:seat:changes:1");
+
+    @InjectMocks
+    private SeatInventoryServiceImpl seatInventoryService;
+
+    @Mock
+    private StringRedisTemplate redisTemplate;
+
+    @Mock
+    private TicketTypeMapper ticketTypeMapper;
+
+    @Mock
+    private HashOperations<String, Object, Object> hashOperations;
+
+    @Mock
+    private ListOperations<String, String> listOperations;
+
+    @Mock
+    private SetOperations<String, String> setOperations;
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        ReflectionTestUtils.setField(seatInventoryService, "seatStoreDir", tempDir);
+        doReturn(hashOperations).when(redisTemplate).opsForHash();
+        when(redisTemplate.opsForList()).thenReturn(listOperations);
+        when(redisTemplate.opsForSet()).thenReturn(setOperations);
+        when(hashOperations.entries("inventory:seat:sections:1")).thenReturn(Collections.singletonMap("A", "0:4:5"));
+        when(redisTemplate.hasKey("inventory:seat:status:1")).thenReturn(true);
+        when(listOperations.range("inventory:seat:ids:1", 0, -1)).thenReturn(Arrays.asList("A-1", "A-2", "A-3", "A-4"));
+        // A-2已被锁定，其余可售
+        when(redisTemplate.execute(any(RedisCallback.class))).thenReturn(new byte[]{0x10, 0x00});
+    }
+
+    @AfterEach
+    void tearDown() {
+        seatInventoryService.destroy();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void lockSeats_RejectsLocallyTakenSeatWithoutRedis() {
+        assertFalse(seatInventoryService.lockSeats(EVENT_ID, Arrays.asList("A-1", "A-2"), 7L, 60));
+
+        verify(redisTemplate, never()).execute(any(RedisScript.class), anyList(), any());
+        assertEquals("AVAILABLE", seatInventoryService.querySeatStatus(EVENT_ID, Collections.singletonList("A-1")).get("A-1"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void lockSeats_ClaimsLocallyBeforeRedis() {
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), any())).thenReturn(1L);
+
+        assertTrue(seatInventoryService.lockSeats(EVENT_ID, Arrays.asList("A-3", "A-4"), 7L, 60));
+        assertFalse(seatInventoryService.lockSeats(EVENT_ID, Collections.singletonList("A-4"), 8L, 60));
+
+        verify(redisTemplate, times(1)).execute(any(RedisScript.class), anyList(), any());
+        Map<String, String> status = seatInventoryService.querySeatStatus(EVENT_ID, Arrays.asList("A-3", "A-4", "B-1"));
+        assertEquals("LOCKED", status.get("A-3"));
+        assertEquals("LOCKED", status.get("A-4"));
+        assertFalse(status.containsKey("B-1"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void lockSeats_ReturnsLocalClaimWhenRedisRejects() {
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), any())).thenReturn(0L);
+
+        assertFalse(seatInventoryService.lockSeats(EVENT_ID, Arrays.asList("A-3", "A-4"), 7L, 60));
+
+        Map<String, String> status = seatInventoryService.querySeatStatus(EVENT_ID, Arrays.asList("A-3", "A-4"));
+        assertEquals("AVAILABLE", status.get("A-3"));
+        assertEquals("AVAILABLE", status.get("A-4"));
+    }
+
+    @Test
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    void lockSeats_PassesHolderExpiryAndSeatIndexesToScript() {
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), any())).thenReturn(1L);
+        long before = System.currentTimeMillis();
+
+        assertTrue(seatInventoryService.lockSeats(EVENT_ID, Arrays.asList("A-3", "A-4", "A-3"), 7L, 60));
+
+        ArgumentCaptor<RedisScript> script = ArgumentCaptor.forClass(RedisScript.class);
+        ArgumentCaptor<String> expireAt = ArgumentCaptor.forClass(String.class);
+        verify(redisTemplate).execute(script.capture(), eq(SEAT_KEYS), eq("7"), expireAt.capture(), eq("2"), eq("3"));
+        long expiry = Long.parseLong(expireAt.getValue());
+        assertTrue(expiry >= before + 60000 && expiry <= System.currentTimeMillis() + 60000);
+        String lua = script.getValue().getScriptAsString();
+        assertTrue(lua.contains("if states[i] ~= 0 then return 0 end"));
+        assertTrue(lua.contains("redis.call('ZADD', KEYS[3], ARGV[2], ARGV[i])"));
+        assertTrue(lua.contains("record(changes)"));
+    }
+
+    @Test
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    void releaseSeats_FreesLocalSeatsWhenScriptReleases() {
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), any())).thenReturn(1L);
+
+        assertTrue(seatInventoryService.releaseSeats(EVENT_ID, Collections.singletonList("A-2"), 7L));
+
+        ArgumentCaptor<RedisScript> script = ArgumentCaptor.forClass(RedisScript.class);
+        verify(redisTemplate).execute(script.capture(), eq(SEAT_KEYS), eq("7"), eq("1"));
+        String lua = script.getValue().getScriptAsString();
+        assertTrue(lua.contains("redis.call('HGET', KEYS[2], ARGV[i]) ~= ARGV[1] then return 0 end"));
+        assertTrue(lua.contains("redis.call('ZREM', KEYS[3], ARGV[i])"));
+        assertEquals("AVAILABLE", seatInventoryService.querySeatStatus(EVENT_ID, Collections.singletonList("A-2")).get("A-2"));
+        // 释放后本地可再次占位
+        assertTrue(seatInventoryService.lockSeats(EVENT_ID, Collections.singletonList("A-2"), 8L, 60));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void releaseSeats_KeepsLocalStateWhenNotHolder() {
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), any())).thenReturn(0L);
+
+        assertFalse(seatInventoryService.releaseSeats(EVENT_ID, Collections.singletonList("A-2"), 8L));
+
+        assertEquals("LOCKED", seatInventoryService.querySeatStatus(EVENT_ID, Collections.singletonList("A-2")).get("A-2"));
+    }
+
+    @Test
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    void confirmSeats_MarksLocalSeatsSold() {
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), any())).thenReturn(1L);
+
+        assertTrue(seatInventoryService.confirmSeats(EVENT_ID, Collections.singletonList("A-2"), 7L, 99L));
+
+        ArgumentCaptor<RedisScript> script = ArgumentCaptor.forClass(RedisScript.class);
+        verify(redisTemplate).execute(script.capture(), eq(SEAT_KEYS), eq("7"), eq("99"), eq("1"));
+        String lua = script.getValue().getScriptAsString();
+        // 同一订单重复确认直接跳过
+        assertTrue(lua.contains("if state == 2 and redis.call('HGET', KEYS[4], ARGV[i]) == ARGV[2] then"));
+        assertTrue(lua.contains("redis.call('HSET', KEYS[4], seat, ARGV[2])"));
+        assertEquals("SOLD", seatInventoryService.querySeatStatus(EVENT_ID, Collections.singletonList("A-2")).get("A-2"));
+        assertFalse(seatInventoryService.lockSeats(EVENT_ID, Collections.singletonList("A-2"), 8L, 60));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void confirmSeats_KeepsLocalStateWhenScriptRejects() {
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), any())).thenReturn(0L);
+
+        assertFalse(seatInventoryService.confirmSeats(EVENT_ID, Collections.singletonList("A-2"), 8L, 99L));
+
+        assertEquals("LOCKED", seatInventoryService.querySeatStatus(EVENT_ID, Collections.singletonList("A-2")).get("A-2"));
+    }
+
+    @Test
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    void reclaimExpiredHolds_ReturnsExpiredSeatsAfterSync() {
+        when(setOperations.members("inventory:seat:index")).thenReturn(Collections.singleton("1"));
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), any())).thenReturn(1L);
+        assertEquals("LOCKED", seatInventoryService.querySeatStatus(EVENT_ID, Collections.singletonList("A-2")).get("A-2"));
+
+        seatInventoryService.reclaimExpiredHolds();
+
+        ArgumentCaptor<RedisScript> script = ArgumentCaptor.forClass(RedisScript.class);
+        verify(redisTemplate).execute(script.capture(), eq(SEAT_KEYS), anyString(), eq("500"));
+        String lua = script.getValue().getScriptAsString();
+        assertTrue(lua.contains("redis.call('ZRANGEBYSCORE', KEYS[3], '-inf', ARGV[1], 'LIMIT', 0, ARGV[2])"));
+        // 只回收仍为锁定的座位，已售座位保持不变
+        assertTrue(lua.contains("if redis.call('BITFIELD', KEYS[1], 'GET', 'u2', '#' .. seat)[1] == 1 then"));
+
+        // 脚本已清除位图中的锁定，下次同步后本地副本随之释放
+        when(redisTemplate.execute(any(RedisCallback.class))).thenReturn(new byte[]{0x00, 0x00});
+        seatInventoryService.syncLocalState();
+        assertEquals("AVAILABLE", seatInventoryService.querySeatStatus(EVENT_ID, Collections.singletonList("A-2")).get("A-2"));
+    }
+}
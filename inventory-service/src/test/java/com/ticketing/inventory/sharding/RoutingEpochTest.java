@@ -0,0 +1,76 @@
+package com.ticketing.inventory.sharding;
+
+import com.ticketing.common.sharding.MigrationPhase;
+import com.ticketing.common.sharding.RoutingEpoch;
+import com.ticketing.common.sharding.ShardRouter;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RoutingEpochTest {
+
+    private final ShardRouter source = new ShardRouter(4, 20, 64);
+    private final ShardRouter target = source.withDatabaseCount(5);
+
+    @Test
+    void range_OnlyEventsMovingToNewDatabase() {
+        RoutingEpoch epoch = RoutingEpoch.migrating(1, source, target, Collections.emptyMap());
+        for (long eventId = 0; eventId < 2000; eventId++) {
+            int range = epoch.range(eventId);
+            boolean moved = source.databaseIndex(eventId) != target.databaseIndex(eventId);
+            assertEquals(moved, range >= 0);
+            if (moved) {
+                assertEquals(4, target.nodeDatabase(range));
+                assertEquals(MigrationPhase.DOUBLE_WRITE, epoch.phase(range));
+            }
+        }
+    }
+
+    @Test
+    void primaryAndMirror_FollowRangePhase() {
+        long eventId = movedEvent();
+        int range = RoutingEpoch.migrating(1, source, target, Collections.emptyMap()).range(eventId);
+        int oldDb = source.databaseIndex(eventId);
+
+        RoutingEpoch doubleWrite = epochWith(range, MigrationPhase.DOUBLE_WRITE);
+        assertEquals(oldDb, doubleWrite.primaryDatabase(eventId));
+        assertEquals(4, doubleWrite.mirrorDatabase(eventId));
+
+        RoutingEpoch cutover = epochWith(range, MigrationPhase.CUTOVER);
+        assertEquals(4, cutover.primaryDatabase(eventId));
+        assertEquals(oldDb, cutover.mirrorDatabase(eventId));
+        assertSame(target.dataSourceName(4), cutover.dataSourceName(eventId));
+
+        RoutingEpoch cleaned = epochWith(range, MigrationPhase.CLEANED);
+        assertEquals(4, cleaned.primaryDatabase(eventId));
+        assertEquals(-1, cleaned.mirrorDatabase(eventId));
+    }
+
+    @Test
+    void stable_NeverMirrors() {
+        RoutingEpoch epoch = RoutingEpoch.stable(0, source);
+        assertFalse(epoch.isMigrating());
+        for (long eventId = 0; eventId < 100; eventId++) {
+            assertEquals(-1, epoch.mirrorDatabase(eventId));
+            assertSame(source.dataSourceName(source.databaseIndex(eventId)), epoch.dataSourceName(eventId));
+        }
+    }
+
+    private RoutingEpoch epochWith(int range, MigrationPhase phase) {
+        Map<Integer, MigrationPhase> phases = new HashMap<>();
+        phases.put(range, phase);
+        return RoutingEpoch.migrating(1, source, target, phases);
+    }
+
+    private long movedEvent() {
+        for (long eventId = 0; ; eventId++) {
+            if (source.databaseIndex(eventId) != target.databaseIndex(eventId)) {
+                return eventId;
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.ticketing.inventory.sharding;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ScatterGatherExecutorTest {
+
+    @Test
+    void execute_MergesAllShards() {
+        ScatterGatherExecutor executor = newExecutor();
+        try {
+            ScatterResult<List<Integer>> result = executor.execute("test", Arrays.asList(0, 1, 2, 3), 1000,
+                    db -> Collections.singletonList(db * 10), new ArrayList<>(), List::addAll);
+            assertTrue(result.isComplete());
+            Collections.sort(result.getValue());
+            assertEquals(Arrays.asList(0, 10, 20, 30), result.getValue());
+            assertEquals(4, result.getLatencies().size());
+        } finally {
+            executor.destroy();
+        }
+    }
+
+    @Test
+    void execute_HedgesSlowShard() {
+        ScatterGatherExecutor executor = newExecutor();
+        Map<Integer, AtomicInteger> attempts = new ConcurrentHashMap<>();
+        try {
+            long start = System.currentTimeMillis();
+            ScatterResult<List<Integer>> result = executor.execute("test", Arrays.asList(0, 1), 2000, db -> {
+                // 1号库的首次请求卡住，对冲请求正常返回
+                if (db == 1 && attempts.computeIfAbsent(db, k -> new AtomicInteger()).incrementAndGet() == 1) {
+                    sleep(5000);
+                }
+                return Collections.singletonList(db);
+            }, new ArrayList<>(), List::addAll);
+            assertTrue(result.isComplete());
+            assertEquals(1, result.getHedges());
+            assertEquals(2, result.getValue().size());
+            assertTrue(System.currentTimeMillis() - start < 1000);
+        } finally {
+            executor.destroy();
+        }
+    }
+
+    @Test
+    void execute_RetriesFailedShard() {
+        ScatterGatherExecutor executor = newExecutor();
+        AtomicInteger attempts = new AtomicInteger();
+        try {
+            ScatterResult<List<Integer>> result = executor.execute("test", Collections.singletonList(0), 1000, db -> {
+                if (attempts.incrementAndGet() == 1) {
+                    throw new IllegalStateException("connection reset");
+                }
+                return Collections.singletonList(db);
+            }, new ArrayList<>(), List::addAll);
+            assertTrue(result.isComplete());
+            assertEquals(2, attempts.get());
+        } finally {
+            executor.destroy();
+        }
+    }
+
+    @Test
+    void execute_ReturnsPartialResultAtDeadline() {
+        ScatterGatherExecutor executor = newExecutor();
+        try {
+            long start = System.currentTimeMillis();
+            ScatterResult<List<Integer>> result = executor.execute("test", Arrays.asList(0, 1, 2), 300, db -> {
+                if (db == 2) {
+                    sleep(5000);
+                }
+                return Collections.singletonList(db);
+            }, new ArrayList<>(), List::addAll);
+            assertFalse(result.isComplete());
+            assertEquals(Collections.singleton(2), result.getTimedOut());
+            assertEquals(2, result.getValue().size());
+            assertTrue(System.currentTimeMillis() - start < 1000);
+            assertEquals(1, executor.getLatencyStats().get(2).get("timeouts").longValue());
+        } finally {
+            executor.destroy();
+        }
+    }
+
+    private ScatterGatherExecutor newExecutor() {
+        ScatterGatherExecutor executor = new ScatterGatherExecutor();
+        executor.init();
+        return executor;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.ticketing.inventory.sharding;
+
+import com.ticketing.common.sharding.ShardRouter;
+
+/**
+ * 路由开销基准
+ * 对比逐次格式化目标名称的旧路由与预先生成目标名称的路由表，输出每次路由的平均耗时
+ * 不属于单元测试，手动运行main方法
+ */
+public class ShardRouterBenchmark {
+
+    private static final int KEYS = 1 << 16;
+    private static final int WARMUP_ROUNDS = 20;
+    private static final int MEASURE_ROUNDS = 50;
+
+    public static void main(String[] args) {
+        ShardRouter router = new ShardRouter(16, 20, 160);
+        long[] userIds = new long[KEYS];
+        long[] eventIds = new long[KEYS];
+        java.util.Random random = new java.util.Random(1);
+        for (int i = 0; i < KEYS; i++) {
+            userIds[i] = random.nextInt(10_000_000);
+            eventIds[i] = random.nextInt(1000);
+        }
+
+        long sink = 0;
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            sink += runLegacy(userIds, eventIds) + runRouter(router, userIds, eventIds);
+        }
+
+        long legacy = 0;
+        long routed = 0;
+        for (int round = 0; round < MEASURE_ROUNDS; round++) {
+            long start = System.nanoTime();
+            sink += runLegacy(userIds, eventIds);
+            legacy += System.nanoTime() - start;
+            start = System.nanoTime();
+            sink += runRouter(router, userIds, eventIds);
+            routed += System.nanoTime() - start;
+        }
+
+        long operations = (long) KEYS * MEASURE_ROUNDS;
+        System.out.printf("legacy String.format routing: %.1f ns/op%n", (double) legacy / operations);
+        System.out.printf("precomputed consistent-hash routing: %.1f ns/op%n", (double) routed / operations);
+        System.out.println("sink: " + sink);
+    }
+
+    // 旧路由：每次计算后格式化目标名称
+    private static long runLegacy(long[] userIds, long[] eventIds) {
+        long sum = 0;
+        for (int i = 0; i < KEYS; i++) {
+            int db = Math.abs((int) ((userIds[i] * 31 + eventIds[i]) % 16));
+            int shard = Math.abs((int) (eventIds[i] % 20));
+            sum += String.format("ds%d.t_inventory_%d", db, shard).length();
+        }
+        return sum;
+    }
+
+    private static long runRouter(ShardRouter router, long[] userIds, long[] eventIds) {
+        long sum = 0;
+        for (int i = 0; i < KEYS; i++) {
+            sum += router.dataSourceName(router.databaseIndex(eventIds[i])).length()
+                    + router.tableName(router.tableIndex(userIds[i], eventIds[i])).length();
+        }
+        return sum;
+    }
+}
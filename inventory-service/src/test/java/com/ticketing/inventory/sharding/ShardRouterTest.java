@@ -0,0 +1,76 @@
+package com.ticketing.inventory.sharding;
+
+import com.ticketing.common.sharding.ShardRouter;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShardRouterTest {
+
+    @Test
+    void names_ReturnInternedTargets() {
+        ShardRouter router = new ShardRouter(16, 20, 160);
+        int db = router.databaseIndex(42L);
+        assertSame(router.dataSourceName(db), router.dataSourceName(router.databaseIndex(42L)));
+        assertSame(("ds" + db).intern(), router.dataSourceName(db));
+        assertSame("t_inventory_2", router.tableName(router.tableIndex(0L, 2L)));
+        assertEquals(11, router.tableIndex(-1L, 0L));
+    }
+
+    @Test
+    void tableIndex_MatchesLegacyShardingId() {
+        ShardRouter router = new ShardRouter(16, 20, 160);
+        Random random = new Random(3);
+        for (int i = 0; i < 10000; i++) {
+            long userId = random.nextInt(10_000_000);
+            long eventId = random.nextInt(1000);
+            assertEquals(Math.abs((userId * 31 + eventId) % 20), router.tableIndex(userId, eventId));
+        }
+    }
+
+    @Test
+    void databaseIndex_MatchesLegacyModulo() {
+        ShardRouter router = new ShardRouter(16, 20, 160);
+        Random random = new Random(5);
+        for (int i = 0; i < 10000; i++) {
+            long eventId = random.nextInt(10_000_000);
+            assertEquals(eventId % 16, router.databaseIndex(eventId));
+        }
+        assertEquals(3, router.databaseIndex(-3L));
+    }
+
+    @Test
+    void databaseIndex_SpreadsEvenly() {
+        ShardRouter router = new ShardRouter(16, 20, 160);
+        int[] counts = new int[16];
+        int events = 160000;
+        for (long eventId = 0; eventId < events; eventId++) {
+            counts[router.databaseIndex(eventId)]++;
+        }
+        for (int count : counts) {
+            assertTrue(Math.abs(count - events / 16) < events / 16 * 0.25, "count: " + count);
+        }
+    }
+
+    @Test
+    void withDatabaseCount_MovesOnlyToNewDatabase() {
+        ShardRouter router = new ShardRouter(16, 20, 160);
+        ShardRouter expanded = router.withDatabaseCount(17);
+        int events = 100000;
+        int moved = 0;
+        for (long eventId = 0; eventId < events; eventId++) {
+            int before = router.databaseIndex(eventId);
+            int after = expanded.databaseIndex(eventId);
+            if (before != after) {
+                assertEquals(16, after);
+                moved++;
+            } else {
+                assertEquals(eventId % 16, after);
+            }
+        }
+        // 期望迁移1/17，约5.9%
+        assertTrue(moved > events * 0.04 && moved < events * 0.08, "moved: " + moved);
+    }
+}
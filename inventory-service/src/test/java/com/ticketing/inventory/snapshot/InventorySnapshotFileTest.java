@@ -0,0 +1,91 @@
+package com.ticketing.inventory.snapshot;
+
+import com.ticketing.inventory.model.TicketTypeSnapshot;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InventorySnapshotFileTest {
+
+    @Test
+    void write_RoundTripsShardsHoldsAndAuxiliaryState(@TempDir Path dir) throws Exception {
+        Path path = dir.resolve("inventory.snap");
+        new InventorySnapshotFile(123L, Collections.singletonList(item(new int[]{5, 0, 7}))).write(path);
+
+        InventorySnapshotFile loaded = InventorySnapshotFile.read(path);
+        assertEquals(123L, loaded.getCreatedAt());
+        assertEquals(1, loaded.getItems().size());
+        TicketTypeSnapshot item = loaded.getItems().get(0);
+        assertEquals(1L, item.getEventId().longValue());
+        assertEquals(2L, item.getTicketTypeId().longValue());
+        assertEquals(3L, item.getEpoch());
+        assertEquals(4, item.getBaseCount());
+        assertTrue(item.isEndgame());
+        assertArrayEquals(new int[]{5, 0, 7}, item.getShardStocks());
+        assertEquals(new TicketTypeSnapshot.Hold(9L, "2;-1:9:2", 60000L, 456L), item.getHolds().get(0));
+        assertEquals(Collections.singletonMap("inventory:reserve:1:2", 6), item.getCounters());
+        assertEquals(Collections.singletonMap("inventory:channel:config:1:2", "1"), item.getValues());
+        assertEquals(Collections.singletonMap("inventory:wave:1:2", Collections.singletonMap("released", "1")),
+                item.getHashes());
+    }
+
+    @Test
+    void read_RejectsCorruptFile(@TempDir Path dir) throws Exception {
+        Path path = dir.resolve("inventory.snap");
+        new InventorySnapshotFile(123L, Collections.singletonList(item(new int[]{5, 0, 7}))).write(path);
+
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.seek(20 + 40);
+            file.writeInt(500);
+        }
+        assertThrows(IOException.class, () -> InventorySnapshotFile.read(path));
+    }
+
+    @Test
+    void capStock_TrimsFromLastShard() {
+        TicketTypeSnapshot item = item(new int[]{5, 3, 4});
+        assertEquals(5, InventorySnapshotFile.capStock(item, 13));
+        assertArrayEquals(new int[]{5, 2, 0}, item.getShardStocks());
+        assertEquals(6, item.getCounters().get("inventory:reserve:1:2").intValue());
+    }
+
+    @Test
+    void capStock_TrimsCountersAfterShards() {
+        TicketTypeSnapshot item = item(new int[]{5, 3});
+        assertEquals(10, InventorySnapshotFile.capStock(item, 4));
+        assertArrayEquals(new int[]{0, 0}, item.getShardStocks());
+        assertEquals(4, item.getCounters().get("inventory:reserve:1:2").intValue());
+    }
+
+    @Test
+    void capStock_KeepsStockWithinAvailable() {
+        TicketTypeSnapshot item = item(new int[]{5, 3});
+        assertEquals(0, InventorySnapshotFile.capStock(item, 20));
+        assertArrayEquals(new int[]{5, 3}, item.getShardStocks());
+
+        assertEquals(14, InventorySnapshotFile.capStock(item, -2));
+        assertArrayEquals(new int[]{0, 0}, item.getShardStocks());
+        assertEquals(0, item.getCounters().get("inventory:reserve:1:2").intValue());
+    }
+
+    private TicketTypeSnapshot item(int[] stocks) {
+        TicketTypeSnapshot item = new TicketTypeSnapshot();
+        item.setEventId(1L);
+        item.setTicketTypeId(2L);
+        item.setEpoch(3L);
+        item.setBaseCount(4);
+        item.setEndgame(true);
+        item.setShardStocks(stocks);
+        item.getHolds().add(new TicketTypeSnapshot.Hold(9L, "2;-1:9:2", 60000L, 456L));
+        item.getCounters().put("inventory:reserve:1:2", 6);
+        item.getValues().put("inventory:channel:config:1:2", "1");
+        item.getHashes().put("inventory:wave:1:2", Collections.singletonMap("released", "1"));
+        return item;
+    }
+}
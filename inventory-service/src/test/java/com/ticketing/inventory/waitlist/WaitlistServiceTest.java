@@ -0,0 +1,113 @@
+package com.ticketing.inventory.waitlist;
+
+import com.ticketing.inventory.service.InventoryShardingService;
+import org.apache.rocketmq.client.producer.SendCallback;
+import org.apache.rocketmq.spring.core.RocketMQTemplate;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.data.redis.core.ListOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.messaging.Message;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class WaitlistServiceTest {
+
+    private static final List<String> KEYS = Arrays.asList(
+            "inventory:waitlist:1:2", "inventory:waitlist:members:1:2");
+
+    @InjectMocks
+    private WaitlistService waitlistService;
+
+    @Mock
+    private InventoryShardingService inventoryShardingService;
+
+    @Mock
+    private StringRedisTemplate redisTemplate;
+
+    @Mock
+    private RocketMQTemplate rocketMQTemplate;
+
+    @Mock
+    private ListOperations<String, String> listOperations;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        when(redisTemplate.opsForList()).thenReturn(listOperations);
+        waitlistService.init();
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        waitlistService.destroy();
+    }
+
+    @Test
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    void leave_RemovesMemberOnlyThroughQueueScript() {
+        when(redisTemplate.execute(any(RedisScript.class), eq(KEYS), any())).thenReturn(2L);
+
+        assertTrue(waitlistService.leave(1L, 2L, 7L));
+
+        ArgumentCaptor<RedisScript> script = ArgumentCaptor.forClass(RedisScript.class);
+        verify(redisTemplate).execute(script.capture(), eq(KEYS), eq("7"), anyString());
+        String source = script.getValue().getScriptAsString();
+        assertTrue(source.indexOf("LREM") < source.indexOf("SREM"));
+        verify(redisTemplate, never()).opsForSet();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void leave_ReturnsFalseWhenNotQueued() {
+        when(redisTemplate.execute(any(RedisScript.class), eq(KEYS), any())).thenReturn(0L);
+
+        assertFalse(waitlistService.leave(1L, 2L, 7L));
+        verify(redisTemplate, never()).opsForSet();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void leave_RemovesBufferedJoin() {
+        when(redisTemplate.execute(any(RedisScript.class), eq(KEYS), any()))
+                .thenThrow(new IllegalStateException("redis down"))
+                .thenReturn(0L);
+        when(listOperations.size(KEYS.get(0))).thenReturn(0L);
+
+        assertEquals(-1, waitlistService.join(1L, 2L, 7L, 2));
+        assertEquals(1, waitlistService.getSize(1L, 2L));
+
+        assertTrue(waitlistService.leave(1L, 2L, 7L));
+        assertEquals(0, waitlistService.getSize(1L, 2L));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void onStockReleased_AssignsOffCallerThreadAndSendsAsync() {
+        when(listOperations.size(KEYS.get(0))).thenReturn(1L);
+        when(inventoryShardingService.acquireBlock(1L, 2L, 2)).thenReturn(2);
+        when(redisTemplate.execute(any(RedisScript.class), eq(KEYS), any()))
+                .thenReturn(Collections.singletonList("7:2"));
+        when(inventoryShardingService.recordBulkLocks(eq(1L), eq(2L), anyMap(), anyLong()))
+                .thenReturn(Collections.emptySet());
+
+        waitlistService.onStockReleased(new StockReleasedEvent(1L, 2L, 2));
+
+        verify(rocketMQTemplate, timeout(1000)).asyncSend(anyString(), any(Message.class),
+                any(SendCallback.class), anyLong());
+        verify(rocketMQTemplate, never()).syncSend(anyString(), any(Message.class), anyLong());
+        verify(inventoryShardingService).returnBlock(1L, 2L, 0);
+    }
+}
@@ -0,0 +1,27 @@
+package com.ticketing.order.controller;
+
+import com.ticketing.common.response.Result;
+import com.ticketing.order.service.OrderStatisticsService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+/**
+ * 订单统计控制器
+ */
+@RestController
+@RequestMapping("/order/statistics")
+public class OrderStatisticsController {
+
+    @Autowired
+    private OrderStatisticsService orderStatisticsService;
+
+    /**
+     * 查询场次各票种的已支付数量
+     */
+    @GetMapping("/paid")
+    public Result<Map<Long, Integer>> getPaidQuantities(@RequestParam("eventId") Long eventId) {
+        return Result.success(orderStatisticsService.getPaidQuantities(eventId));
+    }
+}
@@ -80,6 +80,30 @@ public interface OrderMapper extends BaseMapper<Order> {
     @Select("SELECT COUNT(*) FROM t_order WHERE user_id = #{userId} AND event_id = #{eventId} AND deleted = 0")
     int countUserEventOrders(@Param("userId") Long userId, @Param("eventId") Long eventId);
 
+    /**
+     * 查询指定用户中已有票种待支付或已支付订单的用户
+     * @param eventId 场次ID
+     * @param ticketTypeId 票种ID
+     * @param userIds 用户ID列表
+     * @return 已下单的用户ID列表
+     */
+    @Select({
+        "<script>",
+        "SELECT DISTINCT user_id FROM t_order",
+        "WHERE event_id = #{eventId}",
+        "AND ticket_type_id = #{ticketTypeId}",
+        "AND user_id IN",
+        "<foreach collection='userIds' item='userId' open='(' separator=',' close=')'>",
+        "  #{userId}",
+        "</foreach>",
+        "AND status IN (0, 1)",  // 待支付或已支付
+        "AND deleted = 0",
+        "</script>"
+    })
+    List<Long> selectOrderedUserIds(@Param("eventId") Long eventId,
+                                    @Param("ticketTypeId") Long ticketTypeId,
+                                    @Param("userIds") List<Long> userIds);
+
     /**
      * 统计指定时间范围内的订单总数和金额
      */
@@ -25,6 +25,13 @@ public interface OrderStatisticsService {
      */
     List<Map<String, Object>> getTicketTypeSalesStatistics(Long eventId);
 
+    /**
+     * 查询指定场次各票种的已支付数量，不走缓存，查询失败时抛出异常
+     * @param eventId 场次ID
+     * @return 票种ID到已支付数量的映射
+     */
+    Map<Long, Integer> getPaidQuantities(Long eventId);
+
     /**
      * 获取用户消费统计
      * @param userId 用户ID
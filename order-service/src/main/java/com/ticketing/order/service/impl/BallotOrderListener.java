@@ -0,0 +1,125 @@
+package com.ticketing.order.service.impl;
+
+import com.ticketing.common.entity.Order;
+import com.ticketing.common.entity.OrderItem;
+import com.ticketing.common.message.BallotResultMessage;
+import com.ticketing.order.mapper.OrderItemMapper;
+import com.ticketing.order.mapper.OrderMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.rocketmq.spring.annotation.RocketMQMessageListener;
+import org.apache.rocketmq.spring.core.RocketMQListener;
+import org.apache.rocketmq.spring.core.RocketMQTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 抽签结果监听器
+ * 为中签用户批量创建待支付订单，库存已由库存服务锁定
+ * - 一批用户的订单和订单项在同一个事务中写入，支付和关单按订单项核销或释放锁定
+ * - 已有同票种待支付或已支付订单的用户跳过，消息重投不会重复创建订单，其锁定过期后由库存服务回收
+ */
+@Slf4j
+@Service
+@RocketMQMessageListener(
+        topic = "ballot-result-topic",
+        consumerGroup = "order-ballot-group"
+)
+public class BallotOrderListener implements RocketMQListener<BallotResultMessage> {
+
+    @Autowired
+    private OrderMapper orderMapper;
+
+    @Autowired
+    private OrderItemMapper orderItemMapper;
+
+    @Autowired
+    private RocketMQTemplate rocketMQTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Value("${order.pay-timeout}")
+    private Integer payTimeout;
+
+    @Value("${order.number-prefix}")
+    private String orderNumberPrefix;
+
+    @Override
+    public void onMessage(BallotResultMessage message) {
+        // 未中签结果由通知服务处理
+        if (!message.isWon() || message.getAllocations() == null || message.getAllocations().isEmpty()) {
+            return;
+        }
+
+        List<Long> userIds = new ArrayList<>(message.getAllocations().size());
+        for (BallotResultMessage.Allocation allocation : message.getAllocations()) {
+            userIds.add(allocation.getUserId());
+        }
+        Set<Long> ordered = new HashSet<>(
+                orderMapper.selectOrderedUserIds(message.getEventId(), message.getTicketTypeId(), userIds));
+
+        LocalDateTime now = LocalDateTime.now();
+        BigDecimal unitPrice = message.getUnitPrice() != null ? message.getUnitPrice() : BigDecimal.ZERO;
+        List<Order> orders = new ArrayList<>(userIds.size());
+        for (BallotResultMessage.Allocation allocation : message.getAllocations()) {
+            if (ordered.contains(allocation.getUserId())) {
+                continue;
+            }
+            orders.add(new Order()
+                    .setOrderNo(generateOrderNumber(now, allocation.getUserId()))
+                    .setUserId(allocation.getUserId())
+                    .setEventId(message.getEventId())
+                    .setTicketTypeId(message.getTicketTypeId())
+                    .setQuantity(allocation.getQuantity())
+                    .setAmount(unitPrice.multiply(BigDecimal.valueOf(allocation.getQuantity())))
+                    .setStatus(OrderServiceImpl.STATUS_PENDING_PAYMENT)
+                    .setCreateTime(now)
+                    .setUpdateTime(now)
+                    .setExpireTime(now.plusMinutes(payTimeout)));
+        }
+
+        transactionTemplate.executeWithoutResult(status -> {
+            for (Order order : orders) {
+                orderMapper.insert(order);
+
+                // 创建订单项
+                OrderItem orderItem = new OrderItem()
+                        .setOrderId(order.getId())
+                        .setTicketTypeId(order.getTicketTypeId())
+                        .setQuantity(order.getQuantity())
+                        .setUnitPrice(unitPrice)
+                        .setAmount(order.getAmount());
+                orderItemMapper.insert(orderItem);
+            }
+        });
+
+        // 发送延迟消息，用于关闭超时未支付的订单
+        for (Order order : orders) {
+            rocketMQTemplate.syncSend("order-timeout-check",
+                    MessageBuilder.withPayload(order.getId()).build(),
+                    3000,
+                    payTimeout);
+        }
+
+        log.info("Created ballot orders for batch: {}, orders: {}, skipped: {}",
+                message.getBatchId(), orders.size(), ordered.size());
+    }
+
+    /**
+     * 生成订单号，同一批次内以用户ID区分
+     */
+    private String generateOrderNumber(LocalDateTime now, Long userId) {
+        return orderNumberPrefix + now.format(DateTimeFormatter.ofPattern("yyyyMMddHHmmss")) + "B" + userId;
+    }
+}
@@ -50,6 +50,18 @@ public class OrderStatisticsServiceImpl implements OrderStatisticsService {
         }
     }
 
+    /**
+     * 供库存对账使用，查询失败不能当作零销量返回
+     */
+    @Override
+    public Map<Long, Integer> getPaidQuantities(Long eventId) {
+        Map<Long, Integer> paid = new HashMap<>();
+        for (Map<String, Object> row : orderMapper.selectTicketTypeSalesStatistics(eventId)) {
+            paid.put(((Number) row.get("ticket_type_id")).longValue(), ((Number) row.get("soldQuantity")).intValue());
+        }
+        return paid;
+    }
+
     @Override
     @Cacheable(value = "order:user:statistics", key = "#userId")
     public Map<String, Object> getUserOrderStatistics(Long userId) {
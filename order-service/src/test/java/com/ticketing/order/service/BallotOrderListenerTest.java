@@ -0,0 +1,102 @@
+package com.ticketing.order.service;
+
+import com.ticketing.common.entity.Order;
+import com.ticketing.common.message.BallotResultMessage;
+import com.ticketing.order.mapper.OrderItemMapper;
+import com.ticketing.order.mapper.OrderMapper;
+import com.ticketing.order.service.impl.BallotOrderListener;
+import org.apache.rocketmq.spring.core.RocketMQTemplate;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class BallotOrderListenerTest {
+
+    @InjectMocks
+    private BallotOrderListener ballotOrderListener;
+
+    @Mock
+    private OrderMapper orderMapper;
+
+    @Mock
+    private OrderItemMapper orderItemMapper;
+
+    @Mock
+    private RocketMQTemplate rocketMQTemplate;
+
+    @Mock
+    private TransactionTemplate transactionTemplate;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        ReflectionTestUtils.setField(ballotOrderListener, "payTimeout", 15);
+        ReflectionTestUtils.setField(ballotOrderListener, "orderNumberPrefix", "T");
+        when(orderMapper.insert(any(Order.class))).thenAnswer(invocation -> {
+            invocation.<Order>getArgument(0).setId(100L);
+            return 1;
+        });
+        doAnswer(invocation -> {
+            invocation.<Consumer<TransactionStatus>>getArgument(0).accept(null);
+            return null;
+        }).when(transactionTemplate).executeWithoutResult(any());
+    }
+
+    @Test
+    void onMessage_SkipsOnlyUsersWithActiveOrderForTicketType() {
+        when(orderMapper.selectOrderedUserIds(1L, 2L, Arrays.asList(10L, 11L)))
+                .thenReturn(Collections.singletonList(10L));
+
+        ballotOrderListener.onMessage(message(
+                new BallotResultMessage.Allocation(10L, 1),
+                new BallotResultMessage.Allocation(11L, 2)));
+
+        ArgumentCaptor<Order> order = ArgumentCaptor.forClass(Order.class);
+        verify(orderMapper).insert(order.capture());
+        assertEquals(11L, order.getValue().getUserId().longValue());
+        assertEquals(2L, order.getValue().getTicketTypeId().longValue());
+        assertEquals(new BigDecimal("200"), order.getValue().getAmount());
+        verify(orderItemMapper).insert(any());
+    }
+
+    @Test
+    void onMessage_CreatesOrdersWhenNoActiveOrders() {
+        when(orderMapper.selectOrderedUserIds(eq(1L), eq(2L), anyList())).thenReturn(Collections.emptyList());
+
+        ballotOrderListener.onMessage(message(
+                new BallotResultMessage.Allocation(10L, 1),
+                new BallotResultMessage.Allocation(11L, 2)));
+
+        verify(orderMapper, times(2)).insert(any(Order.class));
+        verify(orderItemMapper, times(2)).insert(any());
+    }
+
+    @Test
+    void onMessage_IgnoresLosingResults() {
+        BallotResultMessage message = message(new BallotResultMessage.Allocation(10L, 1));
+        message.setWon(false);
+
+        ballotOrderListener.onMessage(message);
+
+        verifyNoInteractions(orderMapper, orderItemMapper, rocketMQTemplate);
+    }
+
+    private BallotResultMessage message(BallotResultMessage.Allocation... allocations) {
+        return new BallotResultMessage("batch-1", 1L, 2L, true, new BigDecimal("100"), Arrays.asList(allocations));
+    }
+}